@@ -39,6 +39,12 @@ public class Main {
             blackPlayer.setTTLogSize(21);
             TUIGame game = new TUIGame(whitePlayer, blackPlayer);
             game.play();
+        } else if ((args.length >= 2) && args[0].equals("testsuite")) {
+            StringBuilder cmd = new StringBuilder();
+            for (int i = 1; i < args.length; i++)
+                cmd.append(args[i]).append(' ');
+            if (TestSuite.command(cmd.toString(), System.out) == null)
+                System.exit(1);
         } else if ((args.length == 2) && args[0].equals("tree")) {
             TreeLogger.main(new String[]{args[1]});
         } else {
@@ -18,22 +18,15 @@
 
 package tui;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.LineNumberReader;
 import java.util.Locale;
 
 import uci.UCIProtocol;
-import chess.ChessParseError;
-import chess.ComputerPlayer;
 import chess.Evaluate;
 import chess.Game;
-import chess.Move;
 import chess.Player;
 import chess.Position;
 import chess.TextIO;
-import chess.TwoReturnValues;
 
 public class TUIGame extends Game {
 
@@ -76,90 +69,19 @@ public class TUIGame extends Game {
         System.out.println("  draw offer move - Play move and offer draw");
         System.out.println("  draw accept     - Accept a draw offer");
         System.out.println("  resign          - Resign the current game");
-        System.out.println("  testsuite filename maxtime");
+        System.out.println("  testsuite filename maxtime [nodes n] [depth d] [threads n] [csv|json]");
+        System.out.println("                  - Solve positions in an EPD file");
         System.out.println("  book on|off     - Turn opening book on/off");
         System.out.println("  time t          - Set computer thinking time, ms");
-        System.out.println("  perft d         - Run perft test to depth d");
+        System.out.println("  perft d [divide] [threads n] [hash mb]");
+        System.out.println("                  - Run perft test to depth d");
         System.out.println("  uci             - Switch to uci protocol.");
         System.out.println("  help            - Show this help");
         System.out.println("  quit            - Terminate program");
     }
 
     private boolean handleTestSuite(String cmd) {
-        LineNumberReader fr = null;
-        try {
-            int idx = cmd.indexOf(" ");
-            String filename = cmd.substring(0, idx);
-            String timeStr = cmd.substring(idx + 1);
-            int timeLimit = Integer.parseInt(timeStr);
-            //            System.out.printf("file:%s time:%s (%d)\n", filename, timeStr, timeLimit);
-            fr = new LineNumberReader(new FileReader(filename));
-            String line;
-            Player pl = whitePlayer.isHumanPlayer() ? blackPlayer : whitePlayer;
-            if (pl.isHumanPlayer()) {
-                System.out.print("No computer player available");
-                return false;
-            }
-            ComputerPlayer cp = (ComputerPlayer)pl;
-            int numRight = 0;
-            int numTotal = 0;
-            while ((line = fr.readLine()) != null) {
-                if (line.startsWith("#") || (line.length() == 0)) {
-                    continue;
-                }
-                int idx1 = line.indexOf(" bm ");
-                String fen = line.substring(0, idx1);
-                int idx2 = line.indexOf(";", idx1);
-                String bm = line.substring(idx1 + 4, idx2);
-                //                System.out.printf("Line %3d: fen:%s bm:%s\n", fr.getLineNumber(), fen, bm);
-                Position testPos = TextIO.readFEN(fen);
-                cp.clearTT();
-                TwoReturnValues<Move, String> ret = cp.searchPosition(testPos, timeLimit);
-                Move sm = ret.first;
-                String PV = ret.second;
-                Move m = new Move(sm);
-                String[] answers = bm.split(" ");
-                boolean correct = false;
-                for (String a : answers) {
-                    Move am = TextIO.stringToMove(testPos, a);
-                    if (am == null) {
-                        throw new ChessParseError("Invalid move " + a);
-                    }
-                    if (am.equals(m)) {
-                        correct = true;
-                        break;
-                    }
-                }
-                if (correct) {
-                    numRight++;
-                }
-                numTotal++;
-                System.out.printf("%3d : %6s %6d %d %03d/%03d %s : %s\n", fr.getLineNumber(),
-                        TextIO.moveToString(testPos, sm, false), sm.score, correct ? 1 : 0,
-                                numRight, numTotal, bm, PV);
-            }
-            fr.close();
-        } catch (NumberFormatException nfe) {
-            System.out.printf("Number format exception: %s\n", nfe.getMessage());
-            return false;
-        } catch (FileNotFoundException fnfe) {
-            System.out.printf("File not found: %s\n", fnfe.getMessage());
-            return false;
-        } catch (IOException ex) {
-            System.out.printf("IO error: %s\n", ex.getMessage());
-        } catch (ChessParseError | StringIndexOutOfBoundsException cpe) {
-            int lineNo = (fr == null) ? -1 : fr.getLineNumber();
-            System.out.printf("Parse error, line %d: %s\n", lineNo, cpe.getMessage());
-        } finally {
-            if (fr != null) {
-                try {
-                    fr.close();
-                } catch (IOException ex) {
-                    // Stupid FileReader class forces me to catch this meaningless exception
-                }
-            }
-        }
-        return true;
+        return TestSuite.command(cmd, System.out) != null;
     }
 
     /**
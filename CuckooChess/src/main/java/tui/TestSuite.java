@@ -0,0 +1,490 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package tui;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import chess.ChessParseError;
+import chess.History;
+import chess.Move;
+import chess.MoveGen;
+import chess.Position;
+import chess.Search;
+import chess.TextIO;
+import chess.TranspositionTable;
+import chess.UndoInfo;
+
+/**
+ * Solve the positions in an EPD test suite. The positions are distributed
+ * over a number of worker threads, each having its own search engine and
+ * transposition table. The result for each position is printed as soon as
+ * it is available, as text, CSV or JSON lines.
+ */
+public class TestSuite {
+    private static final int ttLog2Size = 20; // 16MB transposition table per worker
+
+    /** Output format for per-position results. */
+    public enum Format { TEXT, CSV, JSON }
+
+    /** A position from an EPD file, with its "bm" and "am" moves. */
+    public static final class TestPos {
+        public int lineNo;
+        public String id = "";
+        public Position pos;
+        public List<Move> bestMoves = new ArrayList<>();
+        public List<Move> avoidMoves = new ArrayList<>();
+        public String expected = ""; // The bm/am operations, as written in the EPD file
+
+        /** Return true if m is a solution to the test position. */
+        public final boolean isSolution(Move m) {
+            if (m == null)
+                return false;
+            if (!bestMoves.isEmpty() && !bestMoves.contains(m))
+                return false;
+            return !avoidMoves.contains(m);
+        }
+    }
+
+    /** Search result for one test position. */
+    public static final class PosResult {
+        public TestPos tp;
+        public Move move;
+        public String pv = "";
+        public int score;
+        public int depth;
+        public long timeMs;
+        public long nodes;
+        public boolean solved;
+        public long solveTimeMs = -1; // Time when the solution was found and kept, or -1
+        public long solveNodes = -1;  // Nodes searched when the solution was found, or -1
+    }
+
+    /** Summary for a test suite run. */
+    public static final class Result {
+        public int numTotal;
+        public int numSolved;
+        public long timeMs;   // Elapsed wall clock time
+        public long nodes;    // Total number of searched nodes
+        long[] solveTimes = new long[0];
+        long[] solveNodes = new long[0];
+
+        /** Return the p:th percentile (0-100) of the time to solution for solved positions. */
+        public final long timePercentile(double p) {
+            return percentile(solveTimes, p);
+        }
+
+        /** Return the p:th percentile (0-100) of the node count to solution for solved positions. */
+        public final long nodePercentile(double p) {
+            return percentile(solveNodes, p);
+        }
+
+        private static long percentile(long[] sorted, double p) {
+            if (sorted.length == 0)
+                return -1;
+            int idx = (int)Math.ceil(p / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(idx, sorted.length - 1))];
+        }
+    }
+
+    // Search limits. A negative value means no limit.
+    private int timeLimit = -1;
+    private long nodeLimit = -1;
+    private int depthLimit = -1;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    private Format format = Format.TEXT;
+    private final PrintStream os;
+
+    private int numDone;
+    private int numSolvedSoFar;
+
+    public TestSuite(PrintStream os) {
+        this.os = os;
+    }
+
+    public final void setTimeLimit(int timeLimit) { this.timeLimit = timeLimit; }
+    public final void setNodeLimit(long nodeLimit) { this.nodeLimit = nodeLimit; }
+    public final void setDepthLimit(int depthLimit) { this.depthLimit = depthLimit; }
+    public final void setNumThreads(int numThreads) { this.numThreads = Math.max(numThreads, 1); }
+    public final void setFormat(Format format) { this.format = format; }
+
+    /**
+     * Handle the arguments of the "testsuite" command:
+     * filename [maxtime] [time ms] [nodes n] [depth d] [threads n] [text|csv|json]
+     * @return The result, or null if the arguments or the EPD file could not be parsed.
+     */
+    public static Result command(String args, PrintStream os) {
+        String[] words = args.trim().split("\\s+");
+        if (words[0].isEmpty()) {
+            os.printf("Missing file name%n");
+            return null;
+        }
+        String filename = words[0];
+        TestSuite ts = new TestSuite(os);
+        try {
+            for (int i = 1; i < words.length; i++) {
+                String w = words[i].toLowerCase(Locale.US);
+                if (w.equals("time") && (i + 1 < words.length)) {
+                    ts.setTimeLimit(Integer.parseInt(words[++i]));
+                } else if (w.equals("nodes") && (i + 1 < words.length)) {
+                    ts.setNodeLimit(Long.parseLong(words[++i]));
+                } else if (w.equals("depth") && (i + 1 < words.length)) {
+                    ts.setDepthLimit(Integer.parseInt(words[++i]));
+                } else if (w.equals("threads") && (i + 1 < words.length)) {
+                    ts.setNumThreads(Integer.parseInt(words[++i]));
+                } else if (w.equals("text")) {
+                    ts.setFormat(Format.TEXT);
+                } else if (w.equals("csv")) {
+                    ts.setFormat(Format.CSV);
+                } else if (w.equals("json")) {
+                    ts.setFormat(Format.JSON);
+                } else {
+                    ts.setTimeLimit(Integer.parseInt(w));
+                }
+            }
+        } catch (NumberFormatException nfe) {
+            os.printf("Number format exception: %s%n", nfe.getMessage());
+            return null;
+        }
+        if ((ts.timeLimit < 0) && (ts.nodeLimit < 0) && (ts.depthLimit < 0)) {
+            os.printf("No time, node or depth limit given%n");
+            return null;
+        }
+        List<TestPos> positions;
+        try {
+            positions = readEPD(filename);
+        } catch (IOException ex) {
+            os.printf("IO error: %s%n", ex.getMessage());
+            return null;
+        } catch (ChessParseError cpe) {
+            os.printf("Parse error, %s%n", cpe.getMessage());
+            return null;
+        }
+        return ts.run(positions);
+    }
+
+    /** Read all test positions from an EPD file. */
+    public static List<TestPos> readEPD(String filename) throws IOException, ChessParseError {
+        List<TestPos> ret = new ArrayList<>();
+        try (LineNumberReader fr = new LineNumberReader(new FileReader(filename))) {
+            String line;
+            while ((line = fr.readLine()) != null) {
+                TestPos tp = parseEPD(line, fr.getLineNumber());
+                if (tp != null)
+                    ret.add(tp);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Parse one line from an EPD file.
+     * @return The test position, or null if the line is empty or a comment.
+     */
+    public static TestPos parseEPD(String line, int lineNo) throws ChessParseError {
+        line = line.trim();
+        if (line.startsWith("#") || (line.length() == 0))
+            return null;
+        String[] words = line.split("\\s+");
+        if (words.length < 4)
+            throw new ChessParseError("line " + lineNo + ": Too few fields");
+        StringBuilder fen = new StringBuilder();
+        int nFields = 4;
+        if ((words.length >= 6) && isInteger(words[4]) && isInteger(words[5]))
+            nFields = 6; // Full FEN followed by EPD operations
+        int opStart = 0;
+        for (int i = 0; i < nFields; i++) {
+            if (i > 0)
+                fen.append(' ');
+            fen.append(words[i]);
+            opStart = line.indexOf(words[i], opStart) + words[i].length();
+        }
+        TestPos tp = new TestPos();
+        tp.lineNo = lineNo;
+        try {
+            tp.pos = TextIO.readFEN(fen.toString());
+        } catch (ChessParseError cpe) {
+            throw new ChessParseError("line " + lineNo + ": " + cpe.getMessage());
+        }
+        StringBuilder expected = new StringBuilder();
+        for (String op : splitOperations(line.substring(opStart))) {
+            int idx = op.indexOf(' ');
+            String opCode = (idx < 0) ? op : op.substring(0, idx);
+            String operands = (idx < 0) ? "" : op.substring(idx + 1).trim();
+            if (opCode.equals("bm") || opCode.equals("am")) {
+                List<Move> moves = opCode.equals("bm") ? tp.bestMoves : tp.avoidMoves;
+                for (String s : operands.split("\\s+")) {
+                    Move m = TextIO.stringToMove(tp.pos, s);
+                    if (m == null)
+                        throw new ChessParseError("line " + lineNo + ": Invalid move " + s);
+                    moves.add(m);
+                }
+                if (expected.length() > 0)
+                    expected.append("; ");
+                expected.append(op);
+            } else if (opCode.equals("id")) {
+                tp.id = operands.replaceAll("^\"|\"$", "");
+            }
+        }
+        if (tp.bestMoves.isEmpty() && tp.avoidMoves.isEmpty())
+            throw new ChessParseError("line " + lineNo + ": No bm or am operation");
+        tp.expected = expected.toString();
+        return tp;
+    }
+
+    /** Split EPD operations separated by ";", ignoring ";" in quoted strings. */
+    private static List<String> splitOperations(String ops) {
+        List<String> ret = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < ops.length(); i++) {
+            char c = ops.charAt(i);
+            if (c == '"')
+                quoted = !quoted;
+            if ((c == ';') && !quoted) {
+                String op = sb.toString().trim();
+                if (op.length() > 0)
+                    ret.add(op);
+                sb.setLength(0);
+            } else {
+                sb.append(c);
+            }
+        }
+        String op = sb.toString().trim();
+        if (op.length() > 0)
+            ret.add(op);
+        return ret;
+    }
+
+    private static boolean isInteger(String s) {
+        try {
+            Integer.parseInt(s);
+            return true;
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+    }
+
+    /** Solve all test positions and print the results. */
+    public final Result run(final List<TestPos> positions) {
+        numDone = 0;
+        numSolvedSoFar = 0;
+        final PosResult[] results = new PosResult[positions.size()];
+        final AtomicInteger nextPos = new AtomicInteger(0);
+        int nThreads = Math.min(numThreads, Math.max(positions.size(), 1));
+        if (format == Format.CSV)
+            os.printf("line,id,expected,move,solved,score,depth,time,nodes,solvetime,solvenodes%n");
+        long t0 = System.currentTimeMillis();
+        Thread[] threads = new Thread[nThreads];
+        for (int i = 0; i < nThreads; i++) {
+            threads[i] = new Thread(() -> {
+                TranspositionTable tt = new TranspositionTable(ttLog2Size);
+                while (true) {
+                    int idx = nextPos.getAndIncrement();
+                    if (idx >= positions.size())
+                        break;
+                    PosResult r = solve(positions.get(idx), tt);
+                    results[idx] = r;
+                    printResult(r);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        long t1 = System.currentTimeMillis();
+
+        Result res = new Result();
+        res.timeMs = t1 - t0;
+        List<PosResult> solved = new ArrayList<>();
+        for (PosResult r : results) {
+            if (r == null)
+                continue;
+            res.numTotal++;
+            res.nodes += r.nodes;
+            if (r.solved)
+                solved.add(r);
+        }
+        res.numSolved = solved.size();
+        res.solveTimes = new long[solved.size()];
+        res.solveNodes = new long[solved.size()];
+        for (int i = 0; i < solved.size(); i++) {
+            res.solveTimes[i] = solved.get(i).solveTimeMs;
+            res.solveNodes[i] = solved.get(i).solveNodes;
+        }
+        Arrays.sort(res.solveTimes);
+        Arrays.sort(res.solveNodes);
+        printSummary(res, nThreads);
+        return res;
+    }
+
+    /** Search a test position and record when the solution was found. */
+    private PosResult solve(final TestPos tp, TranspositionTable tt) {
+        final PosResult r = new PosResult();
+        r.tp = tp;
+        Position pos = new Position(tp.pos);
+        tt.clear();
+        Search sc = new Search(pos, new long[200], 0, tt, new History());
+        sc.setListener(new Search.Listener() {
+            public void notifyDepth(int depth) { }
+            public void notifyCurrMove(Move m, int moveNr) { }
+            public void notifyPV(int depth, int pvNum, int score, int time, long nodes, int nps,
+                                 boolean isMate, boolean upperBound, boolean lowerBound,
+                                 ArrayList<Move> pv) {
+                if ((pvNum != 1) || pv.isEmpty())
+                    return;
+                r.depth = depth;
+                if (tp.isSolution(pv.get(0))) {
+                    if (r.solveTimeMs < 0) {
+                        r.solveTimeMs = time;
+                        r.solveNodes = nodes;
+                    }
+                } else {
+                    r.solveTimeMs = -1;
+                    r.solveNodes = -1;
+                }
+            }
+            public void notifyStats(long nodes, int nps, int time) { }
+        });
+        MoveGen.MoveList moves = new MoveGen().pseudoLegalMoves(pos);
+        MoveGen.removeIllegal(pos, moves);
+        sc.timeLimit(timeLimit, timeLimit);
+        long t0 = System.currentTimeMillis();
+        Move m = sc.iterativeDeepening(moves, depthLimit, nodeLimit, false);
+        long t1 = System.currentTimeMillis();
+        r.timeMs = t1 - t0;
+        r.nodes = sc.getTotalNodes();
+        r.move = m;
+        if (m != null) {
+            r.score = m.score;
+            UndoInfo ui = new UndoInfo();
+            r.pv = TextIO.moveToString(pos, m, false);
+            pos.makeMove(m, ui);
+            r.pv += " " + tt.extractPV(pos);
+            pos.unMakeMove(m, ui);
+        }
+        r.solved = tp.isSolution(m);
+        if (!r.solved) {
+            r.solveTimeMs = -1;
+            r.solveNodes = -1;
+        } else if (r.solveTimeMs < 0) {
+            r.solveTimeMs = r.timeMs;
+            r.solveNodes = r.nodes;
+        }
+        return r;
+    }
+
+    private void printResult(PosResult r) {
+        String moveStr = (r.move != null) ? TextIO.moveToString(r.tp.pos, r.move, false) : "-";
+        synchronized (os) {
+            numDone++;
+            if (r.solved)
+                numSolvedSoFar++;
+            switch (format) {
+            case TEXT:
+                os.printf(Locale.US, "%3d : %6s %6d %d %03d/%03d %s : %s%n", r.tp.lineNo,
+                          moveStr, r.score, r.solved ? 1 : 0, numSolvedSoFar, numDone,
+                          r.tp.expected, r.pv.trim());
+                break;
+            case CSV:
+                os.printf(Locale.US, "%d,%s,%s,%s,%d,%d,%d,%d,%d,%d,%d%n", r.tp.lineNo,
+                          csvString(r.tp.id), csvString(r.tp.expected), csvString(moveStr),
+                          r.solved ? 1 : 0, r.score, r.depth, r.timeMs, r.nodes,
+                          r.solveTimeMs, r.solveNodes);
+                break;
+            case JSON:
+                os.printf(Locale.US, "{\"line\":%d,\"id\":%s,\"fen\":%s,\"expected\":%s,\"move\":%s," +
+                          "\"solved\":%b,\"score\":%d,\"depth\":%d,\"time\":%d,\"nodes\":%d," +
+                          "\"solveTime\":%d,\"solveNodes\":%d,\"pv\":%s}%n", r.tp.lineNo,
+                          jsonString(r.tp.id), jsonString(TextIO.toFEN(r.tp.pos)),
+                          jsonString(r.tp.expected), jsonString(moveStr), r.solved, r.score,
+                          r.depth, r.timeMs, r.nodes, r.solveTimeMs, r.solveNodes,
+                          jsonString(r.pv.trim()));
+                break;
+            }
+            os.flush();
+        }
+    }
+
+    private void printSummary(Result res, int nThreads) {
+        double solvedPct = res.numSolved * 100.0 / Math.max(res.numTotal, 1);
+        long nps = (res.timeMs > 0) ? res.nodes * 1000 / res.timeMs : 0;
+        if (format == Format.JSON) {
+            os.printf(Locale.US, "{\"summary\":{\"total\":%d,\"solved\":%d,\"solvedPercent\":%.2f," +
+                      "\"threads\":%d,\"time\":%d,\"nodes\":%d,\"nps\":%d," +
+                      "\"solveTimeP50\":%d,\"solveTimeP90\":%d,\"solveTimeP99\":%d,\"solveTimeMax\":%d," +
+                      "\"solveNodesP50\":%d,\"solveNodesP90\":%d,\"solveNodesP99\":%d,\"solveNodesMax\":%d}}%n",
+                      res.numTotal, res.numSolved, solvedPct, nThreads, res.timeMs, res.nodes, nps,
+                      res.timePercentile(50), res.timePercentile(90), res.timePercentile(99),
+                      res.timePercentile(100), res.nodePercentile(50), res.nodePercentile(90),
+                      res.nodePercentile(99), res.nodePercentile(100));
+        } else {
+            String prefix = (format == Format.CSV) ? "# " : ""; // Keep CSV output parsable
+            os.printf(Locale.US, "%sSolved %d/%d (%.1f%%), threads %d, time %d ms, nodes %d, nps %d%n",
+                      prefix, res.numSolved, res.numTotal, solvedPct, nThreads, res.timeMs, res.nodes, nps);
+            os.printf(Locale.US, "%sTime to solution  (ms): p50 %d p90 %d p99 %d max %d%n",
+                      prefix, res.timePercentile(50), res.timePercentile(90), res.timePercentile(99),
+                      res.timePercentile(100));
+            os.printf(Locale.US, "%sNodes to solution     : p50 %d p90 %d p99 %d max %d%n",
+                      prefix, res.nodePercentile(50), res.nodePercentile(90), res.nodePercentile(99),
+                      res.nodePercentile(100));
+        }
+        os.flush();
+    }
+
+    private static String csvString(String s) {
+        if ((s.indexOf(',') < 0) && (s.indexOf('"') < 0) && (s.indexOf('\n') < 0))
+            return s;
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String jsonString(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '"':  sb.append("\\\""); break;
+            case '\\': sb.append("\\\\"); break;
+            case '\n': sb.append("\\n"); break;
+            case '\r': sb.append("\\r"); break;
+            case '\t': sb.append("\\t"); break;
+            default:
+                if (c < 0x20)
+                    sb.append(String.format("\\u%04x", (int)c));
+                else
+                    sb.append(c);
+            }
+        }
+        sb.append('"');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package uci;
+
+import chess.BenchPositions;
+import chess.ChessParseError;
+import chess.History;
+import chess.Move;
+import chess.MoveGen;
+import chess.Position;
+import chess.Search;
+import chess.TextIO;
+import chess.TranspositionTable;
+import java.io.PrintStream;
+
+/**
+ * Search a fixed set of positions and report the node count and speed.
+ * The search is single threaded and starts from empty hash tables for each
+ * position, so the total node count only depends on the search algorithm
+ * and can be used as a signature to detect changes in search behavior.
+ * UCI options do not affect the result. Tablebase probing is disabled, and
+ * the remaining search settings use the Search defaults.
+ */
+public class Bench {
+    public static final int defaultDepth = 10;
+    private static final int ttLog2Size = 20; // 16MB transposition table
+
+    /** Result of a benchmark run. */
+    public static final class Result {
+        public long nodes;    // Total number of searched nodes
+        public long timeMs;   // Total search time in milliseconds
+
+        public final long nps() {
+            return timeMs > 0 ? nodes * 1000 / timeMs : 0;
+        }
+    }
+
+    /**
+     * Run the benchmark.
+     * @param depth  Search depth limit for each position, or -1 for no limit.
+     * @param nodes  Node limit for each position, or -1 for no limit.
+     * @param os     If non-null, print per-position and total results.
+     */
+    public static Result run(int depth, long nodes, PrintStream os) {
+        if ((depth < 0) && (nodes < 0))
+            depth = defaultDepth;
+        TranspositionTable tt = new TranspositionTable(ttLog2Size);
+        MoveGen moveGen = new MoveGen();
+        Result res = new Result();
+        String[] fens = BenchPositions.fens;
+        for (int i = 0; i < fens.length; i++) {
+            Position pos;
+            try {
+                pos = TextIO.readFEN(fens[i]);
+            } catch (ChessParseError ex) {
+                throw new RuntimeException(ex);
+            }
+            tt.clear();
+            Search sc = new Search(pos, new long[200], 0, tt, new History());
+            sc.setTBProbeLimit(0);
+            MoveGen.MoveList moves = moveGen.pseudoLegalMoves(pos);
+            MoveGen.removeIllegal(pos, moves);
+            long t0 = System.currentTimeMillis();
+            Move m = sc.iterativeDeepening(moves, depth, nodes, false);
+            long t1 = System.currentTimeMillis();
+            long n = sc.getTotalNodes();
+            res.nodes += n;
+            res.timeMs += t1 - t0;
+            if (os != null)
+                os.printf("Position %2d/%d: bestmove %s nodes %d%n", i + 1, fens.length,
+                          (m != null) ? TextIO.moveToUCIString(m) : "(none)", n);
+        }
+        if (os != null) {
+            os.printf("===========================%n");
+            os.printf("Total time (ms) : %d%n", res.timeMs);
+            os.printf("Nodes searched  : %d%n", res.nodes);
+            os.printf("Nodes/second    : %d%n", res.nps());
+        }
+        return res;
+    }
+}
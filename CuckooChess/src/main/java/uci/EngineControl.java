@@ -21,12 +21,16 @@ package uci;
 import chess.Book;
 import chess.ComputerPlayer;
 import chess.History;
+import chess.MateSolver;
 import chess.Move;
 import chess.MoveGen;
 import chess.Parameters;
 import chess.Piece;
 import chess.Position;
 import chess.Search;
+import chess.SearchStats;
+import chess.SearchThreads;
+import chess.Syzygy;
 import chess.TextIO;
 import chess.TranspositionTable;
 import chess.Parameters.CheckParam;
@@ -36,7 +40,11 @@ import chess.Parameters.SpinParam;
 import chess.Parameters.StringParam;
 import chess.TranspositionTable.TTEntry;
 import chess.UndoInfo;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
@@ -45,9 +53,15 @@ import java.util.Random;
 public class EngineControl {
     private PrintStream os;
 
-    private Thread engineThread;
+    private Thread engineThread;        // Search worker thread, created when first needed
     private final Object threadMutex;
+    private Runnable pendingSearch;     // Search waiting to be started by the worker thread
+    private boolean searchActive;       // True until bestmove has been sent for the current search
+    private boolean shutdown;           // True when the worker thread shall terminate
     private Search sc;
+    private final SearchThreads searchThreads; // Evaluation hash tables and helper threads, kept between searches
+    private MateSolver ms;              // Non-null while a "go mate" search runs the mate solver
+    private MateSolver mateSolver;      // Created when first needed, reused by later "go mate" searches
     private TranspositionTable tt;
     private History ht;
     private MoveGen moveGen;
@@ -63,10 +77,19 @@ public class EngineControl {
     private int maxTimeLimit;
     private int maxDepth;
     private int maxNodes;
+    private int mateMoves;      // Moves to mate for "go mate", or 0
     private List<Move> searchMoves;
 
     // Options
     private int hashSizeMB = 16;
+    private int mateHashSizeMB = 16;
+    private String hashFile = "";
+    private boolean persistentHash = false;
+    private boolean searchStatistics = false;
+    private String statisticsFile = "";
+    private int numThreads = 1;
+    private int multiPV = 1;
+    private int tbProbeLimit = 6;
     private boolean ownBook = false;
     private boolean analyseMode = false;
     private boolean ponderMode = true;
@@ -96,7 +119,7 @@ public class EngineControl {
             os.printf("info currmove %s currmovenumber %d%n", moveToString(m), moveNr);
         }
 
-        public void notifyPV(int depth, int score, int time, long nodes, int nps, boolean isMate,
+        public void notifyPV(int depth, int pvNum, int score, int time, long nodes, int nps, boolean isMate,
                 boolean upperBound, boolean lowerBound, ArrayList<Move> pv) {
             StringBuilder pvBuf = new StringBuilder();
             for (Move m : pv) {
@@ -109,8 +132,8 @@ public class EngineControl {
             } else if (lowerBound) {
                 bound = " lowerbound";
             }
-            os.printf("info depth %d score %s %d%s time %d nodes %d nps %d pv%s%n",
-                    depth, isMate ? "mate" : "cp", score, bound, time, nodes, nps, pvBuf.toString());
+            os.printf("info depth %d multipv %d score %s %d%s time %d nodes %d nps %d pv%s%n",
+                    depth, pvNum, isMate ? "mate" : "cp", score, bound, time, nodes, nps, pvBuf.toString());
         }
 
         public void notifyStats(long nodes, int nps, int time) {
@@ -121,6 +144,7 @@ public class EngineControl {
     public EngineControl(PrintStream os) {
         this.os = os;
         threadMutex = new Object();
+        searchThreads = new SearchThreads();
         setupTT();
         ht = new History();
         moveGen = new MoveGen();
@@ -155,8 +179,11 @@ public class EngineControl {
             }
             mySearch.timeLimit(minTimeLimit, maxTimeLimit);
         }
-        infinite = (maxTimeLimit < 0) && (maxDepth < 0) && (maxNodes < 0);
-        ponder = false;
+        synchronized (threadMutex) {
+            infinite = (maxTimeLimit < 0) && (maxDepth < 0) && (maxNodes < 0);
+            ponder = false;
+            threadMutex.notifyAll();
+        }
     }
 
     final public void stopSearch() {
@@ -165,7 +192,8 @@ public class EngineControl {
 
     final public void newGame() {
         randomSeed = new Random().nextLong();
-        tt.clear();
+        if (!persistentHash)
+            tt.clear();
         ht.init();
     }
 
@@ -177,6 +205,7 @@ public class EngineControl {
         maxTimeLimit = -1;
         maxDepth = -1;
         maxNodes = -1;
+        mateMoves = 0;
         if (sPar.infinite) {
             minTimeLimit = -1;
             maxTimeLimit = -1;
@@ -185,6 +214,7 @@ public class EngineControl {
             maxDepth = sPar.depth;
         } else if (sPar.mate > 0) {
             maxDepth = sPar.mate * 2 - 1;
+            mateMoves = sPar.mate;
         } else if (sPar.moveTime > 0) {
             minTimeLimit = maxTimeLimit = sPar.moveTime;
         } else if (sPar.nodes > 0) {
@@ -225,13 +255,24 @@ public class EngineControl {
 
     private void startThread(final int minTimeLimit, final int maxTimeLimit,
                              int maxDepth, final int maxNodes) {
-        synchronized (threadMutex) {} // Must not start new search until old search is finished
-        sc = new Search(pos, posHashList, posHashListSize, tt, ht);
+        synchronized (threadMutex) { // Must not start new search until old search is finished
+            while (searchActive) {
+                try {
+                    threadMutex.wait();
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException();
+                }
+            }
+        }
+        sc = new Search(pos, posHashList, posHashListSize, tt, ht, searchThreads);
         sc.timeLimit(minTimeLimit, maxTimeLimit);
         sc.setListener(new SearchListener(os));
+        sc.setMultiPV(multiPV);
+        sc.setTBProbeLimit(tbProbeLimit);
         sc.setStrength(getStrength(), randomSeed, getMaxNPS());
-        MoveGen.MoveList moves = moveGen.pseudoLegalMoves(pos);
-        MoveGen.removeIllegal(pos, moves);
+        sc.setNumThreads(numThreads);
+        sc.setStatistics(searchStatistics);
+        MoveGen.MoveList moves = moveGen.legalMoves(pos);
         if ((searchMoves != null) && (searchMoves.size() > 0))
             moves.filter(searchMoves);
         final MoveGen.MoveList srchMoves = moves;
@@ -244,60 +285,152 @@ public class EngineControl {
         }
         tt.nextGeneration();
         final int srchmaxDepth = maxDepth;
-        engineThread = new Thread(() -> {
+        final int srchMateMoves = ponder ? 0 : mateMoves;
+        final MateSolver solver = (srchMateMoves > 0) ? getMateSolver(pos) : null;
+        ms = solver;
+        final Runnable run = () -> {
             Move m = null;
-            if (ownBook && !analyseMode) {
-                Book book = new Book(false);
-                m = book.getBookMove(pos);
-            }
-            if (m == null) {
-                m = sc.iterativeDeepening(srchMoves, srchmaxDepth, maxNodes, false);
-            }
-            while (ponder || infinite) {
-                // We should not respond until told to do so. Just wait until
-                // we are allowed to respond.
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException ex) {
-                    break;
+            Move ponderMove = null;
+            try {
+                if (ownBook && !analyseMode) {
+                    Book book = new Book(false);
+                    m = book.getBookMove(pos);
                 }
+                if ((m == null) && (srchMateMoves > 0))
+                    m = solveMate(solver, srchMoves, srchMateMoves);
+                if (m == null) {
+                    m = sc.iterativeDeepening(srchMoves, srchmaxDepth, maxNodes, false);
+                    reportStatistics(sc.getStatistics());
+                }
+                ponderMove = getPonderMove(pos, m);
+            } finally {
+                // Always report a move and end the search, so that startThread()
+                // and stopThread() don't wait forever if the search fails
+                synchronized (threadMutex) {
+                    while (ponder || infinite) {
+                        // We should not respond until told to do so. Just wait until
+                        // we are allowed to respond.
+                        try {
+                            threadMutex.wait();
+                        } catch (InterruptedException ex) {
+                            break;
+                        }
+                    }
+                    if (ponderMove != null) {
+                        os.printf("bestmove %s ponder %s%n", moveToString(m), moveToString(ponderMove));
+                    } else {
+                        os.printf("bestmove %s%n", moveToString(m));
+                    }
+                    sc = null;
+                    ms = null;
+                    searchActive = false;
+                    threadMutex.notifyAll();
+                }
+            }
+        };
+        synchronized (threadMutex) {
+            pendingSearch = run;
+            searchActive = true;
+            if ((engineThread == null) || !engineThread.isAlive()) {
+                engineThread = new Thread(this::workerLoop, "searcher");
+                engineThread.setDaemon(true);
+                engineThread.start();
             }
-            Move ponderMove = getPonderMove(pos, m);
+            threadMutex.notifyAll();
+        }
+    }
+
+    /**
+     * Search for a mate in at most mateIn moves using the proof-number mate solver.
+     * @return The first move of the mate, or null if no mate was proven.
+     */
+    private Move solveMate(MateSolver solver, MoveGen.MoveList srchMoves, int mateIn) {
+        long t0 = System.currentTimeMillis();
+        int n = solver.solve(srchMoves, mateIn);
+        if (n <= 0)
+            return null;
+        long time = System.currentTimeMillis() - t0;
+        long nodes = solver.getNodes();
+        long nps = (time > 0) ? (nodes * 1000 / time) : 0;
+        ArrayList<Move> pv = solver.getPV();
+        StringBuilder pvBuf = new StringBuilder();
+        for (Move m : pv) {
+            pvBuf.append(" ");
+            pvBuf.append(moveToString(m));
+        }
+        os.printf("info depth %d score mate %d time %d nodes %d nps %d pv%s%n",
+                  n * 2 - 1, n, time, nodes, nps, pvBuf.toString());
+        return pv.isEmpty() ? null : pv.get(0);
+    }
+
+    /**
+     * Return the mate solver, set up to solve pos. The solver and its node table
+     * are only allocated the first time and when the MateHash option changes.
+     */
+    private MateSolver getMateSolver(Position pos) {
+        if (mateSolver == null) {
+            long nEntries = (long)mateHashSizeMB * (1 << 20) / 16;
+            int logSize = Math.max(10, (int)Math.floor(Math.log(nEntries) / Math.log(2)));
+            mateSolver = new MateSolver(logSize);
+        }
+        mateSolver.setPosition(pos);
+        return mateSolver;
+    }
+
+    /** Run searches posted by startThread() until shutdown() is called. */
+    private void workerLoop() {
+        while (true) {
+            Runnable job;
             synchronized (threadMutex) {
-                if (ponderMove != null) {
-                    os.printf("bestmove %s ponder %s%n", moveToString(m), moveToString(ponderMove));
-                } else {
-                    os.printf("bestmove %s%n", moveToString(m));
+                while ((pendingSearch == null) && !shutdown) {
+                    try {
+                        threadMutex.wait();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
                 }
-                engineThread = null;
-                sc = null;
+                if (pendingSearch == null)
+                    return;
+                job = pendingSearch;
+                pendingSearch = null;
             }
-        });
-        engineThread.start();
+            job.run();
+        }
     }
 
     private void stopThread() {
-        Thread myThread;
-        Search mySearch;
         synchronized (threadMutex) {
-            myThread = engineThread;
-            mySearch = sc;
-        }
-        if (myThread != null) {
-            mySearch.timeLimit(0, 0);
+            if (!searchActive)
+                return;
+            sc.timeLimit(0, 0);
+            if (ms != null)
+                ms.stop();
             infinite = false;
             ponder = false;
-            try {
-                myThread.join();
-            } catch (InterruptedException ex) {
-                throw new RuntimeException();
+            threadMutex.notifyAll();
+            while (searchActive) {
+                try {
+                    threadMutex.wait();
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException();
+                }
             }
         }
     }
 
+    /** Stop the current search, if any, and terminate the search worker and helper threads. */
+    final public void shutdown() {
+        stopThread();
+        synchronized (threadMutex) {
+            shutdown = true;
+            threadMutex.notifyAll();
+        }
+        searchThreads.stopThreads();
+    }
+
 
     private void setupTT() {
-        int nEntries = hashSizeMB > 0 ? hashSizeMB * (1 << 20) / 24 : 1024;
+        int nEntries = hashSizeMB > 0 ? (int)((long)hashSizeMB * (1 << 20) / TranspositionTable.bytesPerEntry) : 1024;
         int logSize = (int) Math.floor(Math.log(nEntries) / Math.log(2));
         tt = new TranspositionTable(logSize);
     }
@@ -325,8 +458,7 @@ public class EngineControl {
         if (ent.type != TTEntry.T_EMPTY) {
             ret = new Move(0, 0, 0);
             ent.getMove(ret);
-            MoveGen.MoveList moves = moveGen.pseudoLegalMoves(pos);
-            MoveGen.removeIllegal(pos, moves);
+            MoveGen.MoveList moves = moveGen.legalMoves(pos);
             boolean contains = false;
             for (int mi = 0; mi < moves.size; mi++)
                 if (moves.m[mi].equals(ret)) {
@@ -370,6 +502,18 @@ public class EngineControl {
 
     static void printOptions(PrintStream os) {
         os.println("option name Hash type spin default 16 min 1 max 2048");
+        os.println("option name MateHash type spin default 16 min 1 max 1024");
+        os.println("option name HashFile type string default <empty>");
+        os.println("option name HashSave type button");
+        os.println("option name HashLoad type button");
+        os.println("option name HashMerge type button");
+        os.println("option name PersistentHash type check default false");
+        os.println("option name Threads type spin default 1 min 1 max 64");
+        os.println("option name SearchStatistics type check default false");
+        os.println("option name SearchStatisticsFile type string default <empty>");
+        os.println("option name MultiPV type spin default 1 min 1 max 256");
+        os.println("option name SyzygyPath type string default <empty>");
+        os.println("option name SyzygyProbeLimit type spin default 6 min 0 max 6");
         os.println("option name OwnBook type check default false");
         os.println("option name Ponder type check default true");
         os.println("option name UCI_AnalyseMode type check default false");
@@ -422,6 +566,28 @@ public class EngineControl {
             if (optionName.equals("hash")) {
                 hashSizeMB = Integer.parseInt(optionValue);
                 setupTT();
+            } else if (optionName.equals("matehash")) {
+                mateHashSizeMB = clamp(Integer.parseInt(optionValue), 1, 1024);
+                mateSolver = null;
+            } else if (optionName.equals("hashfile")) {
+                hashFile = optionValue.equals("<empty>") ? "" : optionValue;
+            } else if (optionName.equals("hashsave") || optionName.equals("hashload") ||
+                       optionName.equals("hashmerge")) {
+                hashFileOperation(optionName);
+            } else if (optionName.equals("persistenthash")) {
+                persistentHash = Boolean.parseBoolean(optionValue);
+            } else if (optionName.equals("searchstatistics")) {
+                searchStatistics = Boolean.parseBoolean(optionValue);
+            } else if (optionName.equals("searchstatisticsfile")) {
+                statisticsFile = optionValue.equals("<empty>") ? "" : optionValue;
+            } else if (optionName.equals("threads")) {
+                numThreads = clamp(Integer.parseInt(optionValue), 1, 64);
+            } else if (optionName.equals("multipv")) {
+                multiPV = clamp(Integer.parseInt(optionValue), 1, 256);
+            } else if (optionName.equals("syzygypath")) {
+                Syzygy.initialize(optionValue.equals("<empty>") ? "" : optionValue);
+            } else if (optionName.equals("syzygyprobelimit")) {
+                tbProbeLimit = clamp(Integer.parseInt(optionValue), 0, 6);
             } else if (optionName.equals("ownbook")) {
                 ownBook = Boolean.parseBoolean(optionValue);
             } else if (optionName.equals("ponder")) {
@@ -443,6 +609,50 @@ public class EngineControl {
         }
     }
 
+    /**
+     * Print search statistics as an info string, and append them in JSON
+     * format to the statistics file if one has been set.
+     */
+    private void reportStatistics(SearchStats stats) {
+        if (stats == null)
+            return;
+        os.printf("info string %s%n", stats.toString());
+        if (!statisticsFile.isEmpty()) {
+            try (PrintWriter pw = new PrintWriter(new FileWriter(statisticsFile, true))) {
+                pw.println(stats.toJSON());
+            } catch (IOException e) {
+                os.printf("info string Cannot write %s: %s%n", statisticsFile, e.getMessage());
+            }
+        }
+    }
+
+    /** Save, load or merge the transposition table using the current hash file.
+     *  Not allowed while a search is running, because the search threads use the table. */
+    private void hashFileOperation(String op) {
+        if (hashFile.isEmpty()) {
+            os.printf("info string HashFile not set%n");
+            return;
+        }
+        synchronized (threadMutex) {
+            if (searchActive) {
+                os.printf("info string %s not allowed while searching%n", op);
+                return;
+            }
+        }
+        File f = new File(hashFile);
+        try {
+            if (op.equals("hashsave")) {
+                tt.save(f);
+            } else if (op.equals("hashload")) {
+                tt.load(f);
+            } else {
+                tt.merge(f);
+            }
+        } catch (IOException e) {
+            os.printf("info string %s failed: %s%n", op, e.getMessage());
+        }
+    }
+
     private static int[][] eloToStrength = {
         { -625,    0 },
         { -572,   10 },
@@ -21,8 +21,10 @@ package uci;
 import chess.ChessParseError;
 import chess.ComputerPlayer;
 import chess.Move;
+import chess.Perft;
 import chess.Position;
 import chess.TextIO;
+import chess.UndoInfo;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
@@ -97,7 +99,7 @@ public class UCIProtocol {
                     }
                     if ((idx < tokens.length) && tokens[idx++].equals("value")) {
                         while ((idx < tokens.length)) {
-                            optionValue.append(tokens[idx++].toLowerCase());
+                            optionValue.append(tokens[idx++]);
                             optionValue.append(' ');
                         }
                     }
@@ -193,16 +195,48 @@ public class UCIProtocol {
                 engine.stopSearch();
             } else if (cmd.equals("ponderhit")) {
                 engine.ponderHit();
-            } else if (cmd.equals("quit")) {
+            } else if (cmd.equals("bench")) {
                 if (engine != null) {
                     engine.stopSearch();
                 }
+                int depth = -1;
+                long nodes = -1;
+                int idx = 1;
+                while (idx < tokens.length) {
+                    String subCmd = tokens[idx++];
+                    if (subCmd.equals("depth")) {
+                        depth = Integer.parseInt(tokens[idx++]);
+                    } else if (subCmd.equals("nodes")) {
+                        nodes = Long.parseLong(tokens[idx++]);
+                    }
+                }
+                Bench.run(depth, nodes, os);
+            } else if (cmd.equals("perft")) {
+                StringBuilder args = new StringBuilder();
+                for (int i = 1; i < tokens.length; i++) {
+                    args.append(tokens[i]);
+                    args.append(' ');
+                }
+                Perft.perftCommand(currentPosition(), args.toString(), os);
+            } else if (cmd.equals("quit")) {
+                if (engine != null) {
+                    engine.shutdown();
+                }
                 quit = true;
             }
         } catch (ChessParseError | ArrayIndexOutOfBoundsException | NumberFormatException ignore) {
         }
     }
 
+    /** Return the position given by the last "position" command. */
+    private Position currentPosition() throws ChessParseError {
+        Position ret = new Position((pos != null) ? pos : TextIO.readFEN(TextIO.startPosFEN));
+        UndoInfo ui = new UndoInfo();
+        for (Move m : moves)
+            ret.makeMove(m, ui);
+        return ret;
+    }
+
     private void initEngine(PrintStream os) {
         if (engine == null) {
             engine = new EngineControl(os);
@@ -0,0 +1,128 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package tui;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import chess.ChessParseError;
+import chess.TextIO;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TestSuiteTest {
+
+    public TestSuiteTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    /**
+     * Test of parseEPD method, of class TestSuite.
+     */
+    @Test
+    public void testParseEPD() throws ChessParseError {
+        System.out.println("parseEPD");
+        assertNull(TestSuite.parseEPD("", 1));
+        assertNull(TestSuite.parseEPD("# comment", 1));
+
+        TestSuite.TestPos tp = TestSuite.parseEPD(
+                "3k4/8/3K2R1/8/8/8/8/8 w - - bm Rg8#; id \"a;b\";", 7);
+        assertEquals(7, tp.lineNo);
+        assertEquals("a;b", tp.id);
+        assertEquals("bm Rg8#", tp.expected);
+        assertEquals(1, tp.bestMoves.size());
+        assertEquals(TextIO.uciStringToMove("g6g8"), tp.bestMoves.get(0));
+        assertTrue(tp.isSolution(TextIO.uciStringToMove("g6g8")));
+        assertFalse(tp.isSolution(TextIO.uciStringToMove("g6g7")));
+
+        tp = TestSuite.parseEPD(TextIO.startPosFEN + " am f3 g4; bm e4 d4 Nf3;", 1);
+        assertEquals(TextIO.startPosFEN, TextIO.toFEN(tp.pos));
+        assertEquals(2, tp.avoidMoves.size());
+        assertEquals(3, tp.bestMoves.size());
+        assertTrue(tp.isSolution(TextIO.uciStringToMove("e2e4")));
+        assertFalse(tp.isSolution(TextIO.uciStringToMove("f2f3")));
+        assertFalse(tp.isSolution(TextIO.uciStringToMove("c2c4")));
+
+        try {
+            TestSuite.parseEPD("3k4/8/3K2R1/8/8/8/8/8 w - - bm Rh9;", 3);
+            fail();
+        } catch (ChessParseError e) {
+        }
+        try {
+            TestSuite.parseEPD("3k4/8/3K2R1/8/8/8/8/8 w - - id \"x\";", 3);
+            fail();
+        } catch (ChessParseError e) {
+        }
+    }
+
+    /**
+     * Test of run method, of class TestSuite.
+     */
+    @Test
+    public void testRun() throws ChessParseError {
+        System.out.println("run");
+        List<TestSuite.TestPos> positions = new ArrayList<>();
+        positions.add(TestSuite.parseEPD("3k4/8/3K2R1/8/8/8/8/8 w - - bm Rg8#; id \"mate1\";", 1));
+        positions.add(TestSuite.parseEPD("8/1P6/k7/2K5/8/8/8/8 w - - bm b8=Q; id \"mate2\";", 2));
+        positions.add(TestSuite.parseEPD("3k4/8/3K2R1/8/8/8/8/8 w - - am Rg8#; id \"wrong\";", 3));
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        TestSuite ts = new TestSuite(new PrintStream(bos));
+        ts.setDepthLimit(4);
+        ts.setNumThreads(2);
+        ts.setFormat(TestSuite.Format.JSON);
+        TestSuite.Result res = ts.run(positions);
+        assertEquals(3, res.numTotal);
+        assertEquals(2, res.numSolved);
+        assertTrue(res.nodes > 0);
+        assertTrue(res.nodePercentile(50) > 0);
+        assertTrue(res.nodePercentile(100) >= res.nodePercentile(50));
+
+        String[] lines = bos.toString().split("\n");
+        assertEquals(4, lines.length);
+        int nSolved = 0;
+        for (int i = 0; i < 3; i++) {
+            assertTrue(lines[i].startsWith("{\"line\":"));
+            if (lines[i].contains("\"solved\":true"))
+                nSolved++;
+        }
+        assertEquals(2, nSolved);
+        assertTrue(lines[3].startsWith("{\"summary\":{\"total\":3,\"solved\":2,"));
+
+        bos.reset();
+        ts.setFormat(TestSuite.Format.CSV);
+        ts.run(positions);
+        lines = bos.toString().split("\n");
+        assertTrue(lines[0].startsWith("line,id,"));
+        assertEquals(7, lines.length);
+        assertTrue(lines[4].startsWith("# Solved 2/3"));
+    }
+}
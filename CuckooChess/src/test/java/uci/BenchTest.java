@@ -0,0 +1,58 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package uci;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BenchTest {
+
+    public BenchTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    /**
+     * Test of run method, of class Bench.
+     */
+    @Test
+    public void testRun() {
+        System.out.println("run");
+        Bench.Result r1 = Bench.run(4, -1, null);
+        Bench.Result r2 = Bench.run(4, -1, null);
+        assertTrue(r1.nodes > 0);
+        assertEquals(r1.nodes, r2.nodes);
+
+        Bench.Result r3 = Bench.run(5, -1, null);
+        assertTrue(r3.nodes > r1.nodes);
+
+        Bench.Result r4 = Bench.run(-1, 2000, null);
+        Bench.Result r5 = Bench.run(-1, 2000, null);
+        assertEquals(r4.nodes, r5.nodes);
+    }
+}
@@ -0,0 +1,52 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package bench;
+
+import chess.BenchPositions;
+import chess.ChessParseError;
+import chess.Move;
+import chess.MoveGen;
+import chess.Position;
+import chess.TextIO;
+
+/** Positions and moves used by the benchmarks. */
+final class Corpus {
+    /** Return the benchmark positions. */
+    static Position[] positions() {
+        Position[] ret = new Position[BenchPositions.fens.length];
+        try {
+            for (int i = 0; i < ret.length; i++)
+                ret[i] = TextIO.readFEN(BenchPositions.fens[i]);
+        } catch (ChessParseError e) {
+            throw new RuntimeException(e);
+        }
+        return ret;
+    }
+
+    /** Return all legal moves in a position. */
+    static Move[] legalMoves(Position pos) {
+        MoveGen.MoveList moves = new MoveGen().pseudoLegalMoves(pos);
+        MoveGen.removeIllegal(pos, moves);
+        Move[] ret = new Move[moves.size];
+        for (int i = 0; i < moves.size; i++)
+            ret[i] = new Move(moves.m[i]);
+        return ret;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package bench;
+
+import chess.Move;
+import chess.MoveGen;
+import chess.Position;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Move generation for all corpus positions. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveGenBenchmark {
+    private Position[] positions;
+    private Move[][] pseudoLegal;
+    private MoveGen moveGen;
+    private MoveGen.MoveList scratch;
+
+    @Setup
+    public void setup() {
+        positions = Corpus.positions();
+        moveGen = new MoveGen();
+        pseudoLegal = new Move[positions.length][];
+        for (int i = 0; i < positions.length; i++) {
+            MoveGen.MoveList moves = moveGen.pseudoLegalMoves(positions[i]);
+            pseudoLegal[i] = new Move[moves.size];
+            for (int mi = 0; mi < moves.size; mi++)
+                pseudoLegal[i][mi] = new Move(moves.m[mi]);
+        }
+        scratch = moveGen.pseudoLegalMoves(positions[0]);
+    }
+
+    @Benchmark
+    public int pseudoLegalMoves() {
+        int n = 0;
+        for (Position pos : positions) {
+            MoveGen.MoveList moves = moveGen.pseudoLegalMoves(pos);
+            n += moves.size;
+            moveGen.returnMoveList(moves);
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int removeIllegal() {
+        int n = 0;
+        for (int i = 0; i < positions.length; i++) {
+            Move[] moves = pseudoLegal[i];
+            for (int mi = 0; mi < moves.length; mi++)
+                scratch.m[mi].copyFrom(moves[mi]);
+            scratch.size = moves.length;
+            MoveGen.removeIllegal(positions[i], scratch);
+            n += scratch.size;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package bench;
+
+import chess.Move;
+import chess.Position;
+import chess.UndoInfo;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Make and unmake all legal moves in all corpus positions. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PositionBenchmark {
+    private Position[] positions;
+    private Move[][] legalMoves;
+    private UndoInfo ui;
+
+    @Setup
+    public void setup() {
+        positions = Corpus.positions();
+        legalMoves = new Move[positions.length][];
+        for (int i = 0; i < positions.length; i++)
+            legalMoves[i] = Corpus.legalMoves(positions[i]);
+        ui = new UndoInfo();
+    }
+
+    @Benchmark
+    public long makeUnmakeMove() {
+        long hash = 0;
+        for (int i = 0; i < positions.length; i++) {
+            Position pos = positions[i];
+            for (Move m : legalMoves[i]) {
+                pos.makeMove(m, ui);
+                hash ^= pos.zobristHash();
+                pos.unMakeMove(m, ui);
+            }
+        }
+        return hash;
+    }
+}
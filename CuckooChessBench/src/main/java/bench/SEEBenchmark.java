@@ -0,0 +1,82 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package bench;
+
+import chess.History;
+import chess.Move;
+import chess.Piece;
+import chess.Position;
+import chess.Search;
+import chess.TranspositionTable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Static exchange evaluation of all captures in all corpus positions. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SEEBenchmark {
+    private Search[] searches;
+    private Move[][] captures;
+
+    @Setup
+    public void setup() {
+        Position[] positions = Corpus.positions();
+        TranspositionTable tt = new TranspositionTable(10);
+        searches = new Search[positions.length];
+        captures = new Move[positions.length][];
+        for (int i = 0; i < positions.length; i++) {
+            Position pos = positions[i];
+            searches[i] = new Search(pos, new long[200], 0, tt, new History());
+            List<Move> capts = new ArrayList<>();
+            for (Move m : Corpus.legalMoves(pos))
+                if (pos.getPiece(m.to) != Piece.EMPTY)
+                    capts.add(m);
+            captures[i] = capts.toArray(new Move[0]);
+        }
+    }
+
+    @Benchmark
+    public int SEE() {
+        int sum = 0;
+        for (int i = 0; i < searches.length; i++) {
+            Search sc = searches[i];
+            for (Move m : captures[i])
+                sum += sc.SEE(m);
+        }
+        return sum;
+    }
+}
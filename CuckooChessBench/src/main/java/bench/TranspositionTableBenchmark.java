@@ -0,0 +1,93 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package bench;
+
+import chess.Move;
+import chess.Piece;
+import chess.TranspositionTable;
+import chess.TranspositionTable.TTEntry;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Insert and probe a fixed set of random keys in a 64MB transposition table.
+ * The keys are spread over the whole table, which is much larger than the
+ * last level CPU cache, so the probe latency is dominated by memory access.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TranspositionTableBenchmark {
+    private static final int nKeys = 1 << 18;
+
+    private TranspositionTable tt;
+    private long[] keys;
+    private Move move;
+    private TTEntry ent;
+
+    @Setup
+    public void setup() {
+        tt = new TranspositionTable(22);
+        keys = new long[nKeys];
+        Random rnd = new Random(4711);
+        for (int i = 0; i < nKeys; i++)
+            keys[i] = rnd.nextLong();
+        move = new Move(12, 28, Piece.EMPTY);
+        ent = new TTEntry();
+        for (int i = 0; i < nKeys; i += 2) {
+            move.score = i;
+            tt.insert(keys[i], move, TTEntry.T_EXACT, 0, 8 * (i % 20), i);
+        }
+    }
+
+    @Benchmark
+    public void insert() {
+        for (int i = 0; i < nKeys; i++) {
+            move.score = i;
+            tt.insert(keys[i], move, TTEntry.T_GE, 3, 8 * (i % 20), i);
+        }
+    }
+
+    @Benchmark
+    public int probe() {
+        int found = 0;
+        for (int i = 0; i < nKeys; i++) {
+            tt.probe(keys[i], ent);
+            if (ent.type != TTEntry.T_EMPTY)
+                found++;
+        }
+        return found;
+    }
+}
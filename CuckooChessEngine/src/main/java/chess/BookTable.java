@@ -0,0 +1,109 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package chess;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The internal opening book table, created by buildSrc chess.Book.
+ * Entries are sorted by hash key. The table is read from the book.bin
+ * resource the first time it is needed, and then shared by all users.
+ */
+public final class BookTable {
+    private final long[] keys;
+    private final short[] moves;   // from + (to << 6) + (prom << 12)
+    private final short[] counts;  // Unsigned
+
+    private static BookTable instance;
+
+    private BookTable(long[] keys, short[] moves, short[] counts) {
+        this.keys = keys;
+        this.moves = moves;
+        this.counts = counts;
+    }
+
+    /** Get the shared book table, reading it from the book.bin resource if needed. */
+    public static synchronized BookTable getInstance() {
+        if (instance == null)
+            instance = readTable();
+        return instance;
+    }
+
+    private static BookTable readTable() {
+        try (InputStream inStream = BookTable.class.getResourceAsStream("/book.bin")) {
+            if (inStream == null)
+                throw new IOException();
+            DataInputStream dis = new DataInputStream(inStream);
+            int n = dis.readInt();
+            byte[] buf = new byte[n * 8];
+            dis.readFully(buf, 0, n * 8);
+            long[] keys = new long[n];
+            ByteBuffer.wrap(buf, 0, n * 8).asLongBuffer().get(keys);
+            dis.readFully(buf, 0, n * 4);
+            short[] moves = new short[n];
+            ByteBuffer.wrap(buf, 0, n * 2).asShortBuffer().get(moves);
+            short[] counts = new short[n];
+            ByteBuffer.wrap(buf, n * 2, n * 2).asShortBuffer().get(counts);
+            return new BookTable(keys, moves, counts);
+        } catch (IOException ex) {
+            throw new RuntimeException("Can't read opening book resource");
+        }
+    }
+
+    /** Return the number of book entries. */
+    public final int size() {
+        return keys.length;
+    }
+
+    /** Return index of first book entry with key >= hashKey. */
+    public final int lowerBound(long hashKey) {
+        int lo = 0;
+        int hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < hashKey)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /** Return index after last book entry with key == hashKey, starting from index first. */
+    public final int endOfRange(int first, long hashKey) {
+        int end = first;
+        while ((end < keys.length) && (keys[end] == hashKey))
+            end++;
+        return end;
+    }
+
+    /** Return the move of entry idx, encoded as from + (to << 6) + (prom << 12).
+     *  prom is 0 for no promotion, 1-4 for queen, rook, bishop, knight. */
+    public final int getMove(int idx) {
+        return moves[idx];
+    }
+
+    /** Return the number of times the move of entry idx was played. */
+    public final int getCount(int idx) {
+        return counts[idx] & 0xffff;
+    }
+}
@@ -46,6 +46,7 @@ public class ComputerPlayer implements Player {
     private int maxNodes;
     public boolean verbose;
     private TranspositionTable tt;
+    private SearchThreads searchThreads; // Evaluation hash tables, kept between searches
     private Book book;
     private boolean bookEnabled;
     private boolean randomMode;
@@ -58,6 +59,7 @@ public class ComputerPlayer implements Player {
         maxNodes = -1;
         verbose = true;
         setTTLogSize(15);
+        searchThreads = new SearchThreads();
         book = new Book(verbose);
         bookEnabled = true;
         randomMode = false;
@@ -82,11 +84,10 @@ public class ComputerPlayer implements Player {
         }
         tt.nextGeneration();
         History ht = new History();
-        Search sc = new Search(pos, posHashList, posHashListSize, tt, ht);
+        Search sc = new Search(pos, posHashList, posHashListSize, tt, ht, searchThreads);
 
         // Determine all legal moves
-        MoveGen.MoveList moves = new MoveGen().pseudoLegalMoves(pos);
-        MoveGen.removeIllegal(pos, moves);
+        MoveGen.MoveList moves = new MoveGen().legalMoves(pos);
         sc.scoreMoveList(moves, 0);
 
         // Test for "game over"
@@ -189,11 +190,10 @@ public class ComputerPlayer implements Player {
         long[] posHashList = new long[200];
         tt.nextGeneration();
         History ht = new History();
-        Search sc = new Search(pos, posHashList, 0, tt, ht);
+        Search sc = new Search(pos, posHashList, 0, tt, ht, searchThreads);
         
         // Determine all legal moves
-        MoveGen.MoveList moves = new MoveGen().pseudoLegalMoves(pos);
-        MoveGen.removeIllegal(pos, moves);
+        MoveGen.MoveList moves = new MoveGen().legalMoves(pos);
         sc.scoreMoveList(moves, 0);
 
         // Find best move using iterative deepening
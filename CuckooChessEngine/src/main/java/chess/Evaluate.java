@@ -20,6 +20,7 @@ package chess;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
 /** Position evaluation routines. */
 public class Evaluate {
@@ -205,20 +206,19 @@ public class Evaluate {
         long passedPawnsW;     // The most advanced passed pawns for each file
         long passedPawnsB;
     }
-    private static final PawnHashData[] pawnHash;
-    static {
-        final int numEntries = 1<<16;
-        pawnHash = new PawnHashData[numEntries];
-        for (int i = 0; i < numEntries; i++) {
-            PawnHashData phd = new PawnHashData();
-            phd.key = -1; // Non-zero to avoid collision for positions with no pawns
-            phd.score = 0;
-            pawnHash[i] = phd;
-        }
-    }
+    /** Pawn hash table. Entries are created when first used. */
+    private final PawnHashData[] pawnHash;
 
-    private static byte[] kpkTable = null;
-    private static byte[] krkpTable = null;
+    /** King safety hash table, storing the pawn/king part of the king safety evaluation. */
+    private final long[] kingSafetyHashKeys;
+    private final int[] kingSafetyHashScores;
+
+    // Hash table statistics
+    private long pawnHashProbes, pawnHashHits;
+    private long kingSafetyHashProbes, kingSafetyHashHits;
+
+    private static final byte[] kpkTable = readTable("/kpk.bitbase", 2*32*64*48/8);
+    private static final byte[] krkpTable = readTable("/krkp.winmasks", 2*32*48*8);
 
     // King safety variables
     private long wKingZone, bKingZone;       // Squares close to king that are worth attacking
@@ -226,17 +226,52 @@ public class Evaluate {
     private long wAttacksBB, bAttacksBB;
     private long wPawnAttacks, bPawnAttacks; // Squares attacked by white/black pawns
 
-    /** Constructor. */
+    /**
+     * Constructor. Each Evaluate object has its own hash tables, so different
+     * Evaluate objects can be used concurrently by different threads.
+     * The hash table sizes are given by the PawnHashLog2Size and
+     * KingSafetyHashLog2Size parameters.
+     */
     public Evaluate() {
-        if (kpkTable == null)
-            kpkTable = readTable("/kpk.bitbase", 2*32*64*48/8);
-        if (krkpTable == null)
-            krkpTable = readTable("/krkp.winmasks", 2*32*48*8);
+        Parameters par = Parameters.instance();
+        pawnHash = new PawnHashData[1 << par.getIntPar("PawnHashLog2Size")];
+        final int ksEntries = 1 << par.getIntPar("KingSafetyHashLog2Size");
+        kingSafetyHashKeys = new long[ksEntries];
+        Arrays.fill(kingSafetyHashKeys, -1);
+        kingSafetyHashScores = new int[ksEntries];
     }
 
-    private byte[] readTable(String resource, int length) {
+    /** Return true if the hash table sizes match the PawnHashLog2Size and
+     *  KingSafetyHashLog2Size parameters. */
+    final boolean hasCurrentHashSizes() {
+        Parameters par = Parameters.instance();
+        return (pawnHash.length == 1 << par.getIntPar("PawnHashLog2Size")) &&
+               (kingSafetyHashKeys.length == 1 << par.getIntPar("KingSafetyHashLog2Size"));
+    }
+
+    /** Number of pawn hash table lookups since this object was created. */
+    public final long getPawnHashProbes() {
+        return pawnHashProbes;
+    }
+
+    /** Number of pawn hash table lookups that found a matching entry. */
+    public final long getPawnHashHits() {
+        return pawnHashHits;
+    }
+
+    /** Number of king safety hash table lookups since this object was created. */
+    public final long getKingSafetyHashProbes() {
+        return kingSafetyHashProbes;
+    }
+
+    /** Number of king safety hash table lookups that found a matching entry. */
+    public final long getKingSafetyHashHits() {
+        return kingSafetyHashHits;
+    }
+
+    private static byte[] readTable(String resource, int length) {
         byte[] table = new byte[2*32*64*48/8];
-        try (InputStream inStream = getClass().getResourceAsStream(resource)) {
+        try (InputStream inStream = Evaluate.class.getResourceAsStream(resource)) {
             int off = 0;
             while (off < table.length) {
                 int len = inStream.read(table, off, table.length - off);
@@ -464,9 +499,18 @@ public class Evaluate {
 
     private int pawnBonus(Position pos) {
         long key = pos.pawnZobristHash();
-        PawnHashData phd = pawnHash[(int)key & (pawnHash.length - 1)];
+        final int idx = (int)key & (pawnHash.length - 1);
+        PawnHashData phd = pawnHash[idx];
+        if (phd == null) {
+            phd = new PawnHashData();
+            phd.key = -1; // Non-zero to avoid collision for positions with no pawns
+            pawnHash[idx] = phd;
+        }
+        pawnHashProbes++;
         if (phd.key != key)
             computePawnHashData(pos, phd);
+        else
+            pawnHashHits++;
         int score = phd.score;
 
         final int hiMtrl = qV + rV;
@@ -559,6 +603,8 @@ public class Evaluate {
         return score;
     }
 
+    private static final int[] ppBonus = {-1,24,26,30,36,55,100,-1}; // Passed pawn bonus by rank
+
     /** Compute pawn hash data for pos. */
     private void computePawnHashData(Position pos, PawnHashData ph) {
         int score = 0;
@@ -602,7 +648,6 @@ public class Evaluate {
 
         // Evaluate passed pawn bonus, white
         long passedPawnsW = wPawns & ~BitBoard.southFill(bPawns | bPawnAttacks | (wPawns >>> 8));
-        final int[] ppBonus = {-1,24,26,30,36,55,100,-1};
         int passedBonusW = 0;
         if (passedPawnsW != 0) {
             long guardedPassedW = passedPawnsW & (((wPawns & BitBoard.maskBToHFiles) << 7) |
@@ -866,26 +911,13 @@ public class Evaluate {
         return kSafety;
     }
 
-    private static final class KingSafetyHashData {
-        long key;
-        int score;
-    }
-    private static final KingSafetyHashData[] kingSafetyHash;
-    static {
-        final int numEntries = 1 << 15;
-        kingSafetyHash = new KingSafetyHashData[numEntries];
-        for (int i = 0; i < numEntries; i++) {
-            KingSafetyHashData ksh = new KingSafetyHashData();
-            ksh.key = -1;
-            ksh.score = 0;
-            kingSafetyHash[i] = ksh;
-        }
-    }
-
     private int kingSafetyKPPart(Position pos) {
         final long key = pos.pawnZobristHash() ^ pos.kingZobristHash();
-        KingSafetyHashData ksh = kingSafetyHash[(int)key & (kingSafetyHash.length - 1)];
-        if (ksh.key != key) {
+        final int idx = (int)key & (kingSafetyHashKeys.length - 1);
+        kingSafetyHashProbes++;
+        if (kingSafetyHashKeys[idx] == key) {
+            kingSafetyHashHits++;
+        } else {
             int score = 0;
             long wPawns = pos.pieceTypeBB[Piece.WPAWN];
             long bPawns = pos.pieceTypeBB[Piece.BPAWN];
@@ -949,10 +981,10 @@ public class Evaluate {
                 final int kSafety = (safety - 9) * 15 - halfOpenFiles;
                 score -= kSafety;
             }
-            ksh.key = key;
-            ksh.score = score;
+            kingSafetyHashKeys[idx] = key;
+            kingSafetyHashScores[idx] = score;
         }
-        return ksh.score;
+        return kingSafetyHashScores[idx];
     }
 
     /** Implements special knowledge for some endgame situations. */
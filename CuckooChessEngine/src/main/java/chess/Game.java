@@ -145,8 +145,7 @@ public class Game {
      * Get the current state of the game.
      */
     public GameState getGameState() {
-        MoveGen.MoveList moves = new MoveGen().pseudoLegalMoves(pos);
-        MoveGen.removeIllegal(pos, moves);
+        MoveGen.MoveList moves = new MoveGen().legalMoves(pos);
         if (moves.size == 0) {
             if (MoveGen.inCheck(pos)) {
                 return pos.whiteMove ? GameState.BLACK_MATE : GameState.WHITE_MATE;
@@ -277,13 +276,8 @@ public class Game {
             }
         } else if (moveStr.startsWith("perft ")) {
             try {
-                String depthStr = moveStr.substring(moveStr.indexOf(" ") + 1);
-                int depth = Integer.parseInt(depthStr);
-                MoveGen moveGen = new MoveGen();
-                long t0 = System.currentTimeMillis();
-                long nodes = perfT(moveGen, pos, depth);
-                long t1 = System.currentTimeMillis();
-                System.out.printf("perft(%d) = %d, t=%.3fs\n", depth, nodes, (t1 - t0)*1e-3);
+                String perftArgs = moveStr.substring(moveStr.indexOf(" ") + 1);
+                Perft.perftCommand(pos, perftArgs, System.out);
             }
             catch (NumberFormatException nfe) {
                 System.out.printf("Number format exception: %s\n", nfe.getMessage());
@@ -546,8 +540,7 @@ public class Game {
         if (depth == 0)
             return 1;
         long nodes = 0;
-        MoveGen.MoveList moves = moveGen.pseudoLegalMoves(pos);
-        MoveGen.removeIllegal(pos, moves);
+        MoveGen.MoveList moves = moveGen.legalMoves(pos);
         if (depth == 1) {
             int ret = moves.size;
             moveGen.returnMoveList(moves);
@@ -0,0 +1,331 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package chess;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Mate finder based on depth-first proof-number (df-pn) search.
+ * A node is identified by its position and the number of remaining plies, so the
+ * search graph is acyclic. Proof and disproof numbers are kept in a separate
+ * compact hash table, independent of the transposition table used by Search.
+ * @author petero
+ */
+public final class MateSolver {
+    private static final int INF = 100000000;
+    private static final int MAX_PLY = 256;
+
+    private Position pos;
+    private final MoveGen moveGen;
+    private final MoveGen.MoveList[] moveLists;
+    private final long[][] childKeys;
+    private final UndoInfo[] undoInfos;
+
+    // Node table. Two entries per bucket.
+    private final long[] keys;
+    private final int[] phis;
+    private final int[] deltas;
+    private final int mask;
+
+    private volatile boolean stopped;
+    private long nodes;
+    private MoveGen.MoveList rootMoves;
+    private int mateIn;
+
+    /** Create a solver for position pos, using a node table with 2^log2Size entries. */
+    public MateSolver(Position pos, int log2Size) {
+        this(log2Size);
+        setPosition(pos);
+    }
+
+    /**
+     * Create a solver using a node table with 2^log2Size entries.
+     * setPosition() must be called before solve().
+     */
+    public MateSolver(int log2Size) {
+        moveGen = new MoveGen();
+        moveLists = new MoveGen.MoveList[MAX_PLY];
+        childKeys = new long[MAX_PLY][];
+        undoInfos = new UndoInfo[MAX_PLY];
+        for (int i = 0; i < MAX_PLY; i++)
+            undoInfos[i] = new UndoInfo();
+        int size = 1 << log2Size;
+        keys = new long[size];
+        phis = new int[size];
+        deltas = new int[size];
+        mask = size - 2;
+    }
+
+    /** Set the position to solve and clear the node table, so that the solver can be reused. */
+    public final void setPosition(Position pos) {
+        this.pos = new Position(pos);
+        clear();
+        stopped = false;
+        nodes = 0;
+        mateIn = 0;
+    }
+
+    /** Remove all entries from the node table. */
+    public final void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(phis, 0);
+        Arrays.fill(deltas, 0);
+    }
+
+    /** Abort a running solve() call. Can be called from any thread. */
+    public final void stop() {
+        stopped = true;
+    }
+
+    /** Return the number of expanded nodes. */
+    public final long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Search for the shortest mate in at most maxMoves moves.
+     * @param moves Root moves to consider, or null to consider all legal moves.
+     * @return The number of moves to mate, or 0 if there is no mate in maxMoves
+     *         moves or the search was stopped.
+     */
+    public final int solve(MoveGen.MoveList moves, int maxMoves) {
+        rootMoves = moves;
+        mateIn = 0;
+        maxMoves = Math.min(maxMoves, (MAX_PLY - 1) / 2);
+        for (int n = 1; n <= maxMoves; n++) {
+            int depth = n * 2 - 1;
+            mid(0, depth, INF, INF);
+            if (stopped)
+                return 0;
+            int[] pd = lookup(nodeKey(pos.zobristHash(), depth));
+            if ((pd != null) && (pd[0] == 0)) {
+                mateIn = n;
+                return n;
+            }
+        }
+        return 0;
+    }
+
+    /** Return the mating line found by the last successful solve() call. */
+    public final ArrayList<Move> getPV() {
+        ArrayList<Move> pv = new ArrayList<>();
+        if (mateIn <= 0)
+            return pv;
+        ArrayList<UndoInfo> uiList = new ArrayList<>();
+        int depth = mateIn * 2 - 1;
+        for (int ply = 0; depth > 0; ply++, depth--) {
+            MoveGen.MoveList moves = generateMoves(ply, depth);
+            boolean attacker = (depth & 1) != 0;
+            Move best = null;
+            UndoInfo ui = new UndoInfo();
+            for (int mi = 0; mi < moves.size; mi++) {
+                Move m = moves.m[mi];
+                pos.makeMove(m, ui);
+                int[] pd = lookup(nodeKey(pos.zobristHash(), depth - 1));
+                pos.unMakeMove(m, ui);
+                if (attacker ? ((pd != null) && (pd[1] == 0)) : ((pd != null) && (pd[0] == 0))) {
+                    best = new Move(m);
+                    break;
+                }
+            }
+            moveGen.returnMoveList(moves);
+            if (best == null)
+                break;
+            pos.makeMove(best, ui);
+            pv.add(best);
+            uiList.add(ui);
+        }
+        for (int i = pv.size() - 1; i >= 0; i--)
+            pos.unMakeMove(pv.get(i), uiList.get(i));
+        return pv;
+    }
+
+    /**
+     * Expand the current node until phi >= thPhi or delta >= thDelta.
+     * phi/delta are the proof/disproof numbers from the side to move's point of view,
+     * so phi = 0 means the side to move wins. The attacker wins by giving mate
+     * within "depth" plies. The defender wins by surviving that long.
+     */
+    private void mid(int ply, int depth, int thPhi, int thDelta) {
+        nodes++;
+        final long key = nodeKey(pos.zobristHash(), depth);
+        final boolean attacker = (depth & 1) != 0;
+        MoveGen.MoveList moves = generateMoves(ply, depth);
+        if (moves.size == 0) {
+            boolean sideToMoveWins = !attacker && !MoveGen.inCheck(pos);
+            store(key, sideToMoveWins ? 0 : INF, sideToMoveWins ? INF : 0);
+            moveGen.returnMoveList(moves);
+            return;
+        }
+        if (depth == 0) { // Defender has a legal move, so was not mated
+            store(key, 0, INF);
+            moveGen.returnMoveList(moves);
+            return;
+        }
+        moveLists[ply] = moves;
+        long[] cKeys = childKeys[ply];
+        if (cKeys == null)
+            cKeys = childKeys[ply] = new long[256];
+        UndoInfo ui = undoInfos[ply];
+        for (int mi = 0; mi < moves.size; mi++) {
+            Move m = moves.m[mi];
+            pos.makeMove(m, ui);
+            cKeys[mi] = nodeKey(pos.zobristHash(), depth - 1);
+            pos.unMakeMove(m, ui);
+        }
+
+        while (true) {
+            int minDelta = INF;
+            int secondDelta = INF;
+            int sumPhi = 0;
+            int best = -1;
+            int bestPhi = 0;
+            for (int mi = 0; mi < moves.size; mi++) {
+                int[] pd = lookup(cKeys[mi]);
+                int cPhi = (pd != null) ? pd[0] : 1;
+                int cDelta = (pd != null) ? pd[1] : 1;
+                if (cDelta < minDelta) {
+                    secondDelta = minDelta;
+                    minDelta = cDelta;
+                    best = mi;
+                    bestPhi = cPhi;
+                } else if (cDelta < secondDelta) {
+                    secondDelta = cDelta;
+                }
+                if ((cPhi >= INF) || (sumPhi >= INF))
+                    sumPhi = INF;
+                else
+                    sumPhi = Math.min(sumPhi + cPhi, INF - 1);
+            }
+            int phi = minDelta;
+            int delta = sumPhi;
+            if ((phi >= thPhi) || (delta >= thDelta) || stopped) {
+                store(key, phi, delta);
+                break;
+            }
+            int cThPhi = (int)Math.min((long)thDelta - delta + bestPhi, INF);
+            int cThDelta = Math.min(thPhi, secondDelta + 1);
+            Move m = moves.m[best];
+            pos.makeMove(m, ui);
+            mid(ply + 1, depth - 1, cThPhi, cThDelta);
+            pos.unMakeMove(m, ui);
+        }
+        moveLists[ply] = null;
+        moveGen.returnMoveList(moves);
+    }
+
+    /**
+     * Generate the moves to consider in the current position.
+     * The last attacker move must give check, so only checking moves are generated
+     * in that case. When depth is 0, a non-empty list means the defender is not mated.
+     */
+    private MoveGen.MoveList generateMoves(int ply, int depth) {
+        MoveGen.MoveList moves;
+        if ((ply == 0) && (rootMoves != null)) {
+            moves = moveGen.legalMoves(pos);
+            moves.size = 0;
+            for (int mi = 0; mi < rootMoves.size; mi++)
+                moves.m[moves.size++].copyFrom(rootMoves.m[mi]);
+            if (depth == 1)
+                keepChecks(moves);
+        } else if (depth == 1) {
+            moves = moveGen.pseudoLegalCapturesAndChecks(pos);
+            MoveGen.removeIllegal(pos, moves, undoInfos[ply]);
+            keepChecks(moves);
+        } else if (MoveGen.inCheck(pos)) {
+            moves = moveGen.checkEvasions(pos);
+            MoveGen.removeIllegal(pos, moves, undoInfos[ply]);
+        } else {
+            moves = moveGen.legalMoves(pos);
+            if ((depth & 1) != 0)
+                checksFirst(moves);
+        }
+        return moves;
+    }
+
+    /** Remove all non-checking moves from a move list. */
+    private void keepChecks(MoveGen.MoveList moves) {
+        int used = 0;
+        for (int mi = 0; mi < moves.size; mi++) {
+            Move m = moves.m[mi];
+            if (MoveGen.givesCheck(pos, m)) {
+                if (used != mi) {
+                    Move tmp = moves.m[used];
+                    moves.m[used] = m;
+                    moves.m[mi] = tmp;
+                }
+                used++;
+            }
+        }
+        moves.size = used;
+    }
+
+    /** Move checking moves to the front. They are tried first when proof numbers are equal. */
+    private void checksFirst(MoveGen.MoveList moves) {
+        int used = 0;
+        for (int mi = 0; mi < moves.size; mi++) {
+            Move m = moves.m[mi];
+            if (MoveGen.givesCheck(pos, m)) {
+                Move tmp = moves.m[used];
+                moves.m[used] = m;
+                moves.m[mi] = tmp;
+                used++;
+            }
+        }
+    }
+
+    private static long nodeKey(long hash, int depth) {
+        return hash ^ ((depth + 1) * 0x9E3779B97F4A7C15L);
+    }
+
+    private final int[] lookupResult = new int[2];
+
+    /** Return {phi, delta} for a node, or null if not in the table. */
+    private int[] lookup(long key) {
+        int idx = (int)key & mask;
+        if (keys[idx] != key) {
+            idx++;
+            if (keys[idx] != key)
+                return null;
+        }
+        lookupResult[0] = phis[idx];
+        lookupResult[1] = deltas[idx];
+        return lookupResult;
+    }
+
+    /** Store a node. Solved nodes are preferred over unsolved nodes when a bucket is full. */
+    private void store(long key, int phi, int delta) {
+        int idx = (int)key & mask;
+        if (keys[idx] != key) {
+            if (keys[idx + 1] == key)
+                idx++;
+            else if (solved(idx) && (!solved(idx + 1) || (phi == 0) || (delta == 0)))
+                idx++;
+        }
+        keys[idx] = key;
+        phis[idx] = phi;
+        deltas[idx] = delta;
+    }
+
+    private boolean solved(int idx) {
+        return (phis[idx] == 0) || (deltas[idx] == 0);
+    }
+}
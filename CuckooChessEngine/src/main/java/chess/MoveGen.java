@@ -47,7 +47,12 @@ public final class MoveGen {
      * Pseudo-legal means that the moves don't necessarily defend from check threats.
      */
     public final MoveList pseudoLegalMoves(Position pos) {
-        MoveList moveList = getMoveListObj();
+        return pseudoLegalMoves(pos, getMoveListObj());
+    }
+
+    /** Like pseudoLegalMoves(Position), but store the moves in a caller supplied move list. */
+    public final MoveList pseudoLegalMoves(Position pos, MoveList moveList) {
+        moveList.size = 0;
         final long occupied = pos.whiteBB | pos.blackBB;
         if (pos.whiteMove) {
             // Queen moves
@@ -212,7 +217,12 @@ public final class MoveGen {
      * Pseudo-legal means that the moves doesn't necessarily defend from check threats.
      */
     public final MoveList checkEvasions(Position pos) {
-        MoveList moveList = getMoveListObj();
+        return checkEvasions(pos, getMoveListObj());
+    }
+
+    /** Like checkEvasions(Position), but store the moves in a caller supplied move list. */
+    public final MoveList checkEvasions(Position pos, MoveList moveList) {
+        moveList.size = 0;
         final long occupied = pos.whiteBB | pos.blackBB;
         if (pos.whiteMove) {
             long kingThreats = pos.pieceTypeBB[Piece.BKNIGHT] & BitBoard.knightAttacks[pos.wKingSq];
@@ -380,7 +390,12 @@ public final class MoveGen {
 
     /** Generate captures, checks, and possibly some other moves that are too hard to filter out. */
     public final MoveList pseudoLegalCapturesAndChecks(Position pos) {
-        MoveList moveList = getMoveListObj();
+        return pseudoLegalCapturesAndChecks(pos, getMoveListObj());
+    }
+
+    /** Like pseudoLegalCapturesAndChecks(Position), but store the moves in a caller supplied move list. */
+    public final MoveList pseudoLegalCapturesAndChecks(Position pos, MoveList moveList) {
+        moveList.size = 0;
         long occupied = pos.whiteBB | pos.blackBB;
         if (pos.whiteMove) {
             int bKingSq = pos.getKingSq(false);
@@ -600,7 +615,12 @@ public final class MoveGen {
     }
 
     public final MoveList pseudoLegalCaptures(Position pos) {
-        MoveList moveList = getMoveListObj();
+        return pseudoLegalCaptures(pos, getMoveListObj());
+    }
+
+    /** Like pseudoLegalCaptures(Position), but store the moves in a caller supplied move list. */
+    public final MoveList pseudoLegalCaptures(Position pos, MoveList moveList) {
+        moveList.size = 0;
         long occupied = pos.whiteBB | pos.blackBB;
         if (pos.whiteMove) {
             // Queen moves
@@ -714,6 +734,297 @@ public final class MoveGen {
         return moveList;
     }
 
+    /**
+     * Generate and return a list of legal moves.
+     * Pinned pieces and check evasions are handled using bitboard masks,
+     * so unlike removeIllegal() no moves have to be made on the board.
+     */
+    public final MoveList legalMoves(Position pos) {
+        return legalMoves(pos, getMoveListObj());
+    }
+
+    /** Like legalMoves(Position), but store the moves in a caller supplied move list. */
+    public final MoveList legalMoves(Position pos, MoveList moveList) {
+        moveList.size = 0;
+        final boolean wtm = pos.whiteMove;
+        final long occupied = pos.whiteBB | pos.blackBB;
+        final long ownBB = wtm ? pos.whiteBB : pos.blackBB;
+        final long oppBB = wtm ? pos.blackBB : pos.whiteBB;
+        final int kSq = pos.getKingSq(wtm);
+        final long oRookQueen = pos.pieceTypeBB[wtm ? Piece.BROOK : Piece.WROOK] |
+                                pos.pieceTypeBB[wtm ? Piece.BQUEEN : Piece.WQUEEN];
+        final long oBishQueen = pos.pieceTypeBB[wtm ? Piece.BBISHOP : Piece.WBISHOP] |
+                                pos.pieceTypeBB[wtm ? Piece.BQUEEN : Piece.WQUEEN];
+
+        final long checkers = attackersTo(pos, kSq, occupied, !wtm);
+        long pinned = 0;
+        long snipers = (BitBoard.rookAttacks(kSq, oppBB) & oRookQueen) |
+                       (BitBoard.bishopAttacks(kSq, oppBB) & oBishQueen);
+        while (snipers != 0) {
+            int sq = BitBoard.numberOfTrailingZeros(snipers);
+            long between = BitBoard.squaresBetween[kSq][sq] & occupied;
+            if ((between != 0) && ((between & (between-1)) == 0))
+                pinned |= between & ownBB;
+            snipers &= snipers-1;
+        }
+
+        // Squares non-king moves must go to
+        long targets = ~ownBB;
+        if (checkers != 0) {
+            if ((checkers & (checkers-1)) != 0) {
+                targets = 0; // Double check, only king moves possible
+            } else {
+                int sq = BitBoard.numberOfTrailingZeros(checkers);
+                targets = checkers | BitBoard.squaresBetween[kSq][sq];
+            }
+        }
+
+        if (targets != 0) {
+            // Queen moves
+            long squares = pos.pieceTypeBB[wtm ? Piece.WQUEEN : Piece.BQUEEN];
+            while (squares != 0) {
+                int sq = BitBoard.numberOfTrailingZeros(squares);
+                long m = (BitBoard.rookAttacks(sq, occupied) | BitBoard.bishopAttacks(sq, occupied)) & targets;
+                if ((pinned & (1L << sq)) != 0)
+                    m &= pinLine(kSq, sq);
+                addMovesByMask(moveList, pos, sq, m);
+                squares &= squares-1;
+            }
+
+            // Rook moves
+            squares = pos.pieceTypeBB[wtm ? Piece.WROOK : Piece.BROOK];
+            while (squares != 0) {
+                int sq = BitBoard.numberOfTrailingZeros(squares);
+                long m = BitBoard.rookAttacks(sq, occupied) & targets;
+                if ((pinned & (1L << sq)) != 0)
+                    m &= pinLine(kSq, sq);
+                addMovesByMask(moveList, pos, sq, m);
+                squares &= squares-1;
+            }
+
+            // Bishop moves
+            squares = pos.pieceTypeBB[wtm ? Piece.WBISHOP : Piece.BBISHOP];
+            while (squares != 0) {
+                int sq = BitBoard.numberOfTrailingZeros(squares);
+                long m = BitBoard.bishopAttacks(sq, occupied) & targets;
+                if ((pinned & (1L << sq)) != 0)
+                    m &= pinLine(kSq, sq);
+                addMovesByMask(moveList, pos, sq, m);
+                squares &= squares-1;
+            }
+        }
+
+        // King moves
+        {
+            long m = BitBoard.kingAttacks[kSq] & ~ownBB;
+            final long occNoKing = occupied & ~(1L << kSq);
+            while (m != 0) {
+                int sq = BitBoard.numberOfTrailingZeros(m);
+                if (attackersTo(pos, sq, occNoKing, !wtm) == 0)
+                    setMove(moveList, kSq, sq, Piece.EMPTY);
+                m &= m-1;
+            }
+            final int k0 = wtm ? 4 : 60;
+            if ((kSq == k0) && (checkers == 0)) {
+                final long OO_SQ = 0x60L << k0 - 4;
+                final long OOO_SQ = 0xEL << k0 - 4;
+                final int rook = wtm ? Piece.WROOK : Piece.BROOK;
+                if (((pos.getCastleMask() & (1 << (wtm ? Position.H1_CASTLE : Position.H8_CASTLE))) != 0) &&
+                    ((OO_SQ & occupied) == 0) &&
+                    (pos.getPiece(k0 + 3) == rook) &&
+                    (attackersTo(pos, k0 + 1, occupied, !wtm) == 0) &&
+                    (attackersTo(pos, k0 + 2, occupied, !wtm) == 0)) {
+                    setMove(moveList, k0, k0 + 2, Piece.EMPTY);
+                }
+                if (((pos.getCastleMask() & (1 << (wtm ? Position.A1_CASTLE : Position.A8_CASTLE))) != 0) &&
+                    ((OOO_SQ & occupied) == 0) &&
+                    (pos.getPiece(k0 - 4) == rook) &&
+                    (attackersTo(pos, k0 - 1, occupied, !wtm) == 0) &&
+                    (attackersTo(pos, k0 - 2, occupied, !wtm) == 0)) {
+                    setMove(moveList, k0, k0 - 2, Piece.EMPTY);
+                }
+            }
+        }
+
+        if (targets == 0)
+            return moveList;
+
+        // Knight moves. A pinned knight can never move.
+        long knights = pos.pieceTypeBB[wtm ? Piece.WKNIGHT : Piece.BKNIGHT] & ~pinned;
+        while (knights != 0) {
+            int sq = BitBoard.numberOfTrailingZeros(knights);
+            addMovesByMask(moveList, pos, sq, BitBoard.knightAttacks[sq] & targets);
+            knights &= knights-1;
+        }
+
+        // Pawn moves
+        long pawns = pos.pieceTypeBB[wtm ? Piece.WPAWN : Piece.BPAWN];
+        addLegalPawnMoves(moveList, pos, pawns & ~pinned, targets);
+        long pinnedPawns = pawns & pinned;
+        while (pinnedPawns != 0) {
+            int sq = BitBoard.numberOfTrailingZeros(pinnedPawns);
+            addLegalPawnMoves(moveList, pos, 1L << sq, targets & pinLine(kSq, sq));
+            pinnedPawns &= pinnedPawns-1;
+        }
+
+        // En passant. Test by updating the occupancy, since the move removes
+        // two pieces from the king's neighborhood rays.
+        int epSquare = pos.getEpSquare();
+        if (epSquare >= 0) {
+            int capSq = epSquare + (wtm ? -8 : 8);
+            long from = pawns & (wtm ? BitBoard.bPawnAttacks[epSquare] : BitBoard.wPawnAttacks[epSquare]);
+            while (from != 0) {
+                int sq = BitBoard.numberOfTrailingZeros(from);
+                long occ = (occupied & ~(1L << sq) & ~(1L << capSq)) | (1L << epSquare);
+                if (attackersTo(pos, kSq, occ, !wtm) == 0)
+                    setMove(moveList, sq, epSquare, Piece.EMPTY);
+                from &= from-1;
+            }
+        }
+        return moveList;
+    }
+
+    /**
+     * Add legal non-en passant pawn moves for the pawns in "pawns", restricted
+     * to destination squares in "targets".
+     */
+    private static void addLegalPawnMoves(MoveList moveList, Position pos, long pawns, long targets) {
+        final long occupied = pos.whiteBB | pos.blackBB;
+        if (pos.whiteMove) {
+            long m = (pawns << 8) & ~occupied;
+            long m2 = ((m & BitBoard.maskRow3) << 8) & ~occupied;
+            addPawnMovesByMask(moveList, pos, m & targets, -8, true);
+            addPawnDoubleMovesByMask(moveList, pos, m2 & targets, -16);
+            m = (pawns << 7) & BitBoard.maskAToGFiles & pos.blackBB & targets;
+            addPawnMovesByMask(moveList, pos, m, -7, true);
+            m = (pawns << 9) & BitBoard.maskBToHFiles & pos.blackBB & targets;
+            addPawnMovesByMask(moveList, pos, m, -9, true);
+        } else {
+            long m = (pawns >>> 8) & ~occupied;
+            long m2 = ((m & BitBoard.maskRow6) >>> 8) & ~occupied;
+            addPawnMovesByMask(moveList, pos, m & targets, 8, true);
+            addPawnDoubleMovesByMask(moveList, pos, m2 & targets, 16);
+            m = (pawns >>> 9) & BitBoard.maskAToGFiles & pos.whiteBB & targets;
+            addPawnMovesByMask(moveList, pos, m, 9, true);
+            m = (pawns >>> 7) & BitBoard.maskBToHFiles & pos.whiteBB & targets;
+            addPawnMovesByMask(moveList, pos, m, 7, true);
+        }
+    }
+
+    /**
+     * Return the squares on the line through kSq and sq, excluding kSq and sq.
+     * kSq and sq must be on the same rank, file or diagonal.
+     */
+    private static long pinLine(int kSq, int sq) {
+        int d = BitBoard.getDirection(kSq, sq);
+        if ((d == 1) || (d == -1) || (d == 8) || (d == -8))
+            return BitBoard.rookAttacks(kSq, 0) & BitBoard.rookAttacks(sq, 0);
+        return BitBoard.bishopAttacks(kSq, 0) & BitBoard.bishopAttacks(sq, 0);
+    }
+
+    /**
+     * Return a bitboard of all pieces of the given color that attack sq,
+     * assuming "occupied" is the set of occupied squares. Pieces not in
+     * "occupied" are ignored.
+     */
+    private static long attackersTo(Position pos, int sq, long occupied, boolean white) {
+        long atk;
+        if (white) {
+            atk = (BitBoard.knightAttacks[sq] & pos.pieceTypeBB[Piece.WKNIGHT]) |
+                  (BitBoard.kingAttacks[sq] & pos.pieceTypeBB[Piece.WKING]) |
+                  (BitBoard.bPawnAttacks[sq] & pos.pieceTypeBB[Piece.WPAWN]);
+            long bbQueen = pos.pieceTypeBB[Piece.WQUEEN];
+            atk |= BitBoard.bishopAttacks(sq, occupied) & (pos.pieceTypeBB[Piece.WBISHOP] | bbQueen);
+            atk |= BitBoard.rookAttacks(sq, occupied) & (pos.pieceTypeBB[Piece.WROOK] | bbQueen);
+        } else {
+            atk = (BitBoard.knightAttacks[sq] & pos.pieceTypeBB[Piece.BKNIGHT]) |
+                  (BitBoard.kingAttacks[sq] & pos.pieceTypeBB[Piece.BKING]) |
+                  (BitBoard.wPawnAttacks[sq] & pos.pieceTypeBB[Piece.BPAWN]);
+            long bbQueen = pos.pieceTypeBB[Piece.BQUEEN];
+            atk |= BitBoard.bishopAttacks(sq, occupied) & (pos.pieceTypeBB[Piece.BBISHOP] | bbQueen);
+            atk |= BitBoard.rookAttacks(sq, occupied) & (pos.pieceTypeBB[Piece.BROOK] | bbQueen);
+        }
+        return atk & occupied;
+    }
+
+    /**
+     * Return true if m is a pseudo-legal move in position pos, ie if m would
+     * be generated by pseudoLegalMoves().
+     */
+    public static boolean isPseudoLegal(Position pos, Move m) {
+        final int from = m.from;
+        final int to = m.to;
+        if (from == to)
+            return false;
+        int p = pos.getPiece(from);
+        if ((p == Piece.EMPTY) || (Piece.isWhite(p) != pos.whiteMove))
+            return false;
+        final boolean wtm = pos.whiteMove;
+        final long toMask = 1L << to;
+        if (((wtm ? pos.whiteBB : pos.blackBB) & toMask) != 0)
+            return false;
+        final long occupied = pos.whiteBB | pos.blackBB;
+        int pType = Piece.makeWhite(p);
+        if (pType != Piece.WPAWN) {
+            if (m.promoteTo != Piece.EMPTY)
+                return false;
+            switch (pType) {
+            case Piece.WQUEEN:
+                return ((BitBoard.rookAttacks(from, occupied) | BitBoard.bishopAttacks(from, occupied)) & toMask) != 0;
+            case Piece.WROOK:
+                return (BitBoard.rookAttacks(from, occupied) & toMask) != 0;
+            case Piece.WBISHOP:
+                return (BitBoard.bishopAttacks(from, occupied) & toMask) != 0;
+            case Piece.WKNIGHT:
+                return (BitBoard.knightAttacks[from] & toMask) != 0;
+            default: { // King
+                if ((BitBoard.kingAttacks[from] & toMask) != 0)
+                    return true;
+                final int k0 = wtm ? 4 : 60;
+                if (from != k0)
+                    return false;
+                final int rook = wtm ? Piece.WROOK : Piece.BROOK;
+                if (to == k0 + 2) {
+                    return ((pos.getCastleMask() & (1 << (wtm ? Position.H1_CASTLE : Position.H8_CASTLE))) != 0) &&
+                           (((0x60L << k0 - 4) & occupied) == 0) &&
+                           (pos.getPiece(k0 + 3) == rook) &&
+                           !sqAttacked(pos, k0) &&
+                           !sqAttacked(pos, k0 + 1);
+                } else if (to == k0 - 2) {
+                    return ((pos.getCastleMask() & (1 << (wtm ? Position.A1_CASTLE : Position.A8_CASTLE))) != 0) &&
+                           (((0xEL << k0 - 4) & occupied) == 0) &&
+                           (pos.getPiece(k0 - 4) == rook) &&
+                           !sqAttacked(pos, k0) &&
+                           !sqAttacked(pos, k0 - 1);
+                }
+                return false;
+            }
+            }
+        }
+
+        // Pawn moves
+        boolean lastRank = wtm ? (to >= 56) : (to < 8);
+        if (lastRank) {
+            int prom = m.promoteTo;
+            if ((prom <= Piece.EMPTY) || (prom >= Piece.nPieceTypes) || (Piece.isWhite(prom) != wtm) ||
+                (Piece.makeWhite(prom) == Piece.WKING) || (Piece.makeWhite(prom) == Piece.WPAWN))
+                return false;
+        } else if (m.promoteTo != Piece.EMPTY) {
+            return false;
+        }
+        int d = wtm ? 8 : -8;
+        if (to == from + d)
+            return (occupied & toMask) == 0;
+        if (to == from + 2 * d) {
+            boolean secondRank = wtm ? (from >= 8 && from < 16) : (from >= 48 && from < 56);
+            return secondRank && ((occupied & ((1L << (from + d)) | toMask)) == 0);
+        }
+        long atk = wtm ? BitBoard.wPawnAttacks[from] : BitBoard.bPawnAttacks[from];
+        if ((atk & toMask) == 0)
+            return false;
+        return ((wtm ? pos.blackBB : pos.whiteBB) & toMask) != 0 || (to == pos.getEpSquare());
+    }
+
     /**
      * Return true if the side to move is in check.
      */
@@ -922,8 +1233,12 @@ public final class MoveGen {
      * This function removes the moves that don't defend from check threats.
      */
     public static void removeIllegal(Position pos, MoveList moveList) {
+        removeIllegal(pos, moveList, new UndoInfo());
+    }
+
+    /** Like removeIllegal(Position, MoveList), but use "ui" as temporary storage. */
+    public static void removeIllegal(Position pos, MoveList moveList, UndoInfo ui) {
         int length = 0;
-        UndoInfo ui = new UndoInfo();
 
         boolean isInCheck = inCheck(pos);
         final long occupied = pos.whiteBB | pos.blackBB;
@@ -1053,13 +1368,19 @@ public final class MoveGen {
             ml = (MoveList)moveListCache[--moveListsInCache];
             ml.size = 0;
         } else {
-            ml = new MoveList();
-            for (int i = 0; i < MAX_MOVES; i++)
-                ml.m[i] = new Move(0, 0, Piece.EMPTY);
+            ml = newMoveList();
         }
         return ml;
     }
 
+    /** Create an empty move list with preallocated move objects. */
+    static MoveList newMoveList() {
+        MoveList ml = new MoveList();
+        for (int i = 0; i < MAX_MOVES; i++)
+            ml.m[i] = new Move(0, 0, Piece.EMPTY);
+        return ml;
+    }
+
     /** Return all move objects in moveList to the move cache. */
     public final void returnMoveList(MoveList moveList) {
         if (moveListsInCache < moveListCache.length) {
@@ -105,6 +105,9 @@ public class Parameters {
         addPar(new SpinParam("bV", false, -200, 200, 0));
         addPar(new SpinParam("nV", false, -200, 200, 0));
         addPar(new SpinParam("pV", false, -200, 200, 0));
+
+        addPar(new SpinParam("PawnHashLog2Size", true, 8, 24, 16));
+        addPar(new SpinParam("KingSafetyHashLog2Size", true, 8, 24, 15));
     }
 
     private void addPar(ParamBase p) {
@@ -0,0 +1,269 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package chess;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Count the number of leaf nodes in the legal move tree of a position.
+ * The tree is split into fork/join tasks that run in parallel, and an
+ * optional hash table caches subtree node counts.
+ */
+public class Perft {
+    /** Subtrees with less remaining depth than this are counted by a single task. */
+    private static final int minSplitDepth = 4;
+
+    private final int nThreads;
+
+    /**
+     * Hash table with two longs per entry. The first long is the position
+     * hash key xor'ed with the second long, which contains the node count
+     * and the remaining depth. This makes torn entries caused by concurrent
+     * updates detectable.
+     */
+    private final long[] hashTable;
+
+    /** Per thread counters used for the leaf tasks. */
+    private final ThreadLocal<Counter> counter = new ThreadLocal<Counter>() {
+        @Override
+        protected Counter initialValue() {
+            return new Counter(minSplitDepth - 1);
+        }
+    };
+
+    /** Node count for one root move. */
+    public static final class MoveCount implements Comparable<MoveCount> {
+        public final Move move;
+        public final long nodes;
+
+        MoveCount(Move move, long nodes) {
+            this.move = move;
+            this.nodes = nodes;
+        }
+
+        @Override
+        public int compareTo(MoveCount o) {
+            return TextIO.moveToUCIString(move).compareTo(TextIO.moveToUCIString(o.move));
+        }
+    }
+
+    /**
+     * Constructor.
+     * @param nThreads   Number of threads to use.
+     * @param hashSizeMB Hash table size in MB, or 0 to not use a hash table.
+     */
+    public Perft(int nThreads, int hashSizeMB) {
+        this.nThreads = Math.max(nThreads, 1);
+        if (hashSizeMB > 0) {
+            long entries = (long)hashSizeMB * (1 << 20) / 16;
+            int logSize = 0;
+            while ((logSize < 30) && ((1L << (logSize + 1)) <= entries))
+                logSize++;
+            hashTable = new long[2 << logSize];
+        } else {
+            hashTable = null;
+        }
+    }
+
+    /** Return the number of leaf nodes at the given depth. */
+    public final long perft(Position pos, int depth) {
+        if (depth <= 0)
+            return 1;
+        long nodes = 0;
+        for (MoveCount mc : divide(pos, depth))
+            nodes += mc.nodes;
+        return nodes;
+    }
+
+    /**
+     * Return the number of leaf nodes at the given depth for each legal move
+     * in the root position, sorted by move string.
+     */
+    public final List<MoveCount> divide(Position pos, int depth) {
+        final Position rootPos = new Position(pos);
+        final int d = Math.max(depth, 1);
+        MoveGen.MoveList moves = new MoveGen().legalMoves(rootPos);
+        final List<PerftTask> tasks = new ArrayList<>();
+        UndoInfo ui = new UndoInfo();
+        for (int mi = 0; mi < moves.size; mi++) {
+            Move m = new Move(moves.m[mi]);
+            rootPos.makeMove(m, ui);
+            tasks.add(new PerftTask(m, new Position(rootPos), d - 1));
+            rootPos.unMakeMove(m, ui);
+        }
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+        try {
+            pool.invoke(new RecursiveTask<Void>() {
+                @Override
+                protected Void compute() {
+                    invokeAll(tasks);
+                    return null;
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+        List<MoveCount> ret = new ArrayList<>();
+        for (PerftTask t : tasks)
+            ret.add(new MoveCount(t.move, t.join()));
+        Collections.sort(ret);
+        return ret;
+    }
+
+    /** Count nodes in the subtree below one position. */
+    private final class PerftTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 3126545186264937423L;
+        private final Move move;
+        private final Position pos;
+        private final int depth;
+
+        PerftTask(Move move, Position pos, int depth) {
+            this.move = move;
+            this.pos = pos;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Long compute() {
+            if (depth < minSplitDepth)
+                return counter.get().perft(pos, depth);
+            long nodes = probeHash(pos.zobristHash(), depth);
+            if (nodes >= 0)
+                return nodes;
+            MoveGen.MoveList moves = new MoveGen().legalMoves(pos);
+            List<PerftTask> children = new ArrayList<>(moves.size);
+            UndoInfo ui = new UndoInfo();
+            for (int mi = 0; mi < moves.size; mi++) {
+                Move m = moves.m[mi];
+                pos.makeMove(m, ui);
+                children.add(new PerftTask(null, new Position(pos), depth - 1));
+                pos.unMakeMove(m, ui);
+            }
+            invokeAll(children);
+            nodes = 0;
+            for (PerftTask t : children)
+                nodes += t.join();
+            storeHash(pos.zobristHash(), depth, nodes);
+            return nodes;
+        }
+    }
+
+    /** Single threaded node counter, using preallocated move lists. */
+    private final class Counter {
+        private final MoveGen moveGen = new MoveGen();
+        private final MoveGen.MoveList[] moveLists;
+        private final UndoInfo[] undoInfos;
+
+        Counter(int maxDepth) {
+            moveLists = new MoveGen.MoveList[maxDepth + 1];
+            undoInfos = new UndoInfo[maxDepth + 1];
+            for (int i = 0; i <= maxDepth; i++) {
+                moveLists[i] = MoveGen.newMoveList();
+                undoInfos[i] = new UndoInfo();
+            }
+        }
+
+        final long perft(Position pos, int depth) {
+            if (depth == 0)
+                return 1;
+            MoveGen.MoveList moves = moveGen.legalMoves(pos, moveLists[depth]);
+            if (depth == 1)
+                return moves.size;
+            final long hKey = pos.zobristHash();
+            long nodes = probeHash(hKey, depth);
+            if (nodes >= 0)
+                return nodes;
+            nodes = 0;
+            UndoInfo ui = undoInfos[depth];
+            for (int mi = 0; mi < moves.size; mi++) {
+                Move m = moves.m[mi];
+                pos.makeMove(m, ui);
+                nodes += perft(pos, depth - 1);
+                pos.unMakeMove(m, ui);
+            }
+            storeHash(hKey, depth, nodes);
+            return nodes;
+        }
+    }
+
+    /** Return the cached node count for a position and depth, or -1 if not found. */
+    private long probeHash(long key, int depth) {
+        if (hashTable == null)
+            return -1;
+        int idx = (int)(key & ((hashTable.length >> 1) - 1)) * 2;
+        long data = hashTable[idx + 1];
+        if (((hashTable[idx] ^ data) != key) || ((data & 63) != depth))
+            return -1;
+        return data >>> 6;
+    }
+
+    private void storeHash(long key, int depth, long nodes) {
+        if (hashTable == null)
+            return;
+        int idx = (int)(key & ((hashTable.length >> 1) - 1)) * 2;
+        long data = (nodes << 6) | depth;
+        hashTable[idx] = key ^ data;
+        hashTable[idx + 1] = data;
+    }
+
+    /**
+     * Handle a perft text command. The arguments are:
+     * depth [divide] [threads n] [hash mb]
+     * The number of threads defaults to the number of available processors
+     * and no hash table is used unless a size is given.
+     */
+    public static void perftCommand(Position pos, String args, PrintStream os) {
+        String[] tokens = args.trim().split("\\s+");
+        int depth = Integer.parseInt(tokens[0]);
+        boolean divide = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int hashMB = 0;
+        for (int i = 1; i < tokens.length; i++) {
+            if (tokens[i].equals("divide")) {
+                divide = true;
+            } else if (tokens[i].equals("threads") && (i + 1 < tokens.length)) {
+                threads = Integer.parseInt(tokens[++i]);
+            } else if (tokens[i].equals("hash") && (i + 1 < tokens.length)) {
+                hashMB = Integer.parseInt(tokens[++i]);
+            }
+        }
+        Perft perft = new Perft(threads, hashMB);
+        long t0 = System.currentTimeMillis();
+        long nodes;
+        if (divide && (depth > 0)) {
+            nodes = 0;
+            for (MoveCount mc : perft.divide(pos, depth)) {
+                os.printf("%s: %d%n", TextIO.moveToUCIString(mc.move), mc.nodes);
+                nodes += mc.nodes;
+            }
+        } else {
+            nodes = perft.perft(pos, depth);
+        }
+        long t1 = System.currentTimeMillis();
+        double t = (t1 - t0) * 1e-3;
+        os.printf("perft(%d) = %d, t=%.3fs, nps=%d%n", depth, nodes, t,
+                  (t1 > t0) ? (long)(nodes / t) : 0);
+    }
+}
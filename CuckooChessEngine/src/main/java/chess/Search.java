@@ -38,6 +38,18 @@ public class Search {
     private TranspositionTable tt;
     private TreeLogger log = null;
 
+    // Lazy SMP. Helper searches run in separate threads and share the transposition table.
+    private final SearchThreads threads;    // Helper threads, kept between searches
+    private final boolean ownThreads;       // True if threads shall be stopped when the search ends
+    private Search[] helpers = new Search[0]; // Helper searches used by the current search
+    private int depthOffset = 0;            // Helper searches start some iterations deeper
+    private volatile boolean stopRequested = false;
+    private int completedDepth = 0;         // Depth of last completed iteration
+    private Move completedBestMove = null;  // Best move from last completed iteration
+
+    private int multiPV = 1;                // Number of principal variations to compute
+    private int tbProbeLimit = 6;           // Max number of pieces for tablebase probing in the search tree
+
     private static final class SearchTreeInfo {
         UndoInfo undoInfo;
         Move hashMove;         // Temporary storage for local hashMove variable
@@ -46,8 +58,16 @@ public class Search {
         Move currentMove;      // Move currently being searched
         int lmr;               // LMR reduction amount
         long nodeIdx;
+        TTEntry ttEntry;       // Temporary storage for transposition table probe results
+        MoveGen.MoveList moves; // Move list for this ply, created when first needed
+
+        // Staged move generation state, see nextMove()
+        int stage;
+        MoveGen.MoveList stageMoves; // Temporary list for generated moves
+
         SearchTreeInfo() {
             undoInfo = new UndoInfo();
+            ttEntry = new TTEntry();
             hashMove = new Move(0, 0, 0);
             allowNullMove = true;
             bestMove = new Move(0, 0, 0);
@@ -55,6 +75,17 @@ public class Search {
     }
     private SearchTreeInfo[] searchTreeInfo;
 
+    /**
+     * Return the move list for a ply. There is at most one active move list
+     * for each ply, so the search does not need to allocate move lists.
+     */
+    private MoveGen.MoveList plyMoveList(int ply) {
+        SearchTreeInfo sti = searchTreeInfo[ply];
+        if (sti.moves == null)
+            sti.moves = MoveGen.newMoveList();
+        return sti.moves;
+    }
+
     // Time management
     private long tStart;            // Time when search started
     private long minTimeMillis;     // Minimum recommended thinking time
@@ -71,28 +102,45 @@ public class Search {
     private long randomSeed = 0;
 
     // Search statistics stuff
+    private SearchStats stats = null;   // Event counters, null if disabled
     private long nodes;
     private long qNodes;
     private int[] nodesPlyVec;
     private int[] nodesDepthVec;
     private long totalNodes;
+    private volatile long publishedNodes; // totalNodes, updated every nodesBetweenTimeCheck nodes
     private long tLastStats;        // Time when notifyStats was last called
     private boolean verbose;
     
     public final static int MATE0 = 32000;
+    /** Score for a tablebase win at ply 0. Lower than all mate scores. */
+    public final static int TB_WIN = MATE0 / 2 - 1000;
 
     public final static int UNKNOWN_SCORE = -32767; // Represents unknown static eval score
     private int q0Eval; // Static eval score at first level of quiescence search
 
     public Search(Position pos, long[] posHashList, int posHashListSize, TranspositionTable tt,
                   History ht) {
+        this(pos, posHashList, posHashListSize, tt, ht, null);
+    }
+
+    /**
+     * Create a search object that uses the evaluation hash tables and helper
+     * threads in threads, so that they are kept between searches. If threads
+     * is null, this search object has its own hash tables, and helper threads
+     * are created when needed and stopped when the search ends.
+     */
+    public Search(Position pos, long[] posHashList, int posHashListSize, TranspositionTable tt,
+                  History ht, SearchThreads threads) {
+        ownThreads = (threads == null);
+        this.threads = ownThreads ? new SearchThreads() : threads;
         this.pos = new Position(pos);
         this.moveGen = new MoveGen();
         this.posHashList = posHashList;
         this.posHashListSize = posHashListSize;
         this.tt = tt;
         this.ht = ht;
-        eval = new Evaluate();
+        eval = this.threads.getEvaluate();
         kt = new KillerTable();
         posHashFirstNew = posHashListSize;
         initNodeStats();
@@ -122,7 +170,8 @@ public class Search {
     public interface Listener {
         void notifyDepth(int depth);
         void notifyCurrMove(Move m, int moveNr);
-        void notifyPV(int depth, int score, int time, long nodes, int nps,
+        /** pvNum is 1 for the best line, 2 for the second best line, etc. */
+        void notifyPV(int depth, int pvNum, int score, int time, long nodes, int nps,
                       boolean isMate, boolean upperBound, boolean lowerBound, ArrayList<Move> pv);
         void notifyStats(long nodes, int nps, int time);
     }
@@ -183,13 +232,157 @@ public class Search {
             nodesBetweenTimeCheck = Math.min(Math.max(maxNPS / 100, 1), nodesBetweenTimeCheck);
     }
 
+    /**
+     * Set the number of threads to use for the search. Threads other than the
+     * calling thread run helper searches that only communicate with the main
+     * search through the shared transposition table.
+     */
+    final public void setNumThreads(int nThreads) {
+        threads.setNumThreads(nThreads);
+    }
+
+    /** Prepare a helper search object for a new search. */
+    private void setPosition(Position pos, long[] posHashList, int posHashListSize,
+                             TranspositionTable tt) {
+        this.pos = new Position(pos);
+        if (this.posHashList.length < posHashList.length)
+            this.posHashList = new long[posHashList.length];
+        System.arraycopy(posHashList, 0, this.posHashList, 0, posHashListSize);
+        this.posHashListSize = posHashListSize;
+        posHashFirstNew = posHashListSize;
+        this.tt = tt;
+        eval = threads.getEvaluate();
+        kt = new KillerTable();
+    }
+
+    /**
+     * Set the number of principal variations to compute. The best nPV root
+     * moves get exact scores. The remaining root moves are only searched with
+     * a null window around the score of the worst of the best nPV moves.
+     */
+    final public void setMultiPV(int nPV) {
+        multiPV = Math.max(nPV, 1);
+    }
+
+    /**
+     * Set the maximum number of pieces for which tablebases are probed in the
+     * search tree. 0 disables tablebase probing, also at the root.
+     */
+    final public void setTBProbeLimit(int limit) {
+        tbProbeLimit = limit;
+    }
+
+    /** Enable or disable collection of search statistics. */
+    final public void setStatistics(boolean enable) {
+        stats = (enable && SearchStats.ENABLED) ? new SearchStats() : null;
+    }
+
+    /**
+     * Return statistics for the last search, including helper threads.
+     * @return Null if statistics are disabled.
+     */
+    final public SearchStats getStatistics() {
+        if (stats == null)
+            return null;
+        SearchStats ret = new SearchStats();
+        stats.updateEval(eval);
+        ret.add(stats);
+        for (Search h : helpers) {
+            if (h.stats != null) {
+                h.stats.updateEval(h.eval);
+                ret.add(h.stats);
+            }
+        }
+        return ret;
+    }
+
+    /** Stop the search as soon as possible. Can be called from any thread. */
+    final public void stopSearch() {
+        stopRequested = true;
+    }
+
+    /** Return number of searched nodes, including nodes searched by helper threads. */
+    public final long getTotalNodes() {
+        long ret = totalNodes;
+        for (Search h : helpers)
+            ret += h.publishedNodes;
+        return ret;
+    }
+
+    private void startHelpers(MoveGen.MoveList scMovesIn, final int maxDepth) {
+        int nHelpers = weak ? 0 : threads.getNumHelpers();
+        if (helpers.length != nHelpers)
+            helpers = new Search[nHelpers];
+        for (int i = 0; i < nHelpers; i++) {
+            SearchThreads.Helper helper = threads.getHelper(i);
+            if (helper.search == null) {
+                helper.search = new Search(pos, new long[posHashList.length], 0, tt, new History());
+                helper.search.depthOffset = (i + 1) % 2;
+            }
+            final Search h = helper.search;
+            h.setPosition(pos, posHashList, posHashListSize, tt);
+            h.tbProbeLimit = tbProbeLimit;
+            if (stats == null)
+                h.stats = null;
+            else if (h.stats == null)
+                h.stats = new SearchStats();
+            final MoveGen.MoveList moves = new MoveGen.MoveList();
+            for (int mi = 0; mi < scMovesIn.size; mi++)
+                moves.m[mi] = new Move(scMovesIn.m[mi]);
+            moves.size = scMovesIn.size;
+            h.stopRequested = false;
+            h.publishedNodes = 0;
+            helpers[i] = h;
+            helper.start(() -> h.iterativeDeepening(moves, maxDepth, -1, false));
+        }
+    }
+
+    /**
+     * Stop all helper threads and wait for them to finish.
+     * @return The best move from the deepest completed iteration among all threads.
+     */
+    private Move stopHelpers(MoveInfo[] scMoves, Move bestMove) {
+        for (Search h : helpers)
+            h.stopSearch();
+        for (int i = 0; i < helpers.length; i++)
+            threads.getHelper(i).waitDone();
+        if (ownThreads)
+            threads.stopThreads();
+
+        Search best = this;
+        for (Search h : helpers)
+            if ((h.completedBestMove != null) && (h.completedDepth > best.completedDepth))
+                best = h;
+        if (best == this)
+            return bestMove;
+        for (MoveInfo mi : scMoves) {
+            if (mi.move.equals(best.completedBestMove)) {
+                mi.move.score = best.completedBestMove.score;
+                notifyPV(best.completedDepth/plyScale, 1, mi.move.score, false, false, mi.move);
+                return mi.move;
+            }
+        }
+        return bestMove;
+    }
+
     final public Move iterativeDeepening(MoveGen.MoveList scMovesIn,
             int maxDepth, long initialMaxNodes, boolean verbose) {
         tStart = System.currentTimeMillis();
 //        log = TreeLogger.getWriter("/home/petero/treelog.dmp", pos);
         totalNodes = 0;
+        publishedNodes = 0;
+        completedDepth = 0;
+        completedBestMove = null;
         if (scMovesIn.size <= 0)
             return null; // No moves to search
+        if (Long.bitCount(pos.whiteBB | pos.blackBB) <= Math.min(tbProbeLimit, Syzygy.getLargest())) {
+            // When analyzing, keep all moves that preserve the tablebase result,
+            // so that they can be reported as alternative lines
+            boolean infinite = (maxTimeMillis < 0) && (maxDepth < 0) && (initialMaxNodes < 0);
+            Syzygy.filterRootMoves(pos, scMovesIn, (multiPV <= 1) && !infinite);
+        }
+        if (SearchStats.ENABLED && (stats != null))
+            stats.startSearch(eval);
 
         MoveInfo[] scMoves;
         {
@@ -222,6 +415,7 @@ public class Search {
         int bestScoreLastIter = 0;
         boolean firstIteration = true;
         Move bestMove = scMoves[0].move;
+        final int nPV = Math.min(multiPV, scMoves.length);
         this.verbose = verbose;
         if ((maxDepth < 0) || (maxDepth > 100)) {
             maxDepth = 100;
@@ -229,15 +423,18 @@ public class Search {
         for (int i = 0; i < searchTreeInfo.length; i++) {
             searchTreeInfo[i].allowNullMove = true;
         }
+        startHelpers(scMovesIn, maxDepth);
         try {
-        for (int depthS = plyScale; ; depthS += plyScale, firstIteration = false) {
+        for (int depthS = Math.max(Math.min(1 + depthOffset, maxDepth), 1) * plyScale; ;
+             depthS += plyScale, firstIteration = false) {
             initNodeStats();
             if (listener != null) listener.notifyDepth(depthS/plyScale);
             int aspirationDelta = (Math.abs(bestScoreLastIter) <= MATE0 / 2) ? 20 : 1000;
-            int alpha = firstIteration ? -Search.MATE0 : Math.max(bestScoreLastIter - aspirationDelta, -Search.MATE0);
+            int alpha = (firstIteration || (nPV > 1)) ? -Search.MATE0 : Math.max(bestScoreLastIter - aspirationDelta, -Search.MATE0);
             int bestScore = -Search.MATE0;
             UndoInfo ui = new UndoInfo();
             boolean needMoreTime = false;
+            boolean aborted = false;
             for (int mi = 0; mi < scMoves.length; mi++) {
                 searchNeedMoreTime = (mi > 0);
                 Move m = scMoves[mi].move;
@@ -250,6 +447,8 @@ public class Search {
                 int beta;
                 if (firstIteration) {
                     beta = Search.MATE0;
+                } else if (nPV > 1) {
+                    beta = (mi < nPV) ? Search.MATE0 : alpha + 1;
                 } else {
                     beta = (mi == 0) ? Math.min(bestScoreLastIter + aspirationDelta, Search.MATE0) : alpha + 1;
                 }
@@ -259,7 +458,7 @@ public class Search {
                 boolean isPromotion = (m.promoteTo != Piece.EMPTY);
                 if ((depthS >= 3*plyScale) && !isCapture && !isPromotion) {
                     if (!givesCheck && !passedPawnPush(pos, m)) {
-                        if (mi >= 3)
+                        if (mi >= Math.max(3, nPV))
                             lmrS = plyScale;
                     }
                 }
@@ -301,11 +500,13 @@ public class Search {
                         retryDelta = Search.MATE0 * 2;
                         if (mi != 0)
                             needMoreTime = true;
-                        bestMove = m;
                         if (verbose)
                             System.out.printf("%-6s %6d %6d %6d >=\n", TextIO.moveToString(pos, m, false),
                                     score, nodes, qNodes);
-                        notifyPV(depthS/plyScale, score, false, true, m);
+                        if (nPV == 1) {
+                            bestMove = m;
+                            notifyPV(depthS/plyScale, 1, score, false, true, m);
+                        }
                         nodes = qNodes = 0;
                         posHashList[posHashListSize++] = pos.zobristHash();
                         pos.makeMove(m, ui);
@@ -327,7 +528,7 @@ public class Search {
                         if (verbose)
                             System.out.printf("%-6s %6d %6d %6d <=\n", TextIO.moveToString(pos, m, false),
                                     score, nodes, qNodes);
-                        notifyPV(depthS/plyScale, score, true, false, m);
+                        notifyPV(depthS/plyScale, 1, score, true, false, m);
                         nodes = qNodes = 0;
                         posHashList[posHashListSize++] = pos.zobristHash();
                         pos.makeMove(m, ui);
@@ -343,7 +544,7 @@ public class Search {
                 if (verbose || ((listener != null) && !firstIteration)) {
                     boolean havePV = false;
                     String PV = "";
-                    if ((score > alpha) || (mi == 0)) {
+                    if ((score > alpha) || (mi < nPV)) {
                         havePV = true;
                         if (verbose) {
                             PV = TextIO.moveToString(pos, m, false) + " ";
@@ -360,14 +561,30 @@ public class Search {
                                 TextIO.moveToString(pos, m, false), score,
                                 nodes, qNodes, (score > alpha ? " *" : ""), PV);
                     }
-                    if (havePV && !firstIteration) {
-                        notifyPV(depthS/plyScale, score, false, false, m);
+                    if (havePV && !firstIteration && (nPV == 1)) {
+                        notifyPV(depthS/plyScale, 1, score, false, false, m);
                     }
                 }
                 scMoves[mi].move.score = score;
                 scMoves[mi].nodes = nodesThisMove;
                 bestScore = Math.max(bestScore, score);
-                if (!firstIteration) {
+                if (!firstIteration && (nPV > 1)) {
+                    if ((score > alpha) || (mi < nPV)) {
+                        // Keep the best nPV moves sorted by score at the start of scMoves
+                        int last = Math.min(mi, nPV - 1);
+                        int p = 0;
+                        while ((p < mi) && (scMoves[p].move.score >= score))
+                            p++;
+                        MoveInfo tmp = scMoves[mi];
+                        for (int i = mi - 1; i >= p; i--)
+                            scMoves[i + 1] = scMoves[i];
+                        scMoves[p] = tmp;
+                        bestMove = scMoves[0].move;
+                        for (int i = p; i <= last; i++)
+                            notifyPV(depthS/plyScale, i + 1, scMoves[i].move.score, false, false, scMoves[i].move);
+                    }
+                    alpha = (mi >= nPV - 1) ? scMoves[nPV - 1].move.score : -Search.MATE0;
+                } else if (!firstIteration) {
                     if ((score > alpha) || (mi == 0)) {
                         alpha = score;
                         MoveInfo tmp = scMoves[mi];
@@ -382,15 +599,22 @@ public class Search {
                     long timeLimit = needMoreTime ? maxTimeMillis : minTimeMillis;
                     if (timeLimit >= 0) {
                         long tNow = System.currentTimeMillis();
-                        if (tNow - tStart >= timeLimit)
+                        if (tNow - tStart >= timeLimit) {
+                            aborted = true;
                             break;
+                        }
                     }
                 }
             }
             if (firstIteration) {
                 Arrays.sort(scMoves, new MoveInfo.SortByScore());
                 bestMove = scMoves[0].move;
-                notifyPV(depthS/plyScale, bestMove.score, false, false, bestMove);
+                for (int i = 0; i < nPV; i++)
+                    notifyPV(depthS/plyScale, i + 1, scMoves[i].move.score, false, false, scMoves[i].move);
+            }
+            if (!aborted) {
+                completedDepth = depthS;
+                completedBestMove = new Move(bestMove);
             }
             long tNow = System.currentTimeMillis();
             if (verbose) {
@@ -399,6 +623,9 @@ public class Search {
                 }
                 System.out.printf("Time: %.3f depth:%.2f nps:%d\n", (tNow - tStart) * .001, depthS/(double)plyScale,
                         (int)(totalNodes / ((tNow - tStart) * .001)));
+                System.out.printf("Pawn hash hits:%.2f%% King safety hash hits:%.2f%%\n",
+                        eval.getPawnHashHits() * 100.0 / Math.max(eval.getPawnHashProbes(), 1),
+                        eval.getKingSafetyHashHits() * 100.0 / Math.max(eval.getKingSafetyHashProbes(), 1));
             }
             if (maxTimeMillis >= 0) {
                 if (tNow - tStart >= minTimeMillis)
@@ -407,22 +634,27 @@ public class Search {
             if (depthS >= maxDepth * plyScale)
                 break;
             if (maxNodes >= 0) {
-                if (totalNodes >= maxNodes)
+                if (getTotalNodes() >= maxNodes)
                     break;
             }
-            int plyToMate = Search.MATE0 - Math.abs(bestScore);
+            if (stopRequested)
+                break;
+            int plyToMate = Search.MATE0 - Math.abs((nPV > 1) ? scMoves[nPV - 1].move.score : bestScore);
             if (depthS >= plyToMate * plyScale)
                 break;
             bestScoreLastIter = bestScore;
 
             if (!firstIteration) {
                 // Moves that were hard to search should be searched early in the next iteration
-                Arrays.sort(scMoves, 1, scMoves.length, new MoveInfo.SortByNodes());
+                Arrays.sort(scMoves, nPV, scMoves.length, new MoveInfo.SortByNodes());
             }
         }
         } catch (StopSearch ss) {
             pos = origPos;
         }
+        publishedNodes = totalNodes;
+        if (helpers.length > 0)
+            bestMove = stopHelpers(scMoves, bestMove);
         notifyStats();
 
         if (log != null) {
@@ -432,7 +664,7 @@ public class Search {
         return bestMove;
     }
 
-    private void notifyPV(int depth, int score, boolean uBound, boolean lBound, Move m) {
+    private void notifyPV(int depth, int pvNum, int score, boolean uBound, boolean lBound, Move m) {
         if (listener != null) {
             boolean isMate = false;
             if (score > MATE0 / 2) {
@@ -444,9 +676,10 @@ public class Search {
             }
             long tNow = System.currentTimeMillis();
             int time = (int) (tNow - tStart);
-            int nps = (time > 0) ? (int)(totalNodes / (time / 1000.0)) : 0;
+            long nodes = getTotalNodes();
+            int nps = (time > 0) ? (int)(nodes / (time / 1000.0)) : 0;
             ArrayList<Move> pv = tt.extractPVMoves(pos, m);
-            listener.notifyPV(depth, score, time, totalNodes, nps, isMate, uBound, lBound, pv);
+            listener.notifyPV(depth, pvNum, score, time, nodes, nps, isMate, uBound, lBound, pv);
         }
     }
 
@@ -454,13 +687,14 @@ public class Search {
         long tNow = System.currentTimeMillis();
         if (listener != null) {
             int time = (int) (tNow - tStart);
-            int nps = (time > 0) ? (int)(totalNodes / (time / 1000.0)) : 0;
-            listener.notifyStats(totalNodes, nps, time);
+            long nodes = getTotalNodes();
+            int nps = (time > 0) ? (int)(nodes / (time / 1000.0)) : 0;
+            listener.notifyStats(nodes, nps, time);
         }
         tLastStats = tNow;
     }
 
-    private static final Move emptyMove = new Move(0, 0, Piece.EMPTY, 0);
+    private final Move emptyMove = new Move(0, 0, Piece.EMPTY, 0);
 
     /** 
      * Main recursive search algorithm.
@@ -473,12 +707,15 @@ public class Search {
             long idx = log.logNodeStart(sti.nodeIdx, sti.currentMove, alpha, beta, ply, depth/plyScale);
             searchTreeInfo[ply].nodeIdx = idx;
         }
+        if (SearchStats.ENABLED && (stats != null)) stats.searchNodes++;
         if (nodesToGo <= 0) {
             nodesToGo = nodesBetweenTimeCheck;
+            publishedNodes = totalNodes;
             long tNow = System.currentTimeMillis();
             long timeLimit = searchNeedMoreTime ? maxTimeMillis : minTimeMillis;
-            if (    ((timeLimit >= 0) && (tNow - tStart >= timeLimit)) ||
-                    ((maxNodes >= 0) && (totalNodes >= maxNodes))) {
+            if (    stopRequested ||
+                    ((timeLimit >= 0) && (tNow - tStart >= timeLimit)) ||
+                    ((maxNodes >= 0) && (getTotalNodes() >= maxNodes))) {
                 throw new StopSearch();
             }
             if (maxNPS > 0) {
@@ -510,15 +747,13 @@ public class Search {
                 return score;
             }
             if (inCheck) {
-                MoveGen.MoveList moves = moveGen.pseudoLegalMoves(pos);
-                MoveGen.removeIllegal(pos, moves);
+                MoveGen.MoveList moves = moveGen.pseudoLegalMoves(pos, plyMoveList(ply));
+                MoveGen.removeIllegal(pos, moves, searchTreeInfo[ply].undoInfo);
                 if (moves.size == 0) {            // Can't claim draw if already check mated.
                     int score = -(MATE0-(ply+1));
                     if (log != null) log.logNodeEnd(searchTreeInfo[ply].nodeIdx, score, TTEntry.T_EXACT, UNKNOWN_SCORE, hKey);
-                    moveGen.returnMoveList(moves);
                     return score;
                 }
-                moveGen.returnMoveList(moves);
             }
             if (log != null) log.logNodeEnd(searchTreeInfo[ply].nodeIdx, 0, TTEntry.T_EXACT, UNKNOWN_SCORE, hKey);
             return 0;
@@ -531,10 +766,12 @@ public class Search {
 
         int evalScore = UNKNOWN_SCORE;
         // Check transposition table
-        TTEntry ent = tt.probe(hKey);
-        Move hashMove = null;
         SearchTreeInfo sti = searchTreeInfo[ply];
+        TTEntry ent = tt.probe(hKey, sti.ttEntry);
+        Move hashMove = null;
+        if (SearchStats.ENABLED && (stats != null)) stats.ttProbes++;
         if (ent.type != TTEntry.T_EMPTY) {
+            if (SearchStats.ENABLED && (stats != null)) stats.ttHits++;
             int score = ent.getScore(ply);
             evalScore = ent.evalScore;
             int plyToMate = MATE0 - Math.abs(score);
@@ -552,12 +789,39 @@ public class Search {
                                 kt.addKiller(ply, hashMove);
                     }
                     sti.bestMove = hashMove;
+                    if (SearchStats.ENABLED && (stats != null)) stats.ttCutoffs++;
                     if (log != null) log.logNodeEnd(searchTreeInfo[ply].nodeIdx, score, ent.type, evalScore, hKey);
                     return score;
                 }
             }
         }
         
+        // Probe endgame tablebases after captures and pawn moves
+        if ((ply > 0) && (pos.halfMoveClock == 0) && (pos.getCastleMask() == 0) &&
+            (Long.bitCount(pos.whiteBB | pos.blackBB) <= Math.min(tbProbeLimit, Syzygy.getLargest()))) {
+            int wdl = Syzygy.probeWDL(pos);
+            if (wdl != Syzygy.NO_INFO) {
+                int score = 0;
+                int type = TTEntry.T_EXACT;
+                if (wdl > 0) {
+                    score = TB_WIN - ply;
+                    type = TTEntry.T_GE;
+                } else if (wdl < 0) {
+                    score = -(TB_WIN - ply);
+                    type = TTEntry.T_LE;
+                }
+                if ((type == TTEntry.T_EXACT) ||
+                    (type == TTEntry.T_GE) && (score >= beta) ||
+                    (type == TTEntry.T_LE) && (score <= alpha)) {
+                    emptyMove.score = score;
+                    tt.insert(hKey, emptyMove, type, ply, depth, evalScore);
+                    sti.bestMove.clear();
+                    if (log != null) log.logNodeEnd(sti.nodeIdx, score, type, evalScore, hKey);
+                    return score;
+                }
+            }
+        }
+
         int posExtend = inCheck ? plyScale : 0; // Check extension
 
         // If out of depth, perform quiescence search
@@ -587,6 +851,7 @@ public class Search {
                 q0Eval = evalScore;
                 int score = quiesce(alpha-razorMargin, beta-razorMargin, ply, 0, inCheck);
                 if (score <= alpha-razorMargin) {
+                    if (SearchStats.ENABLED && (stats != null)) stats.razorPrunes++;
                     emptyMove.score = score;
                     tt.insert(hKey, emptyMove, TTEntry.T_LE, ply, depth, q0Eval);
                     if (log != null) log.logNodeEnd(sti.nodeIdx, score, TTEntry.T_LE, q0Eval, hKey);
@@ -613,6 +878,7 @@ public class Search {
                 if (evalScore == UNKNOWN_SCORE)
                     evalScore = eval.evalPos(pos);
                 if (evalScore - margin >= beta) {
+                    if (SearchStats.ENABLED && (stats != null)) stats.reverseFutilityPrunes++;
                     emptyMove.score = evalScore - margin;
                     tt.insert(hKey, emptyMove, TTEntry.T_GE, ply, depth, evalScore);
                     if (log != null) log.logNodeEnd(sti.nodeIdx, evalScore - margin, TTEntry.T_GE, evalScore, hKey);
@@ -644,6 +910,7 @@ public class Search {
             }
             if (nullOk) {
                 final int R = (depth > 6*plyScale) ? 4*plyScale : 3*plyScale;
+                if (SearchStats.ENABLED && (stats != null)) stats.nullMoveSearches++;
                 pos.setWhiteMove(!pos.whiteMove);
                 int epSquare = pos.getEpSquare();
                 pos.setEpSquare(-1);
@@ -654,6 +921,7 @@ public class Search {
                 pos.setEpSquare(epSquare);
                 pos.setWhiteMove(!pos.whiteMove);
                 if (score >= beta) {
+                    if (SearchStats.ENABLED && (stats != null)) stats.nullMoveCutoffs++;
                     if (score > MATE0 / 2)
                         score = beta;
                     emptyMove.score = score;
@@ -701,7 +969,7 @@ public class Search {
                 int newDepth = isPv ? depth  - 2 * plyScale : depth * 3 / 8;
                 negaScout(alpha, beta, ply, newDepth, -1, inCheck);
                 sti.nodeIdx = savedNodeIdx;
-                ent = tt.probe(hKey);
+                ent = tt.probe(hKey, sti.ttEntry);
                 if (ent.type != TTEntry.T_EMPTY) {
                     hashMove = sti.hashMove;
                     ent.getMove(hashMove);
@@ -710,17 +978,19 @@ public class Search {
         }
 
         // Start searching move alternatives
-        MoveGen.MoveList moves;
-        if (inCheck)
-            moves = moveGen.checkEvasions(pos);
-        else 
-            moves = moveGen.pseudoLegalMoves(pos);
+        MoveGen.MoveList moves = plyMoveList(ply);
         boolean seeDone = false;
         boolean hashMoveSelected = true;
-        if (!selectHashMove(moves, hashMove)) {
-            scoreMoveList(moves, ply);
-            seeDone = true;
-            hashMoveSelected = false;
+        if (inCheck) {
+            moveGen.checkEvasions(pos, moves);
+            if (!selectHashMove(moves, hashMove)) {
+                scoreMoveList(moves, ply);
+                seeDone = true;
+                hashMoveSelected = false;
+            }
+        } else {
+            moves.size = 0;
+            sti.stage = STAGE_HASH;
         }
 
         UndoInfo ui = sti.undoInfo;
@@ -730,17 +1000,23 @@ public class Search {
         int bestScore = illegalScore;
         int bestMove = -1;
         int lmrCount = 0;
-        for (int mi = 0; mi < moves.size; mi++) {
-            if ((mi == 1) && !seeDone) {
-                scoreMoveList(moves, ply, 1);
-                seeDone = true;
-            }
-            if ((mi > 0) || !hashMoveSelected) {
-                selectBest(moves, mi);
+        for (int mi = 0; ; mi++) {
+            if (!inCheck) {
+                if (!nextMove(moves, mi, ply, hashMove))
+                    break;
+            } else {
+                if (mi >= moves.size)
+                    break;
+                if ((mi == 1) && !seeDone) {
+                    scoreMoveList(moves, ply, 1);
+                    seeDone = true;
+                }
+                if ((mi > 0) || !hashMoveSelected) {
+                    selectBest(moves, mi);
+                }
             }
             Move m = moves.m[mi];
             if (pos.getPiece(m.to) == (pos.whiteMove ? Piece.BKING : Piece.WKING)) {
-                moveGen.returnMoveList(moves);
                 int score = MATE0-ply;
                 if (log != null) log.logNodeEnd(sti.nodeIdx, score, TTEntry.T_EXACT, evalScore, hKey);
                 return score;       // King capture
@@ -760,14 +1036,17 @@ public class Search {
                     else if (depth <= 3 * plyScale) moveCountLimit = 12;
                     else if (depth <= 4 * plyScale) moveCountLimit = 24;
                     else moveCountLimit = 256;
-                    if (mi >= moveCountLimit)
+                    if (mi >= moveCountLimit) {
+                        if (SearchStats.ENABLED && (stats != null)) stats.lateMovePrunes++;
                         continue; // Late move pruning
+                    }
                 }
                 if (futilityPrune)
                     doFutility = true;
             }
             int score;
             if (doFutility) {
+                if (SearchStats.ENABLED && (stats != null)) stats.futilityPrunes++;
                 score = futilityScore;
             } else {
                 int moveExtend = 0;
@@ -832,7 +1111,9 @@ public class Search {
                     System.out.printf("%-6s...\n", TextIO.moveToUCIString(m));
                 } */
                 sti.lmr = lmr;
+                if (SearchStats.ENABLED && (stats != null) && (lmr > 0)) stats.lmrReductions++;
                 score = -negaScout(-b, -alpha, ply + 1, newDepth, newCaptureSquare, givesCheck);
+                if (SearchStats.ENABLED && (stats != null) && (lmr > 0) && (score > alpha)) stats.lmrReSearches++;
                 if (((lmr > 0) && (score > alpha)) ||
                     ((score > alpha) && (score < beta) && (b != beta) && (score != illegalScore))) {
                     sti.lmr = 0;
@@ -866,6 +1147,10 @@ public class Search {
                 sti.bestMove.promoteTo = m.promoteTo;
             }
             if (alpha >= beta) {
+                if (SearchStats.ENABLED && (stats != null)) {
+                    stats.betaCutoffs++;
+                    if (mi == 0) stats.firstMoveCutoffs++;
+                }
                 if (pos.getPiece(m.to) == Piece.EMPTY) {
                     kt.addKiller(ply, m);
                     ht.addSuccess(pos, m, depth/plyScale);
@@ -876,14 +1161,12 @@ public class Search {
                     }
                 }
                 tt.insert(hKey, m, TTEntry.T_GE, ply, depth, evalScore);
-                moveGen.returnMoveList(moves);
                 if (log != null) log.logNodeEnd(sti.nodeIdx, alpha, TTEntry.T_GE, evalScore, hKey);
                 return alpha;
             }
             b = alpha + 1;
         }
         if (!haveLegalMoves && !inCheck) {
-            moveGen.returnMoveList(moves);
             if (log != null) log.logNodeEnd(sti.nodeIdx, 0, TTEntry.T_EXACT, evalScore, hKey);
             return 0;       // Stale-mate
         }
@@ -895,10 +1178,98 @@ public class Search {
             tt.insert(hKey, emptyMove, TTEntry.T_LE, ply, depth, evalScore);
             if (log != null) log.logNodeEnd(sti.nodeIdx, bestScore, TTEntry.T_LE, evalScore, hKey);
         }
-        moveGen.returnMoveList(moves);
         return bestScore;
     }
 
+    // Move generation stages used by nextMove()
+    private static final int STAGE_HASH = 0;      // Hash move, no move generation needed
+    private static final int STAGE_GEN_MOVES = 1; // Generate and score all other moves
+    private static final int STAGE_REMAINING = 2; // Remaining moves, by score
+
+    /**
+     * Make moves.m[mi] the next move to search in a node where the side to
+     * move is not in check. moves.m[0] to moves.m[mi-1] are the already
+     * searched moves. The hash move is searched before any moves are
+     * generated, so a beta cutoff on the hash move skips move generation.
+     * The other moves are then generated and scored by scoreMoveList(), and
+     * are searched in exactly the same order as if all moves had been
+     * generated before the hash move: good captures by MVV/LVA, killer moves
+     * for this ply and two plies earlier, non-captures by history score, and
+     * finally losing captures. All moves must be scored at the same time,
+     * because searching a move changes the history scores of the others.
+     * @return False if there are no more moves to search.
+     */
+    private boolean nextMove(MoveGen.MoveList moves, int mi, int ply, Move hashMove) {
+        SearchTreeInfo sti = searchTreeInfo[ply];
+        while (true) {
+            switch (sti.stage) {
+            case STAGE_HASH:
+                sti.stage = STAGE_GEN_MOVES;
+                // Positions where the king can be captured are never stored in the
+                // transposition table, so a pseudo-legal hash move is searched
+                // without first checking for a king capture.
+                if ((hashMove != null) && MoveGen.isPseudoLegal(pos, hashMove)) {
+                    moves.m[0].copyFrom(hashMove);
+                    moves.m[0].score = 10000;
+                    moves.size = 1;
+                    return true;
+                }
+                break;
+            case STAGE_GEN_MOVES:
+                if (mi == 0) {
+                    moveGen.pseudoLegalMoves(pos, moves);
+                    scoreMoveList(moves, ply);
+                } else {
+                    insertAfterHashMove(moves, moveGen.pseudoLegalMoves(pos, stageMoveList(sti)));
+                    scoreMoveList(moves, ply, 1);
+                }
+                sti.stage = STAGE_REMAINING;
+                break;
+            default:
+                if (mi >= moves.size)
+                    return false;
+                selectBest(moves, mi);
+                return true;
+            }
+        }
+    }
+
+    private static MoveGen.MoveList stageMoveList(SearchTreeInfo sti) {
+        if (sti.stageMoves == null)
+            sti.stageMoves = MoveGen.newMoveList();
+        return sti.stageMoves;
+    }
+
+    /**
+     * Move all moves in src, except the already searched hash move in moves.m[0],
+     * to moves.m[1] and onwards. The resulting order is the same as if
+     * selectHashMove() had been applied to src. Move objects are swapped, not copied.
+     */
+    static void insertAfterHashMove(MoveGen.MoveList moves, MoveGen.MoveList src) {
+        int hashIdx = -1;
+        for (int i = 0; i < src.size; i++) {
+            if (src.m[i].equals(moves.m[0])) {
+                hashIdx = i;
+                break;
+            }
+        }
+        int size = (hashIdx >= 0) ? src.size : src.size + 1;
+        for (int i = 0; i < src.size; i++) {
+            if (i == hashIdx)
+                continue;
+            int dst;
+            if (hashIdx < 0)
+                dst = i + 1;
+            else
+                dst = (i == 0) ? hashIdx : i;
+            Move m = src.m[i];
+            src.m[i] = moves.m[dst];
+            moves.m[dst] = m;
+        }
+        moves.size = size;
+        src.size = 0;
+    }
+
     /** Return true if move m2 was made possible by move m1. */
     private boolean relatedMoves(Move m1, Move m2) {
         if ((m1.from == m1.to) || (m2.from == m2.to))
@@ -950,6 +1321,7 @@ public class Search {
      * Quiescence search. Only non-losing captures are searched.
      */
     private int quiesce(int alpha, int beta, int ply, int depth, final boolean inCheck) {
+        if (SearchStats.ENABLED && (stats != null)) stats.qNodes++;
         int score;
         if (inCheck) {
             score = -(MATE0 - (ply+1));
@@ -976,13 +1348,13 @@ public class Search {
             alpha = score;
         int bestScore = score;
         final boolean tryChecks = (depth > -1);
-        MoveGen.MoveList moves;
+        MoveGen.MoveList moves = plyMoveList(ply);
         if (inCheck) {
-            moves = moveGen.checkEvasions(pos);
+            moveGen.checkEvasions(pos, moves);
         } else if (tryChecks) {
-            moves = moveGen.pseudoLegalCapturesAndChecks(pos);
+            moveGen.pseudoLegalCapturesAndChecks(pos, moves);
         } else {
-            moves = moveGen.pseudoLegalCaptures(pos);
+            moveGen.pseudoLegalCaptures(pos, moves);
         }
         scoreMoveListMvvLva(moves);
         UndoInfo ui = searchTreeInfo[ply].undoInfo;
@@ -994,7 +1366,6 @@ public class Search {
             }
             Move m = moves.m[mi];
             if (pos.getPiece(m.to) == (pos.whiteMove ? Piece.BKING : Piece.WKING)) {
-                moveGen.returnMoveList(moves);
                 return MATE0-ply;       // King capture
             }
             boolean givesCheck = false;
@@ -1057,13 +1428,11 @@ public class Search {
                     }
                     alpha = score;
                     if (alpha >= beta) {
-                        moveGen.returnMoveList(moves);
                         return alpha;
                     }
                 }
             }
         }
-        moveGen.returnMoveList(moves);
         return bestScore;
     }
 
@@ -0,0 +1,153 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package chess;
+
+import java.util.Locale;
+
+/**
+ * Counters for search events, used to tune hash table sizes and pruning.
+ * A Search object only updates its counters if statistics have been enabled,
+ * so the cost when disabled is one null check per event. All counter updates
+ * in Search test ENABLED first, so setting ENABLED to false removes them at
+ * compile time and makes it impossible to enable statistics.
+ */
+public final class SearchStats {
+    /** False to never collect statistics. */
+    public static final boolean ENABLED = true;
+
+    public long searchNodes;        // Calls to negaScout
+    public long qNodes;             // Calls to quiesce
+    public long ttProbes;           // Transposition table probes in negaScout
+    public long ttHits;             // Probes that found an entry
+    public long ttCutoffs;          // Probes that caused a cutoff
+    public long nullMoveSearches;
+    public long nullMoveCutoffs;
+    public long lmrReductions;      // Moves searched with reduced depth
+    public long lmrReSearches;      // Reduced moves that had to be searched again
+    public long futilityPrunes;     // Moves skipped by futility pruning
+    public long reverseFutilityPrunes;
+    public long razorPrunes;
+    public long lateMovePrunes;
+    public long betaCutoffs;        // Nodes with a fail high from the move loop
+    public long firstMoveCutoffs;   // Fail highs caused by the first searched move
+    public long pawnHashProbes;
+    public long pawnHashHits;
+    public long kingSafetyHashProbes;
+    public long kingSafetyHashHits;
+
+    // Evaluate hash counters when the search started
+    private long pawnHashProbes0, pawnHashHits0;
+    private long kingSafetyHashProbes0, kingSafetyHashHits0;
+
+    /** Reset all counters. Hash counters are measured relative to the current state of eval. */
+    final void startSearch(Evaluate eval) {
+        searchNodes = qNodes = 0;
+        ttProbes = ttHits = ttCutoffs = 0;
+        nullMoveSearches = nullMoveCutoffs = 0;
+        lmrReductions = lmrReSearches = 0;
+        futilityPrunes = reverseFutilityPrunes = razorPrunes = lateMovePrunes = 0;
+        betaCutoffs = firstMoveCutoffs = 0;
+        pawnHashProbes = pawnHashHits = kingSafetyHashProbes = kingSafetyHashHits = 0;
+        pawnHashProbes0 = eval.getPawnHashProbes();
+        pawnHashHits0 = eval.getPawnHashHits();
+        kingSafetyHashProbes0 = eval.getKingSafetyHashProbes();
+        kingSafetyHashHits0 = eval.getKingSafetyHashHits();
+    }
+
+    /** Update hash counters from eval. */
+    final void updateEval(Evaluate eval) {
+        pawnHashProbes = eval.getPawnHashProbes() - pawnHashProbes0;
+        pawnHashHits = eval.getPawnHashHits() - pawnHashHits0;
+        kingSafetyHashProbes = eval.getKingSafetyHashProbes() - kingSafetyHashProbes0;
+        kingSafetyHashHits = eval.getKingSafetyHashHits() - kingSafetyHashHits0;
+    }
+
+    /** Add all counters from another object to this object. */
+    public final void add(SearchStats s) {
+        searchNodes += s.searchNodes;
+        qNodes += s.qNodes;
+        ttProbes += s.ttProbes;
+        ttHits += s.ttHits;
+        ttCutoffs += s.ttCutoffs;
+        nullMoveSearches += s.nullMoveSearches;
+        nullMoveCutoffs += s.nullMoveCutoffs;
+        lmrReductions += s.lmrReductions;
+        lmrReSearches += s.lmrReSearches;
+        futilityPrunes += s.futilityPrunes;
+        reverseFutilityPrunes += s.reverseFutilityPrunes;
+        razorPrunes += s.razorPrunes;
+        lateMovePrunes += s.lateMovePrunes;
+        betaCutoffs += s.betaCutoffs;
+        firstMoveCutoffs += s.firstMoveCutoffs;
+        pawnHashProbes += s.pawnHashProbes;
+        pawnHashHits += s.pawnHashHits;
+        kingSafetyHashProbes += s.kingSafetyHashProbes;
+        kingSafetyHashHits += s.kingSafetyHashHits;
+    }
+
+    private static double percent(long a, long b) {
+        return a * 100.0 / Math.max(b, 1);
+    }
+
+    /** Return a one line summary, suitable for a UCI info string. */
+    @Override
+    public final String toString() {
+        return String.format(Locale.US,
+                "tthit %.1f%% ttcut %.1f%% null %d/%d lmr %d/%d fut %d rfut %d razor %d lmp %d " +
+                "firstcut %.1f%% qnodes %.1f%% pawnhash %.1f%% kshash %.1f%%",
+                percent(ttHits, ttProbes), percent(ttCutoffs, ttProbes),
+                nullMoveCutoffs, nullMoveSearches, lmrReSearches, lmrReductions,
+                futilityPrunes, reverseFutilityPrunes, razorPrunes, lateMovePrunes,
+                percent(firstMoveCutoffs, betaCutoffs), percent(qNodes, searchNodes + qNodes),
+                percent(pawnHashHits, pawnHashProbes), percent(kingSafetyHashHits, kingSafetyHashProbes));
+    }
+
+    /** Return all counters as a JSON object. */
+    public final String toJSON() {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append('{');
+        appendJSON(sb, "searchNodes", searchNodes);
+        appendJSON(sb, "qNodes", qNodes);
+        appendJSON(sb, "ttProbes", ttProbes);
+        appendJSON(sb, "ttHits", ttHits);
+        appendJSON(sb, "ttCutoffs", ttCutoffs);
+        appendJSON(sb, "nullMoveSearches", nullMoveSearches);
+        appendJSON(sb, "nullMoveCutoffs", nullMoveCutoffs);
+        appendJSON(sb, "lmrReductions", lmrReductions);
+        appendJSON(sb, "lmrReSearches", lmrReSearches);
+        appendJSON(sb, "futilityPrunes", futilityPrunes);
+        appendJSON(sb, "reverseFutilityPrunes", reverseFutilityPrunes);
+        appendJSON(sb, "razorPrunes", razorPrunes);
+        appendJSON(sb, "lateMovePrunes", lateMovePrunes);
+        appendJSON(sb, "betaCutoffs", betaCutoffs);
+        appendJSON(sb, "firstMoveCutoffs", firstMoveCutoffs);
+        appendJSON(sb, "pawnHashProbes", pawnHashProbes);
+        appendJSON(sb, "pawnHashHits", pawnHashHits);
+        appendJSON(sb, "kingSafetyHashProbes", kingSafetyHashProbes);
+        appendJSON(sb, "kingSafetyHashHits", kingSafetyHashHits);
+        sb.setLength(sb.length() - 1);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private static void appendJSON(StringBuilder sb, String name, long value) {
+        sb.append('"').append(name).append("\":").append(value).append(',');
+    }
+}
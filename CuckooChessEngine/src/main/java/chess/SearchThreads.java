@@ -0,0 +1,140 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package chess;
+
+import java.util.Arrays;
+
+/**
+ * Search data that is kept between searches. Holds the Evaluate object used
+ * by the main search, and the Lazy SMP helpers. Each helper has a Search
+ * object and a thread, both created when first needed. Between searches the
+ * thread waits for the next search, so starting a search does not create
+ * threads or allocate evaluation hash tables.
+ */
+public final class SearchThreads {
+    private Evaluate eval;
+    private Helper[] helpers = new Helper[0];
+
+    /**
+     * Return the Evaluate object for the main search thread. A new object is
+     * created if the hash table size parameters have changed.
+     */
+    final synchronized Evaluate getEvaluate() {
+        if ((eval == null) || !eval.hasCurrentHashSizes())
+            eval = new Evaluate();
+        return eval;
+    }
+
+    /** Set the number of search threads, including the main search thread. */
+    public final synchronized void setNumThreads(int nThreads) {
+        int nHelpers = Math.max(nThreads - 1, 0);
+        int oldLen = helpers.length;
+        for (int i = nHelpers; i < oldLen; i++)
+            helpers[i].quit();
+        helpers = Arrays.copyOf(helpers, nHelpers);
+        for (int i = oldLen; i < nHelpers; i++)
+            helpers[i] = new Helper();
+    }
+
+    /** Terminate all helper threads. The threads are created again when needed. */
+    public final synchronized void stopThreads() {
+        for (Helper h : helpers)
+            h.quit();
+    }
+
+    final synchronized int getNumHelpers() {
+        return helpers.length;
+    }
+
+    final synchronized Helper getHelper(int i) {
+        return helpers[i];
+    }
+
+    /** A helper search and the thread that runs it. */
+    static final class Helper implements Runnable {
+        Search search;          // Created by the main search when first needed
+        private Thread thread;  // Null if the thread is not running
+        private Runnable job;   // Search waiting to be started, or null
+        private boolean busy;   // True until the last started job has finished
+        private boolean quit;   // True when the thread shall terminate
+
+        /** Run job in the helper thread. */
+        final synchronized void start(Runnable job) {
+            this.job = job;
+            busy = true;
+            if (thread == null) {
+                quit = false;
+                thread = new Thread(this, "helper");
+                thread.setDaemon(true);
+                thread.start();
+            }
+            notifyAll();
+        }
+
+        /** Wait until the last started job has finished. */
+        final synchronized void waitDone() {
+            boolean interrupted = false;
+            while (busy) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+
+        /** Terminate the thread when the current job, if any, has finished. */
+        final synchronized void quit() {
+            quit = true;
+            notifyAll();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable r;
+                synchronized (this) {
+                    while ((job == null) && !quit) {
+                        try {
+                            wait();
+                        } catch (InterruptedException ex) {
+                            break;
+                        }
+                    }
+                    if (job == null) {
+                        thread = null;
+                        return;
+                    }
+                    r = job;
+                    job = null;
+                }
+                try {
+                    r.run();
+                } finally {
+                    synchronized (this) {
+                        busy = false;
+                        notifyAll();
+                    }
+                }
+            }
+        }
+    }
+}
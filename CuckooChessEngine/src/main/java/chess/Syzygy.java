@@ -0,0 +1,1634 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package chess;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Probing of Syzygy endgame tablebases, up to 6 pieces.
+ * This is a java port of the probing code by Ronald de Man, as used by the
+ * native DroidFish tablebase prober. Table files are memory mapped the first
+ * time they are needed.
+ */
+public final class Syzygy {
+    /** Returned by probe functions when no tablebase information is available. */
+    public static final int NO_INFO = 1000;
+
+    private static final int TBPIECES = 7;
+    private static final int WDL_MAGIC = 0x5d23e871;
+    private static final int DTZ_MAGIC = 0xa50c66d7;
+    private static final String WDL_SUFFIX = ".rtbw";
+    private static final String DTZ_SUFFIX = ".rtbz";
+
+    /** Decoding information for one compressed sub-table. */
+    private static final class PairsData {
+        ByteBuffer buf;
+        int flags;
+        int indexTable;
+        int sizeTable;
+        int data;
+        int offset;     // Position of the 16 bit offset table
+        int symPat;     // Position of the symbol pattern table
+        int[] symLen;
+        long[] base;
+        int blockSize;
+        int idxBits;
+        int minLen;
+    }
+
+    /** Piece order and index factors for one side and pawn file. */
+    private static final class EncInfo {
+        PairsData precomp;
+        final long[] factor = new long[TBPIECES];
+        final int[] pieces = new int[TBPIECES];
+        final int[] norm = new int[TBPIECES];
+    }
+
+    /** A WDL or DTZ table for one material configuration. */
+    private static final class Table {
+        final String name;      // File name without suffix, e.g. KQvKR
+        final long key;         // Material key for the position described by name
+        final int num;          // Number of pieces
+        final boolean symmetric;
+        final boolean hasPawns;
+        final int encType;
+        final int[] pawns = new int[2];
+        final boolean hasDtz;   // True if a DTZ file exists
+
+        volatile boolean ready; // True when data has been set up
+        boolean failed;         // True if the file could not be used
+        ByteBuffer data;
+        final EncInfo[][] ei;   // [file][side]
+
+        // DTZ information
+        volatile Table dtz;     // DTZ table, created when first needed
+        boolean dtzFailed;
+        final int[] flags = new int[4];
+        final int[][] mapIdx = new int[4][4];
+        int map;
+
+        Table(String name, long key, int num, boolean symmetric, boolean hasPawns,
+              int encType, int pawns0, int pawns1, boolean hasDtz, int nSides) {
+            this.name = name;
+            this.key = key;
+            this.num = num;
+            this.symmetric = symmetric;
+            this.hasPawns = hasPawns;
+            this.encType = encType;
+            pawns[0] = pawns0;
+            pawns[1] = pawns1;
+            this.hasDtz = hasDtz;
+            ei = new EncInfo[4][nSides];
+            for (int f = 0; f < 4; f++)
+                for (int s = 0; s < nSides; s++)
+                    ei[f][s] = new EncInfo();
+        }
+    }
+
+    private static final Object lock = new Object();
+    private static String currentPath = "";
+    private static volatile Map<Long, Table> tables = new HashMap<>();
+    private static volatile int largest = 0;
+    private static List<File> dirs = new ArrayList<>();
+
+    private static final ThreadLocal<MoveGen> moveGen = new ThreadLocal<MoveGen>() {
+        @Override
+        protected MoveGen initialValue() {
+            return new MoveGen();
+        }
+    };
+
+    /**
+     * Initialize tablebases from a list of directories, separated by the
+     * system path separator. An empty path disables tablebase probing.
+     * Nothing is done if the path has not changed.
+     */
+    public static void initialize(String path) {
+        synchronized (lock) {
+            if (path.equals(currentPath))
+                return;
+            currentPath = path;
+            dirs = new ArrayList<>();
+            for (String dir : path.split(File.pathSeparator)) {
+                if (dir.length() > 0)
+                    dirs.add(new File(dir));
+            }
+            Map<Long, Table> newTables = new HashMap<>();
+            int newLargest = 0;
+            if (!dirs.isEmpty()) {
+                List<String> names = new ArrayList<>();
+                tableNames(names);
+                for (String name : names) {
+                    Table t = createTable(name);
+                    if (t != null) {
+                        newTables.put(t.key, t);
+                        newTables.put(mirrorKey(t.key), t);
+                        newLargest = Math.max(newLargest, t.num);
+                    }
+                }
+            }
+            tables = newTables;
+            largest = newLargest;
+        }
+    }
+
+    /** Return the largest number of pieces in any available table, or 0 if there are no tables. */
+    public static int getLargest() {
+        return largest;
+    }
+
+    /** Return the number of available WDL tables. */
+    public static int getNumTables() {
+        int n = 0;
+        for (Map.Entry<Long, Table> e : tables.entrySet())
+            if (e.getKey() == e.getValue().key)
+                n++;
+        return n;
+    }
+
+    private static final char[] pchr = { 'K', 'Q', 'R', 'B', 'N', 'P' };
+
+    /**
+     * Generate names of all material configurations with at most 6 pieces,
+     * where the first side has at least as much material as the second side.
+     */
+    static void tableNames(List<String> names) {
+        for (int n = 1; n <= TBPIECES - 3; n++)
+            addPieces("", n, 1, TBPIECES - 3 - n, names);
+    }
+
+    private static void addPieces(String w, int n, int minPiece, int left, List<String> names) {
+        if (n == 0) {
+            for (int nb = 0; nb <= Math.min(left, w.length()); nb++)
+                addBlackPieces(w, "", nb, 1, names);
+            return;
+        }
+        for (int p = minPiece; p < 6; p++)
+            addPieces(w + pchr[p], n - 1, p, left, names);
+    }
+
+    private static void addBlackPieces(String w, String b, int n, int minPiece, List<String> names) {
+        if (n == 0) {
+            if ((b.length() < w.length()) || (pieceOrder(w).compareTo(pieceOrder(b)) <= 0))
+                names.add("K" + w + "vK" + b);
+            return;
+        }
+        for (int p = minPiece; p < 6; p++)
+            addBlackPieces(w, b + pchr[p], n - 1, p, names);
+    }
+
+    /** Order used to pick one of two equally sized sides as the first side. */
+    private static String pieceOrder(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < s.length(); i++)
+            sb.append((char)('0' + "QRBNP".indexOf(s.charAt(i))));
+        return sb.toString();
+    }
+
+    private static File findFile(String name, String suffix) {
+        for (File dir : dirs) {
+            File f = new File(dir, name + suffix);
+            if (f.isFile())
+                return f;
+        }
+        return null;
+    }
+
+    private static Table createTable(String name) {
+        if (findFile(name, WDL_SUFFIX) == null)
+            return null;
+        int[] pcs = new int[16];
+        int color = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            switch (c) {
+            case 'P': pcs[1 | color]++; break;
+            case 'N': pcs[2 | color]++; break;
+            case 'B': pcs[3 | color]++; break;
+            case 'R': pcs[4 | color]++; break;
+            case 'Q': pcs[5 | color]++; break;
+            case 'K': pcs[6 | color]++; break;
+            case 'v': color = 8; break;
+            }
+        }
+        long key = 0;
+        for (int t = 1; t <= 5; t++) {
+            key |= (long)pcs[t] << (4 * (t - 1));
+            key |= (long)pcs[8 + t] << (20 + 4 * (t - 1));
+        }
+        int num = 0;
+        for (int i = 0; i < 16; i++)
+            num += pcs[i];
+        boolean hasPawns = pcs[1] + pcs[9] > 0;
+        int encType = 0;
+        int pawns0 = 0, pawns1 = 0;
+        if (hasPawns) {
+            pawns0 = pcs[1];
+            pawns1 = pcs[9];
+            if ((pcs[9] > 0) && ((pcs[1] == 0) || (pcs[9] < pcs[1]))) {
+                pawns0 = pcs[9];
+                pawns1 = pcs[1];
+            }
+        } else {
+            int j = 0;
+            for (int i = 0; i < 16; i++)
+                if (pcs[i] == 1)
+                    j++;
+            encType = (j >= 3) ? 0 : 2;
+        }
+        boolean hasDtz = findFile(name, DTZ_SUFFIX) != null;
+        return new Table(name, key, num, key == mirrorKey(key), hasPawns, encType,
+                         pawns0, pawns1, hasDtz, 2);
+    }
+
+    private static long mirrorKey(long key) {
+        return (key >>> 20) | ((key & 0xfffff) << 20);
+    }
+
+    /** Material key for a position, excluding kings. Four bits per piece type. */
+    private static long calcKey(Position pos, boolean mirror) {
+        long key = 0;
+        for (int t = 1; t <= 5; t++) {
+            long w = Long.bitCount(pos.pieceTypeBB[Piece.WKING + 6 - t]);
+            long b = Long.bitCount(pos.pieceTypeBB[Piece.BKING + 6 - t]);
+            key |= (mirror ? b : w) << (4 * (t - 1));
+            key |= (mirror ? w : b) << (20 + 4 * (t - 1));
+        }
+        return key;
+    }
+
+    /** Get pieces of a tablebase piece type, where 1 = pawn, ..., 6 = king. */
+    private static long getPieces(Position pos, int color, int piece) {
+        return pos.pieceTypeBB[(color != 0 ? Piece.BKING : Piece.WKING) + 6 - piece];
+    }
+
+    // ------------------------------------------------------------------------
+    // File mapping and table setup
+
+    private static ByteBuffer mapFile(String name, String suffix) {
+        File f = findFile(name, suffix);
+        if (f == null)
+            return null;
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r");
+             FileChannel ch = raf.getChannel()) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE)
+                return null;
+            ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            return buf;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static int u8(ByteBuffer buf, int idx) {
+        return buf.get(idx) & 0xff;
+    }
+
+    private static int u16(ByteBuffer buf, int idx) {
+        return buf.getShort(idx) & 0xffff;
+    }
+
+    private static int align64(int p) {
+        return (p + 0x3f) & ~0x3f;
+    }
+
+    private static boolean initTableWdl(Table t) {
+        ByteBuffer buf = mapFile(t.name, WDL_SUFFIX);
+        if ((buf == null) || (buf.getInt(0) != WDL_MAGIC))
+            return false;
+        t.data = buf;
+        boolean split = (u8(buf, 4) & 0x01) != 0;
+        int files = (u8(buf, 4) & 0x02) != 0 ? 4 : 1;
+        int[] p = { 5 };
+        long[] tbSize = new long[8];
+        long[] size = new long[8 * 3];
+
+        if (!t.hasPawns) {
+            setupPiecesPiece(t, buf, p[0], tbSize);
+            p[0] += t.num + 1;
+            p[0] += p[0] & 1;
+
+            EncInfo[] ei = t.ei[0];
+            ei[0].precomp = setupPairs(buf, p, tbSize[0], size, 0, true);
+            if (split)
+                ei[1].precomp = setupPairs(buf, p, tbSize[1], size, 3, true);
+
+            ei[0].precomp.indexTable = p[0];
+            p[0] += (int)size[0];
+            if (split) {
+                ei[1].precomp.indexTable = p[0];
+                p[0] += (int)size[3];
+            }
+
+            ei[0].precomp.sizeTable = p[0];
+            p[0] += (int)size[1];
+            if (split) {
+                ei[1].precomp.sizeTable = p[0];
+                p[0] += (int)size[4];
+            }
+
+            p[0] = align64(p[0]);
+            ei[0].precomp.data = p[0];
+            p[0] += (int)size[2];
+            if (split) {
+                p[0] = align64(p[0]);
+                ei[1].precomp.data = p[0];
+            }
+        } else {
+            int s = 1 + (t.pawns[1] > 0 ? 1 : 0);
+            for (int f = 0; f < 4; f++) {
+                setupPiecesPawn(t, buf, p[0], tbSize, f, 2);
+                p[0] += t.num + s;
+            }
+            p[0] += p[0] & 1;
+
+            for (int f = 0; f < files; f++) {
+                t.ei[f][0].precomp = setupPairs(buf, p, tbSize[2 * f], size, 6 * f, true);
+                if (split)
+                    t.ei[f][1].precomp = setupPairs(buf, p, tbSize[2 * f + 1], size, 6 * f + 3, true);
+            }
+
+            for (int f = 0; f < files; f++) {
+                t.ei[f][0].precomp.indexTable = p[0];
+                p[0] += (int)size[6 * f];
+                if (split) {
+                    t.ei[f][1].precomp.indexTable = p[0];
+                    p[0] += (int)size[6 * f + 3];
+                }
+            }
+
+            for (int f = 0; f < files; f++) {
+                t.ei[f][0].precomp.sizeTable = p[0];
+                p[0] += (int)size[6 * f + 1];
+                if (split) {
+                    t.ei[f][1].precomp.sizeTable = p[0];
+                    p[0] += (int)size[6 * f + 4];
+                }
+            }
+
+            for (int f = 0; f < files; f++) {
+                p[0] = align64(p[0]);
+                t.ei[f][0].precomp.data = p[0];
+                p[0] += (int)size[6 * f + 2];
+                if (split) {
+                    p[0] = align64(p[0]);
+                    t.ei[f][1].precomp.data = p[0];
+                    p[0] += (int)size[6 * f + 5];
+                }
+            }
+        }
+        return true;
+    }
+
+    private static Table loadDtzTable(Table w) {
+        Table t = new Table(w.name, w.key, w.num, w.symmetric, w.hasPawns, w.encType,
+                            w.pawns[0], w.pawns[1], true, 1);
+        ByteBuffer buf = mapFile(t.name, DTZ_SUFFIX);
+        if ((buf == null) || (buf.getInt(0) != DTZ_MAGIC))
+            return null;
+        t.data = buf;
+        int files = (u8(buf, 4) & 0x02) != 0 ? 4 : 1;
+        int[] p = { 5 };
+        long[] tbSize = new long[4];
+        long[] size = new long[4 * 3];
+
+        if (!t.hasPawns) {
+            EncInfo ei = t.ei[0][0];
+            for (int i = 0; i < t.num; i++)
+                ei.pieces[i] = u8(buf, p[0] + i + 1) & 0x0f;
+            int order = u8(buf, p[0]) & 0x0f;
+            setNormPiece(t, ei.norm, ei.pieces);
+            tbSize[0] = calcFactorsPiece(ei.factor, t.num, order, ei.norm, t.encType);
+            p[0] += t.num + 1;
+            p[0] += p[0] & 1;
+
+            ei.precomp = setupPairs(buf, p, tbSize[0], size, 0, false);
+            t.flags[0] = ei.precomp.flags;
+
+            t.map = p[0];
+            if ((t.flags[0] & 2) != 0) {
+                readMapIdx(t, buf, p, 0);
+                p[0] += p[0] & 1;
+            }
+
+            ei.precomp.indexTable = p[0];
+            p[0] += (int)size[0];
+            ei.precomp.sizeTable = p[0];
+            p[0] += (int)size[1];
+            p[0] = align64(p[0]);
+            ei.precomp.data = p[0];
+        } else {
+            int s = 1 + (t.pawns[1] > 0 ? 1 : 0);
+            for (int f = 0; f < 4; f++) {
+                setupPiecesPawn(t, buf, p[0], tbSize, f, 1);
+                p[0] += t.num + s;
+            }
+            p[0] += p[0] & 1;
+
+            for (int f = 0; f < files; f++) {
+                t.ei[f][0].precomp = setupPairs(buf, p, tbSize[f], size, 3 * f, false);
+                t.flags[f] = t.ei[f][0].precomp.flags;
+            }
+
+            t.map = p[0];
+            for (int f = 0; f < files; f++)
+                if ((t.flags[f] & 2) != 0)
+                    readMapIdx(t, buf, p, f);
+            p[0] += p[0] & 1;
+
+            for (int f = 0; f < files; f++) {
+                t.ei[f][0].precomp.indexTable = p[0];
+                p[0] += (int)size[3 * f];
+            }
+            for (int f = 0; f < files; f++) {
+                t.ei[f][0].precomp.sizeTable = p[0];
+                p[0] += (int)size[3 * f + 1];
+            }
+            for (int f = 0; f < files; f++) {
+                p[0] = align64(p[0]);
+                t.ei[f][0].precomp.data = p[0];
+                p[0] += (int)size[3 * f + 2];
+            }
+        }
+        return t;
+    }
+
+    /** Read the start indices of the four DTZ value maps for one file. */
+    private static void readMapIdx(Table t, ByteBuffer buf, int[] p, int f) {
+        if ((t.flags[f] & 16) != 0) {
+            p[0] += p[0] & 1;
+            for (int i = 0; i < 4; i++) {
+                t.mapIdx[f][i] = (p[0] - t.map) / 2 + 1;
+                p[0] += 2 + u16(buf, p[0]) * 2;
+            }
+        } else {
+            for (int i = 0; i < 4; i++) {
+                t.mapIdx[f][i] = p[0] - t.map + 1;
+                p[0] += 1 + u8(buf, p[0]);
+            }
+        }
+    }
+
+    private static void setupPiecesPiece(Table t, ByteBuffer buf, int p, long[] tbSize) {
+        for (int side = 0; side < 2; side++) {
+            EncInfo ei = t.ei[0][side];
+            int shift = side * 4;
+            for (int i = 0; i < t.num; i++)
+                ei.pieces[i] = (u8(buf, p + i + 1) >> shift) & 0x0f;
+            int order = (u8(buf, p) >> shift) & 0x0f;
+            setNormPiece(t, ei.norm, ei.pieces);
+            tbSize[side] = calcFactorsPiece(ei.factor, t.num, order, ei.norm, t.encType);
+        }
+    }
+
+    private static void setupPiecesPawn(Table t, ByteBuffer buf, int p, long[] tbSize, int f, int nSides) {
+        int j = 1 + (t.pawns[1] > 0 ? 1 : 0);
+        for (int side = 0; side < nSides; side++) {
+            EncInfo ei = t.ei[f][side];
+            int shift = side * 4;
+            int order = (u8(buf, p) >> shift) & 0x0f;
+            int order2 = (t.pawns[1] > 0) ? (u8(buf, p + 1) >> shift) & 0x0f : 0x0f;
+            for (int i = 0; i < t.num; i++)
+                ei.pieces[i] = (u8(buf, p + i + j) >> shift) & 0x0f;
+            setNormPawn(t, ei.norm, ei.pieces);
+            tbSize[nSides * f + side] = calcFactorsPawn(ei.factor, t.num, order, order2, ei.norm, f);
+        }
+    }
+
+    private static void setNormPiece(Table t, int[] norm, int[] pieces) {
+        for (int i = 0; i < t.num; i++)
+            norm[i] = 0;
+        norm[0] = (t.encType == 0) ? 3 : 2;
+        for (int i = norm[0]; i < t.num; i += norm[i])
+            for (int j = i; j < t.num && pieces[j] == pieces[i]; j++)
+                norm[i]++;
+    }
+
+    private static void setNormPawn(Table t, int[] norm, int[] pieces) {
+        for (int i = 0; i < t.num; i++)
+            norm[i] = 0;
+        norm[0] = t.pawns[0];
+        if (t.pawns[1] > 0)
+            norm[t.pawns[0]] = t.pawns[1];
+        for (int i = t.pawns[0] + t.pawns[1]; i < t.num; i += norm[i])
+            for (int j = i; j < t.num && pieces[j] == pieces[i]; j++)
+                norm[i]++;
+    }
+
+    /** Number of ways to place k like pieces on n squares. */
+    private static long subfactor(int k, int n) {
+        long f = n;
+        long l = 1;
+        for (int i = 1; i < k; i++) {
+            f *= n - i;
+            l *= i + 1;
+        }
+        return f / l;
+    }
+
+    private static final int[] pivfac = { 31332, 28056, 462 };
+
+    private static long calcFactorsPiece(long[] factor, int num, int order, int[] norm, int encType) {
+        int n = 64 - norm[0];
+        long f = 1;
+        for (int i = norm[0], k = 0; i < num || k == order; k++) {
+            if (k == order) {
+                factor[0] = f;
+                f *= pivfac[encType];
+            } else {
+                factor[i] = f;
+                f *= subfactor(norm[i], n);
+                n -= norm[i];
+                i += norm[i];
+            }
+        }
+        return f;
+    }
+
+    private static long calcFactorsPawn(long[] factor, int num, int order, int order2, int[] norm, int file) {
+        int i = norm[0];
+        if (order2 < 0x0f)
+            i += norm[i];
+        int n = 64 - i;
+        long f = 1;
+        for (int k = 0; i < num || k == order || k == order2; k++) {
+            if (k == order) {
+                factor[0] = f;
+                f *= pfactor[norm[0] - 1][file];
+            } else if (k == order2) {
+                factor[norm[0]] = f;
+                f *= subfactor(norm[norm[0]], 48 - norm[0]);
+            } else {
+                factor[i] = f;
+                f *= subfactor(norm[i], n);
+                n -= norm[i];
+                i += norm[i];
+            }
+        }
+        return f;
+    }
+
+    private static PairsData setupPairs(ByteBuffer buf, int[] p, long tbSize, long[] size,
+                                        int sizeIdx, boolean wdl) {
+        PairsData d = new PairsData();
+        d.buf = buf;
+        int data = p[0];
+        d.flags = u8(buf, data);
+        if ((d.flags & 0x80) != 0) {
+            d.idxBits = 0;
+            d.minLen = wdl ? u8(buf, data + 1) : 0;
+            p[0] = data + 2;
+            size[sizeIdx] = size[sizeIdx + 1] = size[sizeIdx + 2] = 0;
+            return d;
+        }
+
+        d.blockSize = u8(buf, data + 1);
+        d.idxBits = u8(buf, data + 2);
+        int realNumBlocks = buf.getInt(data + 4);
+        int numBlocks = realNumBlocks + u8(buf, data + 3);
+        int maxLen = u8(buf, data + 8);
+        int minLen = u8(buf, data + 9);
+        int h = maxLen - minLen + 1;
+        int numSyms = u16(buf, data + 10 + 2 * h);
+        d.offset = data + 10;
+        d.symPat = data + 12 + 2 * h;
+        d.minLen = minLen;
+        p[0] = data + 12 + 2 * h + 3 * numSyms + (numSyms & 1);
+
+        long numIndices = (tbSize + (1L << d.idxBits) - 1) >>> d.idxBits;
+        size[sizeIdx] = 6 * numIndices;
+        size[sizeIdx + 1] = 2L * numBlocks;
+        size[sizeIdx + 2] = (1L << d.blockSize) * realNumBlocks;
+
+        d.symLen = new int[numSyms];
+        boolean[] tmp = new boolean[numSyms];
+        for (int i = 0; i < numSyms; i++)
+            if (!tmp[i])
+                calcSymLen(d, i, tmp);
+
+        d.base = new long[h];
+        d.base[h - 1] = 0;
+        for (int i = h - 2; i >= 0; i--)
+            d.base[i] = (d.base[i + 1] + u16(buf, d.offset + 2 * i) - u16(buf, d.offset + 2 * (i + 1))) / 2;
+        for (int i = 0; i < h; i++)
+            d.base[i] <<= 64 - (minLen + i);
+        return d;
+    }
+
+    private static int symPattern(PairsData d, int s) {
+        int idx = d.symPat + 3 * s;
+        return u8(d.buf, idx) | (u8(d.buf, idx + 1) << 8) | (u8(d.buf, idx + 2) << 16);
+    }
+
+    private static void calcSymLen(PairsData d, int s, boolean[] tmp) {
+        int w = symPattern(d, s);
+        int s2 = (w >> 12) & 0x0fff;
+        if (s2 == 0x0fff) {
+            d.symLen[s] = 0;
+        } else {
+            int s1 = w & 0x0fff;
+            if (!tmp[s1]) calcSymLen(d, s1, tmp);
+            if (!tmp[s2]) calcSymLen(d, s2, tmp);
+            d.symLen[s] = d.symLen[s1] + d.symLen[s2] + 1;
+        }
+        tmp[s] = true;
+    }
+
+    private static int decompressPairs(PairsData d, long idx) {
+        if (d.idxBits == 0)
+            return d.minLen;
+        final ByteBuffer buf = d.buf;
+
+        int mainIdx = (int)(idx >>> d.idxBits);
+        int litIdx = (int)(idx & ((1L << d.idxBits) - 1)) - (1 << (d.idxBits - 1));
+        int block = buf.getInt(d.indexTable + 6 * mainIdx);
+        litIdx += u16(buf, d.indexTable + 6 * mainIdx + 4);
+        if (litIdx < 0) {
+            do {
+                litIdx += u16(buf, d.sizeTable + 2 * --block) + 1;
+            } while (litIdx < 0);
+        } else {
+            while (litIdx > u16(buf, d.sizeTable + 2 * block))
+                litIdx -= u16(buf, d.sizeTable + 2 * block++) + 1;
+        }
+
+        int ptr = d.data + (block << d.blockSize);
+        final int m = d.minLen;
+        final long[] base = d.base;
+        final int[] symLen = d.symLen;
+        int sym;
+
+        long code = Long.reverseBytes(buf.getLong(ptr));
+        ptr += 8;
+        int bitCnt = 0; // Number of "empty bits" in code
+        while (true) {
+            int l = m;
+            while ((code ^ Long.MIN_VALUE) < (base[l - m] ^ Long.MIN_VALUE)) // Unsigned compare
+                l++;
+            sym = u16(buf, d.offset + 2 * (l - m)) + (int)((code - base[l - m]) >>> (64 - l));
+            if (litIdx < symLen[sym] + 1)
+                break;
+            litIdx -= symLen[sym] + 1;
+            code <<= l;
+            bitCnt += l;
+            if (bitCnt >= 32) {
+                bitCnt -= 32;
+                code |= (Integer.reverseBytes(buf.getInt(ptr)) & 0xffffffffL) << bitCnt;
+                ptr += 4;
+            }
+        }
+
+        while (symLen[sym] != 0) {
+            int w = symPattern(d, sym);
+            int s1 = w & 0x0fff;
+            if (litIdx < symLen[s1] + 1) {
+                sym = s1;
+            } else {
+                litIdx -= symLen[s1] + 1;
+                sym = (w >> 12) & 0x0fff;
+            }
+        }
+        return u8(buf, d.symPat + 3 * sym);
+    }
+
+    // ------------------------------------------------------------------------
+    // Index computation
+
+    private static final int[] offdiag = {
+        0,-1,-1,-1,-1,-1,-1,-1,
+        1, 0,-1,-1,-1,-1,-1,-1,
+        1, 1, 0,-1,-1,-1,-1,-1,
+        1, 1, 1, 0,-1,-1,-1,-1,
+        1, 1, 1, 1, 0,-1,-1,-1,
+        1, 1, 1, 1, 1, 0,-1,-1,
+        1, 1, 1, 1, 1, 1, 0,-1,
+        1, 1, 1, 1, 1, 1, 1, 0
+    };
+
+    private static final int[] triangle = {
+        6, 0, 1, 2, 2, 1, 0, 6,
+        0, 7, 3, 4, 4, 3, 7, 0,
+        1, 3, 8, 5, 5, 8, 3, 1,
+        2, 4, 5, 9, 9, 5, 4, 2,
+        2, 4, 5, 9, 9, 5, 4, 2,
+        1, 3, 8, 5, 5, 8, 3, 1,
+        0, 7, 3, 4, 4, 3, 7, 0,
+        6, 0, 1, 2, 2, 1, 0, 6
+    };
+
+    private static final int[] flipdiag = {
+        0,  8, 16, 24, 32, 40, 48, 56,
+        1,  9, 17, 25, 33, 41, 49, 57,
+        2, 10, 18, 26, 34, 42, 50, 58,
+        3, 11, 19, 27, 35, 43, 51, 59,
+        4, 12, 20, 28, 36, 44, 52, 60,
+        5, 13, 21, 29, 37, 45, 53, 61,
+        6, 14, 22, 30, 38, 46, 54, 62,
+        7, 15, 23, 31, 39, 47, 55, 63
+    };
+
+    private static final int[] lower = {
+        28,  0,  1,  2,  3,  4,  5,  6,
+         0, 29,  7,  8,  9, 10, 11, 12,
+         1,  7, 30, 13, 14, 15, 16, 17,
+         2,  8, 13, 31, 18, 19, 20, 21,
+         3,  9, 14, 18, 32, 22, 23, 24,
+         4, 10, 15, 19, 22, 33, 25, 26,
+         5, 11, 16, 20, 23, 25, 34, 27,
+         6, 12, 17, 21, 24, 26, 27, 35
+    };
+
+    private static final int[] diag = {
+         0,  0,  0,  0,  0,  0,  0,  8,
+         0,  1,  0,  0,  0,  0,  9,  0,
+         0,  0,  2,  0,  0, 10,  0,  0,
+         0,  0,  0,  3, 11,  0,  0,  0,
+         0,  0,  0, 12,  4,  0,  0,  0,
+         0,  0, 13,  0,  0,  5,  0,  0,
+         0, 14,  0,  0,  0,  0,  6,  0,
+        15,  0,  0,  0,  0,  0,  0,  7
+    };
+
+    private static final int[] flap = {
+        0,  0,  0,  0,  0,  0,  0, 0,
+        0,  6, 12, 18, 18, 12,  6, 0,
+        1,  7, 13, 19, 19, 13,  7, 1,
+        2,  8, 14, 20, 20, 14,  8, 2,
+        3,  9, 15, 21, 21, 15,  9, 3,
+        4, 10, 16, 22, 22, 16, 10, 4,
+        5, 11, 17, 23, 23, 17, 11, 5,
+        0,  0,  0,  0,  0,  0,  0, 0
+    };
+
+    private static final int[] ptwist = {
+         0,  0,  0,  0,  0,  0,  0,  0,
+        47, 35, 23, 11, 10, 22, 34, 46,
+        45, 33, 21,  9,  8, 20, 32, 44,
+        43, 31, 19,  7,  6, 18, 30, 42,
+        41, 29, 17,  5,  4, 16, 28, 40,
+        39, 27, 15,  3,  2, 14, 26, 38,
+        37, 25, 13,  1,  0, 12, 24, 36,
+         0,  0,  0,  0,  0,  0,  0,  0
+    };
+
+    private static final int[] invflap = {
+         8, 16, 24, 32, 40, 48,
+         9, 17, 25, 33, 41, 49,
+        10, 18, 26, 34, 42, 50,
+        11, 19, 27, 35, 43, 51
+    };
+
+    private static final int[] fileToFile = { 0, 1, 2, 3, 3, 2, 1, 0 };
+
+    private static final short[][] KK_idx = {
+        { -1, -1, -1,  0,  1,  2,  3,  4,
+          -1, -1, -1,  5,  6,  7,  8,  9,
+          10, 11, 12, 13, 14, 15, 16, 17,
+          18, 19, 20, 21, 22, 23, 24, 25,
+          26, 27, 28, 29, 30, 31, 32, 33,
+          34, 35, 36, 37, 38, 39, 40, 41,
+          42, 43, 44, 45, 46, 47, 48, 49,
+          50, 51, 52, 53, 54, 55, 56, 57 },
+        { 58, -1, -1, -1, 59, 60, 61, 62,
+          63, -1, -1, -1, 64, 65, 66, 67,
+          68, 69, 70, 71, 72, 73, 74, 75,
+          76, 77, 78, 79, 80, 81, 82, 83,
+          84, 85, 86, 87, 88, 89, 90, 91,
+          92, 93, 94, 95, 96, 97, 98, 99,
+         100,101,102,103,104,105,106,107,
+         108,109,110,111,112,113,114,115 },
+        {116,117, -1, -1, -1,118,119,120,
+         121,122, -1, -1, -1,123,124,125,
+         126,127,128,129,130,131,132,133,
+         134,135,136,137,138,139,140,141,
+         142,143,144,145,146,147,148,149,
+         150,151,152,153,154,155,156,157,
+         158,159,160,161,162,163,164,165,
+         166,167,168,169,170,171,172,173 },
+        {174, -1, -1, -1,175,176,177,178,
+         179, -1, -1, -1,180,181,182,183,
+         184, -1, -1, -1,185,186,187,188,
+         189,190,191,192,193,194,195,196,
+         197,198,199,200,201,202,203,204,
+         205,206,207,208,209,210,211,212,
+         213,214,215,216,217,218,219,220,
+         221,222,223,224,225,226,227,228 },
+        {229,230, -1, -1, -1,231,232,233,
+         234,235, -1, -1, -1,236,237,238,
+         239,240, -1, -1, -1,241,242,243,
+         244,245,246,247,248,249,250,251,
+         252,253,254,255,256,257,258,259,
+         260,261,262,263,264,265,266,267,
+         268,269,270,271,272,273,274,275,
+         276,277,278,279,280,281,282,283 },
+        {284,285,286,287,288,289,290,291,
+         292,293, -1, -1, -1,294,295,296,
+         297,298, -1, -1, -1,299,300,301,
+         302,303, -1, -1, -1,304,305,306,
+         307,308,309,310,311,312,313,314,
+         315,316,317,318,319,320,321,322,
+         323,324,325,326,327,328,329,330,
+         331,332,333,334,335,336,337,338 },
+        { -1, -1,339,340,341,342,343,344,
+          -1, -1,345,346,347,348,349,350,
+          -1, -1,441,351,352,353,354,355,
+          -1, -1, -1,442,356,357,358,359,
+          -1, -1, -1, -1,443,360,361,362,
+          -1, -1, -1, -1, -1,444,363,364,
+          -1, -1, -1, -1, -1, -1,445,365,
+          -1, -1, -1, -1, -1, -1, -1,446 },
+        { -1, -1, -1,366,367,368,369,370,
+          -1, -1, -1,371,372,373,374,375,
+          -1, -1, -1,376,377,378,379,380,
+          -1, -1, -1,447,381,382,383,384,
+          -1, -1, -1, -1,448,385,386,387,
+          -1, -1, -1, -1, -1,449,388,389,
+          -1, -1, -1, -1, -1, -1,450,390,
+          -1, -1, -1, -1, -1, -1, -1,451 },
+        {452,391,392,393,394,395,396,397,
+          -1, -1, -1, -1,398,399,400,401,
+          -1, -1, -1, -1,402,403,404,405,
+          -1, -1, -1, -1,406,407,408,409,
+          -1, -1, -1, -1,453,410,411,412,
+          -1, -1, -1, -1, -1,454,413,414,
+          -1, -1, -1, -1, -1, -1,455,415,
+          -1, -1, -1, -1, -1, -1, -1,456 },
+        {457,416,417,418,419,420,421,422,
+          -1,458,423,424,425,426,427,428,
+          -1, -1, -1, -1, -1,429,430,431,
+          -1, -1, -1, -1, -1,432,433,434,
+          -1, -1, -1, -1, -1,435,436,437,
+          -1, -1, -1, -1, -1,459,438,439,
+          -1, -1, -1, -1, -1, -1,460,440,
+          -1, -1, -1, -1, -1, -1, -1,461 }
+    };
+
+    private static final long[][] binomial = new long[6][64];
+    private static final long[][] pawnidx = new long[6][24];
+    private static final long[][] pfactor = new long[6][4];
+
+    static {
+        // binomial[k-1][n] = Bin(n, k)
+        for (int i = 0; i < 6; i++) {
+            for (int j = 0; j < 64; j++) {
+                long f = j;
+                long l = 1;
+                for (int k = 1; k <= i; k++) {
+                    f *= (j - k);
+                    l *= (k + 1);
+                }
+                binomial[i][j] = f / l;
+            }
+        }
+        for (int i = 0; i < 6; i++) {
+            int j = 0;
+            for (int file = 0; file < 4; file++) {
+                long s = 0;
+                for (int n = 0; n < 6; n++, j++) {
+                    pawnidx[i][j] = s;
+                    s += (i == 0) ? 1 : binomial[i - 1][ptwist[invflap[j]]];
+                }
+                pfactor[i][file] = s;
+            }
+        }
+    }
+
+    private static long encodePiece(Table t, int[] norm, int[] pos, long[] factor) {
+        long idx;
+        int n = t.num;
+        int i, j;
+
+        if ((pos[0] & 0x04) != 0)
+            for (i = 0; i < n; i++)
+                pos[i] ^= 0x07;
+        if ((pos[0] & 0x20) != 0)
+            for (i = 0; i < n; i++)
+                pos[i] ^= 0x38;
+
+        for (i = 0; i < n; i++)
+            if (offdiag[pos[i]] != 0)
+                break;
+        if ((i < (t.encType == 0 ? 3 : 2)) && (offdiag[pos[i]] > 0))
+            for (i = 0; i < n; i++)
+                pos[i] = flipdiag[pos[i]];
+
+        if (t.encType == 0) { // 111
+            i = (pos[1] > pos[0]) ? 1 : 0;
+            j = ((pos[2] > pos[0]) ? 1 : 0) + ((pos[2] > pos[1]) ? 1 : 0);
+
+            if (offdiag[pos[0]] != 0)
+                idx = triangle[pos[0]] * 63*62 + (pos[1] - i) * 62 + (pos[2] - j);
+            else if (offdiag[pos[1]] != 0)
+                idx = 6*63*62 + diag[pos[0]] * 28*62 + lower[pos[1]] * 62 + pos[2] - j;
+            else if (offdiag[pos[2]] != 0)
+                idx = 6*63*62 + 4*28*62 + (diag[pos[0]]) * 7*28 + (diag[pos[1]] - i) * 28 + lower[pos[2]];
+            else
+                idx = 6*63*62 + 4*28*62 + 4*7*28 + (diag[pos[0]] * 7*6) + (diag[pos[1]] - i) * 6 + (diag[pos[2]] - j);
+            i = 3;
+        } else { // K2
+            idx = KK_idx[triangle[pos[0]]][pos[1]];
+            i = 2;
+        }
+        idx *= factor[0];
+
+        while (i < n) {
+            int t2 = norm[i];
+            sortSquares(pos, i, i + t2);
+            long s = 0;
+            for (int m = i; m < i + t2; m++) {
+                int p = pos[m];
+                j = 0;
+                for (int l = 0; l < i; l++)
+                    if (p > pos[l])
+                        j++;
+                s += binomial[m - i][p - j];
+            }
+            idx += s * factor[i];
+            i += t2;
+        }
+        return idx;
+    }
+
+    /** Sort pos[beg..end) in increasing order. */
+    private static void sortSquares(int[] pos, int beg, int end) {
+        for (int j = beg; j < end; j++) {
+            for (int k = j + 1; k < end; k++) {
+                if (pos[j] > pos[k]) {
+                    int tmp = pos[j]; pos[j] = pos[k]; pos[k] = tmp;
+                }
+            }
+        }
+    }
+
+    /** Determine file of leftmost pawn and sort pawns. */
+    private static int pawnFile(Table t, int[] pos) {
+        for (int i = 1; i < t.pawns[0]; i++) {
+            if (flap[pos[0]] > flap[pos[i]]) {
+                int tmp = pos[0]; pos[0] = pos[i]; pos[i] = tmp;
+            }
+        }
+        return fileToFile[pos[0] & 0x07];
+    }
+
+    private static long encodePawn(Table t, int[] norm, int[] pos, long[] factor) {
+        int n = t.num;
+        int i, j;
+
+        if ((pos[0] & 0x04) != 0)
+            for (i = 0; i < n; i++)
+                pos[i] ^= 0x07;
+
+        for (i = 1; i < t.pawns[0]; i++) {
+            for (j = i + 1; j < t.pawns[0]; j++) {
+                if (ptwist[pos[i]] < ptwist[pos[j]]) {
+                    int tmp = pos[i]; pos[i] = pos[j]; pos[j] = tmp;
+                }
+            }
+        }
+
+        int tp = t.pawns[0] - 1;
+        long idx = pawnidx[tp][flap[pos[0]]];
+        for (i = tp; i > 0; i--)
+            idx += binomial[tp - i][ptwist[pos[i]]];
+        idx *= factor[0];
+
+        // Remaining pawns
+        i = t.pawns[0];
+        int end = i + t.pawns[1];
+        if (end > i) {
+            sortSquares(pos, i, end);
+            long s = 0;
+            for (int m = i; m < end; m++) {
+                int p = pos[m];
+                j = 0;
+                for (int k = 0; k < i; k++)
+                    if (p > pos[k])
+                        j++;
+                s += binomial[m - i][p - j - 8];
+            }
+            idx += s * factor[i];
+            i = end;
+        }
+
+        while (i < n) {
+            int t2 = norm[i];
+            sortSquares(pos, i, i + t2);
+            long s = 0;
+            for (int m = i; m < i + t2; m++) {
+                int p = pos[m];
+                j = 0;
+                for (int k = 0; k < i; k++)
+                    if (p > pos[k])
+                        j++;
+                s += binomial[m - i][p - j];
+            }
+            idx += s * factor[i];
+            i += t2;
+        }
+        return idx;
+    }
+
+    // ------------------------------------------------------------------------
+    // Table probing
+
+    /** Return table for a material key, or null if not available. */
+    private static Table getWdlTable(long key) {
+        Table t = tables.get(key);
+        if (t == null)
+            return null;
+        if (!t.ready) {
+            synchronized (lock) {
+                if (!t.ready && !t.failed) {
+                    if (initTableWdl(t))
+                        t.ready = true;
+                    else
+                        t.failed = true;
+                }
+            }
+            if (!t.ready)
+                return null;
+        }
+        return t;
+    }
+
+    private static int probeWdlTable(Position pos, int[] success) {
+        long key = calcKey(pos, false);
+        if (key == 0) // KvK
+            return 0;
+        Table t = getWdlTable(key);
+        if (t == null) {
+            success[0] = 0;
+            return 0;
+        }
+
+        int bside, mirror, cmirror;
+        if (!t.symmetric) {
+            if (key != t.key) {
+                cmirror = 8;
+                mirror = 0x38;
+                bside = pos.whiteMove ? 1 : 0;
+            } else {
+                cmirror = mirror = 0;
+                bside = pos.whiteMove ? 0 : 1;
+            }
+        } else {
+            cmirror = pos.whiteMove ? 0 : 8;
+            mirror = pos.whiteMove ? 0 : 0x38;
+            bside = 0;
+        }
+
+        // p[i] is the square for a piece of type pc[i] ^ cmirror, where
+        // 1 = white pawn, ..., 14 = black king.
+        int[] p = new int[TBPIECES];
+        int res;
+        if (!t.hasPawns) {
+            EncInfo ei = t.ei[0][bside];
+            int[] pc = ei.pieces;
+            for (int i = 0; i < t.num; ) {
+                long bb = getPieces(pos, (pc[i] ^ cmirror) >> 3, pc[i] & 0x07);
+                do {
+                    p[i++] = BitBoard.numberOfTrailingZeros(bb);
+                    bb &= bb - 1;
+                } while (bb != 0);
+            }
+            long idx = encodePiece(t, ei.norm, p, ei.factor);
+            res = decompressPairs(ei.precomp, idx);
+        } else {
+            int k = t.ei[0][0].pieces[0] ^ cmirror;
+            long bb = getPieces(pos, k >> 3, k & 0x07);
+            int i = 0;
+            do {
+                p[i++] = BitBoard.numberOfTrailingZeros(bb) ^ mirror;
+                bb &= bb - 1;
+            } while (bb != 0);
+            int f = pawnFile(t, p);
+            EncInfo ei = t.ei[f][bside];
+            int[] pc = ei.pieces;
+            while (i < t.num) {
+                bb = getPieces(pos, (pc[i] ^ cmirror) >> 3, pc[i] & 0x07);
+                do {
+                    p[i++] = BitBoard.numberOfTrailingZeros(bb) ^ mirror;
+                    bb &= bb - 1;
+                } while (bb != 0);
+            }
+            long idx = encodePawn(t, ei.norm, p, ei.factor);
+            res = decompressPairs(ei.precomp, idx);
+        }
+        return res - 2;
+    }
+
+    private static final int[] wdlToMap = { 1, 3, 0, 2, 0 };
+    private static final int[] paFlags = { 8, 0, 0, 0, 4 };
+
+    private static int probeDtzTable(Position pos, int wdl, int[] success) {
+        long key = calcKey(pos, false);
+        Table w = getWdlTable(key);
+        if ((w == null) || !w.hasDtz) {
+            success[0] = 0;
+            return 0;
+        }
+        Table t = w.dtz;
+        if (t == null) {
+            synchronized (lock) {
+                if ((w.dtz == null) && !w.dtzFailed) {
+                    Table dtz = loadDtzTable(w);
+                    if (dtz != null)
+                        w.dtz = dtz;
+                    else
+                        w.dtzFailed = true;
+                }
+                t = w.dtz;
+            }
+            if (t == null) {
+                success[0] = 0;
+                return 0;
+            }
+        }
+
+        int bside, mirror, cmirror;
+        if (!t.symmetric) {
+            if (key != t.key) {
+                cmirror = 8;
+                mirror = 0x38;
+                bside = pos.whiteMove ? 1 : 0;
+            } else {
+                cmirror = mirror = 0;
+                bside = pos.whiteMove ? 0 : 1;
+            }
+        } else {
+            cmirror = pos.whiteMove ? 0 : 8;
+            mirror = pos.whiteMove ? 0 : 0x38;
+            bside = 0;
+        }
+
+        int[] p = new int[TBPIECES];
+        int f = 0;
+        int res;
+        if (!t.hasPawns) {
+            if (((t.flags[0] & 1) != bside) && !t.symmetric) {
+                success[0] = -1;
+                return 0;
+            }
+            EncInfo ei = t.ei[0][0];
+            int[] pc = ei.pieces;
+            for (int i = 0; i < t.num; ) {
+                long bb = getPieces(pos, (pc[i] ^ cmirror) >> 3, pc[i] & 0x07);
+                do {
+                    p[i++] = BitBoard.numberOfTrailingZeros(bb);
+                    bb &= bb - 1;
+                } while (bb != 0);
+            }
+            long idx = encodePiece(t, ei.norm, p, ei.factor);
+            res = decompressPairs(ei.precomp, idx);
+        } else {
+            int k = t.ei[0][0].pieces[0] ^ cmirror;
+            long bb = getPieces(pos, k >> 3, k & 0x07);
+            int i = 0;
+            do {
+                p[i++] = BitBoard.numberOfTrailingZeros(bb) ^ mirror;
+                bb &= bb - 1;
+            } while (bb != 0);
+            f = pawnFile(t, p);
+            if ((t.flags[f] & 1) != bside) {
+                success[0] = -1;
+                return 0;
+            }
+            EncInfo ei = t.ei[f][0];
+            int[] pc = ei.pieces;
+            while (i < t.num) {
+                bb = getPieces(pos, (pc[i] ^ cmirror) >> 3, pc[i] & 0x07);
+                do {
+                    p[i++] = BitBoard.numberOfTrailingZeros(bb) ^ mirror;
+                    bb &= bb - 1;
+                } while (bb != 0);
+            }
+            long idx = encodePawn(t, ei.norm, p, ei.factor);
+            res = decompressPairs(ei.precomp, idx);
+        }
+
+        if ((t.flags[f] & 2) != 0) {
+            int mi = t.mapIdx[f][wdlToMap[wdl + 2]] + res;
+            if ((t.flags[f] & 16) != 0)
+                res = u16(t.data, t.map + 2 * mi);
+            else
+                res = u8(t.data, t.map + mi);
+        }
+        if (((t.flags[f] & paFlags[wdl + 2]) == 0) || ((wdl & 1) != 0))
+            res *= 2;
+        return res;
+    }
+
+    // ------------------------------------------------------------------------
+    // Position probing. Captures are resolved by a small search, since the
+    // tables do not contain positions where a capture is the best move.
+
+    private static int probeAB(Position pos, int alpha, int beta, int[] success) {
+        MoveGen mg = moveGen.get();
+        MoveGen.MoveList moves = mg.legalMoves(pos);
+        UndoInfo ui = new UndoInfo();
+        try {
+            for (int mi = 0; mi < moves.size; mi++) {
+                Move m = moves.m[mi];
+                if (pos.getPiece(m.to) == Piece.EMPTY)
+                    continue;
+                pos.makeMove(m, ui);
+                int v = -probeAB(pos, -beta, -alpha, success);
+                pos.unMakeMove(m, ui);
+                if (success[0] == 0)
+                    return 0;
+                if (v > alpha) {
+                    if (v >= beta) {
+                        success[0] = 2;
+                        return v;
+                    }
+                    alpha = v;
+                }
+            }
+        } finally {
+            mg.returnMoveList(moves);
+        }
+
+        int v = probeWdlTable(pos, success);
+        if (success[0] == 0)
+            return 0;
+        if (alpha >= v) {
+            success[0] = 1 + (alpha > 0 ? 1 : 0);
+            return alpha;
+        } else {
+            success[0] = 1;
+            return v;
+        }
+    }
+
+    private static boolean isEpCapture(Position pos, Move m) {
+        int pawn = pos.whiteMove ? Piece.WPAWN : Piece.BPAWN;
+        return (m.to == pos.getEpSquare()) && (pos.getPiece(m.from) == pawn);
+    }
+
+    /**
+     * Probe the WDL table for a position. The return value is from the point
+     * of view of the side to move: -2 loss, -1 loss but draw under the 50-move
+     * rule, 0 draw, 1 win but draw under the 50-move rule, 2 win.
+     * success[0] is set to 0 if the probe failed.
+     */
+    private static int probeWdl(Position pos, int[] success) {
+        success[0] = 1;
+        int v = probeAB(pos, -2, 2, success);
+
+        // If en passant is not possible, we are done
+        if (pos.getEpSquare() == -1)
+            return v;
+        if (success[0] == 0)
+            return 0;
+
+        // Now handle en passant
+        int v1 = -3;
+        MoveGen mg = moveGen.get();
+        MoveGen.MoveList moves = mg.legalMoves(pos);
+        UndoInfo ui = new UndoInfo();
+        try {
+            for (int mi = 0; mi < moves.size; mi++) {
+                Move m = moves.m[mi];
+                if (!isEpCapture(pos, m))
+                    continue;
+                pos.makeMove(m, ui);
+                int v0 = -probeAB(pos, -2, 2, success);
+                pos.unMakeMove(m, ui);
+                if (success[0] == 0)
+                    return 0;
+                if (v0 > v1)
+                    v1 = v0;
+            }
+            if (v1 > -3) {
+                if (v1 >= v) {
+                    v = v1;
+                } else if (v == 0) {
+                    // Check whether there is at least one legal non-ep move
+                    for (int mi = 0; mi < moves.size; mi++)
+                        if (!isEpCapture(pos, moves.m[mi]))
+                            return v;
+                    // If not, then we are forced to play the losing ep capture
+                    v = v1;
+                }
+            }
+        } finally {
+            mg.returnMoveList(moves);
+        }
+        return v;
+    }
+
+    /** Like probeDtz(), but treats a position with en passant captures as one without. */
+    private static int probeDtzNoEp(Position pos, int[] success) {
+        final int wdl = probeAB(pos, -2, 2, success);
+        if (success[0] == 0)
+            return 0;
+        if (wdl == 0)
+            return 0;
+        if (success[0] == 2)
+            return wdl == 2 ? 1 : 101;
+
+        MoveGen mg = moveGen.get();
+        MoveGen.MoveList moves = mg.legalMoves(pos);
+        final int pawn = pos.whiteMove ? Piece.WPAWN : Piece.BPAWN;
+        UndoInfo ui = new UndoInfo();
+        try {
+            if (wdl > 0) {
+                // Check for winning non-capturing pawn moves
+                for (int mi = 0; mi < moves.size; mi++) {
+                    Move m = moves.m[mi];
+                    if ((pos.getPiece(m.from) != pawn) ||
+                        (Position.getX(m.from) != Position.getX(m.to)))
+                        continue;
+                    pos.makeMove(m, ui);
+                    int v = -probeWdl(pos, success);
+                    pos.unMakeMove(m, ui);
+                    if (success[0] == 0)
+                        return 0;
+                    if (v == wdl)
+                        return v == 2 ? 1 : 101;
+                }
+            }
+
+            int dtz = 1 + probeDtzTable(pos, wdl, success);
+            if (success[0] >= 0) {
+                if ((wdl & 1) != 0)
+                    dtz += 100;
+                return wdl >= 0 ? dtz : -dtz;
+            }
+
+            // The table only has values for the other side to move
+            if (wdl > 0) {
+                int best = 0xffff;
+                for (int mi = 0; mi < moves.size; mi++) {
+                    Move m = moves.m[mi];
+                    if ((pos.getPiece(m.to) != Piece.EMPTY) || (pos.getPiece(m.from) == pawn))
+                        continue;
+                    pos.makeMove(m, ui);
+                    int v = -probeDtz(pos, success);
+                    pos.unMakeMove(m, ui);
+                    if (success[0] == 0)
+                        return 0;
+                    if ((v > 0) && (v + 1 < best))
+                        best = v + 1;
+                }
+                return best;
+            } else {
+                int best = -1;
+                for (int mi = 0; mi < moves.size; mi++) {
+                    Move m = moves.m[mi];
+                    pos.makeMove(m, ui);
+                    int v;
+                    if (pos.halfMoveClock == 0) {
+                        if (wdl == -2) {
+                            v = -1;
+                        } else {
+                            v = probeAB(pos, 1, 2, success);
+                            v = (v == 2) ? 0 : -101;
+                        }
+                    } else {
+                        v = -probeDtz(pos, success) - 1;
+                    }
+                    pos.unMakeMove(m, ui);
+                    if (success[0] == 0)
+                        return 0;
+                    if (v < best)
+                        best = v;
+                }
+                return best;
+            }
+        } finally {
+            mg.returnMoveList(moves);
+        }
+    }
+
+    private static final int[] wdlToDtz = { -1, -101, 0, 101, 1 };
+
+    /**
+     * Probe the DTZ table for a position. The return value is from the point
+     * of view of the side to move:
+     *         n < -100 : loss, but draw under 50-move rule
+     * -100 <= n < -1   : loss in n ply (assuming 50-move counter == 0)
+     *         0        : draw
+     *     1 < n <= 100 : win in n ply (assuming 50-move counter == 0)
+     *   100 < n        : win, but draw under 50-move rule
+     * The value can be off by one ply. success[0] is set to 0 if the probe failed.
+     */
+    private static int probeDtz(Position pos, int[] success) {
+        success[0] = 1;
+        int v = probeDtzNoEp(pos, success);
+
+        if (pos.getEpSquare() == -1)
+            return v;
+        if (success[0] == 0)
+            return 0;
+
+        // Now handle en passant
+        int v1 = -3;
+        MoveGen mg = moveGen.get();
+        MoveGen.MoveList moves = mg.legalMoves(pos);
+        UndoInfo ui = new UndoInfo();
+        try {
+            for (int mi = 0; mi < moves.size; mi++) {
+                Move m = moves.m[mi];
+                if (!isEpCapture(pos, m))
+                    continue;
+                pos.makeMove(m, ui);
+                int v0 = -probeAB(pos, -2, 2, success);
+                pos.unMakeMove(m, ui);
+                if (success[0] == 0)
+                    return 0;
+                if (v0 > v1)
+                    v1 = v0;
+            }
+            if (v1 > -3) {
+                v1 = wdlToDtz[v1 + 2];
+                if (v < -100) {
+                    if (v1 >= 0)
+                        v = v1;
+                } else if (v < 0) {
+                    if ((v1 >= 0) || (v1 < -100))
+                        v = v1;
+                } else if (v > 100) {
+                    if (v1 > 0)
+                        v = v1;
+                } else if (v > 0) {
+                    if (v1 == 1)
+                        v = v1;
+                } else if (v1 >= 0) {
+                    v = v1;
+                } else {
+                    for (int mi = 0; mi < moves.size; mi++)
+                        if (!isEpCapture(pos, moves.m[mi]))
+                            return v;
+                    v = v1;
+                }
+            }
+        } finally {
+            mg.returnMoveList(moves);
+        }
+        return v;
+    }
+
+    // ------------------------------------------------------------------------
+    // Public interface
+
+    /** Return true if the position can not be probed, regardless of which tables are available. */
+    private static boolean cannotProbe(Position pos) {
+        return (Long.bitCount(pos.whiteBB | pos.blackBB) > largest) ||
+               (pos.getCastleMask() != 0) ||
+               MoveGen.canTakeKing(pos);
+    }
+
+    /**
+     * Probe WDL tablebases.
+     * @return 1 for a win for the side to move, -1 for a loss, 0 for a draw,
+     *         or NO_INFO if the position is not in the tablebases. Wins and
+     *         losses that are draws because of the 50-move rule count as draws.
+     *         The position is restored before the function returns.
+     */
+    public static int probeWDL(Position pos) {
+        if (cannotProbe(pos))
+            return NO_INFO;
+        int[] success = new int[1];
+        int wdl = probeWdl(pos, success);
+        if (success[0] == 0)
+            return NO_INFO;
+        switch (wdl) {
+        case 2:  return 1;
+        case -2: return -1;
+        default: return 0;
+        }
+    }
+
+    /**
+     * Probe DTZ tablebases.
+     * @return 0 for a draw, x > 0 for a win in x plies, x < 0 for a loss in -x
+     *         plies, or NO_INFO if the position is not in the tablebases.
+     *         x is the number of plies until the next capture or pawn move,
+     *         and takes the current 50-move counter into account.
+     *         The position is restored before the function returns.
+     */
+    public static int probeDTZ(Position pos) {
+        if (cannotProbe(pos))
+            return NO_INFO;
+        int[] success = new int[1];
+        int dtz = probeDtz(pos, success);
+        if (success[0] == 0)
+            return NO_INFO;
+        if (dtz == 0)
+            return 0;
+        int maxHalfMoveClock = Math.abs(dtz) + pos.halfMoveClock;
+        if (Math.abs(dtz) <= 2) {
+            if (maxHalfMoveClock > 101)
+                return 0;
+            if (maxHalfMoveClock == 101)
+                return NO_INFO; // DTZ can be wrong when mate-in-1
+        } else {
+            if (maxHalfMoveClock > 100)
+                return 0;
+        }
+        return dtz;
+    }
+
+    /**
+     * Remove root moves that do not preserve the tablebase result.
+     * In a won position only the moves with the shortest distance to the next
+     * zeroing move are kept, in a drawn position only the drawing moves, and
+     * in a lost position only the moves that delay the loss as long as possible.
+     * @param moves  List of legal moves in pos.
+     * @return True if the moves could be classified. If false, the move list
+     *         is not modified.
+     */
+    public static boolean filterRootMoves(Position pos, MoveGen.MoveList moves) {
+        return filterRootMoves(pos, moves, true);
+    }
+
+    /**
+     * Remove root moves that do not preserve the tablebase result.
+     * @param moves     List of legal moves in pos.
+     * @param bestOnly  If true, only keep the moves with the best DTZ value, as
+     *                  described for filterRootMoves(Position, MoveList). If false,
+     *                  keep all winning moves in a won position, all drawing moves
+     *                  in a drawn position and all moves in a lost position.
+     * @return True if the moves could be classified. If false, the move list
+     *         is not modified.
+     */
+    public static boolean filterRootMoves(Position pos, MoveGen.MoveList moves, boolean bestOnly) {
+        if (cannotProbe(pos) || (moves.size == 0))
+            return false;
+        MoveGen mg = moveGen.get();
+        int[] values = new int[moves.size];
+        UndoInfo ui = new UndoInfo();
+        for (int mi = 0; mi < moves.size; mi++) {
+            Move m = moves.m[mi];
+            pos.makeMove(m, ui);
+            MoveGen.MoveList replies = mg.legalMoves(pos);
+            int v;
+            if (replies.size == 0)
+                v = MoveGen.inCheck(pos) ? -1 : 0;
+            else
+                v = probeDTZ(pos);
+            mg.returnMoveList(replies);
+            pos.unMakeMove(m, ui);
+            if (v == NO_INFO)
+                return false;
+            values[mi] = v; // From the opponent's point of view
+        }
+
+        int bestWin = Integer.MIN_VALUE;
+        boolean draw = false;
+        int bestLoss = Integer.MIN_VALUE;
+        for (int v : values) {
+            if (v < 0)
+                bestWin = Math.max(bestWin, v);
+            else if (v == 0)
+                draw = true;
+            else
+                bestLoss = Math.max(bestLoss, v);
+        }
+        int keep;
+        if (bestWin != Integer.MIN_VALUE)
+            keep = bestWin;
+        else if (draw)
+            keep = 0;
+        else
+            keep = bestLoss;
+
+        int length = 0;
+        for (int mi = 0; mi < moves.size; mi++) {
+            int v = values[mi];
+            boolean keepMove = bestOnly ? (v == keep) : (Integer.signum(v) == Integer.signum(keep));
+            if (keepMove)
+                moves.m[length++].copyFrom(moves.m[mi]);
+        }
+        moves.size = length;
+        return true;
+    }
+}
@@ -151,8 +151,7 @@ public class TextIO {
     public static void fixupEPSquare(Position pos) {
         int epSquare = pos.getEpSquare();
         if (epSquare >= 0) {
-            MoveGen.MoveList moves = MoveGen.instance.pseudoLegalMoves(pos);
-            MoveGen.removeIllegal(pos, moves);
+            MoveGen.MoveList moves = MoveGen.instance.legalMoves(pos);
             boolean epValid = false;
             for (int mi = 0; mi < moves.size; mi++) {
                 Move m = moves.m[mi];
@@ -272,8 +271,7 @@ public class TextIO {
      *                 Otherwise, use short notation, eg Nf3
      */
     public static String moveToString(Position pos, Move move, boolean longForm) {
-        MoveGen.MoveList moves = MoveGen.instance.pseudoLegalMoves(pos);
-        MoveGen.removeIllegal(pos, moves);
+        MoveGen.MoveList moves = MoveGen.instance.legalMoves(pos);
         return moveToString(pos, move, longForm, moves);
     }
     private static String moveToString(Position pos, Move move, boolean longForm, MoveGen.MoveList moves) {
@@ -351,8 +349,7 @@ public class TextIO {
         UndoInfo ui = new UndoInfo();
         if (MoveGen.givesCheck(pos, move)) {
             pos.makeMove(move, ui);
-            MoveGen.MoveList nextMoves = MoveGen.instance.pseudoLegalMoves(pos);
-            MoveGen.removeIllegal(pos, nextMoves);
+            MoveGen.MoveList nextMoves = MoveGen.instance.legalMoves(pos);
             if (nextMoves.size == 0) {
                 ret.append('#');
             } else {
@@ -456,8 +453,7 @@ public class TextIO {
         strMove = strMove.replaceAll("=", "");
         if (strMove.length() == 0)
             return null;
-        MoveGen.MoveList moves = MoveGen.instance.pseudoLegalMoves(pos);
-        MoveGen.removeIllegal(pos, moves);
+        MoveGen.MoveList moves = MoveGen.instance.legalMoves(pos);
         {
             char lastChar = strMove.charAt(strMove.length() - 1);
             if ((lastChar == '#') || (lastChar == '+')) {
@@ -18,9 +18,23 @@
 
 package chess;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+/**
+ * A lockless transposition table that can be shared between search threads.
+ * Each entry is stored as two long values in a flat array, the data word and
+ * the key XORed with the data word. An entry that is being written by another
+ * thread while it is read fails the key check and is treated as a miss.
+ */
 public class TranspositionTable {
     static final public class TTEntry {
         long key;               // Zobrist hash key
@@ -106,24 +120,77 @@ public class TranspositionTable {
             depthSlot &= 0x7fff;
             depthSlot |= (s << 15);
         }
+
+        /** Set all fields except key and hash slot from a packed data word. */
+        final void unpack(long data) {
+            move = (short)data;
+            score = (short)(data >>> 16);
+            evalScore = (short)(data >>> 32);
+            setDepth(dataDepth(data));
+            type = (byte)dataType(data);
+            generation = (byte)dataGeneration(data);
+        }
+    }
+
+    // Layout of the data word:
+    //  bit  0-15: move
+    //  bit 16-31: score
+    //  bit 32-47: evalScore
+    //  bit 48-57: depth
+    //  bit 58-59: type ^ T_EMPTY, so that an all-zero word is an empty slot
+    //  bit 60-63: generation
+    private static final int MAX_DEPTH = (1 << 10) - 1;
+    private static final int GENERATION_MASK = 15;
+
+    private static int dataMove(long data)       { return (int)(data & 0xffff); }
+    private static int dataScore(long data)      { return (short)(data >>> 16); }
+    private static int dataDepth(long data)      { return (int)(data >>> 48) & MAX_DEPTH; }
+    private static int dataType(long data)       { return ((int)(data >>> 58) & 3) ^ TTEntry.T_EMPTY; }
+    private static int dataGeneration(long data) { return (int)(data >>> 60) & GENERATION_MASK; }
+
+    private static long makeData(int move, int score, int evalScore, int depth, int type, int generation) {
+        return (move & 0xffffL) |
+               ((score & 0xffffL) << 16) |
+               ((evalScore & 0xffffL) << 32) |
+               ((long)Math.min(depth, MAX_DEPTH) << 48) |
+               ((long)(type ^ TTEntry.T_EMPTY) << 58) |
+               ((long)(generation & GENERATION_MASK) << 60);
+    }
+
+    private static long setDataGeneration(long data, int generation) {
+        return (data & ~(((long)GENERATION_MASK) << 60)) | ((long)generation << 60);
+    }
+
+    /** Same as TTEntry.betterThan(), but operating on packed data words. */
+    private static boolean betterThan(long data, long otherData, int currGen) {
+        boolean thisGen = dataGeneration(data) == currGen;
+        if (thisGen != (dataGeneration(otherData) == currGen))
+            return thisGen;
+        boolean exact = dataType(data) == TTEntry.T_EXACT;
+        if (exact != (dataType(otherData) == TTEntry.T_EXACT))
+            return exact;
+        return dataDepth(data) > dataDepth(otherData);
+    }
+
+    /** Same as TTEntry.valuable(), but operating on a packed data word. */
+    private static boolean valuable(long data, int currGen) {
+        if (dataGeneration(data) != currGen)
+            return false;
+        int type = dataType(data);
+        return (type == TTEntry.T_EXACT) || ((type != TTEntry.T_EMPTY) && (dataDepth(data) > 3 * Search.plyScale));
     }
-    private TTEntry[] table;
-    private TTEntry emptySlot;
-    private byte generation;
+
+    /** Memory used by each hash table entry. */
+    public static final int bytesPerEntry = 16;
+
+    private long[] table;  // [2*idx] = key ^ data, [2*idx+1] = data
+    private int numEntries;
+    private int generation;
 
     /** Constructor. Creates an empty transposition table with numEntries slots. */
     public TranspositionTable(int log2Size) {
-        final int numEntries = (1 << log2Size);
-        table = new TTEntry[numEntries];
-        for (int i = 0; i < numEntries; i++) {
-            TTEntry ent = new TTEntry();
-            ent.key = 0;
-            ent.depthSlot = 0;
-            ent.type = TTEntry.T_EMPTY;
-            table[i] = ent;
-        }
-        emptySlot = new TTEntry();
-        emptySlot.type = TTEntry.T_EMPTY;
+        numEntries = (1 << log2Size);
+        table = new long[2 * numEntries];
         generation = 0;
     }
 
@@ -131,70 +198,103 @@ public class TranspositionTable {
         if (depth < 0) depth = 0;
         int idx0 = h0(key);
         int idx1 = h1(key);
-        TTEntry ent = table[idx0];
-        byte hashSlot = 0;
-        if (ent.key != key) {
-            ent = table[idx1];
-            hashSlot = 1;
+        long data0 = table[2*idx0+1];
+        long data1 = table[2*idx1+1];
+        int idx = idx0;
+        long entData = data0;
+        long entKey = table[2*idx0] ^ data0;
+        if (entKey != key) {
+            idx = idx1;
+            entData = data1;
+            entKey = table[2*idx1] ^ data1;
         }
-        if (ent.key != key) {
-            if (table[idx1].betterThan(table[idx0], generation)) {
-                ent = table[idx0];
-                hashSlot = 0;
+        if (entKey != key) {
+            if (betterThan(data1, data0, generation)) {
+                idx = idx0;
+                entData = data0;
+                entKey = table[2*idx0] ^ data0;
             }
-            if (ent.valuable(generation)) {
-                int altEntIdx = (ent.getHashSlot() == 0) ? h1(ent.key) : h0(ent.key);
-                if (ent.betterThan(table[altEntIdx], generation)) {
-                    TTEntry altEnt = table[altEntIdx];
-                    altEnt.key = ent.key;
-                    altEnt.move = ent.move;
-                    altEnt.score = ent.score;
-                    altEnt.depthSlot = ent.depthSlot;
-                    altEnt.generation = ent.generation;
-                    altEnt.type = ent.type;
-                    altEnt.setHashSlot(1 - ent.getHashSlot());
-                    altEnt.evalScore = ent.evalScore;
-                }
+            if (valuable(entData, generation)) {
+                int altEntIdx = (idx == h0(entKey)) ? h1(entKey) : h0(entKey);
+                if (betterThan(entData, table[2*altEntIdx+1], generation))
+                    store(altEntIdx, entKey, entData);
             }
         }
         boolean doStore = true;
-        if ((ent.key == key) && (ent.getDepth() > depth) && (ent.type == type)) {
+        if ((entKey == key) && (dataDepth(entData) > depth) && (dataType(entData) == type)) {
+            int entScore = scoreFromTT(dataScore(entData), ply);
             if (type == TTEntry.T_EXACT) {
                 doStore = false;
-            } else if ((type == TTEntry.T_GE) && (sm.score <= ent.getScore(ply))) {
+            } else if ((type == TTEntry.T_GE) && (sm.score <= entScore)) {
                 doStore = false;
-            } else if ((type == TTEntry.T_LE) && (sm.score >= ent.getScore(ply))) {
+            } else if ((type == TTEntry.T_LE) && (sm.score >= entScore)) {
                 doStore = false;
             }
         }
         if (doStore) {
-            if ((ent.key != key) || (sm.from != sm.to))
-                ent.setMove(sm);
-            ent.key = key;
-            ent.setScore(sm.score, ply);
-            ent.setDepth(depth);
-            ent.generation = generation;
-            ent.type = (byte)type;
-            ent.setHashSlot(hashSlot);
-            ent.evalScore = (short)evalScore;
+            int move = dataMove(entData);
+            if ((entKey != key) || (sm.from != sm.to))
+                move = sm.from + (sm.to << 6) + (sm.promoteTo << 12);
+            long data = makeData(move, scoreToTT(sm.score, ply), evalScore, depth, type, generation);
+            store(idx, key, data);
+        }
+    }
+
+    private void store(int idx, long key, long data) {
+        table[2*idx] = key ^ data;
+        table[2*idx+1] = data;
+    }
+
+    /** Convert score from "mate at ply" to "mate in x". */
+    private static int scoreToTT(int score, int ply) {
+        if (score > Search.MATE0 - 1000) {
+            score += ply;
+        } else if (score < -(Search.MATE0 - 1000)) {
+            score -= ply;
+        }
+        return score;
+    }
+
+    /** Convert score from "mate in x" to "mate at ply". */
+    private static int scoreFromTT(int sc, int ply) {
+        if (sc > Search.MATE0 - 1000) {
+            sc -= ply;
+        } else if (sc < -(Search.MATE0 - 1000)) {
+            sc += ply;
         }
+        return sc;
     }
 
     /** Retrieve an entry from the hash table corresponding to "pos". */
     public final TTEntry probe(long key) {
-        int idx0 = h0(key);
-        TTEntry ent = table[idx0];
-        if (ent.key == key) {
-            ent.generation = generation;
-            return ent;
+        return probe(key, new TTEntry());
+    }
+
+    /**
+     * Retrieve an entry from the hash table, storing the result in "ent".
+     * If there is no matching entry, ent.type is set to T_EMPTY.
+     * @return The "ent" object.
+     */
+    public final TTEntry probe(long key, TTEntry ent) {
+        if (!getEntry(h0(key), key, ent) && !getEntry(h1(key), key, ent)) {
+            ent.key = key;
+            ent.type = TTEntry.T_EMPTY;
         }
-        int idx1 = h1(key);
-        ent = table[idx1];
-        if (ent.key == key) {
-            ent.generation = generation;
-            return ent;
+        return ent;
+    }
+
+    private boolean getEntry(int idx, long key, TTEntry ent) {
+        long data = table[2*idx+1];
+        if ((table[2*idx] ^ data) != key)
+            return false;
+        if (dataGeneration(data) != generation) {
+            data = setDataGeneration(data, generation);
+            store(idx, key, data);
         }
-        return emptySlot;
+        ent.key = key;
+        ent.unpack(data);
+        ent.setHashSlot(idx == h0(key) ? 0 : 1);
+        return true;
     }
 
     /**
@@ -202,16 +302,134 @@ public class TranspositionTable {
      * more valuable than the entries currently present in the hash table.
      */
     public final void nextGeneration() {
-        generation++;
+        generation = (generation + 1) & GENERATION_MASK;
     }
 
     /** Clear the transposition table. */
     public final void clear() {
-        for (TTEntry ent : table) {
-            ent.type = TTEntry.T_EMPTY;
+        Arrays.fill(table, 0);
+    }
+
+    // Layout of a hash file: A header of HEADER_LONGS long values, followed
+    // by the (key ^ data, data) pairs for all entries, as stored in "table".
+    private static final long FILE_MAGIC = 0x43756b6f6f545431L;
+    private static final int HEADER_LONGS = 2; // Magic, number of entries
+    private static final int CHUNK_LONGS = 1 << 27; // Longs per mapped region
+
+    /**
+     * Save the transposition table to a file. The file is memory mapped
+     * and written in chunks, so the table can be larger than 2GB.
+     */
+    public final void save(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel ch = raf.getChannel()) {
+            long nLongs = HEADER_LONGS + (long)table.length;
+            raf.setLength(0);
+            raf.setLength(nLongs * 8);
+            for (long start = 0; start < nLongs; start += CHUNK_LONGS) {
+                int len = (int)Math.min(CHUNK_LONGS, nLongs - start);
+                LongBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, start * 8, (long)len * 8)
+                                   .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+                int tIdx = (int)start - HEADER_LONGS;
+                if (start == 0) {
+                    buf.put(FILE_MAGIC);
+                    buf.put(numEntries);
+                    tIdx += HEADER_LONGS;
+                    len -= HEADER_LONGS;
+                }
+                buf.put(table, tIdx, len);
+            }
         }
     }
 
+    /**
+     * Replace the contents of the transposition table with entries read from
+     * a file created by save(). The file can have been saved from a table
+     * of a different size. If the file is not a hash file, the table is
+     * not modified.
+     */
+    public final void load(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel ch = raf.getChannel()) {
+            checkHeader(ch);
+            clear();
+            readEntries(ch);
+        }
+    }
+
+    /**
+     * Add entries from a file created by save(). An entry from the file
+     * replaces an existing entry only if it is more valuable. All entries
+     * read from the file belong to the current generation.
+     */
+    public final void merge(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel ch = raf.getChannel()) {
+            checkHeader(ch);
+            readEntries(ch);
+        }
+    }
+
+    /** Throw an IOException unless the header matches a file created by save(). */
+    private static void checkHeader(FileChannel ch) throws IOException {
+        long size = ch.size();
+        if (size >= HEADER_LONGS * 8) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LONGS * 8).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining())
+                if (ch.read(header, header.position()) < 0)
+                    break;
+            long fileEntries = header.getLong(8);
+            if (!header.hasRemaining() && (header.getLong(0) == FILE_MAGIC) &&
+                (fileEntries >= 0) && (size == (HEADER_LONGS + 2 * fileEntries) * 8))
+                return;
+        }
+        throw new IOException("Not a hash file");
+    }
+
+    /** Merge all entries from a file with a valid header into the table. */
+    private void readEntries(FileChannel ch) throws IOException {
+        long nLongs = ch.size() / 8;
+        long[] pair = new long[2];
+        for (long start = 0; start < nLongs; start += CHUNK_LONGS) {
+            int len = (int)Math.min(CHUNK_LONGS, nLongs - start);
+            LongBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, start * 8, (long)len * 8)
+                               .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+            if (start == 0)
+                buf.position(HEADER_LONGS);
+            while (buf.remaining() >= 2) {
+                buf.get(pair);
+                long data = pair[1];
+                if (dataType(data) != TTEntry.T_EMPTY)
+                    mergeEntry(pair[0] ^ data, setDataGeneration(data, generation));
+            }
+        }
+    }
+
+    /** Store an entry in one of its two slots, unless the slots contain more valuable entries. */
+    private void mergeEntry(long key, long data) {
+        int idx0 = h0(key);
+        int idx1 = h1(key);
+        long data0 = table[2*idx0+1];
+        long data1 = table[2*idx1+1];
+        int idx;
+        long entData;
+        if ((table[2*idx0] ^ data0) == key) {
+            idx = idx0;
+            entData = data0;
+        } else if ((table[2*idx1] ^ data1) == key) {
+            idx = idx1;
+            entData = data1;
+        } else if (betterThan(data1, data0, generation)) {
+            idx = idx0;
+            entData = data0;
+        } else {
+            idx = idx1;
+            entData = data1;
+        }
+        if ((dataType(entData) == TTEntry.T_EMPTY) || betterThan(data, entData, generation))
+            store(idx, key, data);
+    }
+
     /**
      * Extract a list of PV moves, starting from "rootPos" and first move "m".
      */
@@ -306,21 +524,23 @@ public class TranspositionTable {
         for (int i = 0; i < maxDepth; i++) {
             depHist.add(0);
         }
-        for (TTEntry ent : table) {
-            if (ent.type == TTEntry.T_EMPTY) {
+        for (int i = 0; i < numEntries; i++) {
+            long data = table[2*i+1];
+            if (dataType(data) == TTEntry.T_EMPTY) {
                 unused++;
             } else {
-                if (ent.generation == generation) {
+                if (dataGeneration(data) == generation) {
                     thisGen++;
                 }
-                if (ent.getDepth() < maxDepth) {
-                    depHist.set(ent.getDepth(), depHist.get(ent.getDepth()) + 1);
+                int depth = dataDepth(data);
+                if (depth < maxDepth) {
+                    depHist.set(depth, depHist.get(depth) + 1);
                 }
             }
         }
-        double w = 100.0 / table.length;
+        double w = 100.0 / numEntries;
         System.out.printf("Hash stats: size:%d unused:%d (%.2f%%) thisGen:%d (%.2f%%)\n",
-                          table.length, unused, unused*w, thisGen, thisGen*w);
+                          numEntries, unused, unused*w, thisGen, thisGen*w);
         for (int i = 0; i < maxDepth; i++) {
             int c = depHist.get(i);
             if (c > 0)
@@ -329,10 +549,10 @@ public class TranspositionTable {
     }
     
     private int h0(long key) {
-        return (int)(key & (table.length - 1));
+        return (int)(key & (numEntries - 1));
     }
     
     private int h1(long key) {
-        return (int)((key >> 32) & (table.length - 1));
+        return (int)((key >> 32) & (numEntries - 1));
     }
 }
@@ -18,10 +18,8 @@
 
 package chess;
 
-import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.RandomAccessFile;
@@ -30,6 +28,7 @@ import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 
 import chess.TranspositionTable.TTEntry;
@@ -39,43 +38,144 @@ public final class TreeLogger {
     private ByteBuffer bb = ByteBuffer.wrap(entryBuffer);
 
     // Used in write mode
-    private FileOutputStream os = null;
-    private BufferedOutputStream bos = null;
+    private FileChannel outChannel = null;
+    private AsyncWriter writer = null;
+    private ByteBuffer writeBuf = null;     // Buffer currently being filled
+    private long writeBufFirst = 0;         // Index of first entry in writeBuf
+    private long[] patches = new long[256]; // (startIndex << 32) | endIndex, for start entries not in writeBuf
+    private int nPatches = 0;
     private long nextIndex = 0;
 
     // Used in analyze mode
-    private MappedByteBuffer mapBuf = null;
+    private MappedByteBuffer[] segments = null;
     private FileChannel fc = null;
-    private int numEntries = 0;
+    private long numEntries = 0;
+
+    /** Size of a mapped file segment. A multiple of the entry size, so entries never cross segments. */
+    private static final int SEGMENT_SIZE = 1 << 30;
+
+    /** Default number of entries in each write buffer. */
+    private static final int WRITE_BUFFER_ENTRIES = 1 << 16;
 
     private TreeLogger() {
     }
 
     /** Get a logger object set up for writing to a log file. */
     public static TreeLogger getWriter(String filename, Position pos) {
+        return getWriter(filename, pos, WRITE_BUFFER_ENTRIES);
+    }
+
+    static TreeLogger getWriter(String filename, Position pos, int bufferEntries) {
         try {
             TreeLogger log = new TreeLogger();
-            log.os = new FileOutputStream(filename);
-            log.bos = new BufferedOutputStream(log.os, 65536);
+            RandomAccessFile raf = new RandomAccessFile(filename, "rw");
+            raf.setLength(0);
+            log.outChannel = raf.getChannel();
             log.writeHeader(pos);
+            log.writeBuf = ByteBuffer.allocate(bufferEntries * 16);
+            log.writer = new AsyncWriter(log.outChannel, ByteBuffer.allocate(bufferEntries * 16));
+            log.writer.start();
             log.nextIndex = 0;
             return log;
         } catch (FileNotFoundException e) {
             throw new RuntimeException();
+        } catch (IOException e) {
+            throw new RuntimeException();
         }
     }
 
-    private void writeHeader(Position pos) {
-        try {
-            byte[] fen = TextIO.toFEN(pos).getBytes();
-            bos.write((byte)(fen.length));
-            bos.write(fen);
-            byte[] pad = new byte[128-1-fen.length];
-            for (int i = 0; i < pad.length; i++)
-                pad[i] = 0;
-            bos.write(pad);
-        } catch (IOException e) {
-            throw new RuntimeException();
+    private void writeHeader(Position pos) throws IOException {
+        byte[] fen = TextIO.toFEN(pos).getBytes();
+        ByteBuffer header = ByteBuffer.allocate(128);
+        header.put((byte)(fen.length));
+        header.put(fen);
+        header.clear();
+        while (header.hasRemaining())
+            outChannel.write(header);
+    }
+
+    /**
+     * Writes full buffers to the log file in a separate thread, so that
+     * file I/O does not distort the timing of the search being logged.
+     * Two buffers are used, one being filled while the other one is written.
+     */
+    private static final class AsyncWriter extends Thread {
+        private final FileChannel fc;
+        private ByteBuffer pending = null;  // Buffer waiting to be written
+        private ByteBuffer free;            // Buffer available for filling
+        private boolean done = false;
+        private IOException error = null;
+
+        AsyncWriter(FileChannel fc, ByteBuffer free) {
+            super("TreeLogger writer");
+            setDaemon(true);
+            this.fc = fc;
+            this.free = free;
+        }
+
+        /** Queue a full buffer for writing and return an empty buffer. */
+        final synchronized ByteBuffer swap(ByteBuffer full) {
+            while (free == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException();
+                }
+            }
+            if (error != null)
+                throw new RuntimeException(error);
+            ByteBuffer ret = free;
+            free = null;
+            pending = full;
+            notifyAll();
+            ret.clear();
+            return ret;
+        }
+
+        /** Write all queued data and terminate the thread. */
+        final void finish() {
+            synchronized (this) {
+                done = true;
+                notifyAll();
+            }
+            try {
+                join();
+            } catch (InterruptedException e) {
+                throw new RuntimeException();
+            }
+            if (error != null)
+                throw new RuntimeException(error);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                ByteBuffer buf;
+                synchronized (this) {
+                    while ((pending == null) && !done) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (pending == null)
+                        return;
+                    buf = pending;
+                    pending = null;
+                }
+                try {
+                    buf.flip();
+                    while (buf.hasRemaining())
+                        fc.write(buf);
+                } catch (IOException e) {
+                    error = e;
+                }
+                synchronized (this) {
+                    free = buf;
+                    notifyAll();
+                }
+            }
         }
     }
 
@@ -87,8 +187,13 @@ public final class TreeLogger {
             raf = new RandomAccessFile(filename, "rw");
             log.fc = raf.getChannel();
             long len = raf.length();
-            log.numEntries = (int) ((len - 128) / 16);
-            log.mapBuf = log.fc.map(MapMode.READ_WRITE, 0, len);
+            log.numEntries = Math.min((len - 128) / 16, Integer.MAX_VALUE);
+            int nSegments = (int)((len + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            log.segments = new MappedByteBuffer[nSegments];
+            for (int i = 0; i < nSegments; i++) {
+                long start = (long)i * SEGMENT_SIZE;
+                log.segments[i] = log.fc.map(MapMode.READ_WRITE, start, Math.min(len - start, SEGMENT_SIZE));
+            }
             log.computeForwardPointers();
             return log;
         } catch (FileNotFoundException e) {
@@ -102,7 +207,14 @@ public final class TreeLogger {
 
     public final void close() {
         try {
-            if (bos != null) bos.close();
+            if (writer != null) {
+                if (writeBuf.position() > 0)
+                    writer.swap(writeBuf);
+                writer.finish();
+                writer = null;
+                writePatches();
+            }
+            if (outChannel != null) outChannel.close();
             if (fc != null) fc.close();
         } catch (IOException ignore) {
         }
@@ -116,7 +228,7 @@ public final class TreeLogger {
      * private static final class Header {
      *     byte fenLen; // Used length of fen array
      *     byte[] fen; // 126 bytes, 0-padded
-     *     byte flags; // bit 0: 1 if endIndex has been computed for all StartEntries.
+     *     byte flags; // bit 7: 1 if endIndex has been computed for all StartEntries.
      * }
      *
      * private static final class StartEntry {
@@ -136,6 +248,9 @@ public final class TreeLogger {
      *     short evalScore;
      *     byte[] hashKey; // lower 6 bytes of position hash key
      * }
+     *
+     * The writer fills in endIndex when the end entry is logged, so the
+     * analyzer only has to compute forward pointers for logs from older versions.
      */
 
     // ----------------------------------------------------------------------------
@@ -152,18 +267,15 @@ public final class TreeLogger {
      * @return node index
      */
     final long logNodeStart(long parentIndex, Move m, int alpha, int beta, int ply, int depth) {
-        bb.putInt  ( 0, -1);
-        bb.putInt  ( 4, (int)parentIndex);
-        bb.putShort( 8, (short)(m.from + (m.to << 6) + (m.promoteTo << 12)));
-        bb.putShort(10, (short)alpha);
-        bb.putShort(12, (short)beta);
-        bb.put     (14, (byte)ply);
-        bb.put     (15, (byte)depth);
-        try {
-            bos.write(bb.array());
-        } catch (IOException e) {
-            throw new RuntimeException();
-        }
+        if (!writeBuf.hasRemaining())
+            flushWriteBuf();
+        writeBuf.putInt(-1);
+        writeBuf.putInt((int)parentIndex);
+        writeBuf.putShort((short)(m.from + (m.to << 6) + (m.promoteTo << 12)));
+        writeBuf.putShort((short)alpha);
+        writeBuf.putShort((short)beta);
+        writeBuf.put((byte)ply);
+        writeBuf.put((byte)depth);
         return nextIndex++;
     }
 
@@ -175,29 +287,60 @@ public final class TreeLogger {
      * @return node index
      */
     final long logNodeEnd(long startIndex, int score, int scoreType, int evalScore, long hashKey) {
-        bb.putInt  ( 0, (int)startIndex);
-        bb.putShort( 4, (short)score);
-        bb.putShort( 6, (short)scoreType);
-        bb.putLong(  8, hashKey);
-        bb.putShort( 8, (short)evalScore); // Overwrites first two byte of hashKey
-        try {
-            bos.write(bb.array());
-        } catch (IOException e) {
-            throw new RuntimeException();
+        if (!writeBuf.hasRemaining())
+            flushWriteBuf();
+        writeBuf.putInt((int)startIndex);
+        writeBuf.putShort((short)score);
+        writeBuf.putShort((short)scoreType);
+        writeBuf.putShort((short)evalScore);
+        writeBuf.putShort((short)(hashKey >>> 32));
+        writeBuf.putInt((int)hashKey);
+        long endIndex = nextIndex++;
+        if (startIndex >= writeBufFirst) {
+            writeBuf.putInt((int)(startIndex - writeBufFirst) * 16, (int)endIndex);
+        } else {
+            if (nPatches == patches.length)
+                patches = Arrays.copyOf(patches, nPatches * 2);
+            patches[nPatches++] = (startIndex << 32) | endIndex;
         }
-        return nextIndex++;
+        return endIndex;
+    }
+
+    private void flushWriteBuf() {
+        writeBufFirst = nextIndex;
+        writeBuf = writer.swap(writeBuf);
+    }
+
+    /** Fill in endIndex for start entries that were written before their end entries were logged. */
+    private void writePatches() throws IOException {
+        Arrays.sort(patches, 0, nPatches);
+        ByteBuffer buf = ByteBuffer.allocate(4);
+        for (int i = 0; i < nPatches; i++) {
+            buf.clear();
+            buf.putInt(0, (int)patches[i]);
+            outChannel.write(buf, indexToFileOffs(patches[i] >>> 32));
+        }
+        buf.clear();
+        buf.limit(1);
+        buf.put(0, (byte)(1 << 7));
+        outChannel.write(buf, 127);
+        nPatches = 0;
     }
 
     // ----------------------------------------------------------------------------
     // Functions used for tree analyzing
     
-    private static int indexToFileOffs(int index) {
+    private static long indexToFileOffs(long index) {
         return 128 + index * 16;
     }
-    
+
+    private ByteBuffer segment(long offs) {
+        return segments[(int)(offs / SEGMENT_SIZE)];
+    }
+
     /** Compute endIndex for all StartNode entries. */
     private void computeForwardPointers() {
-        if ((mapBuf.get(127) & (1<<7)) != 0)
+        if ((segments[0].get(127) & (1<<7)) != 0)
             return;
         System.out.print("Computing forward pointers...\n");
         StartEntry se = new StartEntry();
@@ -205,21 +348,22 @@ public final class TreeLogger {
         for (int i = 0; i < numEntries; i++) {
             boolean isStart = readEntry(i, se, ee);
             if (!isStart) {
-                int offs = indexToFileOffs(ee.startIndex);
-                mapBuf.putInt(offs, i);
+                long offs = indexToFileOffs(ee.startIndex);
+                segment(offs).putInt((int)(offs % SEGMENT_SIZE), i);
             }
         }
-        mapBuf.put(127, (byte)(1 << 7));
-        mapBuf.force();
+        segments[0].put(127, (byte)(1 << 7));
+        for (MappedByteBuffer seg : segments)
+            seg.force();
         System.out.print("Computing forward pointers... done\n");
     }
 
     /** Get FEN string for root node position. */
     private String getRootNodeFEN() {
-        int len = mapBuf.get(0);
+        int len = segments[0].get(0);
         byte[] fenB = new byte[len];
         for (int i = 0; i < len; i++)
-            fenB[i] = mapBuf.get(1+i);
+            fenB[i] = segments[0].get(1+i);
         return new String(fenB);
     }
 
@@ -243,9 +387,11 @@ public final class TreeLogger {
     /** Read a start/end entry.
      * @return True if entry was a start entry, false if it was an end entry. */
     private boolean readEntry(int index, StartEntry se, EndEntry ee) {
-        int offs = indexToFileOffs(index);
-        for (int i = 0; i < 16; i++)
-            bb.put(i, mapBuf.get(offs + i));
+        long offs = indexToFileOffs(index);
+        ByteBuffer seg = segment(offs);
+        int segOffs = (int)(offs % SEGMENT_SIZE);
+        bb.putLong(0, seg.getLong(segOffs));
+        bb.putLong(8, seg.getLong(segOffs + 8));
         int otherIndex = bb.getInt(0);
         boolean isStartEntry = (otherIndex == -1) || (otherIndex > index);
         if (isStartEntry) {
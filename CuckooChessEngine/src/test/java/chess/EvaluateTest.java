@@ -443,6 +443,33 @@ public class EvaluateTest {
         assertTrue(evalWhite(pos) < -winScore + pV);
     }
 
+    @Test
+    public void testHashStats() throws ChessParseError {
+        System.out.println("hashStats");
+        Evaluate eval = new Evaluate();
+        assertEquals(0, eval.getPawnHashProbes());
+        assertEquals(0, eval.getKingSafetyHashProbes());
+        Position pos = TextIO.readFEN("r1bqk2r/ppp2ppp/2np1n2/2b1p3/2B1P3/2NP1N2/PPP2PPP/R1BQK2R w KQkq - 0 1");
+        int score = eval.evalPos(pos);
+        long pawnProbes = eval.getPawnHashProbes();
+        long ksProbes = eval.getKingSafetyHashProbes();
+        assertTrue(pawnProbes > 0);
+        assertTrue(ksProbes > 0);
+        assertEquals(0, eval.getPawnHashHits());
+        assertEquals(0, eval.getKingSafetyHashHits());
+
+        assertEquals(score, eval.evalPos(pos));
+        assertEquals(2 * pawnProbes, eval.getPawnHashProbes());
+        assertEquals(pawnProbes, eval.getPawnHashHits());
+        assertEquals(2 * ksProbes, eval.getKingSafetyHashProbes());
+        assertEquals(ksProbes, eval.getKingSafetyHashHits());
+
+        // Hash tables are not shared between Evaluate objects
+        Evaluate eval2 = new Evaluate();
+        assertEquals(score, eval2.evalPos(pos));
+        assertEquals(0, eval2.getPawnHashHits());
+    }
+
     /** Return static evaluation score for white, regardless of whose turn it is to move. */
     static int evalWhite(Position pos) {
         Evaluate eval = new Evaluate();
@@ -0,0 +1,130 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package chess;
+
+import java.util.ArrayList;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MateSolverTest {
+
+    public MateSolverTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    /** Test of solve method, of class MateSolver. */
+    @Test
+    public void testSolve() throws ChessParseError {
+        System.out.println("solve");
+        Position pos = TextIO.readFEN("3k4/8/3K2R1/8/8/8/8/8 w - - 0 1");
+        MateSolver ms = new MateSolver(pos, 16);
+        assertEquals(1, ms.solve(null, 3));
+        ArrayList<Move> pv = ms.getPV();
+        assertEquals(1, pv.size());
+        assertEquals("Rg8#", TextIO.moveToString(pos, pv.get(0), false));
+
+        pos = TextIO.readFEN("8/1P6/k7/2K5/8/8/8/8 w - - 0 1");
+        ms = new MateSolver(pos, 16);
+        assertEquals(2, ms.solve(null, 4));
+        assertEquals(3, ms.getPV().size());
+
+        // Must underpromote to avoid stalemate
+        pos = TextIO.readFEN("8/5P1k/5K2/8/8/8/8/8 w - - 0 1");
+        ms = new MateSolver(pos, 16);
+        assertEquals(2, ms.solve(null, 2));
+        pv = ms.getPV();
+        assertEquals(3, pv.size());
+        assertEquals(new Move(TextIO.getSquare("f7"), TextIO.getSquare("f8"), Piece.WROOK), pv.get(0));
+        UndoInfo ui = new UndoInfo();
+        for (Move m : pv)
+            pos.makeMove(m, ui);
+        assertTrue(MoveGen.inCheck(pos));
+        assertEquals(0, new MoveGen().legalMoves(pos).size);
+
+        // Stalemate
+        pos = TextIO.readFEN("4k3/8/3K1Q2/8/8/8/8/8 b - - 0 1");
+        ms = new MateSolver(pos, 16);
+        assertEquals(0, ms.solve(null, 3));
+        assertEquals(0, ms.getPV().size());
+
+        // No mate within the limit
+        pos = TextIO.readFEN("3kB3/8/1N1K4/8/8/8/8/8 w - - 0 1");
+        ms = new MateSolver(pos, 16);
+        assertEquals(0, ms.solve(null, 3));
+    }
+
+    /** Test that the root move list restricts the search. */
+    @Test
+    public void testRootMoves() throws ChessParseError {
+        System.out.println("rootMoves");
+        Position pos = TextIO.readFEN("3k4/8/3K2R1/8/8/8/8/8 w - - 0 1");
+        ArrayList<Move> searchMoves = new ArrayList<>();
+        searchMoves.add(TextIO.stringToMove(pos, "Rg7"));
+        MoveGen.MoveList moves = new MoveGen().legalMoves(pos);
+        moves.filter(searchMoves);
+        MateSolver ms = new MateSolver(pos, 16);
+        assertEquals(0, ms.solve(moves, 1));
+
+        searchMoves.add(TextIO.stringToMove(pos, "Rg8"));
+        moves = new MoveGen().legalMoves(pos);
+        moves.filter(searchMoves);
+        ms = new MateSolver(pos, 16);
+        assertEquals(1, ms.solve(moves, 1));
+        assertEquals(searchMoves.get(1), ms.getPV().get(0));
+    }
+
+    /** Test that a solver can be reused for several positions. */
+    @Test
+    public void testReuse() throws ChessParseError {
+        System.out.println("reuse");
+        MateSolver ms = new MateSolver(12);
+        Position pos = TextIO.readFEN("8/1P6/k7/2K5/8/8/8/8 w - - 0 1");
+        ms.setPosition(pos);
+        assertEquals(2, ms.solve(null, 4));
+        assertTrue(ms.getNodes() > 0);
+
+        // Stalemate, old proofs must not be used
+        pos = TextIO.readFEN("4k3/8/3K1Q2/8/8/8/8/8 b - - 0 1");
+        ms.setPosition(pos);
+        assertEquals(0, ms.getNodes());
+        assertEquals(0, ms.solve(null, 3));
+
+        pos = TextIO.readFEN("3k4/8/3K2R1/8/8/8/8/8 w - - 0 1");
+        ms.setPosition(pos);
+        assertEquals(1, ms.solve(null, 3));
+        assertEquals("Rg8#", TextIO.moveToString(pos, ms.getPV().get(0), false));
+
+        // A stopped solver can be used again after setPosition()
+        ms.stop();
+        assertEquals(0, ms.solve(null, 3));
+        ms.setPosition(pos);
+        assertEquals(1, ms.solve(null, 3));
+    }
+}
@@ -19,7 +19,10 @@
 package chess;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -403,6 +406,172 @@ public class MoveGenTest {
         assertTrue(evList.contains("b7c6"));
     }
 
+    /**
+     * Test that a caller supplied move list gives the same result as an
+     * internally allocated list, also when the list is reused.
+     */
+    @Test
+    public void testSuppliedMoveList() throws ChessParseError {
+        System.out.println("suppliedMoveList");
+        MoveGen moveGen = new MoveGen();
+        MoveGen.MoveList ml = MoveGen.newMoveList();
+        UndoInfo ui = new UndoInfo();
+        for (String fen : BenchPositions.fens) {
+            Position pos = TextIO.readFEN(fen);
+            for (int t = 0; t < 4; t++) {
+                MoveGen.MoveList expected;
+                MoveGen.MoveList actual;
+                switch (t) {
+                case 0:
+                    expected = moveGen.pseudoLegalMoves(pos);
+                    actual = moveGen.pseudoLegalMoves(pos, ml);
+                    break;
+                case 1:
+                    expected = moveGen.pseudoLegalCaptures(pos);
+                    actual = moveGen.pseudoLegalCaptures(pos, ml);
+                    break;
+                case 2:
+                    expected = moveGen.pseudoLegalCapturesAndChecks(pos);
+                    actual = moveGen.pseudoLegalCapturesAndChecks(pos, ml);
+                    break;
+                default:
+                    expected = moveGen.pseudoLegalMoves(pos);
+                    MoveGen.removeIllegal(pos, expected);
+                    actual = moveGen.pseudoLegalMoves(pos, ml);
+                    MoveGen.removeIllegal(pos, actual, ui);
+                    break;
+                }
+                assertSame(ml, actual);
+                assertEquals(expected.size, actual.size);
+                for (int mi = 0; mi < expected.size; mi++)
+                    assertEquals(expected.m[mi], actual.m[mi]);
+                moveGen.returnMoveList(expected);
+            }
+        }
+    }
+
+    /** Test that isPseudoLegal agrees with pseudoLegalMoves. */
+    @Test
+    public void testIsPseudoLegal() throws ChessParseError {
+        System.out.println("isPseudoLegal");
+        List<String> fens = new ArrayList<>();
+        for (String fen : BenchPositions.fens)
+            fens.add(fen);
+        fens.add("r3k2r/1P4P1/8/3pP3/8/8/1p4p1/R3K2R w KQkq d6 0 1");
+        fens.add("r3k2r/1P4P1/8/8/3Pp3/8/1p4p1/R3K2R b KQkq d3 0 1");
+        fens.add("rn2k2r/1P6/8/8/8/8/6p1/R3K1NR b KQkq - 0 1");
+        MoveGen moveGen = new MoveGen();
+        UndoInfo ui = new UndoInfo();
+        Random rnd = new Random(4711);
+        int[] proms = new int[Piece.nPieceTypes];
+        for (int i = 0; i < proms.length; i++)
+            proms[i] = i;
+        for (String fen : fens) {
+            Position pos = TextIO.readFEN(fen);
+            for (int ply = 0; ply < 40; ply++) {
+                MoveGen.MoveList all = moveGen.pseudoLegalMoves(pos);
+                Set<Integer> expected = new HashSet<>();
+                for (int mi = 0; mi < all.size; mi++)
+                    assertTrue(expected.add(moveKey(all.m[mi])));
+
+                Move m = new Move(0, 0, Piece.EMPTY);
+                for (int from = 0; from < 64; from++) {
+                    for (int to = 0; to < 64; to++) {
+                        for (int prom : proms) {
+                            m.from = from; m.to = to; m.promoteTo = prom;
+                            assertEquals(expected.contains(moveKey(m)), MoveGen.isPseudoLegal(pos, m));
+                        }
+                    }
+                }
+
+                MoveGen.removeIllegal(pos, all);
+                if (all.size == 0)
+                    break;
+                pos.makeMove(all.m[rnd.nextInt(all.size)], ui);
+                moveGen.returnMoveList(all);
+            }
+        }
+    }
+
+    /**
+     * Test of legalMoves method, of class MoveGen. Check that it generates
+     * the same moves as pseudoLegalMoves followed by removeIllegal, and that
+     * perft node counts agree.
+     */
+    @Test
+    public void testLegalMoves() throws ChessParseError {
+        System.out.println("legalMoves");
+        List<String> fens = new ArrayList<>();
+        for (String fen : BenchPositions.fens)
+            fens.add(fen);
+        fens.add("8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - -");
+        fens.add("r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq -");
+        fens.add("r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1");
+        fens.add("rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8");
+        fens.add("8/8/8/K2pP2q/8/8/8/7k w - d6 0 1");
+        fens.add("8/8/8/2k5/3pP3/8/8/4KB2 b - e3 0 1");
+        fens.add("4k3/8/8/8/1b6/8/3P4/4K3 w - - 0 1");
+        MoveGen moveGen = new MoveGen();
+        MoveGen.MoveList legal = MoveGen.newMoveList();
+        UndoInfo ui = new UndoInfo();
+        Random rnd = new Random(17);
+        for (String fen : fens) {
+            Position pos = TextIO.readFEN(fen);
+            assertEquals(perftRemoveIllegal(moveGen, pos, 3), perftLegal(moveGen, pos, 3));
+            for (int ply = 0; ply < 60; ply++) {
+                MoveGen.MoveList all = moveGen.pseudoLegalMoves(pos);
+                MoveGen.removeIllegal(pos, all);
+                Set<Integer> expected = new HashSet<>();
+                for (int mi = 0; mi < all.size; mi++)
+                    expected.add(moveKey(all.m[mi]));
+                moveGen.legalMoves(pos, legal);
+                Set<Integer> actual = new HashSet<>();
+                for (int mi = 0; mi < legal.size; mi++)
+                    assertTrue(actual.add(moveKey(legal.m[mi])));
+                assertEquals(expected, actual);
+                if (all.size == 0)
+                    break;
+                pos.makeMove(all.m[rnd.nextInt(all.size)], ui);
+                moveGen.returnMoveList(all);
+            }
+        }
+    }
+
+    private static long perftRemoveIllegal(MoveGen moveGen, Position pos, int depth) {
+        if (depth == 0)
+            return 1;
+        MoveGen.MoveList moves = moveGen.pseudoLegalMoves(pos);
+        MoveGen.removeIllegal(pos, moves);
+        long nodes = 0;
+        UndoInfo ui = new UndoInfo();
+        for (int mi = 0; mi < moves.size; mi++) {
+            pos.makeMove(moves.m[mi], ui);
+            nodes += perftRemoveIllegal(moveGen, pos, depth - 1);
+            pos.unMakeMove(moves.m[mi], ui);
+        }
+        moveGen.returnMoveList(moves);
+        return nodes;
+    }
+
+    private static long perftLegal(MoveGen moveGen, Position pos, int depth) {
+        if (depth == 0)
+            return 1;
+        MoveGen.MoveList moves = moveGen.legalMoves(pos);
+        long nodes = 0;
+        UndoInfo ui = new UndoInfo();
+        for (int mi = 0; mi < moves.size; mi++) {
+            pos.makeMove(moves.m[mi], ui);
+            nodes += perftLegal(moveGen, pos, depth - 1);
+            pos.unMakeMove(moves.m[mi], ui);
+        }
+        moveGen.returnMoveList(moves);
+        return nodes;
+    }
+
+    private static int moveKey(Move m) {
+        return m.from + (m.to << 6) + (m.promoteTo << 12);
+    }
+
     private List<String> getMoveList(Position pos, boolean onlyLegal) {
         Position swap = EvaluateTest.swapColors(pos);
         List<String> swapList = getMoveList0(swap, onlyLegal);
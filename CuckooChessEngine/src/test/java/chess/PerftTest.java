@@ -0,0 +1,106 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package chess;
+
+import java.util.List;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PerftTest {
+
+    public PerftTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    /**
+     * Test of perft method, of class Perft.
+     */
+    @Test
+    public void testPerft() throws ChessParseError {
+        System.out.println("perft");
+        Position pos = TextIO.readFEN(TextIO.startPosFEN);
+        doTestPerft(pos, new long[]{20,400,8902,197281,4865609});
+
+        pos = TextIO.readFEN("8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - -");
+        doTestPerft(pos, new long[]{14, 191, 2812, 43238, 674624});
+
+        pos = TextIO.readFEN("r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq -");
+        doTestPerft(pos, new long[]{48,2039,97862,4085603});
+
+        pos = TextIO.readFEN("r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1");
+        doTestPerft(pos, new long[]{6, 264, 9467, 422333});
+
+        pos = TextIO.readFEN("rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8");
+        doTestPerft(pos, new long[]{44, 1486, 62379, 2103487});
+
+        // Check mate
+        pos = TextIO.readFEN("rnb1kbnr/pppp1ppp/8/4p3/6Pq/5P2/PPPPP2P/RNBQKBNR w KQkq - 1 3");
+        doTestPerft(pos, new long[]{0,0,0});
+    }
+
+    private void doTestPerft(Position pos, long[] expectedNodeCounts) {
+        String fen = TextIO.toFEN(pos);
+        for (int threads = 1; threads <= 3; threads += 2) {
+            for (int hashMB = 0; hashMB <= 1; hashMB++) {
+                Perft perft = new Perft(threads, hashMB);
+                for (int d = 1; d <= expectedNodeCounts.length; d++)
+                    assertEquals(expectedNodeCounts[d-1], perft.perft(pos, d));
+                assertEquals(1, perft.perft(pos, 0));
+                assertEquals(fen, TextIO.toFEN(pos));
+            }
+        }
+    }
+
+    /**
+     * Test of divide method, of class Perft.
+     */
+    @Test
+    public void testDivide() throws ChessParseError {
+        System.out.println("divide");
+        Position pos = TextIO.readFEN(TextIO.startPosFEN);
+        List<Perft.MoveCount> counts = new Perft(2, 1).divide(pos, 3);
+        assertEquals(20, counts.size());
+        long sum = 0;
+        for (Perft.MoveCount mc : counts)
+            sum += mc.nodes;
+        assertEquals(8902, sum);
+        assertEquals("a2a3", TextIO.moveToUCIString(counts.get(0).move));
+        assertEquals(380, counts.get(0).nodes);
+        for (int i = 1; i < counts.size(); i++)
+            assertTrue(counts.get(i-1).compareTo(counts.get(i)) < 0);
+
+        MoveGen moveGen = new MoveGen();
+        UndoInfo ui = new UndoInfo();
+        for (Perft.MoveCount mc : counts) {
+            pos.makeMove(mc.move, ui);
+            assertEquals(Game.perfT(moveGen, pos, 2), mc.nodes);
+            pos.unMakeMove(mc.move, ui);
+        }
+    }
+}
@@ -225,12 +225,197 @@ public class SearchTest {
     @Test
     public void testKQKRNullMove() throws ChessParseError {
         System.out.println("kqkrNullMove");
+        // Whether the mate is found at this depth depends on the move order,
+        // so don't use hash and history tables left over from other tests
+        TranspositionTable tt = new TranspositionTable(19);
+        History ht = new History();
         Position pos = TextIO.readFEN("7K/6R1/5k2/3q4/8/8/8/8 b - - 0 1");
         Search sc = new Search(pos, nullHist, 0, tt, ht);
         Move bestM = idSearch(sc, 10);
         assertEquals(Search.MATE0-18, bestM.score);
     }
 
+    @Test
+    public void testLazySMP() throws ChessParseError {
+        System.out.println("lazySMP");
+        // Helper threads make the hash table contents non-deterministic,
+        // so don't use the hash table shared with the other tests
+        TranspositionTable tt = new TranspositionTable(19);
+        History ht = new History();
+        Position pos = TextIO.readFEN("8/1P6/k7/2K5/8/8/8/8 w - - 0 1");
+        Search sc = new Search(pos, nullHist, 0, tt, ht);
+        sc.setNumThreads(4);
+        Move bestM = idSearch(sc, 6);
+        assertEquals(Search.MATE0 - 4, bestM.score);
+        assertEquals(TextIO.uciStringToMove("b7b8q"), bestM);
+        assertTrue(sc.getTotalNodes() > 0);
+
+        pos = TextIO.readFEN("r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 0 1");
+        sc = new Search(pos, nullHist, 0, tt, ht);
+        sc.setNumThreads(3);
+        bestM = idSearch(sc, 5);
+        assertTrue(bestM != null);
+        assertTrue(Math.abs(bestM.score) < 200);
+    }
+
+    @Test
+    public void testSearchThreadsReuse() throws ChessParseError {
+        System.out.println("searchThreadsReuse");
+        TranspositionTable tt = new TranspositionTable(19);
+        History ht = new History();
+        SearchThreads threads = new SearchThreads();
+        threads.setNumThreads(3);
+        Position pos = TextIO.readFEN("8/1P6/k7/2K5/8/8/8/8 w - - 0 1");
+        Search sc = new Search(pos, nullHist, 0, tt, ht, threads);
+        Move bestM = idSearch(sc, 6);
+        assertEquals(TextIO.uciStringToMove("b7b8q"), bestM);
+        assertEquals(2, threads.getNumHelpers());
+        Search h0 = threads.getHelper(0).search;
+        Search h1 = threads.getHelper(1).search;
+        assertNotNull(h0);
+        assertNotNull(h1);
+
+        // A new search reuses the helper search objects
+        pos = TextIO.readFEN("r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 0 1");
+        sc = new Search(pos, nullHist, 0, tt, ht, threads);
+        bestM = idSearch(sc, 5);
+        assertTrue(bestM != null);
+        assertTrue(Math.abs(bestM.score) < 200);
+        assertSame(h0, threads.getHelper(0).search);
+        assertSame(h1, threads.getHelper(1).search);
+        assertTrue(sc.getTotalNodes() > 0);
+
+        threads.setNumThreads(2);
+        assertEquals(1, threads.getNumHelpers());
+        assertSame(h0, threads.getHelper(0).search);
+        threads.stopThreads();
+    }
+
+    @Test
+    public void testEvaluateReuse() {
+        System.out.println("evaluateReuse");
+        SearchThreads threads = new SearchThreads();
+        Evaluate eval = threads.getEvaluate();
+        assertSame(eval, threads.getEvaluate());
+
+        // Hash tables are reallocated when their size changes
+        Parameters par = Parameters.instance();
+        int oldSize = par.getIntPar("PawnHashLog2Size");
+        par.set("PawnHashLog2Size", Integer.toString(oldSize - 1));
+        try {
+            Evaluate eval2 = threads.getEvaluate();
+            assertNotSame(eval, eval2);
+            assertSame(eval2, threads.getEvaluate());
+        } finally {
+            par.set("PawnHashLog2Size", Integer.toString(oldSize));
+        }
+        assertNotSame(eval, threads.getEvaluate());
+    }
+
+    @Test
+    public void testStatistics() throws ChessParseError {
+        System.out.println("statistics");
+        TranspositionTable tt = new TranspositionTable(19);
+        History ht = new History();
+        Position pos = TextIO.readFEN("r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 0 1");
+        Search sc = new Search(pos, nullHist, 0, tt, ht);
+        assertNull(sc.getStatistics());
+        sc.setNumThreads(2);
+        sc.setStatistics(true);
+        idSearch(sc, 6);
+        SearchStats stats = sc.getStatistics();
+        assertTrue(stats.searchNodes > 0);
+        assertTrue(stats.qNodes > 0);
+        assertEquals(stats.searchNodes, stats.ttProbes);
+        assertTrue(stats.ttCutoffs <= stats.ttHits);
+        assertTrue(stats.ttHits <= stats.ttProbes);
+        assertTrue(stats.nullMoveCutoffs <= stats.nullMoveSearches);
+        assertTrue(stats.lmrReSearches <= stats.lmrReductions);
+        assertTrue(stats.firstMoveCutoffs <= stats.betaCutoffs);
+        assertTrue(stats.pawnHashHits <= stats.pawnHashProbes);
+        assertTrue(stats.pawnHashProbes > 0);
+        String json = stats.toJSON();
+        assertTrue(json.startsWith("{\"searchNodes\":" + stats.searchNodes + ","));
+        assertTrue(json.endsWith("\"kingSafetyHashHits\":" + stats.kingSafetyHashHits + "}"));
+
+        sc.setStatistics(false);
+        assertNull(sc.getStatistics());
+    }
+
+    @Test
+    public void testMultiPV() throws ChessParseError {
+        System.out.println("multiPV");
+        Position pos = TextIO.readFEN("3k4/8/3K2R1/8/8/8/8/8 w - - 0 1");
+        Search sc = new Search(pos, nullHist, 0, tt, ht);
+        final int nPV = 3;
+        final Move[] pvMoves = new Move[nPV + 1];
+        final int[] pvScores = new int[nPV + 1];
+        final int[] pvDepths = new int[nPV + 1];
+        sc.setListener(new Search.Listener() {
+            public void notifyDepth(int depth) { }
+            public void notifyCurrMove(Move m, int moveNr) { }
+            public void notifyPV(int depth, int pvNum, int score, int time, long nodes, int nps,
+                                 boolean isMate, boolean upperBound, boolean lowerBound,
+                                 java.util.ArrayList<Move> pv) {
+                assertTrue(pvNum >= 1 && pvNum <= nPV);
+                assertFalse(upperBound || lowerBound);
+                pvMoves[pvNum] = pv.get(0);
+                pvScores[pvNum] = isMate ? Search.MATE0 - 2 * score + 1 : score;
+                pvDepths[pvNum] = depth;
+            }
+            public void notifyStats(long nodes, int nps, int time) { }
+        });
+        sc.setMultiPV(nPV);
+        Move bestM = idSearch(sc, 6);
+        assertEquals(TextIO.uciStringToMove("g6g8"), bestM);
+        assertEquals(Search.MATE0 - 2, bestM.score);
+        assertEquals(bestM, pvMoves[1]);
+        for (int i = 1; i <= nPV; i++) {
+            assertEquals(6, pvDepths[i]);
+            for (int j = 1; j < i; j++)
+                assertFalse(pvMoves[i].equals(pvMoves[j]));
+        }
+        assertEquals(Search.MATE0 - 1, pvScores[1]); // Mate in 1
+        assertTrue(pvScores[2] < pvScores[1]);
+        assertTrue(pvScores[3] <= pvScores[2]);
+        assertTrue(pvScores[3] > 0);
+    }
+
+    /** Test that tablebase root move filtering keeps all result preserving moves when analyzing. */
+    @Test
+    public void testTBRootMoves() throws Exception {
+        System.out.println("tbRootMoves");
+        Syzygy.initialize(SyzygyTest.tbPath());
+        try {
+            Position pos = TextIO.readFEN("8/8/8/4k3/8/8/3QK3/8 w - - 0 1");
+            Search sc = new Search(pos, nullHist, 0, tt, ht);
+            MoveGen.MoveList moves = new MoveGen().legalMoves(pos);
+            sc.timeLimit(-1, -1);
+            sc.iterativeDeepening(moves, 2, -1, false);
+            assertEquals(3, moves.size);  // Only moves with the shortest DTZ
+
+            // All moves except the four queen blunders still win
+            sc = new Search(pos, nullHist, 0, tt, ht);
+            sc.setMultiPV(2);
+            moves = new MoveGen().legalMoves(pos);
+            sc.timeLimit(-1, -1);
+            sc.iterativeDeepening(moves, 2, -1, false);
+            assertEquals(22, moves.size);
+
+            final Search sc2 = new Search(pos, nullHist, 0, tt, ht);
+            final MoveGen.MoveList moves2 = new MoveGen().legalMoves(pos);
+            sc2.timeLimit(-1, -1);
+            Thread t = new Thread(() -> sc2.iterativeDeepening(moves2, -1, -1, false));
+            t.start();
+            Thread.sleep(100);
+            sc2.timeLimit(0, 0);
+            t.join();
+            assertEquals(22, moves2.size);
+        } finally {
+            Syzygy.initialize("");
+        }
+    }
+
     private Move idSearch(Search sc, int maxDepth) {
         MoveGen.MoveList moves = new MoveGen().pseudoLegalMoves(sc.pos);
         MoveGen.removeIllegal(sc.pos, moves);
@@ -445,4 +630,45 @@ public class SearchTest {
         assertEquals(true, res);
         assertEquals(m, moves.m[0]);
     }
+
+    /**
+     * Test that moves generated after the hash move has been searched end up in
+     * the same order as when selectHashMove() is applied to all generated moves.
+     */
+    @Test
+    public void testInsertAfterHashMove() throws ChessParseError {
+        System.out.println("insertAfterHashMove");
+        MoveGen moveGen = new MoveGen();
+        MoveGen.MoveList src = MoveGen.newMoveList();
+        MoveGen.MoveList moves = MoveGen.newMoveList();
+        for (String fen : BenchPositions.fens) {
+            Position pos = TextIO.readFEN(fen);
+            MoveGen.MoveList expected = moveGen.pseudoLegalMoves(pos);
+            int nMoves = expected.size;
+            for (int hi = 0; hi < nMoves; hi++) {
+                Move hashMove = new Move(moveGen.pseudoLegalMoves(pos).m[hi]);
+                moveGen.pseudoLegalMoves(pos, expected);
+                assertTrue(Search.selectHashMove(expected, hashMove));
+
+                moves.m[0].copyFrom(hashMove);
+                moves.size = 1;
+                Search.insertAfterHashMove(moves, moveGen.pseudoLegalMoves(pos, src));
+                assertEquals(0, src.size);
+                assertEquals(nMoves, moves.size);
+                for (int i = 0; i < nMoves; i++)
+                    assertEquals(expected.m[i], moves.m[i]);
+            }
+
+            // A hash move that is not generated is kept first
+            Move hashMove = new Move(TextIO.getSquare("a1"), TextIO.getSquare("h8"), Piece.EMPTY);
+            moves.m[0].copyFrom(hashMove);
+            moves.size = 1;
+            Search.insertAfterHashMove(moves, moveGen.pseudoLegalMoves(pos, src));
+            moveGen.pseudoLegalMoves(pos, expected);
+            assertEquals(nMoves + 1, moves.size);
+            assertEquals(hashMove, moves.m[0]);
+            for (int i = 0; i < nMoves; i++)
+                assertEquals(expected.m[i], moves.m[i + 1]);
+        }
+    }
 }
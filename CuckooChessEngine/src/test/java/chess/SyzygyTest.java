@@ -0,0 +1,229 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package chess;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SyzygyTest {
+
+    public SyzygyTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    /** Test that table names match the names of the Syzygy table files. */
+    @Test
+    public void testTableNames() {
+        System.out.println("tableNames");
+        List<String> names = new ArrayList<>();
+        Syzygy.tableNames(names);
+        assertEquals(5 + 30 + 110 + 365, names.size());
+        assertTrue(names.contains("KQvK"));
+        assertTrue(names.contains("KPvKP"));
+        assertTrue(names.contains("KQvKR"));
+        assertFalse(names.contains("KRvKQ"));
+        assertTrue(names.contains("KRPvKBN"));
+        assertFalse(names.contains("KBNvKRP"));
+        assertTrue(names.contains("KQRBvKN"));
+        assertTrue(names.contains("KPPPPvK"));
+        assertFalse(names.contains("KvK"));
+    }
+
+    /** Test that probing without tables reports missing information. */
+    @Test
+    public void testNoTables() throws ChessParseError {
+        System.out.println("noTables");
+        Syzygy.initialize("");
+        assertEquals(0, Syzygy.getLargest());
+        assertEquals(0, Syzygy.getNumTables());
+        Position pos = TextIO.readFEN("8/8/8/4k3/8/8/3QK3/8 w - - 0 1");
+        assertEquals(Syzygy.NO_INFO, Syzygy.probeWDL(pos));
+        assertEquals(Syzygy.NO_INFO, Syzygy.probeDTZ(pos));
+        MoveGen.MoveList moves = new MoveGen().legalMoves(pos);
+        int nMoves = moves.size;
+        assertFalse(Syzygy.filterRootMoves(pos, moves));
+        assertEquals(nMoves, moves.size);
+
+        Syzygy.initialize(System.getProperty("java.io.tmpdir"));
+        assertEquals(Syzygy.NO_INFO, Syzygy.probeWDL(pos));
+        Syzygy.initialize("");
+    }
+
+    /** Return the directory containing the KQvK, KRvK, KPvK, KBvK and KNvK test tables. */
+    static String tbPath() throws URISyntaxException {
+        URL url = SyzygyTest.class.getResource("/syzygy/KQvK.rtbw");
+        return new File(url.toURI()).getParent();
+    }
+
+    private static int probeWDL(String fen) throws ChessParseError {
+        return Syzygy.probeWDL(TextIO.readFEN(fen));
+    }
+
+    private static int probeDTZ(String fen) throws ChessParseError {
+        return Syzygy.probeDTZ(TextIO.readFEN(fen));
+    }
+
+    /** Test WDL probing using real table files. */
+    @Test
+    public void testProbeWDL() throws Exception {
+        System.out.println("probeWDL");
+        Syzygy.initialize(tbPath());
+        assertEquals(3, Syzygy.getLargest());
+        assertEquals(5, Syzygy.getNumTables());
+
+        // Win, loss and draws in KQvK
+        assertEquals(1, probeWDL("8/8/8/4k3/8/8/3QK3/8 w - - 0 1"));
+        assertEquals(-1, probeWDL("8/8/8/4k3/8/8/3QK3/8 b - - 0 1"));
+        assertEquals(0, probeWDL("8/8/8/8/8/8/3kQ3/K7 b - - 0 1"));  // Queen can be captured
+        assertEquals(0, probeWDL("k7/2Q5/1K6/8/8/8/8/8 b - - 0 1"));  // Stalemate
+        assertEquals(-1, probeWDL("3k2Q1/8/3K4/8/8/8/8/8 b - - 0 1")); // Mate
+
+        // Same positions with colors swapped
+        assertEquals(1, probeWDL("8/3qk3/8/8/4K3/8/8/8 b - - 0 1"));
+        assertEquals(-1, probeWDL("8/3qk3/8/8/4K3/8/8/8 w - - 0 1"));
+
+        assertEquals(1, probeWDL("8/8/8/3k4/8/8/8/R6K w - - 0 1"));
+        assertEquals(0, probeWDL("8/8/8/3k4/8/8/8/N6K w - - 0 1"));
+        assertEquals(Syzygy.NO_INFO, probeWDL("8/8/8/3k4/8/8/6P1/R6K w - - 0 1"));
+
+        // The result depends on the side to move
+        assertEquals(0, probeWDL("8/4k3/8/4K3/4P3/8/8/8 w - - 0 1"));
+        assertEquals(-1, probeWDL("8/4k3/8/4K3/4P3/8/8/8 b - - 0 1"));
+
+        // Pawn on each file class. Rook pawns draw, other pawns win.
+        assertEquals(0, probeWDL("k7/8/K7/P7/8/8/8/8 w - - 0 1"));
+        assertEquals(1, probeWDL("1k6/8/1K6/1P6/8/8/8/8 w - - 0 1"));
+        assertEquals(1, probeWDL("2k5/8/2K5/2P5/8/8/8/8 w - - 0 1"));
+        assertEquals(1, probeWDL("3k4/8/3K4/3P4/8/8/8/8 w - - 0 1"));
+        assertEquals(1, probeWDL("4k3/8/4K3/4P3/8/8/8/8 w - - 0 1"));
+        assertEquals(1, probeWDL("5k2/8/5K2/5P2/8/8/8/8 w - - 0 1"));
+        assertEquals(1, probeWDL("6k1/8/6K1/6P1/8/8/8/8 w - - 0 1"));
+        assertEquals(0, probeWDL("7k/8/7K/7P/8/8/8/8 w - - 0 1"));
+        assertEquals(1, probeWDL("8/8/8/8/1p6/1k6/8/1K6 b - - 0 1"));
+        assertEquals(0, probeWDL("8/8/8/8/p7/k7/8/K7 b - - 0 1"));
+
+        Syzygy.initialize("");
+    }
+
+    /** Test DTZ probing using real table files. */
+    @Test
+    public void testProbeDTZ() throws Exception {
+        System.out.println("probeDTZ");
+        Syzygy.initialize(tbPath());
+
+        // The KQvK table only stores positions with white to move
+        assertEquals(13, probeDTZ("8/8/8/4k3/8/8/3QK3/8 w - - 0 1"));
+        assertEquals(-14, probeDTZ("8/8/8/4k3/8/8/3QK3/8 b - - 0 1"));
+        assertEquals(13, probeDTZ("8/3qk3/8/8/4K3/8/8/8 b - - 0 1"));
+        assertEquals(-14, probeDTZ("8/3qk3/8/8/4K3/8/8/8 w - - 0 1"));
+        assertEquals(0, probeDTZ("8/8/8/8/8/8/3kQ3/K7 b - - 0 1"));
+        assertEquals(0, probeDTZ("k7/2Q5/1K6/8/8/8/8/8 b - - 0 1"));
+        assertEquals(1, probeDTZ("3k4/8/3K4/8/8/8/8/6Q1 w - - 0 1"));  // Mate in 1
+        assertEquals(-2, probeDTZ("3k4/6Q1/3K4/8/8/8/8/8 b - - 0 1"));
+        assertEquals(-1, probeDTZ("3k2Q1/8/3K4/8/8/8/8/8 b - - 0 1")); // Mated
+
+        // Three-piece tables contain no wins that are draws because of the
+        // 50-move rule, so test the half-move clock handling instead.
+        assertEquals(29, probeDTZ("8/8/8/3k4/8/8/8/R6K w - - 0 1"));
+        assertEquals(29, probeDTZ("8/8/8/3k4/8/8/8/R6K w - - 71 1"));
+        assertEquals(0, probeDTZ("8/8/8/3k4/8/8/8/R6K w - - 72 1"));
+
+        // A winning pawn move resets the 50-move counter
+        assertEquals(-4, probeDTZ("8/4k3/8/4K3/4P3/8/8/8 b - - 0 1"));
+        assertEquals(3, probeDTZ("4k3/8/4K3/4P3/8/8/8/8 w - - 0 1"));
+        assertEquals(1, probeDTZ("8/8/8/8/8/8/P6k/K7 w - - 0 1"));
+
+        // Pawn on each file class
+        assertEquals(0, probeDTZ("k7/8/K7/P7/8/8/8/8 w - - 0 1"));
+        assertEquals(3, probeDTZ("1k6/8/1K6/1P6/8/8/8/8 w - - 0 1"));
+        assertEquals(3, probeDTZ("2k5/8/2K5/2P5/8/8/8/8 w - - 0 1"));
+        assertEquals(3, probeDTZ("3k4/8/3K4/3P4/8/8/8/8 w - - 0 1"));
+        assertEquals(3, probeDTZ("5k2/8/5K2/5P2/8/8/8/8 w - - 0 1"));
+        assertEquals(3, probeDTZ("6k1/8/6K1/6P1/8/8/8/8 w - - 0 1"));
+        assertEquals(0, probeDTZ("7k/8/7K/7P/8/8/8/8 w - - 0 1"));
+        assertEquals(3, probeDTZ("8/8/8/8/1p6/1k6/8/1K6 b - - 0 1"));
+        assertEquals(0, probeDTZ("8/8/8/8/p7/k7/8/K7 b - - 0 1"));
+
+        Syzygy.initialize("");
+    }
+
+    private static List<String> filterRootMoves(String fen) throws ChessParseError {
+        Position pos = TextIO.readFEN(fen);
+        MoveGen.MoveList moves = new MoveGen().legalMoves(pos);
+        assertTrue(Syzygy.filterRootMoves(pos, moves));
+        List<String> ret = new ArrayList<>();
+        for (int mi = 0; mi < moves.size; mi++)
+            ret.add(TextIO.moveToString(pos, moves.m[mi], false));
+        return ret;
+    }
+
+    /** Test that root moves are filtered using DTZ information. */
+    @Test
+    public void testFilterRootMoves() throws Exception {
+        System.out.println("filterRootMoves");
+        Syzygy.initialize(tbPath());
+
+        List<String> moves = filterRootMoves("3k4/8/3K4/8/8/8/8/6Q1 w - - 0 1");
+        assertEquals(1, moves.size());
+        assertEquals("Qg8#", moves.get(0));
+
+        moves = filterRootMoves("8/8/8/4k3/8/8/3QK3/8 w - - 0 1");
+        assertEquals(3, moves.size());
+        assertTrue(moves.contains("Qd7"));
+        assertTrue(moves.contains("Ke3"));
+        assertTrue(moves.contains("Kf3"));
+
+        // Delay the loss as long as possible
+        moves = filterRootMoves("8/8/8/4k3/8/8/3QK3/8 b - - 0 1");
+        assertEquals(1, moves.size());
+        assertEquals("Ke6", moves.get(0));
+
+        // Only capturing the queen draws
+        moves = filterRootMoves("8/8/8/8/8/8/3kQ3/K7 b - - 0 1");
+        assertEquals(1, moves.size());
+        assertEquals("Kxe2", moves.get(0));
+
+        moves = filterRootMoves("1k6/8/1K6/1P6/8/8/8/8 w - - 0 1");
+        assertEquals(1, moves.size());
+        assertEquals("Ka6", moves.get(0));
+
+        moves = filterRootMoves("k7/8/K7/P7/8/8/8/8 w - - 0 1");
+        assertEquals(2, moves.size());
+        assertTrue(moves.contains("Kb5"));
+        assertTrue(moves.contains("Kb6"));
+
+        Syzygy.initialize("");
+    }
+}
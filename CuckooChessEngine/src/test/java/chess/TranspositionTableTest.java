@@ -19,6 +19,9 @@
 package chess;
 
 import chess.TranspositionTable.TTEntry;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -149,4 +152,124 @@ public class TranspositionTableTest {
             assertEquals(m, tmpMove);
         }
     }
+
+    @Test
+    public void testConcurrentAccess() throws InterruptedException {
+        System.out.println("concurrentAccess");
+        final TranspositionTable tt = new TranspositionTable(8);
+        final int nThreads = 4;
+        final boolean[] ok = new boolean[nThreads];
+        Thread[] threads = new Thread[nThreads];
+        for (int t = 0; t < nThreads; t++) {
+            final int threadNo = t;
+            threads[t] = new Thread(() -> {
+                TTEntry ent = new TTEntry();
+                Move m = new Move(0, 0, 0);
+                Move tmpMove = new Move(0, 0, 0);
+                boolean good = true;
+                for (int i = 0; i < 200000; i++) {
+                    long key = (i % 5000) * 0x9E3779B97F4A7C15L;
+                    int from = (int)(key >>> 20) & 63;
+                    int to = (int)(key >>> 40) & 63;
+                    int score = (int)(key >>> 50) & 1023;
+                    if ((i + threadNo) % 2 == 0) {
+                        m.setMove(from, to, Piece.EMPTY, score);
+                        tt.insert(key, m, TTEntry.T_EXACT, 0, i % 100, score);
+                    } else {
+                        tt.probe(key, ent);
+                        if (ent.type != TTEntry.T_EMPTY) {
+                            ent.getMove(tmpMove);
+                            if ((tmpMove.from != from) || (tmpMove.to != to) ||
+                                (ent.getScore(0) != score) || (ent.evalScore != score))
+                                good = false;
+                        }
+                    }
+                }
+                ok[threadNo] = good;
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        for (int t = 0; t < nThreads; t++)
+            assertTrue(ok[t]);
+    }
+
+    /** Test saving, loading and merging hash files. */
+    @Test
+    public void testSaveLoad() throws ChessParseError, IOException {
+        System.out.println("saveLoad");
+        TranspositionTable tt = new TranspositionTable(12);
+        Position pos = TextIO.readFEN(TextIO.startPosFEN);
+        String[] moves = { "e4", "e5", "Nf3", "Nc6", "Bb5", "a6", "Ba4", "b5" };
+        long[] keys = new long[moves.length];
+        UndoInfo ui = new UndoInfo();
+        for (int i = 0; i < moves.length; i++) {
+            Move m = TextIO.stringToMove(pos, moves[i]);
+            pos.makeMove(m, ui);
+            keys[i] = pos.historyHash();
+            m.score = (i == 0) ? Search.MATE0 - 10 : i * 10;
+            tt.insert(keys[i], m, TTEntry.T_EXACT, 2, i + 10, i);
+        }
+        File f = File.createTempFile("cuckoo", ".hash");
+        f.deleteOnExit();
+        try {
+            tt.save(f);
+
+            // Load into a table of a different size
+            TranspositionTable tt2 = new TranspositionTable(10);
+            tt2.load(f);
+            for (int i = 0; i < moves.length; i++) {
+                TTEntry ent = tt2.probe(keys[i]);
+                assertEquals(TTEntry.T_EXACT, ent.type);
+                assertEquals(i + 10, ent.getDepth());
+                assertEquals(i, ent.evalScore);
+                assertEquals((i == 0) ? Search.MATE0 - 10 : i * 10, ent.getScore(2));
+            }
+
+            // Merge keeps deeper entries already in the table
+            Move m = new Move(0, 0, 0);
+            m.score = 123;
+            tt2.insert(keys[1], m, TTEntry.T_EXACT, 0, 30, 0);
+            tt2.merge(f);
+            assertEquals(30, tt2.probe(keys[1]).getDepth());
+            assertEquals(12, tt2.probe(keys[2]).getDepth());
+
+            // Load replaces all previous content
+            TranspositionTable tt3 = new TranspositionTable(10);
+            tt3.insert(123456789L, m, TTEntry.T_EXACT, 0, 30, 0);
+            tt3.load(f);
+            assertEquals(TTEntry.T_EMPTY, tt3.probe(123456789L).type);
+            assertEquals(11, tt3.probe(keys[1]).getDepth());
+        } finally {
+            f.delete();
+        }
+
+        // Loading a file that is not a hash file does not change the table
+        File bad = File.createTempFile("cuckoo", ".hash");
+        bad.deleteOnExit();
+        try {
+            boolean thrown = false;
+            try {
+                tt.load(bad);
+            } catch (IOException e) {
+                thrown = true;
+            }
+            assertTrue(thrown);
+            try (RandomAccessFile raf = new RandomAccessFile(bad, "rw")) {
+                raf.setLength(64);
+            }
+            thrown = false;
+            try {
+                tt.load(bad);
+            } catch (IOException e) {
+                thrown = true;
+            }
+            assertTrue(thrown);
+            for (int i = 0; i < moves.length; i++)
+                assertEquals(TTEntry.T_EXACT, tt.probe(keys[i]).type);
+        } finally {
+            bad.delete();
+        }
+    }
 }
@@ -0,0 +1,121 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package chess;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+import chess.TranspositionTable.TTEntry;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TreeLoggerTest {
+
+    public TreeLoggerTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    /** Log a random tree and record the end entry index of each start entry. */
+    private static void logTree(TreeLogger log, long parent, int depth, Random rnd, int[] endIndex) {
+        int nChildren = (depth > 0) ? rnd.nextInt(4) : 0;
+        for (int i = 0; i < nChildren; i++) {
+            Move m = new Move(rnd.nextInt(64), rnd.nextInt(64), Piece.EMPTY);
+            long idx = log.logNodeStart(parent, m, -100, 100, 5 - depth, depth);
+            logTree(log, idx, depth - 1, rnd, endIndex);
+            long end = log.logNodeEnd(idx, 17, TTEntry.T_EXACT, 3, 0x123456789abcL);
+            endIndex[(int)idx] = (int)end;
+        }
+    }
+
+    private static void checkForwardPointers(File f, int[] endIndex, int nEntries) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            assertEquals(128 + 16L * nEntries, raf.length());
+            raf.seek(127);
+            assertEquals(0x80, raf.readUnsignedByte());
+            for (int i = 0; i < nEntries; i++) {
+                raf.seek(128 + 16L * i);
+                int other = raf.readInt();
+                if (endIndex[i] > 0)
+                    assertEquals(endIndex[i], other);
+                else
+                    assertTrue(other < i);
+            }
+        }
+    }
+
+    /** Test that forward pointers are computed by the writer and by the analyzer. */
+    @Test
+    public void testForwardPointers() throws ChessParseError, IOException {
+        System.out.println("forwardPointers");
+        Position pos = TextIO.readFEN(TextIO.startPosFEN);
+        File f = File.createTempFile("treelog", ".dmp");
+        f.deleteOnExit();
+        File f2 = File.createTempFile("treelog", ".dmp");
+        f2.deleteOnExit();
+        try {
+            for (int bufEntries : new int[]{ 1, 4, 1000 }) {
+                TreeLogger log = TreeLogger.getWriter(f.getPath(), pos, bufEntries);
+                int[] endIndex = new int[100000];
+                Random rnd = new Random(bufEntries);
+                int nEntries = 0;
+                while (nEntries < 1000) {
+                    logTree(log, -1, 6, rnd, endIndex);
+                    long idx = log.logNodeStart(-1, new Move(0, 0, 0), 0, 0, 0, 0);
+                    endIndex[(int)idx] = (int)log.logNodeEnd(idx, 0, 0, 0, 0);
+                    nEntries = endIndex[(int)idx] + 1;
+                }
+                log.close();
+                checkForwardPointers(f, endIndex, nEntries);
+
+                // Remove forward pointers and let the analyzer compute them
+                Files.copy(f.toPath(), f2.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                try (RandomAccessFile raf = new RandomAccessFile(f2, "rw")) {
+                    raf.seek(127);
+                    raf.write(0);
+                    for (int i = 0; i < nEntries; i++) {
+                        if (endIndex[i] > 0) {
+                            raf.seek(128 + 16L * i);
+                            raf.writeInt(-1);
+                        }
+                    }
+                }
+                TreeLogger.getAnalyzer(f2.getPath()).close();
+                assertArrayEquals(Files.readAllBytes(f.toPath()), Files.readAllBytes(f2.toPath()));
+            }
+        } finally {
+            f.delete();
+            f2.delete();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+    DroidFish - An Android chess program.
+    Copyright (C) 2016  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.petero.droidfish.activities.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.petero.droidfish.DroidFishApp;
+import org.petero.droidfish.activities.util.PGNFile.GameInfo;
+
+import junit.framework.TestCase;
+
+public class ParallelPGNScannerTest extends TestCase {
+    private long oldMinChunkSize;
+    private int oldNumCpus;
+
+    public ParallelPGNScannerTest() {
+    }
+
+    @Override
+    protected void setUp() {
+        oldMinChunkSize = ParallelPGNScanner.minChunkSize;
+        oldNumCpus = ParallelPGNScanner.numCpus;
+        // Split even small test files into many chunks
+        ParallelPGNScanner.minChunkSize = 1024;
+        ParallelPGNScanner.numCpus = 16;
+    }
+
+    @Override
+    protected void tearDown() {
+        ParallelPGNScanner.minChunkSize = oldMinChunkSize;
+        ParallelPGNScanner.numCpus = oldNumCpus;
+    }
+
+    public void testUseParallel() {
+        assertTrue(ParallelPGNScanner.useParallel(2048));
+        assertFalse(ParallelPGNScanner.useParallel(2047));
+        ParallelPGNScanner.numCpus = 1;
+        assertFalse(ParallelPGNScanner.useParallel(1 << 30));
+    }
+
+    /** Test that the parallel scanner gives the same result as a sequential scan. */
+    public void testNormalGames() throws IOException {
+        Random rnd = new Random(4711);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 400; i++)
+            appendGame(sb, rnd, i);
+        File f = writeFile("test_parallel.pgn", sb.toString());
+        ArrayList<GameInfo> expected = PGNFile.getGameInfo(sb.toString(), -1);
+        assertEquals(400, expected.size());
+
+        ArrayList<GameInfo> gi = ParallelPGNScanner.getGameInfo(f, 0, 1, null);
+        assertNotNull(gi);
+        assertSameGames(expected, gi);
+        assertSameGames(expected, new PGNFile(f.getAbsolutePath()).getGameInfo(-1));
+    }
+
+    /** Test scanning from a game in the middle of the file. */
+    public void testStartPos() throws IOException {
+        Random rnd = new Random(17);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 400; i++)
+            appendGame(sb, rnd, i);
+        File f = writeFile("test_parallel_start.pgn", sb.toString());
+        ArrayList<GameInfo> expected = PGNFile.getGameInfo(sb.toString(), -1);
+        int nGames = expected.size();
+        for (int g : new int[]{ 1, 13, nGames / 2 }) {
+            ArrayList<GameInfo> gi = ParallelPGNScanner.getGameInfo(f, expected.get(g).startPos,
+                                                                    g + 1, null);
+            assertNotNull(gi);
+            assertSameGames(expected.subList(g, nGames), gi);
+        }
+    }
+
+    /** Test that a split point inside a {} comment is detected. */
+    public void testSplitInComment() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        Random rnd = new Random(1);
+        appendGame(sb, rnd, 0);
+        sb.append("[Event \"comment\"]\n\n1. e4 {\n");
+        for (int i = 0; i < 2000; i++)
+            sb.append("[Event \"not a game\"]\n");
+        sb.append("} e5 *\n\n");
+        for (int i = 1; i < 50; i++)
+            appendGame(sb, rnd, i);
+        checkFallback("test_parallel_comment.pgn", sb.toString());
+    }
+
+    /** Test that a split point inside a string is detected. */
+    public void testSplitInString() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        Random rnd = new Random(2);
+        appendGame(sb, rnd, 0);
+        sb.append("[Event \"string\"]\n\n1. e4 \"\n");
+        // The quote in each "[Event" tag ends the current string and the quote
+        // after "x" starts a new one, so every line start is inside a string
+        for (int i = 0; i < 2000; i++)
+            sb.append("[Event \"x\" y\n");
+        sb.append("\" e5 *\n\n");
+        for (int i = 1; i < 50; i++)
+            appendGame(sb, rnd, i);
+        checkFallback("test_parallel_string.pgn", sb.toString());
+    }
+
+    /** Test games without move text. The next [Event tag is then part of the
+     *  same header section, so the file can not be split there. */
+    public void testHeaderOnlyGames() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++)
+            sb.append(String.format("[Event \"e%d\"]\n[White \"w\"]\n[Black \"b\"]\n\n", i));
+        checkFallback("test_parallel_headers.pgn", sb.toString());
+
+        // Header-only games mixed with normal games
+        Random rnd = new Random(3);
+        sb = new StringBuilder();
+        for (int i = 0; i < 400; i++) {
+            if (rnd.nextInt(3) == 0)
+                sb.append(String.format("[Event \"h%d\"]\n[White \"w\"]\n\n", i));
+            else
+                appendGame(sb, rnd, i);
+        }
+        File f = writeFile("test_parallel_mixed.pgn", sb.toString());
+        ArrayList<GameInfo> expected = PGNFile.getGameInfo(sb.toString(), -1);
+        ArrayList<GameInfo> gi = ParallelPGNScanner.getGameInfo(f, 0, 1, null);
+        if (gi != null)
+            assertSameGames(expected, gi);
+        assertSameGames(expected, new PGNFile(f.getAbsolutePath()).getGameInfo(-1));
+    }
+
+    /** Test that a file that shrinks during the scan makes the scanner give up. */
+    public void testFileTruncated() throws IOException {
+        Random rnd = new Random(4);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 400; i++)
+            appendGame(sb, rnd, i);
+        final File f = writeFile("test_parallel_truncated.pgn", sb.toString());
+        final long newLen = f.length() / 4;
+        PGNFile.ProgressHandler progress = new PGNFile.ProgressHandler(f, null, null) {
+            boolean truncated = false;
+            @Override
+            synchronized void reportProgress(long nRead) {
+                if (!truncated) {
+                    truncated = true;
+                    try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+                        raf.setLength(newLen);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+        };
+        assertNull(ParallelPGNScanner.getGameInfo(f, 0, 1, progress));
+        assertEquals(newLen, f.length());
+    }
+
+    /** Check that the parallel scanner refuses to handle the data, and that
+     *  PGNFile then falls back to a sequential scan. */
+    private void checkFallback(String fileName, String data) throws IOException {
+        File f = writeFile(fileName, data);
+        ArrayList<GameInfo> expected = PGNFile.getGameInfo(data, -1);
+        assertNull(ParallelPGNScanner.getGameInfo(f, 0, 1, null));
+        assertSameGames(expected, new PGNFile(f.getAbsolutePath()).getGameInfo(-1));
+    }
+
+    /** Append a game with random headers and move text, including comments,
+     *  variations, strings and escaped lines. */
+    private static void appendGame(StringBuilder sb, Random rnd, int gameNo) {
+        String[] results = { "1-0", "0-1", "1/2-1/2", "*" };
+        String result = results[rnd.nextInt(results.length)];
+        sb.append(String.format("[Event \"Event %d\"]\n", gameNo));
+        if (rnd.nextBoolean())
+            sb.append(String.format("[Site \"Site %d\"]\n", rnd.nextInt(10)));
+        sb.append(String.format("[Date \"20%02d.01.01\"]\n", rnd.nextInt(20)));
+        sb.append(String.format("[White \"White \\\"%d\\\"\"]\n", rnd.nextInt(100)));
+        sb.append(String.format("[Black \"Black %d\"]\n", rnd.nextInt(100)));
+        sb.append(String.format("[Result \"%s\"]\n\n", result));
+        String[] moves = { "e4", "e5", "Nf3", "Nc6", "Bb5", "a6", "Ba4", "Nf6", "O-O", "Be7" };
+        int nMoves = rnd.nextInt(moves.length) + 1;
+        for (int i = 0; i < nMoves; i++) {
+            if (i % 2 == 0)
+                sb.append(i / 2 + 1).append(". ");
+            sb.append(moves[i]).append(' ');
+            switch (rnd.nextInt(8)) {
+            case 0: sb.append("{comment [Event \"x\"]} "); break;
+            case 1: sb.append("(1. d4 d5) "); break;
+            case 2: sb.append("; line comment [Event \"y\"]\n"); break;
+            case 3: sb.append("\n%escaped [Event \"z\"]\n"); break;
+            case 4: sb.append("$1 "); break;
+            default: break;
+            }
+        }
+        sb.append(result).append("\n\n");
+    }
+
+    private static void assertSameGames(List<GameInfo> expected, List<GameInfo> gi) {
+        assertEquals(expected.size(), gi.size());
+        for (int i = 0; i < gi.size(); i++) {
+            assertEquals(expected.get(i).startPos, gi.get(i).startPos);
+            assertEquals(expected.get(i).endPos, gi.get(i).endPos);
+            assertEquals(expected.get(i).info, gi.get(i).info);
+        }
+    }
+
+    private static File writeFile(String fileName, String data) throws IOException {
+        File tmpDir = DroidFishApp.getContext().getCacheDir();
+        File f = new File(tmpDir, fileName);
+        try (FileOutputStream fs = new FileOutputStream(f)) {
+            fs.write(data.getBytes("UTF-8"));
+        }
+        return f;
+    }
+}
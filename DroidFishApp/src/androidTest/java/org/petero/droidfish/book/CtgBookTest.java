@@ -0,0 +1,69 @@
+/*
+    DroidFish - An Android chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.petero.droidfish.book;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+
+public class CtgBookTest extends TestCase {
+    public CtgBookTest() {
+    }
+
+    public void testPageCacheHits() throws IOException {
+        File file = File.createTempFile("pagecache", ".ctg");
+        try {
+            try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+                byte[] data = new byte[3 * 4096 + 100];
+                for (int i = 0; i < data.length; i++)
+                    data[i] = (byte)i;
+                f.write(data);
+            }
+            try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+                CtgBook.PageCache pages = new CtgBook.PageCache(f, 2);
+                byte[] page = pages.getPage(4096 + 10, 4);
+                assertEquals((byte)(4096 + 10), page[10]);
+                assertEquals(0, pages.hits);
+                assertEquals(1, pages.misses);
+
+                // Repeated probe of the same page is served from the cache
+                pages.getPage(4096 + 20, 4);
+                assertEquals(1, pages.hits);
+                assertEquals(1, pages.misses);
+
+                // Last page is zero padded
+                page = pages.getPage(3 * 4096, 100);
+                assertEquals(0, page[100]);
+                assertEquals(2, pages.misses);
+
+                // Reading page 0 evicts page 1 from the two page LRU cache
+                pages.getPage(0, 4);
+                assertEquals(3, pages.misses);
+                pages.getPage(4096, 4);
+                assertEquals(4, pages.misses);
+                pages.getPage(0, 4);
+                assertEquals(2, pages.hits);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -20,6 +20,7 @@ package org.petero.droidfish.gamelogic;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import junit.framework.TestCase;
 
@@ -172,6 +173,64 @@ public class MoveGenTest extends TestCase {
         assertEquals("f6xe7", strMoves.get(0));
     }
 
+    private static long perfT(MoveGen moveGen, Position pos, int depth, int[][] moveBuf) {
+        int[] moves = moveBuf[depth];
+        int nMoves = moveGen.legalMoves(pos, moves);
+        if (depth == 1)
+            return nMoves;
+        long ret = 0;
+        UndoInfo ui = new UndoInfo();
+        for (int i = 0; i < nMoves; i++) {
+            Move m = MoveGen.toMove(moves[i]);
+            pos.makeMove(m, ui);
+            ret += perfT(moveGen, pos, depth - 1, moveBuf);
+            pos.unMakeMove(m, ui);
+        }
+        return ret;
+    }
+
+    private static long perfT(String fen, int depth) throws ChessParseError {
+        Position pos = TextIO.readFEN(fen);
+        return perfT(new MoveGen(), pos, depth, new int[depth + 1][MoveGen.MAX_MOVES]);
+    }
+
+    /** Test of legalMoves method, using known perft results. */
+    public void testPerfT() throws ChessParseError {
+        assertEquals(197281, perfT(TextIO.startPosFEN, 4));
+        assertEquals(97862, perfT("r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1", 3));
+        assertEquals(43238, perfT("8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1", 4));
+        assertEquals(62379, perfT("rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8", 3));
+    }
+
+    /** Test that legalMoves gives the same moves as pseudoLegalMoves + removeIllegal. */
+    public void testLegalMoves() throws ChessParseError {
+        String[] fens = {
+            TextIO.startPosFEN,
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+            "r3k2r/1P4P1/8/3pP3/8/8/1p4p1/R3K2R w KQkq d6 0 1",
+        };
+        MoveGen moveGen = new MoveGen();
+        Random rnd = new Random(4711);
+        for (String fen : fens) {
+            for (int game = 0; game < 10; game++) {
+                Position pos = TextIO.readFEN(fen);
+                UndoInfo ui = new UndoInfo();
+                for (int ply = 0; ply < 100; ply++) {
+                    ArrayList<Move> expected = MoveGen.removeIllegal(pos, moveGen.pseudoLegalMoves(pos));
+                    ArrayList<Move> moves = moveGen.legalMoves(pos);
+                    assertEquals(expected.size(), moves.size());
+                    for (Move m : expected)
+                        assertTrue(moves.contains(m));
+                    assertEquals(!moves.isEmpty(), moveGen.hasLegalMoves(pos));
+                    if (moves.isEmpty())
+                        break;
+                    pos.makeMove(moves.get(rnd.nextInt(moves.size())), ui);
+                }
+            }
+        }
+    }
+
     private List<String> getMoveList(Position pos, boolean onlyLegal) {
         ArrayList<Move> moves = new MoveGen().pseudoLegalMoves(pos);
         if (onlyLegal) {
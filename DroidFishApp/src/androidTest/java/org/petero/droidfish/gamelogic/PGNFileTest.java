@@ -19,11 +19,13 @@
 package org.petero.droidfish.gamelogic;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 
 import org.petero.droidfish.DroidFishApp;
+import org.petero.droidfish.FileUtil;
 import org.petero.droidfish.activities.util.PGNFile;
 import org.petero.droidfish.activities.util.PGNFile.GameInfo;
 
@@ -133,8 +135,91 @@ public class PGNFileTest extends TestCase {
             assertEquals(1, gi.size());
         }
     }
-    
-    
+
+    public void testGameIndex() throws Throwable {
+        File tmpDir = DroidFishApp.getContext().getCacheDir();
+        File f = new File(tmpDir, "test_index.pgn");
+        f.delete();
+        PGNFile pgnFile = new PGNFile(f.getAbsolutePath());
+        String game = "[White \"w%d\"]\n[Black \"b\"]\n[Result \"1-0\"]\n\n1. e4 {x} e5 1-0\n\n";
+        for (int i = 1; i <= 5; i++) {
+            pgnFile.appendPGN(String.format(game, i), true);
+            checkGameInfo(pgnFile, f);
+            checkGameInfo(pgnFile, f);
+        }
+        for (int i = 0; i < 25; i++) {
+            pgnFile.autoSave(String.format(game, 100 + i));
+            checkGameInfo(pgnFile, f);
+        }
+        ArrayList<GameInfo> gi = pgnFile.getGameInfo(null, null);
+        assertEquals(20, gi.size());
+        assertEquals("1. w124 - b 1-0", gi.get(0).info);
+        assertTrue(pgnFile.deleteGame(gi.get(0), gi));
+        checkGameInfo(pgnFile, f);
+
+        // Same size, possibly same modification time
+        writeFile(f, new String[]{ "[White \"a\"]", "*" });
+        checkGameInfo(pgnFile, f);
+        writeFile(f, new String[]{ "[White \"b\"]", "*" });
+        checkGameInfo(pgnFile, f);
+        assertEquals("1. b -  ", pgnFile.getGameInfo(null, null).get(0).info);
+    }
+
+    public void testPositionSearch() throws Throwable {
+        File tmpDir = DroidFishApp.getContext().getCacheDir();
+        File f = new File(tmpDir, "test_position.pgn");
+        String[] lines = {
+                "[White \"a\"]",
+                "1. e4 e5 2. Nf3 Nc6 *",
+                "[White \"b\"]",
+                "1. Nf3 Nc6 2. e4 e5 3. Bb5 *",
+                "[White \"c\"]",
+                "1. d4 {e4} (1. e4 e5 2. Nf3 Nc6) 1... d5 *",
+                "[White \"d\"]",
+                "[FEN \"invalid\"]",
+                "1. e4 *",
+        };
+        writeFile(f, lines);
+        PGNFile pgnFile = new PGNFile(f.getAbsolutePath());
+        ArrayList<GameInfo> gi = pgnFile.getGameInfo(null, null);
+        assertEquals(4, gi.size());
+
+        Position pos = TextIO.readFEN("r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 2 3");
+        ArrayList<GameInfo> games = pgnFile.getGamesWithPosition(gi, pos, null, null);
+        assertEquals(2, games.size());
+        assertEquals(gi.get(0), games.get(0));
+        assertEquals(gi.get(1), games.get(1));
+
+        pos = TextIO.readFEN(TextIO.startPosFEN);
+        games = pgnFile.getGamesWithPosition(gi, pos, null, null);
+        assertEquals(3, games.size());
+
+        pos = TextIO.readFEN("rnbqkbnr/ppp1pppp/8/3p4/3P4/8/PPP1PPPP/RNBQKBNR w KQkq - 0 2");
+        games = pgnFile.getGamesWithPosition(gi, pos, null, null);
+        assertEquals(1, games.size());
+        assertEquals(gi.get(2), games.get(0));
+
+        pos.setWhiteMove(false);
+        games = pgnFile.getGamesWithPosition(gi, pos, null, null);
+        assertEquals(0, games.size());
+    }
+
+    /** Check that getGameInfo() returns the same result as a full scan of the file. */
+    private void checkGameInfo(PGNFile pgnFile, File f) throws IOException {
+        String data;
+        try (FileInputStream is = new FileInputStream(f)) {
+            data = FileUtil.readFromStream(is);
+        }
+        ArrayList<GameInfo> expected = PGNFile.getGameInfo(data, -1);
+        ArrayList<GameInfo> gi = pgnFile.getGameInfo(null, null);
+        assertEquals(expected.size(), gi.size());
+        for (int i = 0; i < gi.size(); i++) {
+            assertEquals(expected.get(i).startPos, gi.get(i).startPos);
+            assertEquals(expected.get(i).endPos, gi.get(i).endPos);
+            assertEquals(expected.get(i).info, gi.get(i).info);
+        }
+    }
+
     private void writeFile(File f, String[] lines) throws IOException {
         FileOutputStream fs = new FileOutputStream(f);
         for (String s : lines) {
@@ -0,0 +1,148 @@
+/*
+    DroidFish - An Android chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.petero.droidfish.gamelogic;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Locale;
+
+import org.petero.droidfish.FileUtil;
+
+import android.os.Bundle;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import junit.framework.TestCase;
+
+/**
+ * Throughput benchmark for parsing the moves in a PGN file.
+ * The benchmark only runs if the PGN file is given by the "pgnFile"
+ * instrumentation argument, for example:
+ * ./gradlew connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.pgnFile=/sdcard/games.pgn
+ */
+public class TextIOBenchmark extends TestCase {
+    private ArrayList<Position> positions = new ArrayList<>();
+    private ArrayList<String> moveStrs = new ArrayList<>();
+
+    public TextIOBenchmark() {
+    }
+
+    public void testStringToMoveSpeed() throws IOException, ChessParseError {
+        Bundle args = InstrumentationRegistry.getArguments();
+        String pgnFile = args.getString("pgnFile");
+        if (pgnFile == null)
+            return;
+        File f = new File(pgnFile);
+        assertTrue("PGN file " + f + " not found", f.exists());
+        String pgn = FileUtil.readFromStream(new FileInputStream(f));
+        assertNotNull(pgn);
+        readMoves(pgn);
+        assertTrue(positions.size() > 0);
+        int rounds = Integer.parseInt(args.getString("rounds", "3"));
+
+        for (int r = 0; r < rounds; r++) {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < positions.size(); i++)
+                if (TextIO.stringToMoveGeneric(positions.get(i), moveStrs.get(i), null) == null)
+                    fail(moveStrs.get(i));
+            long t1 = System.nanoTime();
+            for (int i = 0; i < positions.size(); i++)
+                if (TextIO.stringToMove(positions.get(i), moveStrs.get(i)) == null)
+                    fail(moveStrs.get(i));
+            long t2 = System.nanoTime();
+            System.out.printf(Locale.US, "moves:%d generic:%.0f moves/s SAN:%.0f moves/s%n",
+                              positions.size(),
+                              positions.size() * 1e9 / (t1 - t0),
+                              positions.size() * 1e9 / (t2 - t1));
+        }
+    }
+
+    /**
+     * Extract all mainline moves from a PGN string and store them together with the
+     * position before each move. Comments, variations and NAGs are skipped.
+     */
+    private void readMoves(String pgn) throws ChessParseError {
+        Position pos = null;
+        UndoInfo ui = new UndoInfo();
+        int len = pgn.length();
+        int i = 0;
+        while (i < len) {
+            char c = pgn.charAt(i);
+            if (c == '[') {                     // Tag pair, starts a new game
+                int end = pgn.indexOf('\n', i);
+                if (end < 0)
+                    end = len;
+                if (pgn.startsWith("[FEN ", i)) {
+                    int q0 = pgn.indexOf('"', i);
+                    int q1 = pgn.indexOf('"', q0 + 1);
+                    pos = TextIO.readFEN(pgn.substring(q0 + 1, q1));
+                } else if (pos == null) {
+                    pos = TextIO.readFEN(TextIO.startPosFEN);
+                }
+                i = end;
+            } else if (c == '{') {
+                int end = pgn.indexOf('}', i);
+                i = (end < 0) ? len : end + 1;
+            } else if (c == ';') {
+                int end = pgn.indexOf('\n', i);
+                i = (end < 0) ? len : end + 1;
+            } else if (c == '(') {
+                int level = 0;
+                for (; i < len; i++) {
+                    c = pgn.charAt(i);
+                    if (c == '(') {
+                        level++;
+                    } else if ((c == ')') && (--level == 0)) {
+                        break;
+                    }
+                }
+                i++;
+            } else if (Character.isWhitespace(c)) {
+                i++;
+            } else {
+                int end = i;
+                while ((end < len) && !Character.isWhitespace(pgn.charAt(end)) &&
+                       ("{}();[".indexOf(pgn.charAt(end)) < 0))
+                    end++;
+                String tok = pgn.substring(i, end);
+                i = end;
+                int dot = tok.lastIndexOf('.');
+                if (dot >= 0)
+                    tok = tok.substring(dot + 1);
+                if (tok.isEmpty() || (tok.charAt(0) == '$'))
+                    continue;
+                if (tok.equals("*") || tok.equals("1-0") || tok.equals("0-1") || tok.equals("1/2-1/2")) {
+                    pos = null;
+                    continue;
+                }
+                if (pos == null)
+                    pos = TextIO.readFEN(TextIO.startPosFEN);
+                Move m = TextIO.stringToMove(pos, tok);
+                if (m == null) {            // Skip rest of game
+                    pos = null;
+                    continue;
+                }
+                positions.add(new Position(pos));
+                moveStrs.add(tok);
+                pos.makeMove(m, ui);
+            }
+        }
+    }
+}
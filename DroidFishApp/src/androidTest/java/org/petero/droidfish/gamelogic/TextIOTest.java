@@ -19,6 +19,9 @@
 package org.petero.droidfish.gamelogic;
 
 
+import java.util.ArrayList;
+import java.util.Random;
+
 import junit.framework.TestCase;
 
 public class TextIOTest extends TestCase {
@@ -351,6 +354,69 @@ public class TextIOTest extends TestCase {
         assertEquals(mNf3, TextIO.stringToMove(pos, "Nf"));
     }
 
+    /** Test that stringToMove gives the same result as the generic move parser. */
+    public void testStringToMoveGeneric() throws ChessParseError {
+        String[] fens = {
+            TextIO.startPosFEN,
+            "r3k2r/1P4P1/8/3pP3/8/8/1p4p1/R3K2R w KQkq d6 0 1",
+            "r3k2r/1P4P1/8/8/3pP3/8/1p4p1/R3K2R b KQkq e3 0 1",
+            "Q3Q3/8/3k4/4N1N1/8/2N3N1/R6R/4K3 w - - 0 1",
+            "4k3/8/8/2pPp3/8/8/8/4K3 w - c6 0 1",
+            "3k4/8/8/8/8/8/4q3/R3K2R w KQ - 0 1",
+        };
+        Random rnd = new Random(17);
+        for (String fen : fens) {
+            Position pos = TextIO.readFEN(fen);
+            UndoInfo ui = new UndoInfo();
+            for (int ply = 0; ply < 60; ply++) {
+                ArrayList<Move> moves = new MoveGen().legalMoves(pos);
+                checkAllMoves(pos, moves);
+                if (moves.isEmpty())
+                    break;
+                pos.makeMove(moves.get(rnd.nextInt(moves.size())), ui);
+            }
+        }
+    }
+
+    private static void checkAllMoves(Position pos, ArrayList<Move> moves) {
+        for (Move m : moves) {
+            String san = TextIO.moveToString(pos, m, false, false, moves);
+            String lan = TextIO.moveToString(pos, m, true, false, moves);
+            assertEquals(san, m, TextIO.stringToMove(pos, san));
+            assertEquals(lan, m, TextIO.stringToMove(pos, lan, moves));
+            String plain = san.replace("+", "").replace("#", "");
+            String[] strs = {
+                san, lan, TextIO.moveToUCIString(m), plain, plain + "+",
+                plain.replace("x", ""), plain.replace("=", ""), lan.replace("-", ""),
+                plain.substring(1), plain.substring(0, plain.length() - 1),
+                plain.toLowerCase(), "x" + plain, plain + "Q", plain + "=N",
+                TextIO.pgnPromotion(plain), TextIO.squareToString(m.to),
+            };
+            for (String s : strs)
+                checkString(pos, s, moves);
+        }
+        String[] pieces = { "", "N", "B", "R", "Q", "K", "P", "b", "x", "Nx" };
+        for (String p : pieces) {
+            for (int sq = 0; sq < 64; sq++) {
+                String s = p + TextIO.squareToString(sq);
+                checkString(pos, s, moves);
+                for (int f = 0; f < 8; f++) {
+                    checkString(pos, p + (char)('a' + f) + TextIO.squareToString(sq), moves);
+                    checkString(pos, p + (char)('1' + f) + "x" + TextIO.squareToString(sq), moves);
+                }
+            }
+        }
+        String[] special = { "O-O", "O-O-O", "0-0", "o-o-o", "O-O+", "O-O-O#", "O-O-", "Kg1", "Kc8" };
+        for (String s : special)
+            checkString(pos, s, moves);
+    }
+
+    private static void checkString(Position pos, String s, ArrayList<Move> moves) {
+        Move expected = TextIO.stringToMoveGeneric(pos, s, null);
+        assertEquals(s, expected, TextIO.stringToMove(pos, s));
+        assertEquals(s, expected, TextIO.stringToMove(pos, s, moves));
+    }
+
     public void testGetSquare() throws ChessParseError {
         assertEquals(Position.getSquare(0, 0), TextIO.getSquare("a1"));
         assertEquals(Position.getSquare(1, 7), TextIO.getSquare("b8"));
@@ -1893,6 +1893,7 @@ public class DroidFish extends Activity
     private String thinkingStr1 = "";
     private String thinkingStr2 = "";
     private String bookInfoStr = "";
+    private String bookCacheInfoStr = "";
     private String ecoInfoStr = "";
     private int distToEcoTree = 0;
     private String variantStr = "";
@@ -1905,6 +1906,7 @@ public class DroidFish extends Activity
         thinkingStr1 = ti.pvStr;
         thinkingStr2 = ti.statStr;
         bookInfoStr = ti.bookInfo;
+        bookCacheInfoStr = ti.bookCacheInfo;
         ecoInfoStr = ti.eco;
         distToEcoTree = ti.distToEcoTree;
         pvMoves = ti.pvMoves;
@@ -1972,6 +1974,8 @@ public class DroidFish extends Activity
         if (mShowBookHints && !bookInfoStr.isEmpty() && ctrl.humansTurn()) {
             String s = thinkingEmpty ? "" : "<br>";
             s += Util.boldStart + getString(R.string.book) + Util.boldStop + bookInfoStr;
+            if (mShowStats && !bookCacheInfoStr.isEmpty())
+                s += "<br>" + bookCacheInfoStr;
             thinking.append(Html.fromHtml(s));
             thinkingEmpty = false;
         }
@@ -3615,6 +3619,7 @@ public class DroidFish extends Activity
         i.setAction("org.petero.droidfish.loadFile");
         i.putExtra("org.petero.droidfish.pathname", pathName);
         i.putExtra("org.petero.droidfish.updateDefFilePos", updateCurrFile);
+        i.putExtra("org.petero.droidfish.fen", ctrl.getFEN());
         setEditPGNBackup(i, pathName);
         startActivityForResult(i, RESULT_LOAD_PGN);
     }
@@ -53,6 +53,9 @@ import org.petero.droidfish.activities.util.PGNFile.GameInfo;
 import org.petero.droidfish.activities.util.GameAdapter;
 import org.petero.droidfish.activities.util.PGNFile;
 import org.petero.droidfish.databinding.SelectGameBinding;
+import org.petero.droidfish.gamelogic.ChessParseError;
+import org.petero.droidfish.gamelogic.Position;
+import org.petero.droidfish.gamelogic.TextIO;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -85,6 +88,9 @@ public abstract class EditPGN extends AppCompatActivity {
     private boolean loadGame; // True when loading game, false when saving
     private String pgnToSave;
 
+    private String positionFEN; // Position used for position search, or null
+    private ArrayList<GameInfo> positionGames = null; // Games containing positionFEN, or null
+
     private SelectGameBinding binding;
 
     @Override
@@ -115,6 +121,7 @@ public abstract class EditPGN extends AppCompatActivity {
         String fileName = i.getStringExtra("org.petero.droidfish.pathname");
         backup = i.getBooleanExtra("org.petero.droidfish.backup", false);
         updateDefaultFilePos = i.getBooleanExtra("org.petero.droidfish.updateDefFilePos", true);
+        positionFEN = i.getStringExtra("org.petero.droidfish.fen");
         canceled = false;
         if ("org.petero.droidfish.loadFile".equals(action)) {
             pgnFile = new PGNFile(fileName);
@@ -249,6 +256,9 @@ public abstract class EditPGN extends AppCompatActivity {
         getMenuInflater().inflate(R.menu.edit_file_options_menu, menu);
         MenuItem item = menu.findItem(R.id.regexp_search);
         item.setChecked(useRegExp);
+        item = menu.findItem(R.id.position_search);
+        item.setVisible(loadGame && positionFEN != null);
+        item.setChecked(positionGames != null);
         return true;
     }
 
@@ -266,10 +276,64 @@ public abstract class EditPGN extends AppCompatActivity {
                 setFilterString(s);
             }
             break;
+        case R.id.position_search:
+            if (binding != null)
+                setPositionSearch(positionGames == null);
+            break;
         }
         return false;
     }
 
+    /** Show only games containing the current position, or all games. */
+    private void setPositionSearch(boolean enable) {
+        if (!enable) {
+            positionGames = null;
+            updateGameList();
+            supportInvalidateOptionsMenu();
+            return;
+        }
+        Position pos;
+        try {
+            pos = TextIO.readFEN(positionFEN);
+        } catch (ChessParseError ex) {
+            return;
+        }
+        canceled = false;
+        showDialog(PROGRESS_DIALOG);
+        progress.setTitle(R.string.building_position_index);
+        final ArrayList<GameInfo> games = gamesInFile;
+        workThread = new Thread(() -> {
+            ArrayList<GameInfo> result = null;
+            try {
+                result = pgnFile.getGamesWithPosition(games, pos, this, progress);
+            } catch (PGNFile.CancelException ignore) {
+            } catch (IOException ex) {
+                runOnUiThread(() -> DroidFishApp.toast(R.string.position_search_failed,
+                                                       Toast.LENGTH_SHORT));
+            } catch (OutOfMemoryError ex) {
+                runOnUiThread(() -> DroidFishApp.toast(R.string.file_too_large,
+                                                       Toast.LENGTH_SHORT));
+            }
+            final ArrayList<GameInfo> posGames = result;
+            runOnUiThread(() -> {
+                progress = null;
+                removeDialog(PROGRESS_DIALOG);
+                if (posGames != null && !canceled && games == gamesInFile) {
+                    positionGames = posGames;
+                    updateGameList();
+                }
+                supportInvalidateOptionsMenu();
+            });
+        });
+        workThread.start();
+    }
+
+    /** Recreate the list adapter and apply the current search string. */
+    private void updateGameList() {
+        createAdapter();
+        setFilterString(binding.selectGameFilter.getText().toString());
+    }
+
     private void showList() {
         progress = null;
         removeDialog(PROGRESS_DIALOG);
@@ -494,9 +558,9 @@ public abstract class EditPGN extends AppCompatActivity {
     private void deleteGame(GameInfo gi) {
         doBackup(gi);
         if (pgnFile.deleteGame(gi, gamesInFile)) {
-            createAdapter();
-            String s = binding.selectGameFilter.getText().toString();
-            setFilterString(s);
+            if (positionGames != null)
+                positionGames.remove(gi);
+            updateGameList();
             // Update lastModTime, since current change has already been handled
             String fileName = pgnFile.getName();
             lastModTime = new File(fileName).lastModified();
@@ -513,7 +577,8 @@ public abstract class EditPGN extends AppCompatActivity {
     }
 
     private void createAdapter() {
-        aa = new GameAdapter<GameInfo>(this, R.layout.select_game_list_item, gamesInFile) {
+        ArrayList<GameInfo> games = positionGames != null ? positionGames : gamesInFile;
+        aa = new GameAdapter<GameInfo>(this, R.layout.select_game_list_item, games) {
             @Override
             public View getView(int position, View convertView, ViewGroup parent) {
                 View view = super.getView(position, convertView, parent);
@@ -19,7 +19,6 @@
 package org.petero.droidfish.activities.util;
 
 import java.io.ByteArrayInputStream;
-import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileWriter;
@@ -30,9 +29,12 @@ import java.util.ArrayList;
 
 import org.petero.droidfish.DroidFishApp;
 import org.petero.droidfish.R;
+import org.petero.droidfish.gamelogic.Position;
 
 import android.app.Activity;
 import android.app.ProgressDialog;
+import android.content.Context;
+import android.os.Build;
 import android.widget.Toast;
 
 public class PGNFile {
@@ -67,94 +69,7 @@ public class PGNFile {
         }
     }
 
-    private final static class HeaderInfo {
-        int gameNo;
-        String event = "";
-        String site = "";
-        String date = "";
-        String round = "";
-        String white = "";
-        String black = "";
-        String result = "";
-
-        HeaderInfo(int gameNo) {
-            this.gameNo = gameNo;
-        }
-
-        public String toString() {
-            StringBuilder info = new StringBuilder(128);
-            info.append(gameNo);
-            info.append(". ");
-            info.append(white);
-            info.append(" - ");
-            info.append(black);
-            if (date.length() > 0) {
-                info.append(' ');
-                info.append(date);
-            }
-            if (round.length() > 0) {
-                info.append(' ');
-                info.append(round);
-            }
-            if (event.length() > 0) {
-                info.append(' ');
-                info.append(event);
-            }
-            if (site.length() > 0) {
-                info.append(' ');
-                info.append(site);
-            }
-            info.append(' ');
-            info.append(result);
-            return info.toString();
-        }
-    }
-
-    private static class BytesToString {
-        private byte[] buf = new byte[256];
-        private int len = 0;
-
-        public void write(int c) {
-            if (len < 256)
-                buf[len++] = (byte)c;
-        }
-        public void reset() {
-            len = 0;
-        }
-        @Override
-        public String toString() {
-            return new String(buf, 0, len);
-        }
-    }
-    
-    private static class BufferedInput implements Closeable {
-        private byte buf[] = new byte[8192];
-        private int bufLen = 0;
-        private int pos = 0;
-        private InputStream is;
-        public BufferedInput(InputStream is) {
-            this.is = is;
-        }
-        public int read() throws IOException {
-            if (pos >= bufLen) {
-                int len = is.read(buf);
-                if (len <= 0)
-                    return -1;
-                pos = 0;
-                bufLen = len;
-            }
-            return buf[pos++] & 0xff;
-        }
-        @Override
-        public void close() {
-            try {
-                is.close();
-            } catch (IOException ignore) {
-            }
-        }
-    }
-
-    private static class ProgressHandler {
+    static class ProgressHandler {
         final ProgressDialog progress;
         final Activity activity;
         int percent = -1;
@@ -169,7 +84,7 @@ public class PGNFile {
             }
         }
 
-        void reportProgress(long nRead) {
+        synchronized void reportProgress(long nRead) {
             int newPercent = fileLen > 0 ? (int)(nRead * 100 / fileLen) : 0;
             if (newPercent > percent) {
                 percent = newPercent;
@@ -190,220 +105,176 @@ public class PGNFile {
         }
     }
 
-    /** Return info about all PGN games in a file. */
+    /** Return info about all PGN games in a file. Uses the persistent
+     *  game index if it is up to date, otherwise scans the file and
+     *  stores the result in the index. */
     public ArrayList<GameInfo> getGameInfo(Activity activity,
                                            ProgressDialog progress) throws IOException {
-        if (activity == null || progress == null)
-            return getGameInfoFromFile(null, -1);
-        ProgressHandler handler = new ProgressHandler(fileName, activity, progress);
-        return getGameInfoFromFile(handler, -1);
+        PGNIndex index = getIndex();
+        if (index != null) {
+            ArrayList<GameInfo> gamesInFile = index.read();
+            if (gamesInFile != null)
+                return gamesInFile;
+        }
+        ProgressHandler handler = null;
+        if (activity != null && progress != null)
+            handler = new ProgressHandler(fileName, activity, progress);
+        ArrayList<GameInfo> gamesInFile = getGameInfoFromFile(handler, -1, 0, 1);
+        if (index != null)
+            index.write(gamesInFile);
+        return gamesInFile;
     }
 
     /** Return info about up to "maxGames" PGN games in a file. */
     public ArrayList<GameInfo> getGameInfo(int maxGames) throws IOException {
-        return getGameInfoFromFile(null, maxGames);
+        return getGameInfoFromFile(null, maxGames, 0, 1);
     }
 
     public static ArrayList<GameInfo> getGameInfo(String pgnData, int maxGames) {
         try (InputStream is = new ByteArrayInputStream(pgnData.getBytes("UTF-8"))) {
-            return getGameInfo(is, null, maxGames);
+            return getGameInfo(is, null, maxGames, 0, 1);
         } catch (IOException ex) {
             return new ArrayList<>();
         }
     }
 
-    private ArrayList<GameInfo> getGameInfoFromFile(ProgressHandler progress,
-                                                    int maxGames) throws IOException {
-        try (InputStream is = new FileInputStream(fileName)) {
-            return getGameInfo(is, progress, maxGames);
+    /** Return info about PGN games in the file, starting at file position
+     *  "startPos", which must be 0 or the start of a game. */
+    private ArrayList<GameInfo> getGameInfoFromFile(ProgressHandler progress, int maxGames,
+                                                    long startPos, int firstGameNo) throws IOException {
+        if (maxGames <= 0 && Build.VERSION.SDK_INT >= 21 &&
+                ParallelPGNScanner.useParallel(fileName.length() - startPos)) {
+            ArrayList<GameInfo> gamesInFile =
+                ParallelPGNScanner.getGameInfo(fileName, startPos, firstGameNo, progress);
+            if (gamesInFile != null) {
+                if (gamesInFile.isEmpty())
+                    throw new NotPgnFile();
+                return gamesInFile;
+            }
+        }
+        try (FileInputStream is = new FileInputStream(fileName)) {
+            is.getChannel().position(startPos);
+            return getGameInfo(is, progress, maxGames, startPos, firstGameNo);
         }
     }
 
-    /** Return info about PGN games in a file. */
+    /** Return info about PGN games in a file. "startPos" is the file position
+     *  corresponding to the start of the input stream. */
     private static ArrayList<GameInfo> getGameInfo(InputStream is, ProgressHandler progress,
-                                                   int maxGames) throws IOException {
-        ArrayList<GameInfo> gamesInFile = new ArrayList<>();
-        long nRead = 0;
-        try (BufferedInput f = new BufferedInput(is)) {
-            GameInfo gi = null;
-            HeaderInfo hi = null;
-            boolean inHeader = false;
-            boolean inHeaderSection = false;
-            long filePos = 0;
-            int gameNo = 1;
-
-            final int INITIAL       = 0;
-            final int NORMAL        = 1;
-            final int BRACE_COMMENT = 2;
-            final int LINE_COMMENT  = 3;
-            final int STRING        = 4;
-            final int STRING_ESCAPE = 5;
-            final int HEADER        = 6;
-            final int HEADER_SYMBOL = 7;
-            final int EOF           = 8;
-            int state = INITIAL;
-
-            boolean firstColumn = true;
-            BytesToString lastSymbol = new BytesToString();
-            BytesToString lastString = new BytesToString();
-            while (state != EOF) {
-                filePos = nRead;
-                int c = f.read();
-                nRead++;
-
-                if (c == -1) {
-                    state = EOF;
-                    continue;
-                }
-
-                if (firstColumn) { // Handle % escape mechanism
-                    if (c == '%') {
-                        state = LINE_COMMENT;
-                        continue;
-                    }
-                }
-                firstColumn = (c == '\n' || c == '\r');
-
-                switch (state) {
-                case BRACE_COMMENT:
-                    if (c == '}')
-                        state = NORMAL;
-                    break;
-                case LINE_COMMENT:
-                    if (c == '\n' || c == '\r')
-                        state = NORMAL;
-                    break;
-                case STRING:
-                    if (c == '"')
-                        state = NORMAL;
-                    else if (c == '\\')
-                        state = STRING_ESCAPE;
-                    else
-                        lastString.write(c);
-                    break;
-                case STRING_ESCAPE:
-                    lastString.write(c);
-                    state = STRING;
-                    break;
-                case HEADER_SYMBOL:
-                    switch (c) {
-                    case '"':
-                        state = STRING;
-                        lastString.reset();
-                        break;
-                    case ' ': case '\n': case '\r': case '\t': case 160: case ']':
-                        state = NORMAL;
-                        break;
-                    default:
-                        lastSymbol.write(c);
-                        break;
-                    }
-                    break;
-                case HEADER:
-                case INITIAL:
-                case NORMAL:
-                    switch (c) {
-                    case -1:
-                        state = EOF;
-                        break;
-                    case '[':
-                        state = HEADER;
-                        inHeader = true;
-                        break;
-                    case ']':
-                        if (inHeader) {
-                            inHeader = false;
-                            String tag = lastSymbol.toString();
-                            String value = lastString.toString();
-                            if ("Event".equals(tag)) {
-                                hi.event = value.equals("?") ? "" : value;
-                            } else if ("Site".equals(tag)) {
-                                hi.site = value.equals("?") ? "" : value;
-                            } else if ("Date".equals(tag)) {
-                                hi.date = value.equals("?") ? "" : value;
-                            } else if ("Round".equals(tag)) {
-                                hi.round = value.equals("?") ? "" : value;
-                            } else if ("White".equals(tag)) {
-                                hi.white = value;
-                            } else if ("Black".equals(tag)) {
-                                hi.black = value;
-                            } else if ("Result".equals(tag)) {
-                                if (value.equals("1-0")) hi.result = "1-0";
-                                else if (value.equals("0-1")) hi.result = "0-1";
-                                else if ((value.equals("1/2-1/2")) || (value.equals("1/2"))) hi.result = "1/2-1/2";
-                                else hi.result = "*";
-                            }
-                        }
-                        state = NORMAL;
-                        break;
-                    case '.':
-                    case '*':
-                    case '(':
-                    case ')':
-                    case '$':
-                        inHeaderSection = false;
-                        break;
-                    case '{':
-                        state = BRACE_COMMENT;
-                        inHeaderSection = false;
-                        break;
-                    case ';':
-                        state = LINE_COMMENT;
-                        inHeaderSection = false;
-                        break;
-                    case '"':
-                        state = STRING;
-                        lastString.reset();
-                        break;
-                    case ' ': case '\n': case '\r': case '\t': case 160:
-                        break;
-                    default:
-                        if (inHeader) {
-                            state = HEADER_SYMBOL;
-                            lastSymbol.reset();
-                            lastSymbol.write(c);
-                        } else {
-                            inHeaderSection = false;
-                        }
-                        break;
-                    }
-                }
-
-                if (state == HEADER) {
-                    if (!inHeaderSection) { // Start of game
-                        inHeaderSection = true;
-                        if (gi != null) {
-                            gi.endPos = filePos;
-                            gi.info = hi.toString();
-                            gamesInFile.add(gi);
-                            if ((maxGames > 0) && gamesInFile.size() >= maxGames) {
-                                gi = null;
-                                break;
-                            }
-                            if (progress != null)
-                                progress.reportProgress(filePos);
-                            if (Thread.currentThread().isInterrupted())
-                                throw new CancelException();
-                        }
-                        gi = new GameInfo();
-                        gi.startPos = filePos;
-                        gi.endPos = -1;
-                        hi = new HeaderInfo(gameNo++);
-                    }
-                }
-            }
-            if (gi != null) {
-                gi.endPos = filePos;
-                gi.info = hi.toString();
-                gamesInFile.add(gi);
+                                                   int maxGames, long startPos,
+                                                   int firstGameNo) throws IOException {
+        PGNHeaderScanner scanner = new PGNHeaderScanner(maxGames);
+        byte[] buf = new byte[65536];
+        long filePos = startPos;
+        while (true) {
+            int len = is.read(buf);
+            if (len <= 0) {
+                scanner.finish(filePos);
+                break;
             }
+            if (!scanner.scan(buf, 0, len, filePos))
+                break;
+            filePos += len;
+            if (progress != null)
+                progress.reportProgress(filePos);
+            if (Thread.currentThread().isInterrupted())
+                throw new CancelException();
         }
-        if (gamesInFile.isEmpty() && nRead > 1)
+        ArrayList<GameInfo> gamesInFile = scanner.getGames(firstGameNo);
+        if (gamesInFile.isEmpty() && filePos > startPos)
             throw new NotPgnFile();
 
         return gamesInFile;
     }
 
+    /** Return the directory where index files are stored, or null if not available. */
+    private static File getIndexDir() {
+        Context context = DroidFishApp.getContext();
+        if (context == null)
+            return null;
+        return new File(context.getCacheDir(), "pgnindex");
+    }
+
+    /** Return the persistent game index for this file, or null if not available. */
+    private PGNIndex getIndex() {
+        File dir = getIndexDir();
+        return dir == null ? null : new PGNIndex(fileName, dir);
+    }
+
+    private void invalidateIndex() {
+        File dir = getIndexDir();
+        if (dir != null) {
+            new PGNIndex(fileName, dir).invalidate();
+            new PGNPositionIndex(fileName, dir).invalidate();
+        }
+    }
+
+    /** Return the games in gamesInFile whose main lines contain the position
+     *  "pos". gamesInFile must be the result of a getGameInfo() call for the
+     *  current file contents. If the position index for the file does not
+     *  exist or is out of date, it is built first, which requires parsing
+     *  all games in the file. */
+    public ArrayList<GameInfo> getGamesWithPosition(ArrayList<GameInfo> gamesInFile, Position pos,
+                                                    Activity activity,
+                                                    ProgressDialog progress) throws IOException {
+        File dir = getIndexDir();
+        if (dir == null)
+            throw new IOException("No index directory");
+        PGNPositionIndex index = new PGNPositionIndex(fileName, dir);
+        long hashKey = pos.zobristHash();
+        int nGames = gamesInFile.size();
+        int[] gameNos = index.findGames(hashKey, nGames);
+        if (gameNos == null) {
+            ProgressHandler handler = null;
+            if (activity != null && progress != null)
+                handler = new ProgressHandler(fileName, activity, progress);
+            index.build(gamesInFile, handler);
+            gameNos = index.findGames(hashKey, nGames);
+            if (gameNos == null)
+                throw new IOException("Failed to read position index");
+        }
+        ArrayList<GameInfo> games = new ArrayList<>(gameNos.length);
+        for (int gameNo : gameNos)
+            games.add(gamesInFile.get(gameNo));
+        return games;
+    }
+
+    /** Update the game index after data has been appended to the file. Only the
+     *  last game in gamesInFile and the appended data have to be scanned. */
+    private void updateIndexAfterAppend(PGNIndex index, ArrayList<GameInfo> gamesInFile) {
+        try {
+            long startPos = 0;
+            if (!gamesInFile.isEmpty())
+                startPos = gamesInFile.remove(gamesInFile.size() - 1).startPos;
+            gamesInFile.addAll(getGameInfoFromFile(null, -1, startPos, gamesInFile.size() + 1));
+            index.write(gamesInFile);
+        } catch (IOException e) {
+            index.invalidate();
+        }
+    }
+
+    /** Update the game index after "len" bytes containing one game have been
+     *  inserted at the start of the file. gamesInFile describes the games in
+     *  the file before the insertion. */
+    private void updateIndexAfterInsertFirst(ArrayList<GameInfo> gamesInFile, long len) {
+        PGNIndex index = getIndex();
+        if (index == null)
+            return;
+        try {
+            ArrayList<GameInfo> games = getGameInfoFromFile(null, 2, 0, 1);
+            if (games.isEmpty() || games.get(0).startPos != 0 || games.get(0).endPos != len)
+                return; // Index rebuilt by next getGameInfo() call
+            games.subList(1, games.size()).clear();
+            for (GameInfo gi : gamesInFile) {
+                gi.startPos += len;
+                gi.endPos += len;
+                games.add(gi);
+            }
+            index.write(games);
+        } catch (IOException ignore) {
+        }
+    }
+
     private void mkDirs() {
         File dirFile = fileName.getParentFile();
         dirFile.mkdirs();
@@ -424,11 +295,20 @@ public class PGNFile {
     /** Append PGN to the end of this PGN file. */
     public void appendPGN(String pgn, boolean silent) {
         mkDirs();
-        try (FileWriter fw = new FileWriter(fileName, true)) {
-            fw.write(pgn);
+        PGNIndex index = getIndex();
+        ArrayList<GameInfo> gamesInFile = null;
+        if (index != null)
+            gamesInFile = fileName.exists() ? index.read() : new ArrayList<>();
+        try {
+            try (FileWriter fw = new FileWriter(fileName, true)) {
+                fw.write(pgn);
+            }
+            if (gamesInFile != null)
+                updateIndexAfterAppend(index, gamesInFile);
             if (!silent)
                 DroidFishApp.toast(R.string.game_saved, Toast.LENGTH_SHORT);
         } catch (IOException e) {
+            invalidateIndex();
             DroidFishApp.toast(R.string.failed_to_save_game, Toast.LENGTH_SHORT);
         }
     }
@@ -451,7 +331,8 @@ public class PGNFile {
                 while (gamesInFile.size() > maxAutoSaveGames - 1)
                     deleteGame(gamesInFile.get(gamesInFile.size() - 1), gamesInFile);
                 GameInfo gi = new GameInfo().setNull(0);
-                replacePGN(pgn, gi, true);
+                if (replacePGN(pgn, gi, true))
+                    updateIndexAfterInsertFirst(gamesInFile, pgn.getBytes().length);
             }
         } catch (IOException e) {
             DroidFishApp.toast(R.string.failed_to_save_game, Toast.LENGTH_SHORT);
@@ -459,6 +340,7 @@ public class PGNFile {
     }
 
     public boolean deleteGame(GameInfo gi, ArrayList<GameInfo> gamesInFile) {
+        invalidateIndex();
         try {
             File tmpFile = new File(fileName + ".tmp_delete");
             try (RandomAccessFile fileReader = new RandomAccessFile(fileName, "r");
@@ -490,7 +372,8 @@ public class PGNFile {
         return false;
     }
 
-    public void replacePGN(String pgnToSave, GameInfo gi, boolean silent) {
+    public boolean replacePGN(String pgnToSave, GameInfo gi, boolean silent) {
+        invalidateIndex();
         try {
             File tmpFile = new File(fileName + ".tmp_delete");
             try (RandomAccessFile fileReader = new RandomAccessFile(fileName, "r");
@@ -504,9 +387,11 @@ public class PGNFile {
                 throw new IOException();
             if (!silent)
                 DroidFishApp.toast(R.string.game_saved, Toast.LENGTH_SHORT);
+            return true;
         } catch (IOException e) {
             DroidFishApp.toast(R.string.failed_to_save_game, Toast.LENGTH_SHORT);
         }
+        return false;
     }
 
     private static void copyData(RandomAccessFile fileReader,
@@ -524,6 +409,7 @@ public class PGNFile {
 
     /** Delete the file. */
     public boolean delete() {
+        invalidateIndex();
         return fileName.delete();
     }
 }
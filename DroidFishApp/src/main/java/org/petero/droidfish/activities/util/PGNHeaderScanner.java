@@ -0,0 +1,277 @@
+/*
+    DroidFish - An Android chess program.
+    Copyright (C) 2011-2013  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.petero.droidfish.activities.util;
+
+import java.util.ArrayList;
+
+import org.petero.droidfish.activities.util.PGNFile.GameInfo;
+
+/** State machine that finds the games in PGN data and extracts the header
+ *  information for each game. The data is processed one block at a time. */
+final class PGNHeaderScanner {
+    private final static class HeaderInfo {
+        String event = "";
+        String site = "";
+        String date = "";
+        String round = "";
+        String white = "";
+        String black = "";
+        String result = "";
+
+        String toString(int gameNo) {
+            StringBuilder info = new StringBuilder(128);
+            info.append(gameNo);
+            info.append(". ");
+            info.append(white);
+            info.append(" - ");
+            info.append(black);
+            if (date.length() > 0) {
+                info.append(' ');
+                info.append(date);
+            }
+            if (round.length() > 0) {
+                info.append(' ');
+                info.append(round);
+            }
+            if (event.length() > 0) {
+                info.append(' ');
+                info.append(event);
+            }
+            if (site.length() > 0) {
+                info.append(' ');
+                info.append(site);
+            }
+            info.append(' ');
+            info.append(result);
+            return info.toString();
+        }
+    }
+
+    private static class BytesToString {
+        private byte[] buf = new byte[256];
+        private int len = 0;
+
+        public void write(int c) {
+            if (len < 256)
+                buf[len++] = (byte)c;
+        }
+        public void reset() {
+            len = 0;
+        }
+        @Override
+        public String toString() {
+            return new String(buf, 0, len);
+        }
+    }
+
+    private static final int INITIAL       = 0;
+    private static final int NORMAL        = 1;
+    private static final int BRACE_COMMENT = 2;
+    private static final int LINE_COMMENT  = 3;
+    private static final int STRING        = 4;
+    private static final int STRING_ESCAPE = 5;
+    private static final int HEADER        = 6;
+    private static final int HEADER_SYMBOL = 7;
+
+    private final int maxGames;
+    private final ArrayList<GameInfo> games = new ArrayList<>();
+    private final ArrayList<HeaderInfo> headers = new ArrayList<>();
+
+    private GameInfo gi = null;
+    private HeaderInfo hi = null;
+    private boolean inHeader = false;
+    private boolean inHeaderSection = false;
+    private int state = INITIAL;
+    private boolean firstColumn = true;
+    private final BytesToString lastSymbol = new BytesToString();
+    private final BytesToString lastString = new BytesToString();
+
+    /** Create a scanner that stops after "maxGames" games, or never stops if maxGames <= 0. */
+    PGNHeaderScanner(int maxGames) {
+        this.maxGames = maxGames;
+    }
+
+    /** Process "len" bytes from "buf", starting at index "off".
+     *  "filePos" is the file position corresponding to buf[off].
+     *  Return false if maxGames games have been found. */
+    boolean scan(byte[] buf, int off, int len, long filePos) {
+        final int end = off + len;
+        for (int i = off; i < end; i++) {
+            int c = buf[i] & 0xff;
+
+            if (firstColumn) { // Handle % escape mechanism
+                if (c == '%') {
+                    state = LINE_COMMENT;
+                    continue;
+                }
+            }
+            firstColumn = (c == '\n' || c == '\r');
+
+            switch (state) {
+            case BRACE_COMMENT:
+                if (c == '}')
+                    state = NORMAL;
+                break;
+            case LINE_COMMENT:
+                if (c == '\n' || c == '\r')
+                    state = NORMAL;
+                break;
+            case STRING:
+                if (c == '"')
+                    state = NORMAL;
+                else if (c == '\\')
+                    state = STRING_ESCAPE;
+                else
+                    lastString.write(c);
+                break;
+            case STRING_ESCAPE:
+                lastString.write(c);
+                state = STRING;
+                break;
+            case HEADER_SYMBOL:
+                switch (c) {
+                case '"':
+                    state = STRING;
+                    lastString.reset();
+                    break;
+                case ' ': case '\n': case '\r': case '\t': case 160: case ']':
+                    state = NORMAL;
+                    break;
+                default:
+                    lastSymbol.write(c);
+                    break;
+                }
+                break;
+            case HEADER:
+            case INITIAL:
+            case NORMAL:
+                switch (c) {
+                case '[':
+                    state = HEADER;
+                    inHeader = true;
+                    break;
+                case ']':
+                    if (inHeader) {
+                        inHeader = false;
+                        String tag = lastSymbol.toString();
+                        String value = lastString.toString();
+                        if ("Event".equals(tag)) {
+                            hi.event = value.equals("?") ? "" : value;
+                        } else if ("Site".equals(tag)) {
+                            hi.site = value.equals("?") ? "" : value;
+                        } else if ("Date".equals(tag)) {
+                            hi.date = value.equals("?") ? "" : value;
+                        } else if ("Round".equals(tag)) {
+                            hi.round = value.equals("?") ? "" : value;
+                        } else if ("White".equals(tag)) {
+                            hi.white = value;
+                        } else if ("Black".equals(tag)) {
+                            hi.black = value;
+                        } else if ("Result".equals(tag)) {
+                            if (value.equals("1-0")) hi.result = "1-0";
+                            else if (value.equals("0-1")) hi.result = "0-1";
+                            else if ((value.equals("1/2-1/2")) || (value.equals("1/2"))) hi.result = "1/2-1/2";
+                            else hi.result = "*";
+                        }
+                    }
+                    state = NORMAL;
+                    break;
+                case '.':
+                case '*':
+                case '(':
+                case ')':
+                case '$':
+                    inHeaderSection = false;
+                    break;
+                case '{':
+                    state = BRACE_COMMENT;
+                    inHeaderSection = false;
+                    break;
+                case ';':
+                    state = LINE_COMMENT;
+                    inHeaderSection = false;
+                    break;
+                case '"':
+                    state = STRING;
+                    lastString.reset();
+                    break;
+                case ' ': case '\n': case '\r': case '\t': case 160:
+                    break;
+                default:
+                    if (inHeader) {
+                        state = HEADER_SYMBOL;
+                        lastSymbol.reset();
+                        lastSymbol.write(c);
+                    } else {
+                        inHeaderSection = false;
+                    }
+                    break;
+                }
+            }
+
+            if (state == HEADER) {
+                if (!inHeaderSection) { // Start of game
+                    inHeaderSection = true;
+                    long pos = filePos + (i - off);
+                    if (gi != null) {
+                        addGame(pos);
+                        if ((maxGames > 0) && games.size() >= maxGames) {
+                            gi = null;
+                            return false;
+                        }
+                    }
+                    gi = new GameInfo();
+                    gi.startPos = pos;
+                    gi.endPos = -1;
+                    hi = new HeaderInfo();
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Finish the last game. "endPos" is the file position after the last scanned byte. */
+    void finish(long endPos) {
+        if (gi != null) {
+            addGame(endPos);
+            gi = null;
+        }
+    }
+
+    private void addGame(long endPos) {
+        gi.endPos = endPos;
+        games.add(gi);
+        headers.add(hi);
+    }
+
+    /** Return true if a "[" at the current position would start a new game
+     *  in the same way as for a scanner in the initial state. */
+    boolean atGameBoundary() {
+        return (state == INITIAL || state == NORMAL) &&
+               !inHeader && !inHeaderSection && firstColumn;
+    }
+
+    /** Return the games found so far, numbered starting from "firstGameNo". */
+    ArrayList<GameInfo> getGames(int firstGameNo) {
+        int nGames = games.size();
+        for (int i = 0; i < nGames; i++)
+            games.get(i).info = headers.get(i).toString(firstGameNo + i);
+        return games;
+    }
+}
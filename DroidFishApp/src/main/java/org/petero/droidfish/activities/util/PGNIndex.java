@@ -0,0 +1,175 @@
+/*
+    DroidFish - An Android chess program.
+    Copyright (C) 2011-2013  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.petero.droidfish.activities.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+import org.petero.droidfish.activities.util.PGNFile.GameInfo;
+
+/** A persistent index of the games in a PGN file. The index is only
+ *  used if the size, modification time and a checksum of the start and
+ *  end of the PGN file match the values stored in the index file. */
+final class PGNIndex {
+    private static final int MAGIC = 0x50474e49; // "PGNI"
+    private static final int VERSION = 1;
+    private static final int CHECK_LEN = 4096;
+
+    private final File pgnFile;
+    private final File indexFile;
+
+    /** Create an index for pgnFile, stored in directory indexDir. */
+    PGNIndex(File pgnFile, File indexDir) {
+        this.pgnFile = pgnFile;
+        String path = pgnFile.getAbsolutePath();
+        indexFile = new File(indexDir, String.format("%08x.idx", path.hashCode()));
+    }
+
+    /** Return the games in the PGN file, or null if the index is missing or out of date. */
+    ArrayList<GameInfo> read() {
+        if (!indexFile.exists())
+            return null;
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                                        new FileInputStream(indexFile), 65536))) {
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION)
+                return null;
+            if (!readFileInfo(dis, pgnFile))
+                return null;
+            int nGames = dis.readInt();
+            ArrayList<GameInfo> games = new ArrayList<>(nGames);
+            long pos = 0;
+            for (int i = 0; i < nGames; i++) {
+                GameInfo gi = new GameInfo();
+                gi.startPos = pos + readVarLong(dis);
+                gi.endPos = gi.startPos + readVarLong(dis);
+                gi.info = (i + 1) + ". " + dis.readUTF();
+                pos = gi.endPos;
+                games.add(gi);
+            }
+            return games;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Store games in the index. Game numbers are not stored, they are
+     *  assigned from the list position when the index is read. */
+    void write(ArrayList<GameInfo> games) {
+        File dir = indexFile.getParentFile();
+        if (dir != null)
+            dir.mkdirs();
+        File tmpFile = new File(indexFile.getPath() + ".tmp");
+        try {
+            try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                                            new FileOutputStream(tmpFile), 65536))) {
+                dos.writeInt(MAGIC);
+                dos.writeInt(VERSION);
+                writeFileInfo(dos, pgnFile);
+                dos.writeInt(games.size());
+                long pos = 0;
+                for (GameInfo gi : games) {
+                    writeVarLong(dos, gi.startPos - pos);
+                    writeVarLong(dos, gi.endPos - gi.startPos);
+                    dos.writeUTF(stripGameNo(gi.info));
+                    pos = gi.endPos;
+                }
+            }
+            if (!tmpFile.renameTo(indexFile))
+                throw new IOException();
+        } catch (IOException e) {
+            tmpFile.delete();
+            invalidate();
+        }
+    }
+
+    /** Remove the index file. */
+    void invalidate() {
+        indexFile.delete();
+    }
+
+    /** Write data identifying the current contents of pgnFile. */
+    static void writeFileInfo(DataOutput dos, File pgnFile) throws IOException {
+        long size = pgnFile.length();
+        dos.writeUTF(pgnFile.getAbsolutePath());
+        dos.writeLong(size);
+        dos.writeLong(pgnFile.lastModified());
+        dos.writeLong(checksum(pgnFile, size));
+    }
+
+    /** Read data written by writeFileInfo() and return true if it
+     *  matches the current contents of pgnFile. */
+    static boolean readFileInfo(DataInput dis, File pgnFile) throws IOException {
+        if (!dis.readUTF().equals(pgnFile.getAbsolutePath()))
+            return false;
+        long size = dis.readLong();
+        long modTime = dis.readLong();
+        long checksum = dis.readLong();
+        return size == pgnFile.length() && modTime == pgnFile.lastModified() &&
+               checksum == checksum(pgnFile, size);
+    }
+
+    /** Remove the leading "gameNo. " part of a game info string. */
+    private static String stripGameNo(String info) {
+        int idx = info.indexOf(". ");
+        return idx >= 0 ? info.substring(idx + 2) : info;
+    }
+
+    /** Compute a checksum of the first and last few kilobytes of a file. */
+    private static long checksum(File file, long size) throws IOException {
+        CRC32 crc = new CRC32();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] buf = new byte[(int)Math.min(size, CHECK_LEN)];
+            raf.readFully(buf);
+            crc.update(buf);
+            raf.seek(size - buf.length);
+            raf.readFully(buf);
+            crc.update(buf);
+        }
+        return crc.getValue();
+    }
+
+    private static void writeVarLong(DataOutputStream dos, long val) throws IOException {
+        while ((val & ~0x7fL) != 0) {
+            dos.writeByte((int)(val & 0x7f) | 0x80);
+            val >>>= 7;
+        }
+        dos.writeByte((int)val);
+    }
+
+    private static long readVarLong(DataInputStream dis) throws IOException {
+        long val = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = dis.readUnsignedByte();
+            val |= (long)(b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return val;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/*
+    DroidFish - An Android chess program.
+    Copyright (C) 2011-2013  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.petero.droidfish.activities.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+
+import org.petero.droidfish.PGNOptions;
+import org.petero.droidfish.activities.util.PGNFile.GameInfo;
+import org.petero.droidfish.gamelogic.ChessParseError;
+import org.petero.droidfish.gamelogic.GameTree;
+import org.petero.droidfish.gamelogic.Move;
+
+/** An index from position hash keys to the games in a PGN file whose main
+ *  lines contain the position. The index file contains (hashKey, gameNo)
+ *  entries sorted by hash key, so a lookup is a binary search in the file.
+ *  The index is only used if the PGN file has not changed since the index
+ *  was built. */
+final class PGNPositionIndex {
+    private static final int MAGIC = 0x50474e50; // "PGNP"
+    private static final int VERSION = 1;
+    private static final int ENTRY_SIZE = 12;
+    private static final int RUN_SIZE = 1 << 19; // Entries sorted in memory at a time
+
+    private final File pgnFile;
+    private final File indexFile;
+
+    /** Create a position index for pgnFile, stored in directory indexDir. */
+    PGNPositionIndex(File pgnFile, File indexDir) {
+        this.pgnFile = pgnFile;
+        String path = pgnFile.getAbsolutePath();
+        indexFile = new File(indexDir, String.format("%08x.pos", path.hashCode()));
+    }
+
+    /** Return the numbers (0-based, in increasing order) of the games whose
+     *  main lines contain a position with the given hash key. Return null
+     *  if the index is missing, out of date, or was built for a different
+     *  number of games. */
+    int[] findGames(long hashKey, int nGames) {
+        if (!indexFile.exists())
+            return null;
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r")) {
+            if (raf.readInt() != MAGIC || raf.readInt() != VERSION)
+                return null;
+            if (!PGNIndex.readFileInfo(raf, pgnFile))
+                return null;
+            if (raf.readInt() != nGames)
+                return null;
+            long nEntries = raf.readLong();
+            long dataStart = raf.getFilePointer();
+            if (dataStart + nEntries * ENTRY_SIZE != raf.length())
+                return null;
+
+            // Find first entry with key >= hashKey
+            long lo = 0, hi = nEntries;
+            while (lo < hi) {
+                long mid = (lo + hi) >>> 1;
+                raf.seek(dataStart + mid * ENTRY_SIZE);
+                if (raf.readLong() < hashKey)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+
+            int[] games = new int[16];
+            int n = 0;
+            raf.seek(dataStart + lo * ENTRY_SIZE);
+            byte[] buf = new byte[ENTRY_SIZE * 1024];
+            ByteBuffer bb = ByteBuffer.wrap(buf);
+            boolean done = false;
+            for (long i = lo; i < nEntries && !done; ) {
+                int nRead = (int)Math.min(1024, nEntries - i);
+                raf.readFully(buf, 0, nRead * ENTRY_SIZE);
+                bb.clear();
+                for (int e = 0; e < nRead; e++) {
+                    if (bb.getLong() != hashKey) {
+                        done = true;
+                        break;
+                    }
+                    if (n == games.length) {
+                        int[] tmp = new int[n * 2];
+                        System.arraycopy(games, 0, tmp, 0, n);
+                        games = tmp;
+                    }
+                    games[n++] = bb.getInt();
+                }
+                i += nRead;
+            }
+            int[] ret = new int[n];
+            System.arraycopy(games, 0, ret, 0, n);
+            return ret;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Build the index for the games in gamesInFile. Each game is parsed
+     *  with GameTree and the hash keys of all positions in the main line
+     *  are recorded. Games that can not be parsed are not indexed. */
+    void build(ArrayList<GameInfo> gamesInFile,
+               PGNFile.ProgressHandler progress) throws IOException {
+        File dir = indexFile.getParentFile();
+        if (dir != null)
+            dir.mkdirs();
+        ArrayList<File> runFiles = new ArrayList<>();
+        File tmpFile = new File(indexFile.getPath() + ".tmp");
+        try {
+            long[] keys = new long[RUN_SIZE];
+            int[] games = new int[RUN_SIZE];
+            long[] tmpKeys = new long[RUN_SIZE];
+            int[] tmpGames = new int[RUN_SIZE];
+            int n = 0;
+
+            GameTree tree = new GameTree(null);
+            PGNOptions options = new PGNOptions();
+            long[] gameKeys = new long[256];
+            try (RandomAccessFile f = new RandomAccessFile(pgnFile, "r")) {
+                byte[] buf = new byte[8192];
+                int nGames = gamesInFile.size();
+                for (int gameNo = 0; gameNo < nGames; gameNo++) {
+                    if (Thread.currentThread().isInterrupted())
+                        throw new PGNFile.CancelException();
+                    GameInfo gi = gamesInFile.get(gameNo);
+                    int len = (int)(gi.endPos - gi.startPos);
+                    if (len > buf.length)
+                        buf = new byte[len];
+                    f.seek(gi.startPos);
+                    f.readFully(buf, 0, len);
+                    if (progress != null)
+                        progress.reportProgress(gi.startPos);
+
+                    int nKeys = 0;
+                    try {
+                        if (!tree.readPGN(new String(buf, 0, len), options))
+                            continue;
+                    } catch (ChessParseError e) {
+                        continue;
+                    }
+                    while (true) {
+                        if (nKeys == gameKeys.length) {
+                            long[] tmp = new long[nKeys * 2];
+                            System.arraycopy(gameKeys, 0, tmp, 0, nKeys);
+                            gameKeys = tmp;
+                        }
+                        gameKeys[nKeys++] = tree.currentPos.zobristHash();
+                        if (tree.variations().isEmpty())
+                            break;
+                        tree.goForward(0, false);
+                        Move m = tree.currentNode.move;
+                        if (m.from == m.to) // Null move
+                            break;
+                    }
+
+                    for (int i = 0; i < nKeys; i++) {
+                        if (n == RUN_SIZE) {
+                            runFiles.add(writeRun(dir, keys, games, tmpKeys, tmpGames, n));
+                            n = 0;
+                        }
+                        keys[n] = gameKeys[i];
+                        games[n] = gameNo;
+                        n++;
+                    }
+                }
+            }
+            if (n > 0 || runFiles.isEmpty())
+                runFiles.add(writeRun(dir, keys, games, tmpKeys, tmpGames, n));
+            keys = tmpKeys = null;
+            games = tmpGames = null;
+
+            mergeRuns(runFiles, tmpFile, gamesInFile.size());
+            if (!tmpFile.renameTo(indexFile))
+                throw new IOException("Failed to write position index");
+        } finally {
+            for (File rf : runFiles)
+                rf.delete();
+            tmpFile.delete();
+        }
+    }
+
+    /** Remove the index file. */
+    void invalidate() {
+        indexFile.delete();
+    }
+
+    /** Sort the first n entries and write them to a temporary file. */
+    private static File writeRun(File dir, long[] keys, int[] games,
+                                 long[] tmpKeys, int[] tmpGames, int n) throws IOException {
+        sortEntries(keys, games, tmpKeys, tmpGames, n);
+        File runFile = File.createTempFile("run", ".tmp", dir);
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                                        new FileOutputStream(runFile), 65536))) {
+            for (int i = 0; i < n; i++) {
+                dos.writeLong(keys[i]);
+                dos.writeInt(games[i]);
+            }
+        }
+        return runFile;
+    }
+
+    /** Stable bottom-up merge sort of (key, game) entries by key.
+     *  Entries are added in increasing game order, so equal keys end up
+     *  sorted by game number. */
+    private static void sortEntries(long[] keys, int[] games,
+                                    long[] tmpKeys, int[] tmpGames, int n) {
+        long[] srcK = keys, dstK = tmpKeys;
+        int[] srcG = games, dstG = tmpGames;
+        for (int width = 1; width < n; width *= 2) {
+            for (int lo = 0; lo < n; lo += 2 * width) {
+                int mid = Math.min(lo + width, n);
+                int hi = Math.min(lo + 2 * width, n);
+                int i = lo, j = mid, k = lo;
+                while (i < mid && j < hi) {
+                    if (srcK[j] < srcK[i]) {
+                        dstK[k] = srcK[j]; dstG[k++] = srcG[j++];
+                    } else {
+                        dstK[k] = srcK[i]; dstG[k++] = srcG[i++];
+                    }
+                }
+                while (i < mid) {
+                    dstK[k] = srcK[i]; dstG[k++] = srcG[i++];
+                }
+                while (j < hi) {
+                    dstK[k] = srcK[j]; dstG[k++] = srcG[j++];
+                }
+            }
+            long[] tk = srcK; srcK = dstK; dstK = tk;
+            int[] tg = srcG; srcG = dstG; dstG = tg;
+        }
+        if (srcK != keys) {
+            System.arraycopy(srcK, 0, keys, 0, n);
+            System.arraycopy(srcG, 0, games, 0, n);
+        }
+    }
+
+    /** Reads entries from a sorted run file. */
+    private static final class RunReader implements Comparable<RunReader> {
+        final DataInputStream dis;
+        final int runNo;
+        long key;
+        int game;
+
+        RunReader(File runFile, int runNo) throws IOException {
+            dis = new DataInputStream(new BufferedInputStream(
+                                      new FileInputStream(runFile), 16384));
+            this.runNo = runNo;
+        }
+
+        /** Read the next entry. Return false at end of file. */
+        boolean next() throws IOException {
+            try {
+                key = dis.readLong();
+                game = dis.readInt();
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public int compareTo(RunReader other) {
+            if (key != other.key)
+                return key < other.key ? -1 : 1;
+            return runNo - other.runNo;
+        }
+    }
+
+    /** Merge sorted run files into the index file. Duplicate entries, caused
+     *  by a position occurring more than once in a game, are removed. */
+    private void mergeRuns(ArrayList<File> runFiles, File outFile, int nGames) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<>();
+        ArrayList<RunReader> readers = new ArrayList<>();
+        long countPos;
+        long nEntries = 0;
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                                        new FileOutputStream(outFile), 65536))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            PGNIndex.writeFileInfo(dos, pgnFile);
+            dos.writeInt(nGames);
+            countPos = dos.size();
+            dos.writeLong(0);
+
+            for (int i = 0; i < runFiles.size(); i++) {
+                RunReader r = new RunReader(runFiles.get(i), i);
+                readers.add(r);
+                if (r.next())
+                    queue.add(r);
+            }
+            long lastKey = 0;
+            int lastGame = -1;
+            while (!queue.isEmpty()) {
+                RunReader r = queue.poll();
+                if (r.key != lastKey || r.game != lastGame) {
+                    dos.writeLong(r.key);
+                    dos.writeInt(r.game);
+                    lastKey = r.key;
+                    lastGame = r.game;
+                    nEntries++;
+                }
+                if (r.next())
+                    queue.add(r);
+            }
+        } finally {
+            for (RunReader r : readers)
+                r.dis.close();
+        }
+        try (RandomAccessFile out = new RandomAccessFile(outFile, "rw")) {
+            out.seek(countPos);
+            out.writeLong(nEntries);
+        }
+    }
+}
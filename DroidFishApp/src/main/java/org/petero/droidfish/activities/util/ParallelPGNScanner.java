@@ -0,0 +1,239 @@
+/*
+    DroidFish - An Android chess program.
+    Copyright (C) 2011-2013  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.petero.droidfish.activities.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.petero.droidfish.activities.util.PGNFile.GameInfo;
+
+/** Finds the games in a large PGN file using several threads. The file is
+ *  split into chunks at "[Event" tags at the start of a line. Each chunk is
+ *  read using positional reads and scanned by a fork-join task, and the
+ *  results are merged in file order. Requires API level 21. */
+final class ParallelPGNScanner {
+    private static final long MAX_CHUNK_SIZE = 64 << 20;
+
+    /** Minimum chunk size and number of CPUs. Can be changed by tests to make
+     *  the parallel scanner handle small files. */
+    static long minChunkSize = 1 << 20;
+    static int numCpus = Runtime.getRuntime().availableProcessors();
+    private static final byte[] SPLIT_PATTERN = { '\n', '[', 'E', 'v', 'e', 'n', 't', ' ', '"' };
+
+    /** Return true if parallel scanning is worthwhile for "size" bytes of data. */
+    static boolean useParallel(long size) {
+        return numCpus > 1 && size >= 2 * minChunkSize;
+    }
+
+    /** Return info about the PGN games in a file, starting at file position
+     *  "startPos", which must be 0 or the start of a game. Return null if the
+     *  file could not be split into chunks that can be scanned independently,
+     *  or if reading the file failed. The caller must then scan the file
+     *  sequentially. */
+    static ArrayList<GameInfo> getGameInfo(File file, long startPos, int firstGameNo,
+                                           PGNFile.ProgressHandler progress)
+            throws PGNFile.CancelException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            long[] bounds = findChunkBounds(channel, startPos, channel.size());
+            int nChunks = bounds.length - 1;
+            if (nChunks < 2)
+                return null;
+
+            Chunk[] chunks = new Chunk[nChunks];
+            for (int i = 0; i < nChunks; i++)
+                chunks[i] = new Chunk(bounds[i], bounds[i+1]);
+            ScanState ss = new ScanState(channel, startPos, progress, Thread.currentThread());
+            ForkJoinPool pool = new ForkJoinPool();
+            try {
+                pool.invoke(new ScanTask(ss, chunks, 0, nChunks));
+            } finally {
+                pool.shutdown();
+            }
+            if (ss.canceled)
+                throw new PGNFile.CancelException();
+            for (Chunk c : chunks)
+                if (c.failed)
+                    return null;
+
+            ArrayList<GameInfo> gamesInFile = new ArrayList<>();
+            for (int i = 0; i < nChunks; i++) {
+                if (i < nChunks - 1 && !chunks[i].scanner.atGameBoundary())
+                    return null;
+                ArrayList<GameInfo> games = chunks[i].scanner.getGames(firstGameNo + gamesInFile.size());
+                gamesInFile.addAll(games);
+            }
+            return gamesInFile;
+        } catch (PGNFile.CancelException e) {
+            throw e;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Compute chunk boundaries. Each boundary except the first and last one
+     *  is the position of a "[Event" tag at the start of a line. */
+    private static long[] findChunkBounds(FileChannel channel, long startPos,
+                                          long size) throws IOException {
+        long len = size - startPos;
+        long nChunks = Math.max(numCpus * 4L, (len + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+        nChunks = Math.min(nChunks, Math.max(1, len / minChunkSize));
+
+        ArrayList<Long> bounds = new ArrayList<>();
+        bounds.add(startPos);
+        ByteBuffer buf = ByteBuffer.allocate(65536);
+        for (long i = 1; i < nChunks; i++) {
+            long target = Math.max(startPos + len * i / nChunks, bounds.get(bounds.size() - 1) + 1);
+            long pos = findPattern(channel, buf, target, size);
+            if (pos < 0)
+                break;
+            bounds.add(pos);
+        }
+        bounds.add(size);
+
+        long[] ret = new long[bounds.size()];
+        for (int i = 0; i < ret.length; i++)
+            ret[i] = bounds.get(i);
+        return ret;
+    }
+
+    /** Return the file position of the first "[" in SPLIT_PATTERN at or after
+     *  position "pos", or -1 if there is no such position. */
+    private static long findPattern(FileChannel channel, ByteBuffer buf,
+                                    long pos, long size) throws IOException {
+        final int patLen = SPLIT_PATTERN.length;
+        pos--; // Pattern starts with the newline before "["
+        while (pos + patLen <= size) {
+            buf.clear();
+            int len = 0;
+            while (buf.hasRemaining()) {
+                int n = channel.read(buf, pos + len);
+                if (n <= 0)
+                    break;
+                len += n;
+            }
+            byte[] data = buf.array();
+            for (int i = 0; i + patLen <= len; i++) {
+                if (data[i] != '\n')
+                    continue;
+                int j = 1;
+                while (j < patLen && data[i + j] == SPLIT_PATTERN[j])
+                    j++;
+                if (j == patLen)
+                    return pos + i + 1;
+            }
+            if (len < patLen)
+                break;
+            pos += len - patLen + 1;
+        }
+        return -1;
+    }
+
+    /** Shared state for all scan tasks. */
+    private static final class ScanState {
+        final FileChannel channel;
+        final long startPos;
+        final PGNFile.ProgressHandler progress;
+        final Thread caller;
+        final AtomicLong nScanned = new AtomicLong();
+        volatile boolean canceled = false;
+
+        ScanState(FileChannel channel, long startPos, PGNFile.ProgressHandler progress,
+                  Thread caller) {
+            this.channel = channel;
+            this.startPos = startPos;
+            this.progress = progress;
+            this.caller = caller;
+        }
+    }
+
+    /** A part of the file that is scanned by one task. */
+    private static final class Chunk {
+        final long start;
+        final long end;
+        final PGNHeaderScanner scanner = new PGNHeaderScanner(-1);
+        boolean failed;
+
+        Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        void scan(ScanState ss) {
+            try {
+                ByteBuffer buf = ByteBuffer.allocate(65536);
+                long filePos = start;
+                while (filePos < end) {
+                    if (ss.canceled || ss.caller.isInterrupted()) {
+                        ss.canceled = true;
+                        return;
+                    }
+                    buf.clear();
+                    buf.limit((int)Math.min(buf.capacity(), end - filePos));
+                    int len = ss.channel.read(buf, filePos);
+                    if (len <= 0) { // File truncated during the scan
+                        failed = true;
+                        return;
+                    }
+                    scanner.scan(buf.array(), 0, len, filePos);
+                    filePos += len;
+                    long nScanned = ss.nScanned.addAndGet(len);
+                    if (ss.progress != null)
+                        ss.progress.reportProgress(ss.startPos + nScanned);
+                }
+                scanner.finish(end);
+            } catch (IOException e) {
+                failed = true;
+            }
+        }
+    }
+
+    /** Scans chunks [begin,end), splitting the range in halves until one chunk remains. */
+    private static final class ScanTask extends RecursiveAction {
+        private final ScanState ss;
+        private final Chunk[] chunks;
+        private final int begin;
+        private final int end;
+
+        ScanTask(ScanState ss, Chunk[] chunks, int begin, int end) {
+            this.ss = ss;
+            this.chunks = chunks;
+            this.begin = begin;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - begin == 1) {
+                chunks[begin].scan(ss);
+            } else {
+                int mid = (begin + end) / 2;
+                invokeAll(new ScanTask(ss, chunks, begin, mid),
+                          new ScanTask(ss, chunks, mid, end));
+            }
+        }
+    }
+}
@@ -58,6 +58,10 @@ class AbkBook implements IOpeningBook {
         abkFile = new File(options.filename);
     }
 
+    @Override
+    public void close() {
+    }
+
     private static class MoveData {
         Move move;
         double weightPrio;
@@ -18,11 +18,14 @@
 
 package org.petero.droidfish.book;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.petero.droidfish.book.DroidBook.BookEntry;
 import org.petero.droidfish.gamelogic.Move;
@@ -38,6 +41,13 @@ class CtgBook implements IOpeningBook {
     private File ctoFile;
     private final static float bigWeight = 1e6f;
 
+    // The ctg and cto files are kept open between queries, and are read
+    // through page caches. Null if the files are not open.
+    private CtgFile ctg;
+    private long ctgModified;        // Modification time of ctgFile when opened
+    private static final int ctgCachePages = 256;
+    private static final int ctoCachePages = 16;
+
     static boolean canHandle(BookOptions options) {
         String filename = options.filename;
         return (filename.endsWith(".ctg") ||
@@ -57,21 +67,69 @@ class CtgBook implements IOpeningBook {
         this.options = new BookOptions(options);
         String fileName = options.filename;
         int len = fileName.length();
-        ctgFile = new File(fileName.substring(0, len-1) + "g");
+        File newCtgFile = new File(fileName.substring(0, len-1) + "g");
+        if ((ctg != null) &&
+            (!newCtgFile.equals(ctgFile) || (newCtgFile.lastModified() != ctgModified)))
+            closeFiles();
+        ctgFile = newCtgFile;
         ctbFile = new File(fileName.substring(0, len-1) + "b");
         ctoFile = new File(fileName.substring(0, len-1) + "o");
     }
 
+    @Override
+    public void close() {
+        closeFiles();
+    }
+
+    /** Number of page cache lookups that did not need to read from the book files. */
+    final long getCacheHits() {
+        return (ctg != null) ? ctg.pages.hits + ctg.cto.pages.hits : 0;
+    }
+
+    /** Number of page cache lookups that had to read from the book files. */
+    final long getCacheMisses() {
+        return (ctg != null) ? ctg.pages.misses + ctg.cto.pages.misses : 0;
+    }
+
+    /** Open the book files, unless they are already open. */
+    private CtgFile openFiles() throws IOException {
+        if (ctg != null)
+            return ctg;
+        CtbFile ctb;
+        try (RandomAccessFile ctbF = new RandomAccessFile(ctbFile, "r")) {
+            ctb = new CtbFile(ctbF);
+        }
+        long modified = ctgFile.lastModified();
+        RandomAccessFile ctgF = new RandomAccessFile(ctgFile, "r");
+        RandomAccessFile ctoF = null;
+        try {
+            ctoF = new RandomAccessFile(ctoFile, "r");
+            CtoFile cto = new CtoFile(new PageCache(ctoF, ctoCachePages));
+            ctg = new CtgFile(new PageCache(ctgF, ctgCachePages), ctb, cto);
+        } catch (IOException e) {
+            ctgF.close();
+            if (ctoF != null)
+                ctoF.close();
+            throw e;
+        }
+        ctgModified = modified;
+        return ctg;
+    }
+
+    /** Close the book files, if they are open. */
+    private void closeFiles() {
+        if (ctg != null) {
+            ctg.pages.close();
+            ctg.cto.pages.close();
+            ctg = null;
+        }
+    }
+
     @Override
     public ArrayList<BookEntry> getBookEntries(BookPosInput posInput) {
         Position pos = posInput.getCurrPos();
-        try (RandomAccessFile ctgF = new RandomAccessFile(ctgFile, "r");
-             RandomAccessFile ctbF = new RandomAccessFile(ctbFile, "r");
-             RandomAccessFile ctoF = new RandomAccessFile(ctoFile, "r")) {
-
-            CtbFile ctb = new CtbFile(ctbF);
-            CtoFile cto = new CtoFile(ctoF);
-            CtgFile ctg = new CtgFile(ctgF, ctb, cto);
+        try {
+            CtgFile ctg = openFiles();
 
             ArrayList<BookEntry> ret = null;
             PositionData pd = ctg.getPositionData(pos);
@@ -117,6 +175,7 @@ class CtgBook implements IOpeningBook {
             }
             return ret;
         } catch (IOException e) {
+            closeFiles();
             return null;
         }
     }
@@ -129,6 +188,56 @@ class CtgBook implements IOpeningBook {
         return ret;
     }
 
+    /** An open file, read in 4096 byte pages through an LRU cache. */
+    final static class PageCache {
+        private final RandomAccessFile f;
+        private final long fileLen;
+        private final LinkedHashMap<Long, byte[]> pages;
+        long hits;
+        long misses;
+
+        PageCache(RandomAccessFile f, final int maxPages) throws IOException {
+            this.f = f;
+            fileLen = f.length();
+            pages = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                    return size() > maxPages;
+                }
+            };
+        }
+
+        /**
+         * Return the page containing file offset offs. The page starts at
+         * offset (offs & ~4095) and is zero padded beyond the end of the file.
+         * @throws EOFException if offs+len is beyond the end of the file.
+         */
+        final byte[] getPage(long offs, int len) throws IOException {
+            if (offs + len > fileLen)
+                throw new EOFException();
+            long pageNo = offs >> 12;
+            byte[] page = pages.get(pageNo);
+            if (page != null) {
+                hits++;
+                return page;
+            }
+            misses++;
+            page = new byte[4096];
+            long pageOffs = pageNo << 12;
+            f.seek(pageOffs);
+            f.readFully(page, 0, (int)Math.min(4096, fileLen - pageOffs));
+            pages.put(pageNo, page);
+            return page;
+        }
+
+        final void close() {
+            try {
+                f.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
     /** Convert len bytes starting at offs in buf to an integer. */
     private static int extractInt(byte[] buf, int offs, int len) {
         int ret = 0;
@@ -240,9 +349,9 @@ class CtgBook implements IOpeningBook {
     }
 
     private final static class CtoFile {
-        RandomAccessFile f;
-        CtoFile(RandomAccessFile f) {
-            this.f = f;
+        final PageCache pages;
+        CtoFile(PageCache pages) {
+            this.pages = pages;
         }
 
         static ArrayList<Integer> getHashIndices(byte[] encodedPos, CtbFile ctb) {
@@ -260,8 +369,9 @@ class CtgBook implements IOpeningBook {
         }
 
         final int getPage(int hashIndex) throws IOException {
-            byte[] buf = readBytes(f, 16 + 4 * hashIndex, 4);
-            return extractInt(buf, 0, 4);
+            long offs = 16 + 4L * hashIndex;
+            byte[] buf = pages.getPage(offs, 4);
+            return extractInt(buf, (int)(offs & 4095), 4);
         }
 
         private final static int[] tbl = {
@@ -297,11 +407,11 @@ class CtgBook implements IOpeningBook {
     }
 
     private final static class CtgFile {
-        private RandomAccessFile f;
-        private CtbFile ctb;
-        private CtoFile cto;
-        CtgFile(RandomAccessFile f, CtbFile ctb, CtoFile cto) {
-            this.f = f;
+        final PageCache pages;
+        final CtbFile ctb;
+        final CtoFile cto;
+        CtgFile(PageCache pages, CtbFile ctb, CtoFile cto) {
+            this.pages = pages;
             this.ctb = ctb;
             this.cto = cto;
         }
@@ -343,7 +453,7 @@ class CtgBook implements IOpeningBook {
         }
 
         private PositionData findInPage(int page, byte[] encodedPos) throws IOException {
-            byte[] pageBuf = readBytes(f, (page+1)*4096L, 4096);
+            byte[] pageBuf = pages.getPage((page+1)*4096L, 4096);
             try {
                 int nPos = extractInt(pageBuf, 0, 2);
                 int nBytes = extractInt(pageBuf, 2, 2);
@@ -70,14 +70,21 @@ public final class DroidBook {
     /** Set opening book options. */
     public final synchronized void setOptions(BookOptions options) {
         this.options = options;
+        // Keep the CTG and polyglot book objects, so that they can keep
+        // their files open if the book file did not change.
+        IOpeningBook newBook;
         if (CtgBook.canHandle(options))
-            externalBook = new CtgBook();
+            newBook = (externalBook instanceof CtgBook) ? externalBook : new CtgBook();
         else if (PolyglotBook.canHandle(options))
-            externalBook = new PolyglotBook();
+            newBook = (externalBook instanceof PolyglotBook) ? externalBook : new PolyglotBook();
         else if (AbkBook.canHandle(options))
-            externalBook = new AbkBook();
+            newBook = new AbkBook();
         else
-            externalBook = new NullBook();
+            newBook = new NullBook();
+        if (newBook != externalBook) {
+            externalBook.close();
+            externalBook = newBook;
+        }
         externalBook.setOptions(options);
         ecoBook.setOptions(options);
         internalBook.setOptions(options);
@@ -171,6 +178,16 @@ public final class DroidBook {
         return new Pair<>(ret.toString(), bookMoveList);
     }
 
+    /** Return CTG page cache statistics for the current book, or an empty string
+     *  if the current book is not a CTG book. */
+    public final synchronized String getCacheInfo() {
+        if (!(externalBook instanceof CtgBook))
+            return "";
+        CtgBook ctgBook = (CtgBook)externalBook;
+        return "CTG page cache hits:" + ctgBook.getCacheHits() +
+               " misses:" + ctgBook.getCacheMisses();
+    }
+
     private double scaleWeight(double w) {
         if (w <= 0)
             return 0;
@@ -42,6 +42,10 @@ public class EcoBook implements IOpeningBook {
         enabled = options.filename.equals("eco:");
     }
 
+    @Override
+    public void close() {
+    }
+
     @Override
     public ArrayList<BookEntry> getBookEntries(BookPosInput posInput) {
         Position pos = posInput.getCurrPos();
@@ -34,6 +34,9 @@ public interface IOpeningBook {
     /** Set book options, including filename. */
     void setOptions(BookOptions options);
 
+    /** Release resources, such as open files, held by the book. */
+    void close();
+
     /** Information required to query an opening book. */
     class BookPosInput {
         private final Position currPos;
@@ -18,30 +18,20 @@
 
 package org.petero.droidfish.book;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+
+import chess.BookTable;
 
 import org.petero.droidfish.book.DroidBook.BookEntry;
-import org.petero.droidfish.gamelogic.ChessParseError;
 import org.petero.droidfish.gamelogic.Move;
 import org.petero.droidfish.gamelogic.Piece;
 import org.petero.droidfish.gamelogic.Position;
-import org.petero.droidfish.gamelogic.TextIO;
-import org.petero.droidfish.gamelogic.UndoInfo;
-
-import android.annotation.SuppressLint;
 
-@SuppressLint("UseSparseArrays")
 final class InternalBook implements IOpeningBook {
-    private static HashMap<Long, ArrayList<BookEntry>> bookMap;
-    private static int numBookMoves = -1;
     private boolean enabled = false;
 
     InternalBook() {
-        Thread t = new Thread(this::initInternalBook);
+        Thread t = new Thread(BookTable::getInstance);
         t.setPriority(Thread.MIN_PRIORITY);
         t.start();
     }
@@ -54,15 +44,20 @@ final class InternalBook implements IOpeningBook {
     @Override
     public ArrayList<BookEntry> getBookEntries(BookPosInput posInput) {
         Position pos = posInput.getCurrPos();
-        initInternalBook();
-        ArrayList<BookEntry> ents = bookMap.get(pos.zobristHash());
-        if (ents == null)
+        BookTable table = BookTable.getInstance();
+        long hashKey = pos.zobristHash();
+        int first = table.lowerBound(hashKey);
+        int end = table.endOfRange(first, hashKey);
+        if (first == end)
             return null;
         ArrayList<BookEntry> ret = new ArrayList<>();
-        for (BookEntry be : ents) {
-            BookEntry be2 = new BookEntry(be.move);
-            be2.weight = (float)(Math.sqrt(be.weight) * 100 + 1);
-            ret.add(be2);
+        for (int i = first; i < end; i++) {
+            int move = table.getMove(i);
+            Move m = new Move(move & 63, (move >> 6) & 63,
+                              promToPiece((move >> 12) & 7, pos.whiteMove));
+            BookEntry be = new BookEntry(m);
+            be.weight = (float)(Math.sqrt(table.getCount(i)) * 100 + 1);
+            ret.add(be);
         }
         return ret;
     }
@@ -72,75 +67,8 @@ final class InternalBook implements IOpeningBook {
         enabled = options.filename.equals("internal:");
     }
 
-    private synchronized void initInternalBook() {
-        if (numBookMoves >= 0)
-            return;
-//        long t0 = System.currentTimeMillis();
-        bookMap = new HashMap<>();
-        numBookMoves = 0;
-        try {
-            InputStream inStream = getClass().getResourceAsStream("/book.bin");
-            if (inStream == null)
-                throw new IOException();
-            List<Byte> buf = new ArrayList<>(8192);
-            byte[] tmpBuf = new byte[1024];
-            while (true) {
-                int len = inStream.read(tmpBuf);
-                if (len <= 0) break;
-                for (int i = 0; i < len; i++)
-                    buf.add(tmpBuf[i]);
-            }
-            inStream.close();
-            Position startPos = TextIO.readFEN(TextIO.startPosFEN);
-            Position pos = new Position(startPos);
-            UndoInfo ui = new UndoInfo();
-            int len = buf.size();
-            for (int i = 0; i < len; i += 2) {
-                int b0 = buf.get(i); if (b0 < 0) b0 += 256;
-                int b1 = buf.get(i+1); if (b1 < 0) b1 += 256;
-                int move = (b0 << 8) + b1;
-                if (move == 0) {
-                    pos = new Position(startPos);
-                } else {
-                    boolean bad = ((move >> 15) & 1) != 0;
-                    int prom = (move >> 12) & 7;
-                    Move m = new Move(move & 63, (move >> 6) & 63,
-                                      promToPiece(prom, pos.whiteMove));
-                    if (!bad)
-                        addToBook(pos, m);
-                    pos.makeMove(m, ui);
-                }
-            }
-        } catch (ChessParseError ex) {
-            throw new RuntimeException();
-        } catch (IOException ex) {
-            throw new RuntimeException("Can't read internal opening book");
-        }
-/*        {
-            long t1 = System.currentTimeMillis();
-            System.out.printf("Book moves:%d (parse time:%.3f)%n", numBookMoves,
-                    (t1 - t0) / 1000.0);
-        } */
-    }
-
-
-    /** Add a move to a position in the opening book. */
-    private void addToBook(Position pos, Move moveToAdd) {
-        ArrayList<BookEntry> ent = bookMap.get(pos.zobristHash());
-        if (ent == null) {
-            ent = new ArrayList<>();
-            bookMap.put(pos.zobristHash(), ent);
-        }
-        for (int i = 0; i < ent.size(); i++) {
-            BookEntry be = ent.get(i);
-            if (be.move.equals(moveToAdd)) {
-                be.weight++;
-                return;
-            }
-        }
-        BookEntry be = new BookEntry(moveToAdd);
-        ent.add(be);
-        numBookMoves++;
+    @Override
+    public void close() {
     }
 
     private static int promToPiece(int prom, boolean whiteMove) {
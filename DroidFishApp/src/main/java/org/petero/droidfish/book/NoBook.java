@@ -36,6 +36,10 @@ class NoBook implements IOpeningBook {
         enabled = options.filename.equals("nobook:");
     }
 
+    @Override
+    public void close() {
+    }
+
     @Override
     public ArrayList<BookEntry> getBookEntries(BookPosInput posInput) {
         return null;
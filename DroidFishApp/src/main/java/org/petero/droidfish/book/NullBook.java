@@ -38,4 +38,8 @@ class NullBook implements IOpeningBook {
     public ArrayList<BookEntry> getBookEntries(BookPosInput posInput) {
         return null;
     }
+
+    @Override
+    public void close() {
+    }
 }
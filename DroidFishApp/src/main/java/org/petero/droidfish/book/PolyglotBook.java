@@ -26,18 +26,46 @@ import org.petero.droidfish.gamelogic.Position;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 
 class PolyglotBook implements IOpeningBook {
     private File bookFile;
 
+    // The book file is memory mapped when first used. A sparse index holding
+    // the key of every (1 << indexShift):th entry narrows the binary search,
+    // so that most of the search is done without touching the mapped file.
+    // Files that cannot be mapped in one piece are searched with seek/read.
+    private ByteBuffer bookData;
+    private boolean mapFailed;
+    private int numEntries;
+    private long[] indexKeys;
+    private int indexShift;
+    private long bookModified;  // Modification time of bookFile when mapped
+    private static final int minIndexShift = 8;   // Index every 4KB, at most
+    private static final int maxIndexSize = 4096;
+
     PolyglotBook() {
         bookFile = new File("");
     }
 
     @Override
     public final void setOptions(BookOptions options) {
-        bookFile = new File(options.filename);
+        File newFile = new File(options.filename);
+        if (!newFile.equals(bookFile) || (newFile.lastModified() != bookModified)) {
+            bookData = null;
+            indexKeys = null;
+            mapFailed = false;
+        }
+        bookFile = newFile;
+    }
+
+    @Override
+    public final void close() {
+        bookData = null;
+        indexKeys = null;
+        mapFailed = false;
     }
 
     /** Compute a polyglot hash key corresponding to a position. */
@@ -292,76 +320,45 @@ class PolyglotBook implements IOpeningBook {
         return bookFile.canRead();
     }
 
-    private static class PGBookEntry {
-        private byte[] data;
+    /** Convert a polyglot move to a Move object. */
+    private static Move decodeMove(int move, Position pos) {
+        boolean wtm = pos.whiteMove;
+        int toFile = move & 7;
+        int toRow = (move >> 3) & 7;
+        int fromFile = (move >> 6) & 7;
+        int fromRow = (move >> 9) & 7;
+        int prom = (move >> 12) & 7;
 
-        PGBookEntry() {
-            data = new byte[16];
+        int from = Position.getSquare(fromFile, fromRow);
+        int to = Position.getSquare(toFile, toRow);
+        int promoteTo;
+        switch (prom) {
+        case 1: promoteTo = wtm ? Piece.WKNIGHT : Piece.BKNIGHT; break;
+        case 2: promoteTo = wtm ? Piece.WBISHOP : Piece.BBISHOP; break;
+        case 3: promoteTo = wtm ? Piece.WROOK   : Piece.BROOK;   break;
+        case 4: promoteTo = wtm ? Piece.WQUEEN  : Piece.BQUEEN;  break;
+        default: promoteTo = Piece.EMPTY; break;
         }
 
-        private long getBytes(int start, int len) {
-            long ret = 0;
-            int stop = start + len;
-            for (int i = start; i < stop; i++) {
-                int val = data[i];
-                if (val < 0) val += 256;
-                ret = (ret << 8) + val;
-            }
-            return ret;
+        // Convert castling moves
+        if ((from == 4) && (pos.getPiece(from) == Piece.WKING)) {
+            if (to == 7)
+                to = 6;
+            else if (to == 0)
+                to = 2;
         }
-
-        final long getKey() {
-            return getBytes(0, 8);
+        if ((from == 60) && (pos.getPiece(from) == Piece.BKING)) {
+            if (to == 56+7)
+                to = 56+6;
+            else if (to == 56)
+                to = 56+2;
         }
 
-        final Move getMove(Position pos) {
-            short move = (short)getBytes(8, 2);
-            boolean wtm = pos.whiteMove;
-            int toFile = move & 7;
-            int toRow = (move >> 3) & 7;
-            int fromFile = (move >> 6) & 7;
-            int fromRow = (move >> 9) & 7;
-            int prom = (move >> 12) & 7;
-
-            int from = Position.getSquare(fromFile, fromRow);
-            int to = Position.getSquare(toFile, toRow);
-            int promoteTo;
-            switch (prom) {
-            case 1: promoteTo = wtm ? Piece.WKNIGHT : Piece.BKNIGHT; break;
-            case 2: promoteTo = wtm ? Piece.WBISHOP : Piece.BBISHOP; break;
-            case 3: promoteTo = wtm ? Piece.WROOK   : Piece.BROOK;   break;
-            case 4: promoteTo = wtm ? Piece.WQUEEN  : Piece.BQUEEN;  break;
-            default: promoteTo = Piece.EMPTY; break;
-            }
-
-            // Convert castling moves
-            if ((from == 4) && (pos.getPiece(from) == Piece.WKING)) {
-                if (to == 7)
-                    to = 6;
-                else if (to == 0)
-                    to = 2;
-            }
-            if ((from == 60) && (pos.getPiece(from) == Piece.BKING)) {
-                if (to == 56+7)
-                    to = 56+6;
-                else if (to == 56)
-                    to = 56+2;
-            }
-
-            return new Move(from, to, promoteTo);
-        }
-        final int getWeight() { return (int)getBytes(10, 2); }
-    }
-
-    private void readEntry(RandomAccessFile f, long entNo, PGBookEntry ent) throws IOException {
-        f.seek(entNo * 16);
-        if (f.read(ent.data) != 16) {
-            for (int i = 0; i < 16; i++) ent.data[i] = 0;
-        }
+        return new Move(from, to, promoteTo);
     }
 
     /** Return true if key1 < key2, when compared as unsigned longs. */
-    private boolean keyLess(long key1, long key2) {
+    private static boolean keyLess(long key1, long key2) {
         if ((key1 < 0) == (key2 < 0)) { // Same sign, normal compare
             return key1 < key2;
         } else { // The negative number is largest
@@ -369,23 +366,103 @@ class PolyglotBook implements IOpeningBook {
         }
     }
 
+    /**
+     * Map the book file into memory and build the sparse index, unless
+     * already done. Return false if the file could not be mapped.
+     */
+    private boolean openBook() {
+        if (bookData != null)
+            return true;
+        if (mapFailed)
+            return false;
+        mapFailed = true;
+        bookModified = bookFile.lastModified();
+        try (RandomAccessFile f = new RandomAccessFile(bookFile, "r");
+             FileChannel fc = f.getChannel()) {
+            long len = fc.size() / 16 * 16;
+            if (len > Integer.MAX_VALUE)
+                return false; // Too large for a single ByteBuffer
+            ByteBuffer data = fc.map(FileChannel.MapMode.READ_ONLY, 0, len);
+            int nEntries = (int)(len / 16);
+
+            int shift = minIndexShift;
+            while ((nEntries >> shift) > maxIndexSize)
+                shift++;
+            long[] keys = new long[(nEntries + (1 << shift) - 1) >> shift];
+            for (int i = 0; i < keys.length; i++)
+                keys[i] = data.getLong((i << shift) * 16);
+
+            numEntries = nEntries;
+            indexShift = shift;
+            indexKeys = keys;
+            bookData = data;
+            mapFailed = false;
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
     @Override
     public final ArrayList<BookEntry> getBookEntries(BookPosInput posInput) {
         Position pos = posInput.getCurrPos();
+        long key = getHashKey(pos);
+        if (!openBook())
+            return getBookEntriesNoMap(pos, key);
+
+        // Find first index entry with hash key >= wantedKey
+        int iLo = -1;
+        int iHi = indexKeys.length;
+        while (iHi - iLo > 1) {
+            int mid = (iLo + iHi) >>> 1;
+            if (keyLess(indexKeys[mid], key)) {
+                iLo = mid;
+            } else {
+                iHi = mid;
+            }
+        }
+
+        // Find first entry with hash key >= wantedKey, using ent[lo] < key <= ent[hi]
+        int lo = (iLo < 0) ? -1 : (iLo << indexShift);
+        int hi = Math.min(iHi << indexShift, numEntries);
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            if (keyLess(bookData.getLong(mid * 16), key)) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+
+        // Read all entries with matching hash key
+        ArrayList<BookEntry> ret = new ArrayList<>();
+        for (int entNo = hi; entNo < numEntries; entNo++) {
+            int offs = entNo * 16;
+            if (bookData.getLong(offs) != key)
+                break;
+            Move m = decodeMove(bookData.getShort(offs + 8) & 0xffff, pos);
+            BookEntry be = new BookEntry(m);
+            be.weight = bookData.getShort(offs + 10) & 0xffff;
+            ret.add(be);
+        }
+        return ret;
+    }
+
+    /** Find book entries by reading the book file directly, for files that can not be mapped. */
+    private ArrayList<BookEntry> getBookEntriesNoMap(Position pos, long key) {
         try (RandomAccessFile f = new RandomAccessFile(bookFile, "r")) {
-            long numEntries = f.length() / 16;
-            long key = getHashKey(pos);
-            PGBookEntry ent = new PGBookEntry();
+            long nEntries = f.length() / 16;
+            byte[] buf = new byte[16];
+            ByteBuffer ent = ByteBuffer.wrap(buf);
 
             // Find first entry with hash key >= wantedKey
             long lo = -1;
-            long hi = numEntries;
+            long hi = nEntries;
             // ent[lo] < key <= ent[hi]
             while (hi - lo > 1) {
                 long mid = (lo + hi) / 2;
-                readEntry(f, mid, ent);
-                long midKey = ent.getKey();
-                if (keyLess(midKey, key)) {
+                readEntry(f, mid, buf);
+                if (keyLess(ent.getLong(0), key)) {
                     lo = mid;
                 } else {
                     hi = mid;
@@ -394,20 +471,23 @@ class PolyglotBook implements IOpeningBook {
 
             // Read all entries with matching hash key
             ArrayList<BookEntry> ret = new ArrayList<>();
-            long entNo = hi;
-            while (entNo < numEntries) {
-                readEntry(f, entNo, ent);
-                if (ent.getKey() != key)
+            for (long entNo = hi; entNo < nEntries; entNo++) {
+                readEntry(f, entNo, buf);
+                if (ent.getLong(0) != key)
                     break;
-                Move m = ent.getMove(pos);
+                Move m = decodeMove(ent.getShort(8) & 0xffff, pos);
                 BookEntry be = new BookEntry(m);
-                be.weight = ent.getWeight();
+                be.weight = ent.getShort(10) & 0xffff;
                 ret.add(be);
-                entNo++;
             }
             return ret;
         } catch (IOException e) {
             return null;
         }
     }
+
+    private static void readEntry(RandomAccessFile f, long entNo, byte[] buf) throws IOException {
+        f.seek(entNo * 16);
+        f.readFully(buf);
+    }
 }
@@ -367,6 +367,11 @@ public class DroidComputerPlayer {
         return book.getAllBookMoves(posInput, localized);
     }
 
+    /** Return opening book cache statistics, or an empty string if not available. */
+    public final String getBookCacheInfo() {
+        return book.getCacheInfo();
+    }
+
     /** Get engine reported name. */
     public final synchronized String getEngineName() {
         return engineName;
@@ -878,7 +883,7 @@ public class DroidComputerPlayer {
                     canPonder = false;
                 if (canPonder) {
                     tmpPos.makeMove(nextPonderMove, ui);
-                    if (MoveGen.instance.legalMoves(tmpPos).isEmpty())
+                    if (!MoveGen.instance.hasLegalMoves(tmpPos))
                         canPonder = false;
                 }
             }
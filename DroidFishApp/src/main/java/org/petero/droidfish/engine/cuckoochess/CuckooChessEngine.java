@@ -147,7 +147,7 @@ public class CuckooChessEngine extends UCIEngineBase {
                     }
                     if ((idx < tokens.length) && tokens[idx++].equals("value")) {
                         while ((idx < tokens.length)) {
-                            optionValue.append(tokens[idx++].toLowerCase(Locale.US));
+                            optionValue.append(tokens[idx++]);
                             optionValue.append(' ');
                         }
                     }
@@ -245,7 +245,7 @@ public class CuckooChessEngine extends UCIEngineBase {
                 engine.ponderHit();
             } else if (cmd.equals("quit")) {
                 if (engine != null) {
-                    engine.stopSearch();
+                    engine.shutdown();
                 }
                 quit = true;
             }
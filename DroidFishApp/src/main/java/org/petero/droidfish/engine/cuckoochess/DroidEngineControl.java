@@ -26,6 +26,8 @@ import chess.MoveGen;
 import chess.Piece;
 import chess.Position;
 import chess.Search;
+import chess.SearchThreads;
+import chess.Syzygy;
 import chess.TextIO;
 import chess.TranspositionTable;
 import chess.TranspositionTable.TTEntry;
@@ -42,9 +44,13 @@ import org.petero.droidfish.engine.LocalPipe;
 public class DroidEngineControl {
     LocalPipe os;
 
-    private Thread engineThread;
+    private Thread engineThread;        // Search worker thread, created when first needed
     private final Object threadMutex;
+    private Runnable pendingSearch;     // Search waiting to be started by the worker thread
+    private boolean searchActive;       // True until bestmove has been sent for the current search
+    private boolean shutdown;           // True when the worker thread shall terminate
     private Search sc;
+    private final SearchThreads searchThreads; // Evaluation hash tables, kept between searches
     private TranspositionTable tt;
     private History ht;
     private MoveGen moveGen;
@@ -64,6 +70,8 @@ public class DroidEngineControl {
 
     // Options
     private int hashSizeMB = 2;
+    private int multiPV = 1;
+    private int tbProbeLimit = 6;
     private boolean ownBook = false;
     private boolean analyseMode = false;
     private boolean ponderMode = true;
@@ -94,7 +102,7 @@ public class DroidEngineControl {
             os.printLine("info currmove %s currmovenumber %d", moveToString(m), moveNr);
         }
 
-        public void notifyPV(int depth, int score, int time, long nodes, int nps, boolean isMate,
+        public void notifyPV(int depth, int pvNum, int score, int time, long nodes, int nps, boolean isMate,
                 boolean upperBound, boolean lowerBound, ArrayList<Move> pv) {
             StringBuilder pvBuf = new StringBuilder();
             for (Move m : pv) {
@@ -107,8 +115,8 @@ public class DroidEngineControl {
             } else if (lowerBound) {
                 bound = " lowerbound";
             }
-            os.printLine("info depth %d score %s %d%s time %d nodes %d nps %d pv%s",
-                    depth, isMate ? "mate" : "cp", score, bound, time, nodes, nps, pvBuf.toString());
+            os.printLine("info depth %d multipv %d score %s %d%s time %d nodes %d nps %d pv%s",
+                    depth, pvNum, isMate ? "mate" : "cp", score, bound, time, nodes, nps, pvBuf.toString());
         }
 
         public void notifyStats(long nodes, int nps, int time) {
@@ -119,6 +127,7 @@ public class DroidEngineControl {
     public DroidEngineControl(LocalPipe os) {
         this.os = os;
         threadMutex = new Object();
+        searchThreads = new SearchThreads();
         setupTT();
         ht = new History();
         moveGen = new MoveGen();
@@ -153,8 +162,11 @@ public class DroidEngineControl {
             }
             mySearch.timeLimit(minTimeLimit, maxTimeLimit);
         }
-        infinite = (maxTimeLimit < 0) && (maxDepth < 0) && (maxNodes < 0);
-        ponder = false;
+        synchronized (threadMutex) {
+            infinite = (maxTimeLimit < 0) && (maxDepth < 0) && (maxNodes < 0);
+            ponder = false;
+            threadMutex.notifyAll();
+        }
     }
 
     final public void stopSearch() {
@@ -214,14 +226,23 @@ public class DroidEngineControl {
 
     private void startThread(final int minTimeLimit, final int maxTimeLimit,
                              int maxDepth, final int maxNodes) {
-        synchronized (threadMutex) {} // Must not start new search until old search is finished
-        sc = new Search(pos, posHashList, posHashListSize, tt, ht);
+        synchronized (threadMutex) { // Must not start new search until old search is finished
+            while (searchActive) {
+                try {
+                    threadMutex.wait();
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException();
+                }
+            }
+        }
+        sc = new Search(pos, posHashList, posHashListSize, tt, ht, searchThreads);
         sc.timeLimit(minTimeLimit, maxTimeLimit);
         sc.setListener(new SearchListener(os));
+        sc.setMultiPV(multiPV);
+        sc.setTBProbeLimit(tbProbeLimit);
         sc.setStrength(getStrength(), randomSeed, getMaxNPS());
         sc.nodesBetweenTimeCheck = Math.min(500, sc.nodesBetweenTimeCheck);
-        MoveGen.MoveList moves = moveGen.pseudoLegalMoves(pos);
-        MoveGen.removeIllegal(pos, moves);
+        MoveGen.MoveList moves = moveGen.legalMoves(pos);
         if ((searchMoves != null) && (searchMoves.size() > 0))
             moves.filter(searchMoves);
         final MoveGen.MoveList srchMoves = moves;
@@ -234,62 +255,106 @@ public class DroidEngineControl {
         }
         tt.nextGeneration();
         final int srchmaxDepth = maxDepth;
-        Runnable run = () -> {
+        final Runnable run = () -> {
             Move m = null;
-            if (ownBook && !analyseMode) {
-                Book book = new Book(false);
-                m = book.getBookMove(pos);
-            }
-            if (m == null) {
-                m = sc.iterativeDeepening(srchMoves, srchmaxDepth, maxNodes, false);
-            }
-            while (ponder || infinite) {
-                // We should not respond until told to do so. Just wait until
-                // we are allowed to respond.
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException ex) {
-                    break;
+            Move ponderMove = null;
+            try {
+                if (ownBook && !analyseMode) {
+                    Book book = new Book(false);
+                    m = book.getBookMove(pos);
+                }
+                if (m == null) {
+                    m = sc.iterativeDeepening(srchMoves, srchmaxDepth, maxNodes, false);
+                }
+                ponderMove = getPonderMove(pos, m);
+            } finally {
+                // Always report a move and end the search, so that startThread()
+                // and stopThread() don't wait forever if the search fails
+                synchronized (threadMutex) {
+                    while (ponder || infinite) {
+                        // We should not respond until told to do so. Just wait until
+                        // we are allowed to respond.
+                        try {
+                            threadMutex.wait();
+                        } catch (InterruptedException ex) {
+                            break;
+                        }
+                    }
+                    if (ponderMove != null) {
+                        os.printLine("bestmove %s ponder %s", moveToString(m), moveToString(ponderMove));
+                    } else {
+                        os.printLine("bestmove %s", moveToString(m));
+                    }
+                    sc = null;
+                    searchActive = false;
+                    threadMutex.notifyAll();
                 }
             }
-            Move ponderMove = getPonderMove(pos, m);
+        };
+        synchronized (threadMutex) {
+            pendingSearch = run;
+            searchActive = true;
+            if ((engineThread == null) || !engineThread.isAlive()) {
+                ThreadGroup tg = new ThreadGroup("searcher");
+                engineThread = new Thread(tg, this::workerLoop, "searcher", 32768);
+                engineThread.setDaemon(true);
+                engineThread.start();
+            }
+            threadMutex.notifyAll();
+        }
+    }
+
+    /** Run searches posted by startThread() until shutdown() is called. */
+    private void workerLoop() {
+        while (true) {
+            Runnable job;
             synchronized (threadMutex) {
-                if (ponderMove != null) {
-                    os.printLine("bestmove %s ponder %s", moveToString(m), moveToString(ponderMove));
-                } else {
-                    os.printLine("bestmove %s", moveToString(m));
+                while ((pendingSearch == null) && !shutdown) {
+                    try {
+                        threadMutex.wait();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
                 }
-                engineThread = null;
-                sc = null;
+                if (pendingSearch == null)
+                    return;
+                job = pendingSearch;
+                pendingSearch = null;
             }
-        };
-        ThreadGroup tg = new ThreadGroup("searcher");
-        engineThread = new Thread(tg, run, "searcher", 32768);
-        engineThread.start();
+            job.run();
+        }
     }
 
     private void stopThread() {
-        Thread myThread;
-        Search mySearch;
         synchronized (threadMutex) {
-            myThread = engineThread;
-            mySearch = sc;
-        }
-        if (myThread != null) {
-            mySearch.timeLimit(0, 0);
+            if (!searchActive)
+                return;
+            sc.timeLimit(0, 0);
             infinite = false;
             ponder = false;
-            try {
-                myThread.join();
-            } catch (InterruptedException ex) {
-                throw new RuntimeException();
+            threadMutex.notifyAll();
+            while (searchActive) {
+                try {
+                    threadMutex.wait();
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException();
+                }
             }
         }
     }
 
+    /** Stop the current search, if any, and terminate the search worker thread. */
+    final public void shutdown() {
+        stopThread();
+        synchronized (threadMutex) {
+            shutdown = true;
+            threadMutex.notifyAll();
+        }
+    }
+
 
     private void setupTT() {
-        int nEntries = hashSizeMB > 0 ? hashSizeMB * (1 << 20) / 24 : 1024;
+        int nEntries = hashSizeMB > 0 ? (int)((long)hashSizeMB * (1 << 20) / TranspositionTable.bytesPerEntry) : 1024;
         int logSize = (int) Math.floor(Math.log(nEntries) / Math.log(2));
         tt = new TranspositionTable(logSize);
     }
@@ -318,8 +383,7 @@ public class DroidEngineControl {
         if (ent.type != TTEntry.T_EMPTY) {
             ret = new Move(0, 0, 0);
             ent.getMove(ret);
-            MoveGen.MoveList moves = moveGen.pseudoLegalMoves(pos);
-            MoveGen.removeIllegal(pos, moves);
+            MoveGen.MoveList moves = moveGen.legalMoves(pos);
             if (!Arrays.asList(moves.m).contains(ret)) {
                 ret = null;
             }
@@ -358,6 +422,9 @@ public class DroidEngineControl {
 
     static void printOptions(LocalPipe os) {
         os.printLine("option name Hash type spin default 2 min 1 max 2048");
+        os.printLine("option name MultiPV type spin default 1 min 1 max 256");
+        os.printLine("option name SyzygyPath type string default <empty>");
+        os.printLine("option name SyzygyProbeLimit type spin default 6 min 0 max 6");
         os.printLine("option name OwnBook type check default false");
         os.printLine("option name Ponder type check default true");
         os.printLine("option name UCI_AnalyseMode type check default false");
@@ -374,6 +441,12 @@ public class DroidEngineControl {
             if (optionName.equals("hash")) {
                 hashSizeMB = Integer.parseInt(optionValue);
                 setupTT();
+            } else if (optionName.equals("multipv")) {
+                multiPV = clamp(Integer.parseInt(optionValue), 1, 256);
+            } else if (optionName.equals("syzygypath")) {
+                Syzygy.initialize(optionValue.equals("<empty>") ? "" : optionValue);
+            } else if (optionName.equals("syzygyprobelimit")) {
+                tbProbeLimit = clamp(Integer.parseInt(optionValue), 0, 6);
             } else if (optionName.equals("ownbook")) {
                 ownBook = Boolean.parseBoolean(optionValue);
             } else if (optionName.equals("ponder")) {
@@ -719,6 +719,7 @@ public class DroidChessController {
         private boolean whiteMove = true;
         private String bookInfo = "";
         private ArrayList<Move> bookMoves = null;
+        private String bookCacheInfo = "";
         private String eco = ""; // ECO classification
         private int distToEcoTree = 0; // Number of plies since game was in the "ECO tree".
 
@@ -733,6 +734,7 @@ public class DroidChessController {
             currDepth = 0;
             bookInfo = "";
             bookMoves = null;
+            bookCacheInfo = "";
             eco = "";
             distToEcoTree = 0;
             setSearchInfo(id);
@@ -804,6 +806,7 @@ public class DroidChessController {
             ti.pvStr = newPV;
             ti.statStr = statStr;
             ti.bookInfo = bookInfo;
+            ti.bookCacheInfo = bookCacheInfo;
             ti.eco = eco;
             ti.distToEcoTree = distToEcoTree;
             ti.pvMoves = pvMoves;
@@ -899,9 +902,10 @@ public class DroidChessController {
 
         @Override
         public void notifyBookInfo(int id, String bookInfo, ArrayList<Move> moveList,
-                                   String eco, int distToEcoTree) {
+                                   String bookCacheInfo, String eco, int distToEcoTree) {
             this.bookInfo = bookInfo;
             bookMoves = moveList;
+            this.bookCacheInfo = bookCacheInfo;
             this.eco = eco;
             this.distToEcoTree = distToEcoTree;
             setSearchInfo(id);
@@ -961,9 +965,10 @@ public class DroidChessController {
         if (game != null) {
             BookPosInput posInput = new BookPosInput(game);
             Pair<String, ArrayList<Move>> bi = computerPlayer.getBookHints(posInput, localPt());
+            String cacheInfo = computerPlayer.getBookCacheInfo();
             EcoDb.Result ecoData = EcoDb.getInstance().getEco(game.tree);
             String eco = ecoData.getName();
-            listener.notifyBookInfo(searchId, bi.first, bi.second, eco, ecoData.distToEcoTree);
+            listener.notifyBookInfo(searchId, bi.first, bi.second, cacheInfo, eco, ecoData.distToEcoTree);
         }
     }
 
@@ -1005,7 +1010,7 @@ public class DroidChessController {
                 listener.clearSearchInfo(searchId);
                 EcoDb.Result ecoData = EcoDb.getInstance().getEco(game.tree);
                 String eco = ecoData.getName();
-                listener.notifyBookInfo(searchId, "", null, eco, ecoData.distToEcoTree);
+                listener.notifyBookInfo(searchId, "", null, "", eco, ecoData.distToEcoTree);
                 final Pair<Position, ArrayList<Move>> ph = game.getUCIHistory();
                 Position currPos = new Position(game.currPos());
                 long now = System.currentTimeMillis();
@@ -247,7 +247,7 @@ public class Game {
         Position pos = currPos();
         UndoInfo ui = new UndoInfo();
         pos.makeMove(m, ui);
-        boolean gameEnd = MoveGen.instance.legalMoves(pos).isEmpty();
+        boolean gameEnd = !MoveGen.instance.hasLegalMoves(pos);
         pos.unMakeMove(m, ui);
         return gameEnd;
     }
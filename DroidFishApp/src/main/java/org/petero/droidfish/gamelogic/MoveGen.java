@@ -20,6 +20,8 @@ package org.petero.droidfish.gamelogic;
 
 import java.util.ArrayList;
 
+import chess.BitBoard;
+
 
 public class MoveGen {
     public static MoveGen instance;
@@ -27,13 +29,281 @@ public class MoveGen {
         instance = new MoveGen();
     }
 
+    /** Max number of moves that legalMoves(Position, int[]) can generate. */
+    public static final int MAX_MOVES = 256;
+
+    private static final ThreadLocal<int[]> moveBuffer = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[MAX_MOVES];
+        }
+    };
+
+    /** Return a move array of size MAX_MOVES owned by the calling thread.
+     *  The caller must not call code that also uses this array while the
+     *  generated moves are still needed. */
+    public static int[] getMoveBuffer() {
+        return moveBuffer.get();
+    }
+
     /** Generate and return a list of legal moves. */
     public final ArrayList<Move> legalMoves(Position pos) {
-        ArrayList<Move> moveList = pseudoLegalMoves(pos);
-        moveList = MoveGen.removeIllegal(pos, moveList);
+        int[] moves = new int[MAX_MOVES];
+        int nMoves = legalMoves(pos, moves);
+        ArrayList<Move> moveList = new ArrayList<>(nMoves);
+        for (int i = 0; i < nMoves; i++)
+            moveList.add(toMove(moves[i]));
         return moveList;
     }
 
+    /** Return true if the side to move has at least one legal move. */
+    public final boolean hasLegalMoves(Position pos) {
+        return legalMoves(pos, null) > 0;
+    }
+
+    /** Convert a move returned by legalMoves(Position, int[]) to a Move object. */
+    public static Move toMove(int move) {
+        return new Move(move & 63, (move >> 6) & 63, move >> 12);
+    }
+
+    /**
+     * Generate all legal moves without creating any objects. Each move is stored
+     * as from + (to << 6) + (promoteTo << 12).
+     * Pinned pieces and check evasions are handled using bitboard masks,
+     * so unlike removeIllegal() no moves have to be made on the board.
+     * @param moves  Array of size MAX_MOVES to store the moves in, or null to stop
+     *               as soon as the first legal move has been found.
+     * @return The number of legal moves, or if moves is null, a positive number
+     *         if there is at least one legal move and 0 otherwise.
+     */
+    public final int legalMoves(Position pos, int[] moves) {
+        int nMoves = 0;
+        final boolean wtm = pos.whiteMove;
+        final long occupied = pos.whiteBB | pos.blackBB;
+        final long ownBB = wtm ? pos.whiteBB : pos.blackBB;
+        final long oppBB = wtm ? pos.blackBB : pos.whiteBB;
+        final long kingBB = pos.pieceTypeBB[wtm ? Piece.WKING : Piece.BKING];
+        final int kSq = (kingBB != 0) ? BitBoard.numberOfTrailingZeros(kingBB) : -1;
+
+        long checkers = 0;
+        long pinned = 0;
+        if (kSq >= 0) {
+            checkers = attackersTo(pos, kSq, occupied, !wtm);
+            final long oRookQueen = pos.pieceTypeBB[wtm ? Piece.BROOK : Piece.WROOK] |
+                                    pos.pieceTypeBB[wtm ? Piece.BQUEEN : Piece.WQUEEN];
+            final long oBishQueen = pos.pieceTypeBB[wtm ? Piece.BBISHOP : Piece.WBISHOP] |
+                                    pos.pieceTypeBB[wtm ? Piece.BQUEEN : Piece.WQUEEN];
+            long snipers = (BitBoard.rookAttacks(kSq, oppBB) & oRookQueen) |
+                           (BitBoard.bishopAttacks(kSq, oppBB) & oBishQueen);
+            while (snipers != 0) {
+                int sq = BitBoard.numberOfTrailingZeros(snipers);
+                long between = BitBoard.squaresBetween[kSq][sq] & occupied;
+                if ((between != 0) && ((between & (between-1)) == 0))
+                    pinned |= between & ownBB;
+                snipers &= snipers-1;
+            }
+        }
+
+        // Squares non-king moves must go to
+        long targets = ~ownBB;
+        if (checkers != 0) {
+            if ((checkers & (checkers-1)) != 0) {
+                targets = 0; // Double check, only king moves possible
+            } else {
+                int sq = BitBoard.numberOfTrailingZeros(checkers);
+                targets = checkers | BitBoard.squaresBetween[kSq][sq];
+            }
+        }
+
+        // King moves
+        if (kSq >= 0) {
+            long m = BitBoard.kingAttacks[kSq] & ~ownBB;
+            final long occNoKing = occupied & ~(1L << kSq);
+            while (m != 0) {
+                int sq = BitBoard.numberOfTrailingZeros(m);
+                if (attackersTo(pos, sq, occNoKing, !wtm) == 0)
+                    nMoves = addMove(moves, nMoves, kSq, sq, Piece.EMPTY);
+                m &= m-1;
+            }
+            final int k0 = wtm ? 4 : 60;
+            if ((kSq == k0) && (checkers == 0)) {
+                final long OO_SQ = 0x60L << (k0 - 4);
+                final long OOO_SQ = 0xEL << (k0 - 4);
+                final int rook = wtm ? Piece.WROOK : Piece.BROOK;
+                if (((pos.getCastleMask() & (1 << (wtm ? Position.H1_CASTLE : Position.H8_CASTLE))) != 0) &&
+                    ((OO_SQ & occupied) == 0) &&
+                    (pos.getPiece(k0 + 3) == rook) &&
+                    (attackersTo(pos, k0 + 1, occupied, !wtm) == 0) &&
+                    (attackersTo(pos, k0 + 2, occupied, !wtm) == 0)) {
+                    nMoves = addMove(moves, nMoves, k0, k0 + 2, Piece.EMPTY);
+                }
+                if (((pos.getCastleMask() & (1 << (wtm ? Position.A1_CASTLE : Position.A8_CASTLE))) != 0) &&
+                    ((OOO_SQ & occupied) == 0) &&
+                    (pos.getPiece(k0 - 4) == rook) &&
+                    (attackersTo(pos, k0 - 1, occupied, !wtm) == 0) &&
+                    (attackersTo(pos, k0 - 2, occupied, !wtm) == 0)) {
+                    nMoves = addMove(moves, nMoves, k0, k0 - 2, Piece.EMPTY);
+                }
+            }
+        }
+        if ((targets == 0) || ((moves == null) && (nMoves > 0)))
+            return nMoves;
+
+        // Queen, rook and bishop moves
+        long squares = pos.pieceTypeBB[wtm ? Piece.WQUEEN : Piece.BQUEEN] |
+                       pos.pieceTypeBB[wtm ? Piece.WROOK : Piece.BROOK] |
+                       pos.pieceTypeBB[wtm ? Piece.WBISHOP : Piece.BBISHOP];
+        final long rookQueen = pos.pieceTypeBB[wtm ? Piece.WQUEEN : Piece.BQUEEN] |
+                               pos.pieceTypeBB[wtm ? Piece.WROOK : Piece.BROOK];
+        final long bishQueen = pos.pieceTypeBB[wtm ? Piece.WQUEEN : Piece.BQUEEN] |
+                               pos.pieceTypeBB[wtm ? Piece.WBISHOP : Piece.BBISHOP];
+        while (squares != 0) {
+            int sq = BitBoard.numberOfTrailingZeros(squares);
+            long m = 0;
+            if ((rookQueen & (1L << sq)) != 0)
+                m |= BitBoard.rookAttacks(sq, occupied);
+            if ((bishQueen & (1L << sq)) != 0)
+                m |= BitBoard.bishopAttacks(sq, occupied);
+            m &= targets;
+            if ((pinned & (1L << sq)) != 0)
+                m &= pinLine(kSq, sq);
+            nMoves = addMovesByMask(moves, nMoves, sq, m);
+            squares &= squares-1;
+        }
+
+        // Knight moves. A pinned knight can never move.
+        long knights = pos.pieceTypeBB[wtm ? Piece.WKNIGHT : Piece.BKNIGHT] & ~pinned;
+        while (knights != 0) {
+            int sq = BitBoard.numberOfTrailingZeros(knights);
+            nMoves = addMovesByMask(moves, nMoves, sq, BitBoard.knightAttacks[sq] & targets);
+            knights &= knights-1;
+        }
+        if ((moves == null) && (nMoves > 0))
+            return nMoves;
+
+        // Pawn moves
+        long pawns = pos.pieceTypeBB[wtm ? Piece.WPAWN : Piece.BPAWN];
+        nMoves = addLegalPawnMoves(moves, nMoves, pos, pawns & ~pinned, targets);
+        long pinnedPawns = pawns & pinned;
+        while (pinnedPawns != 0) {
+            int sq = BitBoard.numberOfTrailingZeros(pinnedPawns);
+            nMoves = addLegalPawnMoves(moves, nMoves, pos, 1L << sq, targets & pinLine(kSq, sq));
+            pinnedPawns &= pinnedPawns-1;
+        }
+
+        // En passant. Test by updating the occupancy, since the move removes
+        // two pieces from the king's neighborhood rays.
+        int epSquare = pos.getEpSquare();
+        if (epSquare >= 0) {
+            int capSq = epSquare + (wtm ? -8 : 8);
+            long from = pawns & (wtm ? BitBoard.bPawnAttacks[epSquare] : BitBoard.wPawnAttacks[epSquare]);
+            while (from != 0) {
+                int sq = BitBoard.numberOfTrailingZeros(from);
+                long occ = (occupied & ~(1L << sq) & ~(1L << capSq)) | (1L << epSquare);
+                if ((kSq < 0) || (attackersTo(pos, kSq, occ, !wtm) == 0))
+                    nMoves = addMove(moves, nMoves, sq, epSquare, Piece.EMPTY);
+                from &= from-1;
+            }
+        }
+        return nMoves;
+    }
+
+    /**
+     * Add legal non-en passant pawn moves for the pawns in "pawns", restricted
+     * to destination squares in "targets".
+     */
+    private static int addLegalPawnMoves(int[] moves, int nMoves, Position pos, long pawns, long targets) {
+        final long occupied = pos.whiteBB | pos.blackBB;
+        if (pos.whiteMove) {
+            long m = (pawns << 8) & ~occupied;
+            long m2 = ((m & BitBoard.maskRow3) << 8) & ~occupied;
+            nMoves = addPawnMovesByMask(moves, nMoves, m & targets, -8, true);
+            nMoves = addPawnMovesByMask(moves, nMoves, m2 & targets, -16, true);
+            m = (pawns << 7) & BitBoard.maskAToGFiles & pos.blackBB & targets;
+            nMoves = addPawnMovesByMask(moves, nMoves, m, -7, true);
+            m = (pawns << 9) & BitBoard.maskBToHFiles & pos.blackBB & targets;
+            nMoves = addPawnMovesByMask(moves, nMoves, m, -9, true);
+        } else {
+            long m = (pawns >>> 8) & ~occupied;
+            long m2 = ((m & BitBoard.maskRow6) >>> 8) & ~occupied;
+            nMoves = addPawnMovesByMask(moves, nMoves, m & targets, 8, false);
+            nMoves = addPawnMovesByMask(moves, nMoves, m2 & targets, 16, false);
+            m = (pawns >>> 9) & BitBoard.maskAToGFiles & pos.whiteBB & targets;
+            nMoves = addPawnMovesByMask(moves, nMoves, m, 9, false);
+            m = (pawns >>> 7) & BitBoard.maskBToHFiles & pos.whiteBB & targets;
+            nMoves = addPawnMovesByMask(moves, nMoves, m, 7, false);
+        }
+        return nMoves;
+    }
+
+    /** Add pawn moves to the squares in mask, coming from square + delta. */
+    private static int addPawnMovesByMask(int[] moves, int nMoves, long mask, int delta, boolean white) {
+        while (mask != 0) {
+            int sq = BitBoard.numberOfTrailingZeros(mask);
+            if ((sq >= 56) || (sq < 8)) {
+                nMoves = addMove(moves, nMoves, sq + delta, sq, white ? Piece.WQUEEN  : Piece.BQUEEN);
+                nMoves = addMove(moves, nMoves, sq + delta, sq, white ? Piece.WKNIGHT : Piece.BKNIGHT);
+                nMoves = addMove(moves, nMoves, sq + delta, sq, white ? Piece.WROOK   : Piece.BROOK);
+                nMoves = addMove(moves, nMoves, sq + delta, sq, white ? Piece.WBISHOP : Piece.BBISHOP);
+            } else {
+                nMoves = addMove(moves, nMoves, sq + delta, sq, Piece.EMPTY);
+            }
+            mask &= mask-1;
+        }
+        return nMoves;
+    }
+
+    private static int addMovesByMask(int[] moves, int nMoves, int from, long mask) {
+        while (mask != 0) {
+            int sq = BitBoard.numberOfTrailingZeros(mask);
+            nMoves = addMove(moves, nMoves, from, sq, Piece.EMPTY);
+            mask &= mask-1;
+        }
+        return nMoves;
+    }
+
+    private static int addMove(int[] moves, int nMoves, int from, int to, int promoteTo) {
+        if (moves != null)
+            moves[nMoves] = from + (to << 6) + (promoteTo << 12);
+        return nMoves + 1;
+    }
+
+    /**
+     * Return the squares on the line through kSq and sq, excluding kSq and sq.
+     * kSq and sq must be on the same rank, file or diagonal.
+     */
+    private static long pinLine(int kSq, int sq) {
+        int d = BitBoard.getDirection(kSq, sq);
+        if ((d == 1) || (d == -1) || (d == 8) || (d == -8))
+            return BitBoard.rookAttacks(kSq, 0) & BitBoard.rookAttacks(sq, 0);
+        return BitBoard.bishopAttacks(kSq, 0) & BitBoard.bishopAttacks(sq, 0);
+    }
+
+    /**
+     * Return a bitboard of all pieces of the given color that attack sq,
+     * assuming "occupied" is the set of occupied squares. Pieces not in
+     * "occupied" are ignored.
+     */
+    private static long attackersTo(Position pos, int sq, long occupied, boolean white) {
+        long atk;
+        if (white) {
+            atk = (BitBoard.knightAttacks[sq] & pos.pieceTypeBB[Piece.WKNIGHT]) |
+                  (BitBoard.kingAttacks[sq] & pos.pieceTypeBB[Piece.WKING]) |
+                  (BitBoard.bPawnAttacks[sq] & pos.pieceTypeBB[Piece.WPAWN]);
+            long bbQueen = pos.pieceTypeBB[Piece.WQUEEN];
+            atk |= BitBoard.bishopAttacks(sq, occupied) & (pos.pieceTypeBB[Piece.WBISHOP] | bbQueen);
+            atk |= BitBoard.rookAttacks(sq, occupied) & (pos.pieceTypeBB[Piece.WROOK] | bbQueen);
+        } else {
+            atk = (BitBoard.knightAttacks[sq] & pos.pieceTypeBB[Piece.BKNIGHT]) |
+                  (BitBoard.kingAttacks[sq] & pos.pieceTypeBB[Piece.BKING]) |
+                  (BitBoard.wPawnAttacks[sq] & pos.pieceTypeBB[Piece.BPAWN]);
+            long bbQueen = pos.pieceTypeBB[Piece.BQUEEN];
+            atk |= BitBoard.bishopAttacks(sq, occupied) & (pos.pieceTypeBB[Piece.BBISHOP] | bbQueen);
+            atk |= BitBoard.rookAttacks(sq, occupied) & (pos.pieceTypeBB[Piece.BROOK] | bbQueen);
+        }
+        return atk & occupied;
+    }
+
     /**
      * Generate and return a list of pseudo-legal moves.
      * Pseudo-legal means that the moves don't necessarily defend from check threats.
@@ -157,65 +427,17 @@ public class MoveGen {
      * Return true if the side to move is in check.
      */
     public static boolean inCheck(Position pos) {
-        int kingSq = pos.getKingSq(pos.whiteMove);
-        if (kingSq < 0)
+        long kingBB = pos.pieceTypeBB[pos.whiteMove ? Piece.WKING : Piece.BKING];
+        if (kingBB == 0)
             return false;
-        return sqAttacked(pos, kingSq);
+        return sqAttacked(pos, BitBoard.numberOfTrailingZeros(kingBB));
     }
 
     /**
      * Return true if a square is attacked by the opposite side.
      */
     private static boolean sqAttacked(Position pos, int sq) {
-        int x = Position.getX(sq);
-        int y = Position.getY(sq);
-        boolean isWhiteMove = pos.whiteMove;
-
-        final int oQueen= isWhiteMove ? Piece.BQUEEN: Piece.WQUEEN;
-        final int oRook = isWhiteMove ? Piece.BROOK : Piece.WROOK;
-        final int oBish = isWhiteMove ? Piece.BBISHOP : Piece.WBISHOP;
-        final int oKnight = isWhiteMove ? Piece.BKNIGHT : Piece.WKNIGHT;
-
-        int p;
-        if (y > 0) {
-            p = checkDirection(pos, sq,   y, -8); if ((p == oQueen) || (p == oRook)) return true;
-            p = checkDirection(pos, sq, Math.min(  x,   y), -9); if ((p == oQueen) || (p == oBish)) return true;
-            p = checkDirection(pos, sq, Math.min(7-x,   y), -7); if ((p == oQueen) || (p == oBish)) return true;
-            if (x > 1         ) { p = checkDirection(pos, sq, 1, -10); if (p == oKnight) return true; }
-            if (x > 0 && y > 1) { p = checkDirection(pos, sq, 1, -17); if (p == oKnight) return true; }
-            if (x < 7 && y > 1) { p = checkDirection(pos, sq, 1, -15); if (p == oKnight) return true; }
-            if (x < 6         ) { p = checkDirection(pos, sq, 1,  -6); if (p == oKnight) return true; }
-
-            if (!isWhiteMove) {
-                if (x < 7 && y > 1) { p = checkDirection(pos, sq, 1, -7); if (p == Piece.WPAWN) return true; }
-                if (x > 0 && y > 1) { p = checkDirection(pos, sq, 1, -9); if (p == Piece.WPAWN) return true; }
-            }
-        }
-        if (y < 7) {
-            p = checkDirection(pos, sq, 7-y,  8); if ((p == oQueen) || (p == oRook)) return true;
-            p = checkDirection(pos, sq, Math.min(7-x, 7-y),  9); if ((p == oQueen) || (p == oBish)) return true;
-            p = checkDirection(pos, sq, Math.min(  x, 7-y),  7); if ((p == oQueen) || (p == oBish)) return true;
-            if (x < 6         ) { p = checkDirection(pos, sq, 1,  10); if (p == oKnight) return true; }
-            if (x < 7 && y < 6) { p = checkDirection(pos, sq, 1,  17); if (p == oKnight) return true; }
-            if (x > 0 && y < 6) { p = checkDirection(pos, sq, 1,  15); if (p == oKnight) return true; }
-            if (x > 1         ) { p = checkDirection(pos, sq, 1,   6); if (p == oKnight) return true; }
-            if (isWhiteMove) {
-                if (x < 7 && y < 6) { p = checkDirection(pos, sq, 1, 9); if (p == Piece.BPAWN) return true; }
-                if (x > 0 && y < 6) { p = checkDirection(pos, sq, 1, 7); if (p == Piece.BPAWN) return true; }
-            }
-        }
-        p = checkDirection(pos, sq, 7-x,  1); if ((p == oQueen) || (p == oRook)) return true;
-        p = checkDirection(pos, sq,   x, -1); if ((p == oQueen) || (p == oRook)) return true;
-
-        int oKingSq = pos.getKingSq(!isWhiteMove);
-        if (oKingSq >= 0) {
-            int ox = Position.getX(oKingSq);
-            int oy = Position.getY(oKingSq);
-            if ((Math.abs(x - ox) <= 1) && (Math.abs(y - oy) <= 1))
-                return true;
-        }
-
-        return false;
+        return attackersTo(pos, sq, pos.whiteBB | pos.blackBB, !pos.whiteMove) != 0;
     }
 
     /**
@@ -289,24 +511,6 @@ public class MoveGen {
         }
     }
 
-    /**
-     * Check if there is an attacking piece in a given direction starting from sq.
-     * The direction is given by delta.
-     * @param maxSteps Max steps until reaching a border. Set to 1 for non-sliding pieces.
-     * @return The first piece in the given direction, or EMPTY if there is no piece
-     *         in that direction.
-     */
-    private static int checkDirection(Position pos, int sq, int maxSteps, int delta) {
-        while (maxSteps > 0) {
-            sq += delta;
-            int p = pos.getPiece(sq);
-            if (p != Piece.EMPTY)
-                return p;
-            maxSteps--;
-        }
-        return Piece.EMPTY;
-    }
-
     private static Move getMoveObj(int from, int to, int promoteTo) {
         return new Move(from, to, promoteTo);
     }
@@ -31,6 +31,10 @@ import java.security.NoSuchAlgorithmException;
 public class Position {
     private int[] squares;
 
+    // Bitboards, kept in sync with squares[]. Bit number = square number.
+    final long[] pieceTypeBB;
+    long whiteBB, blackBB;
+
     public boolean whiteMove;
 
     /** Bit definitions for the castleMask bit mask. */
@@ -57,6 +61,9 @@ public class Position {
         squares = new int[64];
         for (int i = 0; i < 64; i++)
             squares[i] = Piece.EMPTY;
+        pieceTypeBB = new long[Piece.nPieceTypes];
+        pieceTypeBB[Piece.EMPTY] = ~0L;
+        whiteBB = blackBB = 0L;
         whiteMove = true;
         castleMask = 0;
         epSquare = -1;
@@ -69,6 +76,10 @@ public class Position {
     public Position(Position other) {
         squares = new int[64];
         System.arraycopy(other.squares, 0, squares, 0, 64);
+        pieceTypeBB = new long[Piece.nPieceTypes];
+        System.arraycopy(other.pieceTypeBB, 0, pieceTypeBB, 0, Piece.nPieceTypes);
+        whiteBB = other.whiteBB;
+        blackBB = other.blackBB;
         whiteMove = other.whiteMove;
         castleMask = other.castleMask;
         epSquare = other.epSquare;
@@ -162,6 +173,23 @@ public class Position {
         // Update board
         squares[square] = piece;
 
+        // Update bitboards
+        final long sqMask = 1L << square;
+        pieceTypeBB[oldPiece] &= ~sqMask;
+        pieceTypeBB[piece] |= sqMask;
+        if (oldPiece != Piece.EMPTY) {
+            if (Piece.isWhite(oldPiece))
+                whiteBB &= ~sqMask;
+            else
+                blackBB &= ~sqMask;
+        }
+        if (piece != Piece.EMPTY) {
+            if (Piece.isWhite(piece))
+                whiteBB |= sqMask;
+            else
+                blackBB |= sqMask;
+        }
+
         // Update king position
         if (piece == Piece.WKING) {
             wKingSq = square;
@@ -215,20 +243,12 @@ public class Position {
 
     /** Count number of pieces of a certain type. */
     public final int nPieces(int pType) {
-        int ret = 0;
-        for (int sq = 0; sq < 64; sq++)
-            if (squares[sq] == pType)
-                ret++;
-        return ret;
+        return Long.bitCount(pieceTypeBB[pType]);
     }
 
     /** Count total number of pieces. */
     public final int nPieces() {
-        int ret = 0;
-        for (int sq = 0; sq < 64; sq++)
-            if (squares[sq] != Piece.EMPTY)
-                ret++;
-        return ret;
+        return Long.bitCount(whiteBB | blackBB);
     }
 
     /** Apply a move to the current position. */
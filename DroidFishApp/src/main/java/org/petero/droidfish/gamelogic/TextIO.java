@@ -216,11 +216,14 @@ public class TextIO {
     public static void fixupEPSquare(Position pos) {
         int epSquare = pos.getEpSquare();
         if (epSquare >= 0) {
-            ArrayList<Move> moves = MoveGen.instance.legalMoves(pos);
+            int[] moves = MoveGen.getMoveBuffer();
+            int nMoves = MoveGen.instance.legalMoves(pos, moves);
             boolean epValid = false;
-            for (Move m : moves) {
-                if (m.to == epSquare) {
-                    if (pos.getPiece(m.from) == (pos.whiteMove ? Piece.WPAWN : Piece.BPAWN)) {
+            for (int i = 0; i < nMoves; i++) {
+                int from = moves[i] & 63;
+                int to = (moves[i] >> 6) & 63;
+                if (to == epSquare) {
+                    if (pos.getPiece(from) == (pos.whiteMove ? Piece.WPAWN : Piece.BPAWN)) {
                         epValid = true;
                         break;
                     }
@@ -426,8 +429,7 @@ public class TextIO {
         pos.makeMove(move, ui);
         boolean givesCheck = MoveGen.inCheck(pos);
         if (givesCheck) {
-            ArrayList<Move> nextMoves = MoveGen.instance.legalMoves(pos);
-            if (nextMoves.size() == 0) {
+            if (!MoveGen.instance.hasLegalMoves(pos)) {
                 ret.append('#');
             } else {
                 ret.append('+');
@@ -460,9 +462,11 @@ public class TextIO {
     public static boolean isValid(Position pos, Move move) {
         if (move == null)
             return false;
-        ArrayList<Move> moves = new MoveGen().legalMoves(pos);
-        for (int i = 0; i < moves.size(); i++)
-            if (move.equals(moves.get(i)))
+        int[] moves = MoveGen.getMoveBuffer();
+        int nMoves = MoveGen.instance.legalMoves(pos, moves);
+        int m = move.from + (move.to << 6) + (move.promoteTo << 12);
+        for (int i = 0; i < nMoves; i++)
+            if (moves[i] == m)
                 return true;
         return false;
     }
@@ -487,6 +491,14 @@ public class TextIO {
         if (strMove.equals("--"))
             return new Move(0, 0, 0);
 
+        int san = parseSAN(strMove, pos.whiteMove);
+        if (san >= 0)
+            return sanToMove(pos, san, moves);
+        return stringToMoveGeneric(pos, strMove, moves);
+    }
+
+    /** Parse any move format accepted by stringToMove() by matching against all legal moves. */
+    static Move stringToMoveGeneric(Position pos, String strMove, ArrayList<Move> moves) {
         strMove = strMove.replaceAll("=", "");
         strMove = strMove.replaceAll("\\+", "");
         strMove = strMove.replaceAll("#", "");
@@ -606,6 +618,257 @@ public class TextIO {
         return move;
     }
 
+    // Fields in the int returned by parseSAN()
+    private static final int SAN_TO_SHIFT = 0;      // Target square
+    private static final int SAN_FROMX_SHIFT = 6;   // Source file, 15 if unspecified
+    private static final int SAN_FROMY_SHIFT = 10;  // Source rank, 15 if unspecified
+    private static final int SAN_PIECE_SHIFT = 14;  // Moving piece
+    private static final int SAN_PROM_SHIFT = 18;   // Promotion piece, or EMPTY
+    private static final int SAN_ANY = 15;
+
+    /**
+     * Parse a move in strict SAN format, such as "e4", "Nbd7", "exd8=Q+" or "O-O",
+     * without creating any temporary objects.
+     * @return The move components packed in an int, or -1 if strMove is not in
+     *         strict SAN format and has to be handled by stringToMoveGeneric().
+     */
+    private static int parseSAN(String strMove, boolean wtm) {
+        int end = strMove.length();
+        while (end > 0) {
+            char c = strMove.charAt(end - 1);
+            if ((c != '+') && (c != '#'))
+                break;
+            end--;
+        }
+        if ((end == 3) || (end == 5)) {
+            char c0 = strMove.charAt(0);
+            if ((c0 == 'O') || (c0 == '0') || (c0 == 'o')) {
+                int toX;
+                if (strMove.regionMatches(0, "O-O-O", 0, end) ||
+                        strMove.regionMatches(0, "0-0-0", 0, end) ||
+                        strMove.regionMatches(0, "o-o-o", 0, end))
+                    toX = (end == 3) ? 6 : 2;
+                else
+                    return -1;
+                int y = wtm ? 0 : 7;
+                return makeSAN(wtm ? Piece.WKING : Piece.BKING, 4, y,
+                               Position.getSquare(toX, y), Piece.EMPTY);
+            }
+        }
+        if (end < 2)
+            return -1;
+
+        int idx = 0;
+        int piece;
+        switch (strMove.charAt(0)) {
+        case 'N': piece = wtm ? Piece.WKNIGHT : Piece.BKNIGHT; idx++; break;
+        case 'B': piece = wtm ? Piece.WBISHOP : Piece.BBISHOP; idx++; break;
+        case 'R': piece = wtm ? Piece.WROOK   : Piece.BROOK;   idx++; break;
+        case 'Q': piece = wtm ? Piece.WQUEEN  : Piece.BQUEEN;  idx++; break;
+        case 'K': piece = wtm ? Piece.WKING   : Piece.BKING;   idx++; break;
+        default:  piece = wtm ? Piece.WPAWN   : Piece.BPAWN;   break;
+        }
+
+        int prom = Piece.EMPTY;
+        char c = strMove.charAt(end - 1);
+        if ((c == 'Q') || (c == 'R') || (c == 'B') || (c == 'N')) {
+            prom = charToPiece(wtm, c);
+            end--;
+            if ((end > 0) && (strMove.charAt(end - 1) == '='))
+                end--;
+        }
+
+        if (end - idx < 2)
+            return -1;
+        int toX = strMove.charAt(end - 2) - 'a';
+        int toY = strMove.charAt(end - 1) - '1';
+        if ((toX < 0) || (toX > 7) || (toY < 0) || (toY > 7))
+            return -1;
+        end -= 2;
+        if ((end > idx) && ((strMove.charAt(end - 1) == 'x') || (strMove.charAt(end - 1) == '-')))
+            end--;
+
+        int fromX = SAN_ANY;
+        int fromY = SAN_ANY;
+        if (end > idx) {
+            int x = strMove.charAt(idx) - 'a';
+            if ((x >= 0) && (x < 8)) {
+                fromX = x;
+                idx++;
+            }
+        }
+        if ((end > idx) && (piece != Piece.WPAWN) && (piece != Piece.BPAWN)) {
+            int y = strMove.charAt(idx) - '1';
+            if ((y >= 0) && (y < 8)) {
+                fromY = y;
+                idx++;
+            }
+        }
+        if (idx != end)
+            return -1;
+        return makeSAN(piece, fromX, fromY, Position.getSquare(toX, toY), prom);
+    }
+
+    private static int makeSAN(int piece, int fromX, int fromY, int toSq, int prom) {
+        return (toSq << SAN_TO_SHIFT) | (fromX << SAN_FROMX_SHIFT) | (fromY << SAN_FROMY_SHIFT) |
+               (piece << SAN_PIECE_SHIFT) | (prom << SAN_PROM_SHIFT);
+    }
+
+    /**
+     * Find the unique legal move matching a move parsed by parseSAN().
+     * If no move list is given, the candidate source squares are found by searching
+     * backwards from the target square, so no move list has to be generated.
+     * @return The matching move, or null if there is no match or the move is ambiguous.
+     */
+    private static Move sanToMove(Position pos, int san, ArrayList<Move> moves) {
+        final int toSq  = (san >> SAN_TO_SHIFT) & 63;
+        final int fromX = (san >> SAN_FROMX_SHIFT) & 15;
+        final int fromY = (san >> SAN_FROMY_SHIFT) & 15;
+        final int piece = (san >> SAN_PIECE_SHIFT) & 15;
+        final int prom  = (san >> SAN_PROM_SHIFT) & 15;
+        final boolean wtm = pos.whiteMove;
+
+        if (moves == null) {
+            int kingSq = pos.getKingSq(wtm);
+            if ((piece == (wtm ? Piece.WKING : Piece.BKING)) &&
+                    (Math.abs(Position.getX(kingSq) - Position.getX(toSq)) > 1))
+                moves = MoveGen.instance.legalMoves(pos); // Castling
+        }
+        if (moves != null) {
+            Move ret = null;
+            for (int i = 0; i < moves.size(); i++) {
+                Move m = moves.get(i);
+                if ((m.to != toSq) || (m.promoteTo != prom) || (pos.getPiece(m.from) != piece))
+                    continue;
+                if ((fromX != SAN_ANY) && (fromX != Position.getX(m.from)))
+                    continue;
+                if ((fromY != SAN_ANY) && (fromY != Position.getY(m.from)))
+                    continue;
+                if (ret != null)
+                    return null;
+                ret = m;
+            }
+            return ret;
+        }
+
+        int toP = pos.getPiece(toSq);
+        if ((toP != Piece.EMPTY) && (Piece.isWhite(toP) == wtm))
+            return null;
+        final int x = Position.getX(toSq);
+        final int y = Position.getY(toSq);
+        int[] cand = new int[16];
+        int nCand = 0;
+        switch (Piece.makeWhite(piece)) {
+        case Piece.WKING:
+            cand[nCand++] = pos.getKingSq(wtm);
+            break;
+        case Piece.WQUEEN:
+        case Piece.WROOK:
+        case Piece.WBISHOP: {
+            boolean rook = piece != (wtm ? Piece.WBISHOP : Piece.BBISHOP);
+            boolean bish = piece != (wtm ? Piece.WROOK : Piece.BROOK);
+            if (rook) {
+                nCand = addSliderCand(pos, piece, toSq, 7-x,  1, cand, nCand);
+                nCand = addSliderCand(pos, piece, toSq, 7-y,  8, cand, nCand);
+                nCand = addSliderCand(pos, piece, toSq,   x, -1, cand, nCand);
+                nCand = addSliderCand(pos, piece, toSq,   y, -8, cand, nCand);
+            }
+            if (bish) {
+                nCand = addSliderCand(pos, piece, toSq, Math.min(7-x, 7-y),  9, cand, nCand);
+                nCand = addSliderCand(pos, piece, toSq, Math.min(  x, 7-y),  7, cand, nCand);
+                nCand = addSliderCand(pos, piece, toSq, Math.min(  x,   y), -9, cand, nCand);
+                nCand = addSliderCand(pos, piece, toSq, Math.min(7-x,   y), -7, cand, nCand);
+            }
+            break;
+        }
+        case Piece.WKNIGHT:
+            if (x < 6 && y < 7) cand[nCand++] = toSq + 10;
+            if (x < 7 && y < 6) cand[nCand++] = toSq + 17;
+            if (x > 0 && y < 6) cand[nCand++] = toSq + 15;
+            if (x > 1 && y < 7) cand[nCand++] = toSq + 6;
+            if (x > 1 && y > 0) cand[nCand++] = toSq - 10;
+            if (x > 0 && y > 1) cand[nCand++] = toSq - 17;
+            if (x < 7 && y > 1) cand[nCand++] = toSq - 15;
+            if (x < 6 && y > 0) cand[nCand++] = toSq - 6;
+            break;
+        case Piece.WPAWN: {
+            if ((prom == Piece.EMPTY) != (y != (wtm ? 7 : 0)))
+                return null;
+            int yDir = wtm ? -8 : 8;
+            if ((y == (wtm ? 0 : 7)) || (y == (wtm ? 1 : 6)))
+                return null;
+            if (toP == Piece.EMPTY) {
+                int sq = toSq + yDir;
+                if (pos.getPiece(sq) == Piece.EMPTY) {
+                    if ((y == (wtm ? 3 : 4)) && (pos.getPiece(sq + yDir) == piece))
+                        cand[nCand++] = sq + yDir;
+                } else {
+                    cand[nCand++] = sq;
+                }
+            }
+            if ((toP != Piece.EMPTY) || (toSq == pos.getEpSquare())) {
+                if (x > 0) cand[nCand++] = toSq + yDir - 1;
+                if (x < 7) cand[nCand++] = toSq + yDir + 1;
+            }
+            break;
+        }
+        default:
+            return null;
+        }
+        if ((prom != Piece.EMPTY) && (piece != (wtm ? Piece.WPAWN : Piece.BPAWN)))
+            return null;
+
+        Move ret = null;
+        UndoInfo ui = null;
+        for (int i = 0; i < nCand; i++) {
+            int fromSq = cand[i];
+            if ((fromSq < 0) || (pos.getPiece(fromSq) != piece))
+                continue;
+            if ((fromX != SAN_ANY) && (fromX != Position.getX(fromSq)))
+                continue;
+            if ((fromY != SAN_ANY) && (fromY != Position.getY(fromSq)))
+                continue;
+            if ((piece == (wtm ? Piece.WKING : Piece.BKING)) &&
+                    ((fromSq == toSq) || (Math.abs(Position.getY(fromSq) - y) > 1)))
+                continue;
+            Move m = new Move(fromSq, toSq, prom);
+            if (ui == null)
+                ui = new UndoInfo();
+            pos.makeMove(m, ui);
+            pos.setWhiteMove(!pos.whiteMove);
+            boolean legal = !MoveGen.inCheck(pos);
+            pos.setWhiteMove(!pos.whiteMove);
+            pos.unMakeMove(m, ui);
+            if (legal) {
+                if (ret != null)
+                    return null;
+                ret = m;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Search from toSq in direction delta. If the first piece found is "piece",
+     * add its square to the candidate list.
+     * @return The new number of candidates.
+     */
+    private static int addSliderCand(Position pos, int piece, int toSq, int maxSteps, int delta,
+                                     int[] cand, int nCand) {
+        int sq = toSq;
+        while (maxSteps > 0) {
+            sq += delta;
+            int p = pos.getPiece(sq);
+            if (p != Piece.EMPTY) {
+                if (p == piece)
+                    cand[nCand++] = sq;
+                break;
+            }
+            maxSteps--;
+        }
+        return nCand;
+    }
+
     /** Convert a move object to UCI string format. */
     public static String moveToUCIString(Move m) {
         String ret = squareToString(m.from);
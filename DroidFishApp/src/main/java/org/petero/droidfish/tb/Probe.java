@@ -323,11 +323,15 @@ public class Probe {
             return null;
         ArrayList<Pair<Integer,ProbeResult>> ret = new ArrayList<>();
 
-        ArrayList<Move> moveList = new MoveGen().legalMoves(pos);
+        // Copy the moves before probing, because probe() can use the move buffer
+        int[] moves = MoveGen.getMoveBuffer();
+        int nMoves = MoveGen.instance.legalMoves(pos, moves);
+        ArrayList<Move> pieceMoves = new ArrayList<>();
+        for (int i = 0; i < nMoves; i++)
+            if ((moves[i] & 63) == fromSq)
+                pieceMoves.add(MoveGen.toMove(moves[i]));
         UndoInfo ui = new UndoInfo();
-        for (Move m : moveList) {
-            if (m.from != fromSq)
-                continue;
+        for (Move m : pieceMoves) {
             pos.makeMove(m, ui);
             boolean isZeroing = pos.halfMoveClock == 0;
             ProbeResult res = probe(pos);
@@ -18,7 +18,9 @@
 
 package chess;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -26,7 +28,10 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /** Implements an opening book. */
 public class Book {
@@ -38,15 +43,80 @@ public class Book {
     }
     public static void main2(String inFile, String outFile) throws IOException {
         List<Byte> binBook = createBinBook(inFile);
-        try (FileOutputStream out = new FileOutputStream(outFile)) {
-            int bookLen = binBook.size();
-            byte[] binBookA = new byte[bookLen];
-            for (int i = 0; i < bookLen; i++)
-                binBookA[i] = binBook.get(i);
-            out.write(binBookA);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(outFile)))) {
+            writeBookTable(binBook, out);
         }
     }
 
+    /**
+     * Replay the move sequences in binBook and write a table of all book
+     * positions and moves. The table format is:
+     *   int n       Number of entries
+     *   long[n]     Position hash keys, in increasing order
+     *   short[n]    Moves, encoded as from + (to << 6) + (prom << 12)
+     *   short[n]    Number of times the move occurs in the book, max 65535
+     * Entries with the same hash key are stored in the order they first
+     * occur in the book. Moves marked as bad are not included.
+     */
+    private static void writeBookTable(List<Byte> binBook, DataOutputStream out) throws IOException {
+        Map<Long, List<int[]>> bookMap = new HashMap<>();
+        try {
+            Position startPos = TextIO.readFEN(TextIO.startPosFEN);
+            Position pos = new Position(startPos);
+            UndoInfo ui = new UndoInfo();
+            int len = binBook.size();
+            for (int i = 0; i < len; i += 2) {
+                int move = ((binBook.get(i) & 255) << 8) + (binBook.get(i+1) & 255);
+                if (move == 0) {
+                    pos = new Position(startPos);
+                } else {
+                    boolean bad = ((move >> 15) & 1) != 0;
+                    int prom = (move >> 12) & 7;
+                    Move m = new Move(move & 63, (move >> 6) & 63,
+                                      promToPiece(prom, pos.whiteMove));
+                    if (!bad)
+                        addToBookMap(bookMap, pos.zobristHash(), move & 0x7fff);
+                    pos.makeMove(m, ui);
+                }
+            }
+        } catch (ChessParseError ex) {
+            throw new RuntimeException();
+        }
+
+        List<Long> keys = new ArrayList<>(bookMap.keySet());
+        Collections.sort(keys);
+        int n = 0;
+        for (Long key : keys)
+            n += bookMap.get(key).size();
+        out.writeInt(n);
+        for (Long key : keys)
+            for (int i = bookMap.get(key).size(); i > 0; i--)
+                out.writeLong(key);
+        for (Long key : keys)
+            for (int[] ent : bookMap.get(key))
+                out.writeShort(ent[0]);
+        for (Long key : keys)
+            for (int[] ent : bookMap.get(key))
+                out.writeShort(Math.min(ent[1], 65535));
+    }
+
+    /** Add a move to a position, or increase its count if already present. */
+    private static void addToBookMap(Map<Long, List<int[]>> bookMap, long key, int move) {
+        List<int[]> ent = bookMap.get(key);
+        if (ent == null) {
+            ent = new ArrayList<>();
+            bookMap.put(key, ent);
+        }
+        for (int[] e : ent) {
+            if (e[0] == move) {
+                e[1]++;
+                return;
+            }
+        }
+        ent.add(new int[]{move, 1});
+    }
+
     public static List<Byte> createBinBook(String inFileName) {
         List<Byte> binBook = new ArrayList<>(0);
         try (InputStream inStream = new FileInputStream(inFileName);
@@ -100,6 +170,16 @@ public class Book {
         return true;
     }
 
+    private static int promToPiece(int prom, boolean whiteMove) {
+        switch (prom) {
+        case 1: return whiteMove ? Piece.WQUEEN : Piece.BQUEEN;
+        case 2: return whiteMove ? Piece.WROOK  : Piece.BROOK;
+        case 3: return whiteMove ? Piece.WBISHOP : Piece.BBISHOP;
+        case 4: return whiteMove ? Piece.WKNIGHT : Piece.BKNIGHT;
+        default: return Piece.EMPTY;
+        }
+    }
+
     private static int pieceToProm(int p) {
         switch (p) {
         case Piece.WQUEEN: case Piece.BQUEEN: